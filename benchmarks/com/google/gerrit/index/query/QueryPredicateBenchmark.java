@@ -0,0 +1,154 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.index.query;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing a query string into a {@link Predicate} tree and evaluating that tree against
+ * candidate objects, as is done when post-filtering index results.
+ *
+ * <p>A minimal {@link QueryBuilder} over string maps is used so that the benchmark covers the
+ * generic parsing, operator dispatch and predicate tree evaluation, independent of the change
+ * specific predicates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class QueryPredicateBenchmark {
+  private static final ImmutableList<String> STATUSES = ImmutableList.of("new", "merged");
+  private static final ImmutableList<String> QUERIES =
+      ImmutableList.of(
+          "status:new",
+          "status:new owner:user1 -label:verified",
+          "(status:new OR status:merged) project:p1 (owner:user1 OR reviewer:user1) -owner:user2",
+          "status:new ((project:p1 OR project:p2 OR project:p3) (label:approved OR label:verified)"
+              + " -reviewer:user3 (owner:user1 OR owner:user2 OR owner:user3 OR owner:user4))");
+
+  @Param({"0", "1", "2", "3"})
+  public int query;
+
+  @Param({"1000"})
+  public int candidates;
+
+  private MapQueryBuilder queryBuilder;
+  private String queryString;
+  private Predicate<Map<String, String>> predicate;
+  private List<Map<String, String>> objects;
+
+  @Setup
+  public void setUp() throws Exception {
+    queryBuilder = new MapQueryBuilder();
+    queryString = QUERIES.get(query);
+    predicate = queryBuilder.parse(queryString);
+
+    Random random = new Random(42);
+    objects = new ArrayList<>(candidates);
+    for (int i = 0; i < candidates; i++) {
+      objects.add(
+          ImmutableMap.of(
+              "status", STATUSES.get(random.nextInt(STATUSES.size())),
+              "project", "p" + random.nextInt(5),
+              "owner", "user" + random.nextInt(5),
+              "reviewer", "user" + random.nextInt(5),
+              "label", random.nextBoolean() ? "approved" : "verified"));
+    }
+  }
+
+  @Benchmark
+  public Predicate<Map<String, String>> parse() throws Exception {
+    return queryBuilder.parse(queryString);
+  }
+
+  @Benchmark
+  public int match() {
+    Matchable<Map<String, String>> matchable = predicate.asMatchable();
+    int matches = 0;
+    for (Map<String, String> object : objects) {
+      if (matchable.match(object)) {
+        matches++;
+      }
+    }
+    return matches;
+  }
+
+  private static class MapQueryBuilder extends QueryBuilder<Map<String, String>, MapQueryBuilder> {
+    MapQueryBuilder() {
+      super(new QueryBuilder.Definition<>(MapQueryBuilder.class), null);
+    }
+
+    @Operator
+    public Predicate<Map<String, String>> status(String value) {
+      return new MapPredicate("status", value);
+    }
+
+    @Operator
+    public Predicate<Map<String, String>> project(String value) {
+      return new MapPredicate("project", value);
+    }
+
+    @Operator
+    public Predicate<Map<String, String>> owner(String value) {
+      return new MapPredicate("owner", value);
+    }
+
+    @Operator
+    public Predicate<Map<String, String>> reviewer(String value) {
+      return new MapPredicate("reviewer", value);
+    }
+
+    @Operator
+    public Predicate<Map<String, String>> label(String value) {
+      return new MapPredicate("label", value);
+    }
+  }
+
+  private static class MapPredicate extends OperatorPredicate<Map<String, String>>
+      implements Matchable<Map<String, String>> {
+    MapPredicate(String name, String value) {
+      super(name, value);
+    }
+
+    @Override
+    public boolean match(Map<String, String> object) {
+      return value.equals(object.get(name));
+    }
+
+    @Override
+    public int getCost() {
+      return 1;
+    }
+  }
+}
@@ -0,0 +1,221 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Table;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.LabelId;
+import com.google.gerrit.entities.PatchSet;
+import com.google.gerrit.entities.PatchSetApproval;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.index.Schema;
+import com.google.gerrit.index.SchemaFieldDefs.SchemaField;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.ReviewerSet;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.index.change.ChangeField;
+import com.google.gerrit.server.index.change.ChangeSchemaDefinitions;
+import com.google.gerrit.server.index.options.AutoFlush;
+import com.google.gerrit.server.notedb.ReviewerStateInternal;
+import com.google.gerrit.server.query.change.ChangeData;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the conversion of a {@link ChangeData} into a Lucene {@link Document} by {@link
+ * ChangeSubIndex}.
+ *
+ * <p>The {@link ChangeData} is fully pre-populated, so no NoteDb or diff I/O is involved. Fields
+ * that can only be computed by loading data from a repository (e.g. commit message, files,
+ * mergeability, submit records) are skipped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ChangeDocumentBenchmark {
+  private static final Project.NameKey PROJECT = Project.nameKey("benchmark/project");
+  private static final Instant START = Instant.parse("2022-01-01T00:00:00Z");
+
+  /** Fields that are computed from the data populated in {@link #newChangeData}. */
+  private static final ImmutableSet<SchemaField<ChangeData, ?>> POPULATED_FIELDS =
+      ImmutableSet.of(
+          ChangeField.LEGACY_ID_STR,
+          ChangeField.ID,
+          ChangeField.STATUS_SPEC,
+          ChangeField.PROJECT_SPEC,
+          ChangeField.PROJECTS_SPEC,
+          ChangeField.REF_SPEC,
+          ChangeField.UPDATED,
+          ChangeField.OWNER_SPEC,
+          ChangeField.UPLOADER_SPEC,
+          ChangeField.HASHTAG_SPEC,
+          ChangeField.FUZZY_HASHTAG,
+          ChangeField.PREFIX_HASHTAG,
+          ChangeField.HASHTAG_CASE_AWARE_SPEC,
+          ChangeField.REVIEWER_SPEC,
+          ChangeField.PATH_SPEC,
+          ChangeField.CHANGE,
+          ChangeField.APPROVAL,
+          ChangeField.PATCH_SET,
+          ChangeField.REVIEWEDBY,
+          ChangeField.ADDED_LINES_SPEC,
+          ChangeField.DELETED_LINES_SPEC,
+          ChangeField.DELTA_LINES_SPEC,
+          ChangeField.UNRESOLVED_COMMENT_COUNT_SPEC,
+          ChangeField.TOTAL_COMMENT_COUNT_SPEC);
+
+  @Param({"1", "25"})
+  public int patchSets;
+
+  @Param({"5", "50"})
+  public int reviewers;
+
+  @Param({"10", "1000"})
+  public int files;
+
+  private ChangeSubIndex index;
+  private ChangeData changeData;
+
+  @Setup
+  public void setUp() throws Exception {
+    Schema<ChangeData> schema = ChangeSchemaDefinitions.INSTANCE.getLatest();
+    ImmutableSet<String> populated =
+        POPULATED_FIELDS.stream().map(SchemaField::getName).collect(toImmutableSet());
+    ImmutableSet<String> skipFields =
+        schema.getSchemaFields().keySet().stream()
+            .filter(f -> !populated.contains(f))
+            .collect(toImmutableSet());
+    index =
+        new ChangeSubIndex(
+            schema,
+            new SitePaths(Files.createTempDirectory("gerrit-benchmark")),
+            new ByteBuffersDirectory(),
+            "open",
+            skipFields,
+            new GerritIndexWriterConfig(new Config(), "changes_open"),
+            new SearcherFactory(),
+            AutoFlush.ENABLED,
+            new LuceneIndexMetrics(new DisabledMetricMaker()));
+    changeData = newChangeData(new Random(42));
+  }
+
+  @TearDown
+  public void tearDown() {
+    index.close();
+  }
+
+  @Benchmark
+  public Document toDocument() {
+    return index.toDocument(changeData);
+  }
+
+  private ChangeData newChangeData(Random random) {
+    Change.Id id = Change.id(12345);
+    Account.Id owner = Account.id(1000000);
+    Change change =
+        new Change(
+            Change.key("I" + randomObjectId(random).name()),
+            id,
+            owner,
+            BranchNameKey.create(PROJECT, "master"),
+            START);
+    change.setCurrentPatchSet(PatchSet.id(id, patchSets), "Benchmark change", "Benchmark change");
+    change.setLastUpdatedOn(START.plusSeconds(3600));
+
+    ChangeData cd = ChangeData.createForTest(PROJECT, id, patchSets, randomObjectId(random));
+    cd.setChange(change);
+
+    List<PatchSet> ps = new ArrayList<>(patchSets);
+    for (int i = 1; i <= patchSets; i++) {
+      ps.add(
+          PatchSet.builder()
+              .id(PatchSet.id(id, i))
+              .commitId(randomObjectId(random))
+              .uploader(owner)
+              .createdOn(START.plusSeconds(i))
+              .build());
+    }
+    cd.setPatchSets(ps);
+
+    Table<ReviewerStateInternal, Account.Id, Instant> reviewerTable = HashBasedTable.create();
+    List<PatchSetApproval> approvals = new ArrayList<>(reviewers);
+    Set<Account.Id> reviewedBy = new HashSet<>();
+    for (int i = 1; i <= reviewers; i++) {
+      Account.Id reviewer = Account.id(1000000 + i);
+      reviewerTable.put(ReviewerStateInternal.REVIEWER, reviewer, START.plusSeconds(i));
+      approvals.add(
+          PatchSetApproval.builder()
+              .key(
+                  PatchSetApproval.key(
+                      PatchSet.id(id, patchSets), reviewer, LabelId.create("Code-Review")))
+              .value(random.nextInt(5) - 2)
+              .granted(START.plusSeconds(i))
+              .build());
+      reviewedBy.add(reviewer);
+    }
+    cd.setReviewers(ReviewerSet.fromTable(reviewerTable));
+    cd.setCurrentApprovals(approvals);
+    cd.setReviewedBy(reviewedBy);
+    cd.setHashtags(ImmutableSet.of("Benchmark", "Performance"));
+
+    List<String> paths = new ArrayList<>(files);
+    for (int i = 0; i < files; i++) {
+      paths.add("src/main/java/com/example/dir" + (i % 37) + "/File" + i + ".java");
+    }
+    cd.setCurrentFilePaths(paths);
+    cd.setChangedLines(10 * files, 3 * files);
+    cd.setUnresolvedCommentCount(2);
+    cd.setTotalCommentCount(10);
+    return cd;
+  }
+
+  private static ObjectId randomObjectId(Random random) {
+    byte[] bytes = new byte[20];
+    random.nextBytes(bytes);
+    return ObjectId.fromRaw(bytes);
+  }
+}
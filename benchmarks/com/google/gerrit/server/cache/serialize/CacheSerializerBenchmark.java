@@ -0,0 +1,129 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.serialize;
+
+import com.google.gerrit.server.cache.proto.Cache.AllExternalIdsProto;
+import com.google.gerrit.server.cache.proto.Cache.AllExternalIdsProto.ExternalIdProto;
+import com.google.gerrit.server.cache.proto.Cache.ChangeNotesKeyProto;
+import com.google.protobuf.ByteString;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link CacheSerializer} round trips for small keys and large values, as used by the
+ * persistent caches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CacheSerializerBenchmark {
+  private static final ProtobufSerializer<ChangeNotesKeyProto> KEY_SERIALIZER =
+      new ProtobufSerializer<>(ChangeNotesKeyProto.parser());
+  private static final ProtobufSerializer<AllExternalIdsProto> VALUE_SERIALIZER =
+      new ProtobufSerializer<>(AllExternalIdsProto.parser());
+
+  @Param({"1000", "100000"})
+  public int externalIds;
+
+  private ObjectId objectId;
+  private byte[] serializedObjectId;
+  private ChangeNotesKeyProto key;
+  private byte[] serializedKey;
+  private AllExternalIdsProto value;
+  private byte[] serializedValue;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    objectId = randomObjectId(random);
+    serializedObjectId = ObjectIdCacheSerializer.INSTANCE.serialize(objectId);
+
+    key =
+        ChangeNotesKeyProto.newBuilder()
+            .setProject("benchmark/project")
+            .setChangeId(12345)
+            .setId(ByteString.copyFrom(serializedObjectId))
+            .build();
+    serializedKey = KEY_SERIALIZER.serialize(key);
+
+    AllExternalIdsProto.Builder allExternalIds = AllExternalIdsProto.newBuilder();
+    for (int i = 0; i < externalIds; i++) {
+      allExternalIds.addExternalId(
+          ExternalIdProto.newBuilder()
+              .setKey("username:user" + i)
+              .setAccountId(1000000 + i)
+              .setEmail("user" + i + "@example.com")
+              .setBlobId(ByteString.copyFrom(randomBytes(random))));
+    }
+    value = allExternalIds.build();
+    serializedValue = VALUE_SERIALIZER.serialize(value);
+  }
+
+  @Benchmark
+  public ObjectId objectIdRoundTrip() {
+    return ObjectIdCacheSerializer.INSTANCE.deserialize(
+        ObjectIdCacheSerializer.INSTANCE.serialize(objectId));
+  }
+
+  @Benchmark
+  public ObjectId objectIdDeserialize() {
+    return ObjectIdCacheSerializer.INSTANCE.deserialize(serializedObjectId);
+  }
+
+  @Benchmark
+  public ChangeNotesKeyProto protoKeyRoundTrip() {
+    return KEY_SERIALIZER.deserialize(KEY_SERIALIZER.serialize(key));
+  }
+
+  @Benchmark
+  public ChangeNotesKeyProto protoKeyDeserialize() {
+    return KEY_SERIALIZER.deserialize(serializedKey);
+  }
+
+  @Benchmark
+  public byte[] protoValueSerialize() {
+    return VALUE_SERIALIZER.serialize(value);
+  }
+
+  @Benchmark
+  public AllExternalIdsProto protoValueDeserialize() {
+    return VALUE_SERIALIZER.deserialize(serializedValue);
+  }
+
+  private static ObjectId randomObjectId(Random random) {
+    return ObjectId.fromRaw(randomBytes(random));
+  }
+
+  private static byte[] randomBytes(Random random) {
+    byte[] bytes = new byte[20];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,116 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.cache.PerThreadCache;
+import com.google.gerrit.server.logging.LoggingContext;
+import com.google.gerrit.server.plugincontext.PluginContext.PluginMetrics;
+import com.google.gerrit.server.plugincontext.PluginMapContext;
+import com.google.gerrit.server.util.IdGenerator;
+import com.google.inject.Guice;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.eclipse.jgit.lib.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the throughput of SSH-like command queues on platform threads and on virtual threads,
+ * for requests that mostly block on I/O.
+ *
+ * <p>Each benchmark invocation submits a burst of requests that each block for {@link #blockMicros}
+ * to simulate Git and NoteDb reads, and use a {@link PerThreadCache} and the logging context like
+ * REST and SSH requests do. The virtual thread variants require a Java runtime with virtual
+ * threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class WorkQueueThreadsBenchmark {
+  private static final PerThreadCache.Key<Object> KEY = PerThreadCache.Key.create(Object.class);
+
+  @Param({"platform", "virtual"})
+  public String threads;
+
+  @Param({"32", "1024"})
+  public int poolSize;
+
+  @Param({"1000"})
+  public int requests;
+
+  @Param({"1000"})
+  public int blockMicros;
+
+  private WorkQueue workQueue;
+  private ScheduledThreadPoolExecutor executor;
+
+  @Setup
+  public void setUp() {
+    workQueue =
+        new WorkQueue(
+            Guice.createInjector().getInstance(IdGenerator.class),
+            new Config(),
+            2,
+            new DisabledMetricMaker(),
+            new PluginMapContext<>(DynamicMap.emptyMap(), PluginMetrics.DISABLED_INSTANCE));
+    executor =
+        threads.equals("virtual")
+            ? workQueue.createVirtualThreadQueue(poolSize, "Benchmark-Worker", false)
+            : workQueue.createQueue(poolSize, "Benchmark-Worker", false);
+    executor.prestartAllCoreThreads();
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.MINUTES);
+    workQueue.getDefaultQueue().shutdownNow();
+  }
+
+  @Benchmark
+  public void blockingRequests() throws InterruptedException {
+    CountDownLatch done = new CountDownLatch(requests);
+    for (int i = 0; i < requests; i++) {
+      executor.execute(
+          () -> {
+            try (PerThreadCache cache = PerThreadCache.create()) {
+              cache.get(KEY, Object::new);
+              LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(blockMicros));
+            } finally {
+              LoggingContext.getInstance().clear();
+              done.countDown();
+            }
+          });
+    }
+    done.await();
+  }
+}
@@ -0,0 +1,200 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.notedb;
+
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.account.externalids.DisabledExternalIdCache;
+import com.google.gerrit.server.notedb.ChangeNotesCommit.ChangeNotesRevWalk;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing a synthetic NoteDb meta ref with {@link ChangeNotesParser} and round-tripping
+ * the resulting {@link ChangeNotesState} through its cache serializer.
+ *
+ * <p>The meta ref is generated deterministically: one commit creates the change, every following
+ * commit carries a change message, and a configurable subset of the commits creates a new patch
+ * set or casts a vote.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ChangeNotesParserBenchmark {
+  private static final String SERVER_ID = "benchmark-server-id";
+  private static final Change.Id CHANGE_ID = Change.id(1);
+  private static final Instant START = Instant.parse("2022-01-01T00:00:00Z");
+  private static final int REVIEWERS = 10;
+
+  @Param({"10", "100"})
+  public int patchSets;
+
+  @Param({"100", "1000"})
+  public int messages;
+
+  private InMemoryRepository repo;
+  private ObjectId metaId;
+  private ChangeNoteJson changeNoteJson;
+  private NoteDbMetrics metrics;
+  private DisabledExternalIdCache externalIdCache;
+  private ChangeNotesState state;
+  private byte[] serializedState;
+
+  @Setup
+  public void setUp() throws Exception {
+    repo = new InMemoryRepository(new DfsRepositoryDescription("benchmark"));
+    changeNoteJson = new ChangeNoteJson();
+    metrics = new NoteDbMetrics(new DisabledMetricMaker());
+    externalIdCache = new DisabledExternalIdCache();
+    metaId = writeMetaRef();
+    state = parseAll();
+    serializedState = ChangeNotesState.Serializer.INSTANCE.serialize(state);
+  }
+
+  @Benchmark
+  public ChangeNotesState parseAll() throws Exception {
+    try (ChangeNotesRevWalk walk = ChangeNotesCommit.newRevWalk(repo)) {
+      return new ChangeNotesParser(
+              CHANGE_ID, metaId, walk, changeNoteJson, metrics, SERVER_ID, externalIdCache)
+          .parseAll();
+    }
+  }
+
+  @Benchmark
+  public byte[] serializeState() {
+    return ChangeNotesState.Serializer.INSTANCE.serialize(state);
+  }
+
+  @Benchmark
+  public ChangeNotesState deserializeState() {
+    return ChangeNotesState.Serializer.INSTANCE.deserialize(serializedState);
+  }
+
+  private ObjectId writeMetaRef() throws Exception {
+    Random random = new Random(42);
+    ObjectId parent = null;
+    try (ObjectInserter ins = repo.newObjectInserter()) {
+      ObjectId emptyTree = ins.insert(new TreeFormatter());
+      int patchSetInterval = Math.max(1, messages / patchSets);
+      int ps = 1;
+      for (int i = 0; i <= messages; i++) {
+        StringBuilder msg = new StringBuilder();
+        if (i == 0) {
+          msg.append("Create change\n\n")
+              .append("Uploaded patch set 1.\n\n")
+              .append("Patch-set: 1\n")
+              .append("Change-id: I")
+              .append(ObjectId.fromRaw(randomBytes(random)).name())
+              .append('\n')
+              .append("Subject: Benchmark change\n")
+              .append("Branch: refs/heads/master\n")
+              .append("Status: new\n")
+              .append("Commit: ")
+              .append(ObjectId.fromRaw(randomBytes(random)).name())
+              .append('\n');
+          for (int r = 2; r < REVIEWERS + 2; r++) {
+            msg.append("Reviewer: ").append(ident(Account.id(r))).append('\n');
+          }
+        } else if (i % patchSetInterval == 0 && ps < patchSets) {
+          ps++;
+          msg.append("Update patch set ")
+              .append(ps)
+              .append("\n\nUploaded patch set ")
+              .append(ps)
+              .append(".\n\nPatch-set: ")
+              .append(ps)
+              .append('\n')
+              .append("Subject: Benchmark change\n")
+              .append("Commit: ")
+              .append(ObjectId.fromRaw(randomBytes(random)).name())
+              .append('\n');
+        } else {
+          msg.append("Update patch set ")
+              .append(ps)
+              .append("\n\nPatch Set ")
+              .append(ps)
+              .append(":\n\nBenchmark message ")
+              .append(i)
+              .append(".\n\nPatch-set: ")
+              .append(ps)
+              .append('\n');
+          if (i % 3 == 0) {
+            msg.append("Label: Code-Review=").append(random.nextInt(5) - 2).append('\n');
+          }
+        }
+
+        Account.Id author = Account.id(i == 0 ? 1 : 1 + random.nextInt(REVIEWERS + 1));
+        Instant when = START.plusSeconds(i);
+        CommitBuilder cb = new CommitBuilder();
+        if (parent != null) {
+          cb.setParentId(parent);
+        }
+        cb.setAuthor(
+            new PersonIdent(
+                ChangeNoteUtil.getAccountIdAsUsername(author),
+                author.get() + "@" + SERVER_ID,
+                when,
+                ZoneOffset.UTC));
+        cb.setCommitter(new PersonIdent("Gerrit Server", "noreply@gerrit", when, ZoneOffset.UTC));
+        cb.setTreeId(emptyTree);
+        cb.setMessage(msg.toString());
+        parent = ins.insert(cb);
+      }
+      ins.flush();
+    }
+
+    RefUpdate ru = repo.updateRef(RefNames.changeMetaRef(CHANGE_ID));
+    ru.setNewObjectId(parent);
+    ru.setForceUpdate(true);
+    ru.update();
+    return parent;
+  }
+
+  private static String ident(Account.Id id) {
+    return ChangeNoteUtil.getAccountIdAsUsername(id) + " <" + id.get() + "@" + SERVER_ID + ">";
+  }
+
+  private static byte[] randomBytes(Random random) {
+    byte[] bytes = new byte[20];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,217 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.PatchSet;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.permissions.PermissionBackend.RefFilterOptions;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.gerrit.server.query.change.ChangeData;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-ref loop of {@link DefaultRefFilter#filterRefs} for a user that doesn't have
+ * {@code READ} on {@code refs/*}, which is the path taken for ref advertisements on large
+ * repositories.
+ *
+ * <p>Permission checks are stubbed out so that the benchmark isolates ref classification and the
+ * visible change lookup. Each change contributes one meta ref and {@code refsPerChange - 1} patch
+ * set refs; changes are spread over {@value #BRANCHES} branches of which every other one is
+ * readable, so half of the changes are visible.
+ *
+ * <p>The {@code visibleChanges*} benchmarks compare computing the visible changes with one
+ * permission check per change, as done without {@link ChangeVisibilityCache} (not counting the
+ * cost of loading the changes), against one permission check per branch into a bitmap, as done by
+ * {@link ChangeVisibilityCache} when there is no bitmap yet for the user's groups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DefaultRefFilterBenchmark {
+  private static final Project.NameKey PROJECT = Project.nameKey("benchmark");
+  private static final int BRANCHES = 100;
+
+  @Param({"10000", "100000"})
+  public int refs;
+
+  @Param({"4"})
+  public int refsPerChange;
+
+  private DefaultRefFilter refFilter;
+  private List<Ref> allRefs;
+  private Supplier<VisibleChanges> visibleChanges;
+  private Supplier<VisibleChanges> bitmapVisibleChanges;
+  private PermissionBackend.ForProject forProject;
+  private Map<Change.Id, String> destinations;
+  private ChangeVisibilityCache.ProjectChanges projectChanges;
+
+  @Setup
+  public void setUp() throws Exception {
+    Random random = new Random(42);
+    allRefs = new ArrayList<>(refs + BRANCHES);
+    ImmutableMap.Builder<Change.Id, ChangeData> visible = ImmutableMap.builder();
+    forProject = mock(PermissionBackend.ForProject.class);
+    for (int i = 0; i < BRANCHES; i++) {
+      String branch = RefNames.REFS_HEADS + "branch-" + i;
+      allRefs.add(ref(branch, random));
+      PermissionBackend.ForRef forRef = mock(PermissionBackend.ForRef.class);
+      when(forRef.test(RefPermission.READ)).thenReturn(i % 2 == 0);
+      when(forProject.ref(branch)).thenReturn(forRef);
+    }
+    int changes = refs / refsPerChange;
+    destinations = new HashMap<>();
+    Map<Change.Id, ChangeVisibilityCache.Entry> entries = new HashMap<>();
+    for (int i = 1; i <= changes; i++) {
+      Change.Id changeId = Change.id(i);
+      ObjectId commitId = randomObjectId(random);
+      Ref metaRef = ref(RefNames.changeMetaRef(changeId), random);
+      allRefs.add(metaRef);
+      for (int ps = 1; ps < refsPerChange; ps++) {
+        allRefs.add(ref(PatchSet.id(changeId, ps).toRefName(), random));
+      }
+      String branch = RefNames.REFS_HEADS + "branch-" + (i % BRANCHES);
+      destinations.put(changeId, branch);
+      entries.put(
+          changeId, ChangeVisibilityCache.Entry.create(metaRef.getObjectId(), branch, false));
+      if (i % 2 == 0) {
+        visible.put(changeId, ChangeData.createForTest(PROJECT, changeId, 1, commitId));
+      }
+    }
+    visibleChanges = Suppliers.ofInstance(VisibleChanges.of(visible.build()));
+    projectChanges = ChangeVisibilityCache.ProjectChanges.create(null, entries);
+    bitmapVisibleChanges =
+        Suppliers.ofInstance(
+            new ChangeVisibilityCache.BitmapVisibleChanges(
+                PROJECT,
+                projectChanges,
+                entries.keySet(),
+                projectChanges.computeVisible(forProject).changes,
+                ImmutableSet.of()));
+
+    CurrentUser user = mock(CurrentUser.class);
+    ProjectState projectState = mock(ProjectState.class);
+    when(projectState.getNameKey()).thenReturn(PROJECT);
+    when(projectState.statePermitsRead()).thenReturn(true);
+    when(projectState.isAllUsers()).thenReturn(false);
+
+    ProjectControl projectControl = mock(ProjectControl.class);
+    when(projectControl.getUser()).thenReturn(user);
+    when(projectControl.getProjectState()).thenReturn(projectState);
+    when(projectControl.allRefsAreVisible(any())).thenReturn(false);
+
+    when(forProject.test(ProjectPermission.READ)).thenReturn(false);
+    PermissionBackend.WithUser withUser = mock(PermissionBackend.WithUser.class);
+    when(withUser.project(PROJECT)).thenReturn(forProject);
+    when(withUser.testOrFalse(GlobalPermission.ACCESS_DATABASE)).thenReturn(false);
+    PermissionBackend permissionBackend = mock(PermissionBackend.class);
+    when(permissionBackend.user(user)).thenReturn(withUser);
+
+    RefVisibilityControl refVisibilityControl = mock(RefVisibilityControl.class);
+    when(refVisibilityControl.isVisible(any(), anyString())).thenReturn(true);
+
+    refFilter =
+        new DefaultRefFilter(
+            null,
+            permissionBackend,
+            refVisibilityControl,
+            new Config(),
+            new DisabledMetricMaker(),
+            null,
+            null,
+            null,
+            null,
+            projectControl);
+  }
+
+  @Benchmark
+  public int filterRefs() throws Exception {
+    return refFilter
+        .filterRefs(new ArrayList<>(allRefs), RefFilterOptions.defaults(), visibleChanges)
+        .visibleRefs()
+        .size();
+  }
+
+  @Benchmark
+  public int filterRefsWithBitmap() throws Exception {
+    return refFilter
+        .filterRefs(new ArrayList<>(allRefs), RefFilterOptions.defaults(), bitmapVisibleChanges)
+        .visibleRefs()
+        .size();
+  }
+
+  @Benchmark
+  public int visibleChangesPerChange() throws Exception {
+    Set<Change.Id> visible = new HashSet<>();
+    for (Map.Entry<Change.Id, String> e : destinations.entrySet()) {
+      if (forProject.ref(e.getValue()).test(RefPermission.READ)) {
+        visible.add(e.getKey());
+      }
+    }
+    return visible.size();
+  }
+
+  @Benchmark
+  public int visibleChangesBitmap() throws Exception {
+    return projectChanges.computeVisible(forProject).changes.cardinality();
+  }
+
+  private static Ref ref(String name, Random random) {
+    return new ObjectIdRef.PeeledNonTag(Ref.Storage.PACKED, name, randomObjectId(random));
+  }
+
+  private static ObjectId randomObjectId(Random random) {
+    byte[] bytes = new byte[20];
+    random.nextBytes(bytes);
+    return ObjectId.fromRaw(bytes);
+  }
+}
@@ -0,0 +1,40 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.extensions.restapi;
+
+import java.io.IOException;
+
+/**
+ * Result of a view that is serialized as JSON while it is produced.
+ *
+ * <p>Views with large results may return this instead of building the full result up front, so
+ * that each element is written to the response as soon as it is computed and can be garbage
+ * collected afterwards. Since the response is committed once the first elements are written,
+ * failures while writing can no longer be reported with an error status.
+ */
+@FunctionalInterface
+public interface StreamingResult {
+  /** Receives the JSON structure of the result in order. */
+  interface Writer {
+    void beginArray() throws IOException;
+
+    /** Writes an element, serialized the same way as a non-streaming result would be. */
+    void value(Object value) throws IOException;
+
+    void endArray() throws IOException;
+  }
+
+  void writeTo(Writer writer) throws Exception;
+}
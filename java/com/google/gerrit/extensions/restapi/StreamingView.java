@@ -0,0 +1,29 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.extensions.restapi;
+
+/**
+ * A view whose REST responses may be written while they are produced, see {@link StreamingResult}.
+ *
+ * <p>{@link #apply} still returns the fully built result, so that callers of the view other than
+ * the REST API are not affected.
+ */
+public interface StreamingView<R extends RestResource> extends RestReadView<R> {
+  /** Whether REST requests are served by {@link #applyStreaming} rather than {@link #apply}. */
+  boolean isStreaming();
+
+  /** Returns the same result as {@link #apply}, written while it is produced. */
+  Response<StreamingResult> applyStreaming(R resource) throws Exception;
+}
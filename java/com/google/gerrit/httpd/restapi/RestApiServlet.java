@@ -96,6 +96,8 @@ import com.google.gerrit.extensions.restapi.RestModifyView;
 import com.google.gerrit.extensions.restapi.RestReadView;
 import com.google.gerrit.extensions.restapi.RestResource;
 import com.google.gerrit.extensions.restapi.RestView;
+import com.google.gerrit.extensions.restapi.StreamingResult;
+import com.google.gerrit.extensions.restapi.StreamingView;
 import com.google.gerrit.extensions.restapi.TopLevelResource;
 import com.google.gerrit.extensions.restapi.UnprocessableEntityException;
 import com.google.gerrit.extensions.restapi.Url;
@@ -644,6 +646,8 @@ public class RestApiServlet extends HttpServlet {
             Object value = Response.unwrap(response);
             if (value instanceof BinaryResult) {
               responseBytes = replyBinaryResult(req, res, (BinaryResult) value);
+            } else if (value instanceof StreamingResult) {
+              responseBytes = replyJsonStream(req, res, qp.config(), (StreamingResult) value);
             } else {
               responseBytes = replyJson(req, res, false, qp.config(), value);
             }
@@ -891,6 +895,16 @@ public class RestApiServlet extends HttpServlet {
       RestReadView<RestResource> view,
       RestResource rsrc)
       throws Exception {
+    if (view instanceof StreamingView<?> && ((StreamingView<?>) view).isStreaming()) {
+      @SuppressWarnings("unchecked")
+      StreamingView<RestResource> streamingView = (StreamingView<RestResource>) view;
+      return invokeRestEndpointWithRetry(
+          req,
+          traceContext,
+          getViewName(viewData),
+          ActionType.REST_READ_REQUEST,
+          () -> streamingView.applyStreaming(rsrc));
+    }
     return invokeRestEndpointWithRetry(
         req,
         traceContext,
@@ -1456,6 +1470,70 @@ public class RestApiServlet extends HttpServlet {
         req, res, asBinaryResult(buf).setContentType(JSON_TYPE).setCharacterEncoding(UTF_8));
   }
 
+  /**
+   * Sets a JSON reply on the given HTTP servlet response that is written while the result is
+   * produced.
+   *
+   * <p>Unlike {@link #replyJson}, the reply isn't buffered: it is sent without content length, and
+   * compressed on the fly if the client accepts gzip.
+   *
+   * @param req the HTTP servlet request
+   * @param res the HTTP servlet response on which the reply should be set
+   * @param config config parameters for the JSON formatting
+   * @param result the result that should be formatted as JSON
+   * @return the length of the response
+   */
+  @SuppressWarnings("resource")
+  static long replyJsonStream(
+      @Nullable HttpServletRequest req,
+      HttpServletResponse res,
+      ListMultimap<String, String> config,
+      StreamingResult result)
+      throws Exception {
+    res.setContentType(JSON_TYPE);
+    res.setCharacterEncoding(UTF_8.name());
+    if (req != null && "HEAD".equals(req.getMethod())) {
+      return 0;
+    }
+
+    boolean gzip = acceptsGzip(req);
+    if (gzip) {
+      res.setHeader("Content-Encoding", "gzip");
+    }
+    try (CountingOutputStream dst = new CountingOutputStream(res.getOutputStream())) {
+      GZIPOutputStream gz = gzip ? new GZIPOutputStream(dst) : null;
+      OutputStream out = gz != null ? gz : dst;
+      out.write(JSON_MAGIC);
+      Writer w = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+      Gson gson = newGson(config);
+      JsonWriter json = gson.newJsonWriter(w);
+      result.writeTo(
+          new StreamingResult.Writer() {
+            @Override
+            public void beginArray() throws IOException {
+              json.beginArray();
+            }
+
+            @Override
+            public void value(Object value) throws IOException {
+              gson.toJson(value, value.getClass(), json);
+            }
+
+            @Override
+            public void endArray() throws IOException {
+              json.endArray();
+            }
+          });
+      json.flush();
+      w.write('\n');
+      w.flush();
+      if (gz != null) {
+        gz.finish();
+      }
+      return dst.getCount();
+    }
+  }
+
   private static Gson newGson(ListMultimap<String, String> config) {
     GsonBuilder gb = OutputFormat.JSON_COMPACT.newGsonBuilder();
 
@@ -60,6 +60,7 @@ public abstract class SiteIndexer<K, V, I extends Index<K, V>> {
   protected int totalWork = -1;
   protected OutputStream progressOut = NullOutputStream.INSTANCE;
   protected PrintWriter verboseWriter = newPrintWriter(NullOutputStream.INSTANCE);
+  protected boolean resume;
 
   public void setTotalWork(int num) {
     totalWork = num;
@@ -73,6 +74,22 @@ public abstract class SiteIndexer<K, V, I extends Index<K, V>> {
     verboseWriter = newPrintWriter(requireNonNull(out));
   }
 
+  /**
+   * Makes the next {@link #indexAll(Index)} resume from the checkpoint of an earlier, interrupted
+   * run, skipping the entities that were already indexed then. The caller must not have cleared the
+   * index in the meantime.
+   *
+   * <p>Has no effect unless {@link #hasCheckpoint(Index)} returns {@code true}.
+   */
+  public void setResume(boolean resume) {
+    this.resume = resume;
+  }
+
+  /** Returns whether an earlier, interrupted run left a checkpoint to resume from. */
+  public boolean hasCheckpoint(I index) {
+    return false;
+  }
+
   /** Indexes all entities for the provided index. */
   public abstract Result indexAll(I index);
 
@@ -30,6 +30,7 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.exceptions.StorageException;
@@ -43,6 +44,7 @@ import com.google.gerrit.index.query.DataSource;
 import com.google.gerrit.index.query.FieldBundle;
 import com.google.gerrit.index.query.ListResultSet;
 import com.google.gerrit.index.query.ResultSet;
+import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.index.IndexUtils;
 import com.google.gerrit.server.index.options.AutoFlush;
@@ -50,8 +52,11 @@ import com.google.gerrit.server.logging.LoggingContextAwareExecutorService;
 import com.google.gerrit.server.logging.LoggingContextAwareScheduledExecutorService;
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
@@ -60,6 +65,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
@@ -96,15 +102,41 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
   private final SitePaths sitePaths;
   private final Directory dir;
   private final String name;
+  private final String index;
   private final ImmutableSet<String> skipFields;
   private final ListeningExecutorService writerThread;
-  private final IndexWriter writer;
+  private final AutoCommitWriter writer;
   private final ReferenceManager<IndexSearcher> searcherManager;
   private final ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
   private final Set<NrtFuture> notDoneNrtFutures;
   private final AutoFlush autoFlush;
+  private final LuceneIndexMetrics metrics;
+  private final boolean refreshOnSearch;
   private ScheduledExecutorService autoCommitExecutor;
 
+  // Sequence number of the latest write whose future has completed.
+  private final AtomicLong completedGeneration = new AtomicLong();
+
+  // Sequence number of the latest write that is visible to the current searcher.
+  private volatile long searchingGeneration;
+
+  // Serializes the refreshes that are done by searches, so that concurrent searches that need
+  // the same writes don't refresh one after the other.
+  private final Object searchRefreshLock = new Object();
+
+  // Protects pendingWrites, coalescableWrites and writeScheduled.
+  private final Object pendingWritesLock = new Object();
+
+  // Writes that have not been applied yet, in order.
+  private List<PendingWrite> pendingWrites = new ArrayList<>();
+
+  // Pending writes by the term of the document they write. Later writes of the same document
+  // replace the pending write, instead of being applied separately.
+  private Map<Term, PendingWrite> coalescableWrites = new HashMap<>();
+
+  // Whether a task to apply the pending writes has been submitted to the writer thread.
+  private boolean writeScheduled;
+
   @SuppressWarnings("ThreadPriorityCheck")
   AbstractLuceneIndex(
       Schema<V> schema,
@@ -115,7 +147,8 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
       String subIndex,
       GerritIndexWriterConfig writerConfig,
       SearcherFactory searcherFactory,
-      AutoFlush autoFlush)
+      AutoFlush autoFlush,
+      LuceneIndexMetrics metrics)
       throws IOException {
     this.schema = schema;
     this.sitePaths = sitePaths;
@@ -123,7 +156,9 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
     this.name = name;
     this.skipFields = skipFields;
     this.autoFlush = autoFlush;
-    String index = Joiner.on('_').skipNulls().join(name, subIndex);
+    this.metrics = metrics;
+    this.refreshOnSearch = writerConfig.isRefreshOnSearch() && autoFlush.equals(AutoFlush.ENABLED);
+    this.index = Joiner.on('_').skipNulls().join(name, subIndex);
     long commitPeriod = writerConfig.getCommitWithinMs();
 
     if (commitPeriod < 0) {
@@ -188,7 +223,8 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
         new ControlledRealTimeReopenThread<>(
             writer,
             searcherManager,
-            0.500 /* maximum stale age (seconds) */,
+            // The maximum stale age must not be below the minimum stale age.
+            Math.max(writerConfig.getMaxStalenessMs(), 10) / 1000.0 /* max stale age (seconds) */,
             0.010 /* minimum stale age (seconds) */);
     reopenThread.setName(index + " NRT");
     reopenThread.setPriority(
@@ -205,11 +241,18 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
     // http://issues.apache.org/jira/browse/LUCENE-5461
     searcherManager.addListener(
         new RefreshListener() {
+          private long refreshStartGeneration;
+
           @Override
-          public void beforeRefresh() throws IOException {}
+          public void beforeRefresh() throws IOException {
+            refreshStartGeneration = completedGeneration.get();
+          }
 
           @Override
           public void afterRefresh(boolean didRefresh) throws IOException {
+            // Refreshes are serialized by the searcher manager, hence only one refresh updates
+            // the generation at a time.
+            searchingGeneration = Math.max(searchingGeneration, refreshStartGeneration);
             for (NrtFuture f : notDoneNrtFutures) {
               f.removeIfDone();
             }
@@ -271,19 +314,77 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
   }
 
   ListenableFuture<?> insert(Document doc) {
-    return submit(() -> writer.addDocument(doc));
+    return submit(null, () -> writer.addDocument(doc));
   }
 
   ListenableFuture<?> replace(Term term, Document doc) {
-    return submit(() -> writer.updateDocument(term, doc));
+    return submit(term, () -> writer.updateDocument(term, doc));
   }
 
   ListenableFuture<?> delete(Term term) {
-    return submit(() -> writer.deleteDocuments(term));
+    return submit(term, () -> writer.deleteDocuments(term));
   }
 
-  private ListenableFuture<?> submit(Callable<Long> task) {
-    ListenableFuture<Long> future = Futures.nonCancellationPropagating(writerThread.submit(task));
+  /**
+   * Schedules a write to the index.
+   *
+   * <p>Writes are applied in batches by the writer thread. All writes that are submitted while a
+   * batch is applied are applied together in the next batch, so that concurrent writers don't
+   * serialize on the index writer and, if the index is committed after every write, share the
+   * commit. If the same document is written multiple times before the writes are applied, only the
+   * last write is applied.
+   *
+   * @param term the term identifying the written document, null if the write must not be coalesced
+   *     with other writes
+   * @param write the write
+   */
+  private ListenableFuture<?> submit(@Nullable Term term, Write write) {
+    SettableFuture<Long> generation = SettableFuture.create();
+    boolean schedule;
+    synchronized (pendingWritesLock) {
+      PendingWrite pendingWrite = term != null ? coalescableWrites.get(term) : null;
+      if (pendingWrite != null) {
+        pendingWrite.supersede(write, generation);
+        metrics.coalescedWriteCount.increment(index);
+      } else {
+        pendingWrite = new PendingWrite(write, generation);
+        pendingWrites.add(pendingWrite);
+        if (term != null) {
+          coalescableWrites.put(term, pendingWrite);
+        } else {
+          // Later writes must not be applied before this write.
+          coalescableWrites.clear();
+        }
+      }
+      schedule = !writeScheduled;
+      writeScheduled = true;
+    }
+    if (schedule) {
+      try {
+        writerThread.execute(this::writePending);
+      } catch (RuntimeException e) {
+        // No task applies the pending writes, which includes this write and any write that was
+        // submitted since it was added, hence fail them all.
+        List<PendingWrite> rejected;
+        synchronized (pendingWritesLock) {
+          rejected = pendingWrites;
+          pendingWrites = new ArrayList<>();
+          coalescableWrites = new HashMap<>();
+          writeScheduled = false;
+        }
+        for (PendingWrite pendingWrite : rejected) {
+          pendingWrite.fail(e);
+          pendingWrite.complete();
+        }
+        throw e;
+      }
+    }
+
+    ListenableFuture<Long> future = Futures.nonCancellationPropagating(generation);
+    if (refreshOnSearch) {
+      // The next search that runs after the write refreshes the searcher, see acquire().
+      return Futures.transform(future, gen -> null, directExecutor());
+    }
     return Futures.transformAsync(
         future,
         gen -> {
@@ -295,10 +396,98 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
         directExecutor());
   }
 
+  /** Applies all pending writes. Must only be called by the writer thread. */
+  private void writePending() {
+    List<PendingWrite> batch;
+    synchronized (pendingWritesLock) {
+      batch = pendingWrites;
+      pendingWrites = new ArrayList<>();
+      coalescableWrites = new HashMap<>();
+      writeScheduled = false;
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    metrics.writeBatchSize.record(index, batch.size());
+    try (Timer1.Context<String> ignored = metrics.writeBatchLatency.start(index)) {
+      writer.write(
+          () -> {
+            for (PendingWrite pendingWrite : batch) {
+              pendingWrite.apply();
+            }
+          });
+    } catch (IOException | RuntimeException e) {
+      // The batch could not be flushed or committed.
+      batch.forEach(pendingWrite -> pendingWrite.fail(e));
+    }
+    // Searches must see the writes once their futures are done.
+    for (PendingWrite pendingWrite : batch) {
+      if (pendingWrite.failure == null) {
+        updateCompletedGeneration(pendingWrite.generation);
+      }
+    }
+    batch.forEach(PendingWrite::complete);
+    metrics.writeCount.incrementBy(index, batch.size());
+  }
+
+  /** A write to the index, returning the sequence number of the write. */
+  @FunctionalInterface
+  private interface Write {
+    long apply() throws IOException;
+  }
+
+  /** A write that is waiting to be applied, together with the futures of all writes it replaces. */
+  private static class PendingWrite {
+    private final List<SettableFuture<Long>> futures = new ArrayList<>(1);
+    private Write write;
+    private long generation;
+    @Nullable private Exception failure;
+
+    PendingWrite(Write write, SettableFuture<Long> future) {
+      this.write = write;
+      futures.add(future);
+    }
+
+    void supersede(Write write, SettableFuture<Long> future) {
+      this.write = write;
+      futures.add(future);
+    }
+
+    void apply() {
+      try {
+        generation = write.apply();
+      } catch (IOException | RuntimeException e) {
+        // Fail the futures of this write only, the other writes of the batch can still succeed.
+        failure = e;
+      }
+    }
+
+    void fail(Exception e) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+
+    void complete() {
+      for (SettableFuture<Long> future : futures) {
+        if (failure != null) {
+          future.setException(failure);
+        } else {
+          future.set(generation);
+        }
+      }
+    }
+  }
+
+  private void updateCompletedGeneration(long generation) {
+    completedGeneration.accumulateAndGet(generation, Math::max);
+  }
+
   @Override
   public void deleteAll() {
     try {
-      writer.deleteAll();
+      updateCompletedGeneration(writer.deleteAll());
     } catch (IOException e) {
       throw new StorageException(e);
     }
@@ -309,9 +498,27 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
   }
 
   IndexSearcher acquire() throws IOException {
+    if (refreshOnSearch) {
+      refreshIfStale();
+    }
     return searcherManager.acquire();
   }
 
+  /** Refreshes the searcher if it doesn't see all writes that have completed so far. */
+  private void refreshIfStale() throws IOException {
+    long generation = completedGeneration.get();
+    if (searchingGeneration >= generation) {
+      return;
+    }
+    synchronized (searchRefreshLock) {
+      if (searchingGeneration < generation) {
+        try (Timer1.Context<String> ignored = metrics.searchRefreshLatency.start(index)) {
+          searcherManager.maybeRefreshBlocking();
+        }
+      }
+    }
+  }
+
   void release(IndexSearcher searcher) throws IOException {
     searcherManager.release(searcher);
   }
@@ -25,7 +25,14 @@ import org.apache.lucene.store.Directory;
 
 /** Writer that optionally flushes/commits after every write. */
 public class AutoCommitWriter extends IndexWriter {
+  /** Writes to the index that are applied together. */
+  @FunctionalInterface
+  interface Batch {
+    void apply() throws IOException;
+  }
+
   private boolean autoCommit;
+  private volatile Thread batchThread;
 
   AutoCommitWriter(Directory dir, IndexWriterConfig config) throws IOException {
     this(dir, config, false);
@@ -107,6 +114,20 @@ public class AutoCommitWriter extends IndexWriter {
     return ret;
   }
 
+  /**
+   * Applies the given batch of writes. If auto commit is enabled, flushes and commits only once
+   * after all writes of the batch have been applied.
+   */
+  void write(Batch batch) throws IOException {
+    batchThread = Thread.currentThread();
+    try {
+      batch.apply();
+    } finally {
+      batchThread = null;
+    }
+    autoFlush();
+  }
+
   void manualFlush() throws IOException {
     flush();
     if (autoCommit) {
@@ -115,7 +136,7 @@ public class AutoCommitWriter extends IndexWriter {
   }
 
   public void autoFlush() throws IOException {
-    if (autoCommit) {
+    if (autoCommit && batchThread != Thread.currentThread()) {
       manualFlush();
     }
   }
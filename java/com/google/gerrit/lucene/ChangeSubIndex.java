@@ -38,14 +38,18 @@ import com.google.gerrit.server.query.change.ChangeData;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.sql.Timestamp;
+import java.util.Set;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.SearcherFactory;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 
 public class ChangeSubIndex extends AbstractLuceneIndex<Change.Id, ChangeData>
     implements ChangeIndex {
+  private final StoredFieldCache storedFieldCache;
+
   ChangeSubIndex(
       Schema<ChangeData> schema,
       SitePaths sitePaths,
@@ -53,7 +57,8 @@ public class ChangeSubIndex extends AbstractLuceneIndex<Change.Id, ChangeData>
       ImmutableSet<String> skipFields,
       GerritIndexWriterConfig writerConfig,
       SearcherFactory searcherFactory,
-      AutoFlush autoFlush)
+      AutoFlush autoFlush,
+      LuceneIndexMetrics metrics)
       throws IOException {
     this(
         schema,
@@ -63,7 +68,8 @@ public class ChangeSubIndex extends AbstractLuceneIndex<Change.Id, ChangeData>
         skipFields,
         writerConfig,
         searcherFactory,
-        autoFlush);
+        autoFlush,
+        metrics);
   }
 
   ChangeSubIndex(
@@ -74,7 +80,8 @@ public class ChangeSubIndex extends AbstractLuceneIndex<Change.Id, ChangeData>
       ImmutableSet<String> skipFields,
       GerritIndexWriterConfig writerConfig,
       SearcherFactory searcherFactory,
-      AutoFlush autoFlush)
+      AutoFlush autoFlush,
+      LuceneIndexMetrics metrics)
       throws IOException {
     super(
         schema,
@@ -85,7 +92,11 @@ public class ChangeSubIndex extends AbstractLuceneIndex<Change.Id, ChangeData>
         subIndex,
         writerConfig,
         searcherFactory,
-        autoFlush);
+        autoFlush,
+        metrics);
+    storedFieldCache =
+        StoredFieldCache.create(
+            NAME + "_" + subIndex, writerConfig.getStoredFieldCacheSize(), metrics);
   }
 
   @Override
@@ -109,6 +120,11 @@ public class ChangeSubIndex extends AbstractLuceneIndex<Change.Id, ChangeData>
     throw new UnsupportedOperationException("don't use ChangeSubIndex directly");
   }
 
+  /** Returns the given stored fields of a document that was found by the given searcher. */
+  Document doc(IndexSearcher searcher, int docId, Set<String> fields) throws IOException {
+    return storedFieldCache.doc(searcher, docId, fields);
+  }
+
   // Make method public so that it can be used in LuceneChangeIndex
   @Override
   public FieldBundle toFieldBundle(Document doc) {
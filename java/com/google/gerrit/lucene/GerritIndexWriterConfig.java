@@ -33,6 +33,9 @@ class GerritIndexWriterConfig {
 
   private final IndexWriterConfig luceneConfig;
   private long commitWithinMs;
+  private final long maxStalenessMs;
+  private final boolean refreshOnSearch;
+  private final long storedFieldCacheSize;
   private final CustomMappingAnalyzer analyzer;
 
   GerritIndexWriterConfig(Config cfg, String name) {
@@ -75,6 +78,9 @@ class GerritIndexWriterConfig {
     } catch (IllegalArgumentException e) {
       commitWithinMs = cfg.getLong("index", name, "commitWithin", 0);
     }
+    maxStalenessMs = ConfigUtil.getTimeUnit(cfg, "index", name, "maxStaleness", 500, MILLISECONDS);
+    refreshOnSearch = cfg.getBoolean("index", name, "refreshOnSearch", false);
+    storedFieldCacheSize = cfg.getLong("index", name, "storedFieldCacheSize", 0);
   }
 
   CustomMappingAnalyzer getAnalyzer() {
@@ -88,4 +94,25 @@ class GerritIndexWriterConfig {
   long getCommitWithinMs() {
     return commitWithinMs;
   }
+
+  /**
+   * Returns the maximum time after which a write becomes visible to searches, if nobody waits for
+   * the write.
+   */
+  long getMaxStalenessMs() {
+    return maxStalenessMs;
+  }
+
+  /**
+   * Whether searches refresh the searcher if it doesn't see all completed writes yet, instead of
+   * writes waiting until the searcher is refreshed.
+   */
+  boolean isRefreshOnSearch() {
+    return refreshOnSearch;
+  }
+
+  /** Returns the maximum size of the stored fields that are cached, 0 if nothing is cached. */
+  long getStoredFieldCacheSize() {
+    return storedFieldCacheSize;
+  }
 }
@@ -97,7 +97,8 @@ public class LuceneAccountIndex extends AbstractLuceneIndex<Account.Id, AccountS
       SitePaths sitePaths,
       Provider<AccountCache> accountCache,
       @Assisted Schema<AccountState> schema,
-      AutoFlush autoFlush)
+      AutoFlush autoFlush,
+      LuceneIndexMetrics metrics)
       throws IOException {
     super(
         schema,
@@ -108,7 +109,8 @@ public class LuceneAccountIndex extends AbstractLuceneIndex<Account.Id, AccountS
         null,
         new GerritIndexWriterConfig(cfg, ACCOUNTS),
         new SearcherFactory(),
-        autoFlush);
+        autoFlush,
+        metrics);
     this.accountCache = accountCache;
 
     indexWriterConfig = new GerritIndexWriterConfig(cfg, ACCOUNTS);
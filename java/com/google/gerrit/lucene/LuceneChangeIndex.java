@@ -77,6 +77,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.function.Function;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.Term;
@@ -121,6 +122,7 @@ public class LuceneChangeIndex implements ChangeIndex {
   }
 
   private final ListeningExecutorService executor;
+  private final SearchExecutor searchExecutor;
   private final ChangeData.Factory changeDataFactory;
   private final Schema<ChangeData> schema;
   private final QueryBuilder<ChangeData> queryBuilder;
@@ -135,9 +137,11 @@ public class LuceneChangeIndex implements ChangeIndex {
       @IndexExecutor(INTERACTIVE) ListeningExecutorService executor,
       ChangeData.Factory changeDataFactory,
       @Assisted Schema<ChangeData> schema,
-      AutoFlush autoFlush)
+      AutoFlush autoFlush,
+      LuceneIndexMetrics metrics)
       throws IOException {
     this.executor = executor;
+    this.searchExecutor = new SearchExecutor(executor);
     this.changeDataFactory = changeDataFactory;
     this.schema = schema;
     this.skipFields =
@@ -150,7 +154,8 @@ public class LuceneChangeIndex implements ChangeIndex {
 
     queryBuilder = new QueryBuilder<>(schema, openConfig.getAnalyzer());
 
-    SearcherFactory searcherFactory = new SearcherFactory();
+    SearcherFactory openSearcherFactory = newSearcherFactory(cfg, "changes_open");
+    SearcherFactory closedSearcherFactory = newSearcherFactory(cfg, "changes_closed");
     if (LuceneIndexModule.isInMemoryTest(cfg)) {
       openIndex =
           new ChangeSubIndex(
@@ -160,8 +165,9 @@ public class LuceneChangeIndex implements ChangeIndex {
               "ramOpen",
               skipFields,
               openConfig,
-              searcherFactory,
-              autoFlush);
+              openSearcherFactory,
+              autoFlush,
+              metrics);
       closedIndex =
           new ChangeSubIndex(
               schema,
@@ -170,8 +176,9 @@ public class LuceneChangeIndex implements ChangeIndex {
               "ramClosed",
               skipFields,
               closedConfig,
-              searcherFactory,
-              autoFlush);
+              closedSearcherFactory,
+              autoFlush,
+              metrics);
     } else {
       Path dir = LuceneVersionManager.getDir(sitePaths, CHANGES, schema);
       openIndex =
@@ -181,8 +188,9 @@ public class LuceneChangeIndex implements ChangeIndex {
               dir.resolve(CHANGES_OPEN),
               skipFields,
               openConfig,
-              searcherFactory,
-              autoFlush);
+              openSearcherFactory,
+              autoFlush,
+              metrics);
       closedIndex =
           new ChangeSubIndex(
               schema,
@@ -190,11 +198,28 @@ public class LuceneChangeIndex implements ChangeIndex {
               dir.resolve(CHANGES_CLOSED),
               skipFields,
               closedConfig,
-              searcherFactory,
-              autoFlush);
+              closedSearcherFactory,
+              autoFlush,
+              metrics);
     }
   }
 
+  /**
+   * Returns the factory for the searchers of a sub-index. If parallel search is enabled, the
+   * segments of the sub-index are searched concurrently.
+   */
+  private SearcherFactory newSearcherFactory(Config cfg, String name) {
+    if (!cfg.getBoolean("index", name, "parallelSearch", false)) {
+      return new SearcherFactory();
+    }
+    return new SearcherFactory() {
+      @Override
+      public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+        return new IndexSearcher(reader, searchExecutor);
+      }
+    };
+  }
+
   @Override
   public void close() {
     try {
@@ -399,12 +424,16 @@ public class LuceneChangeIndex implements ChangeIndex {
         if (Integer.MAX_VALUE - opts.pageSize() < opts.start()) {
           realPageSize = Integer.MAX_VALUE;
         }
-        List<TopFieldDocs> hits = new ArrayList<>();
-        int searchAfterHitsCount = 0;
         for (int i = 0; i < indexes.size(); i++) {
-          ChangeSubIndex subIndex = indexes.get(i);
-          searchers[i] = subIndex.acquire();
-          if (isSearchAfterPagination) {
+          searchers[i] = indexes.get(i).acquire();
+        }
+        List<TopFieldDocs> hits = new ArrayList<>();
+        if (isSearchAfterPagination) {
+          // The number of hits that are needed from a sub-index depends on the number of hits in
+          // the previous sub-indexes, hence they are searched one after the other.
+          int searchAfterHitsCount = 0;
+          for (int i = 0; i < indexes.size(); i++) {
+            ChangeSubIndex subIndex = indexes.get(i);
             ScoreDoc searchAfter = getSearchAfter(subIndex);
             int maxRemainingHits = realPageSize - searchAfterHitsCount;
             if (maxRemainingHits > 0) {
@@ -421,8 +450,16 @@ public class LuceneChangeIndex implements ChangeIndex {
               searchAfterBySubIndex.put(
                   subIndex, Iterables.getLast(Arrays.asList(subIndexHits.scoreDocs), searchAfter));
             }
-          } else {
-            hits.add(searchers[i].search(query, realPageSize, sort));
+          }
+        } else {
+          // The sub-indexes are independent and are searched concurrently.
+          int pageSize = realPageSize;
+          List<Future<TopFieldDocs>> subIndexHits = new ArrayList<>(searchers.length);
+          for (IndexSearcher searcher : searchers) {
+            subIndexHits.add(searchExecutor.submit(() -> searcher.search(query, pageSize, sort)));
+          }
+          for (Future<TopFieldDocs> subIndexHit : subIndexHits) {
+            hits.add(getHits(subIndexHit));
           }
         }
         TopDocs docs =
@@ -431,7 +468,7 @@ public class LuceneChangeIndex implements ChangeIndex {
         List<Document> result = new ArrayList<>(docs.scoreDocs.length);
         for (int i = opts.start(); i < docs.scoreDocs.length; i++) {
           ScoreDoc sd = docs.scoreDocs[i];
-          result.add(searchers[sd.shardIndex].doc(sd.doc, fields));
+          result.add(indexes.get(sd.shardIndex).doc(searchers[sd.shardIndex], sd.doc, fields));
         }
         return new Results(result, searchAfterBySubIndex);
       } finally {
@@ -447,6 +484,19 @@ public class LuceneChangeIndex implements ChangeIndex {
       }
     }
 
+    private TopFieldDocs getHits(Future<TopFieldDocs> subIndexHits) throws IOException {
+      try {
+        return subIndexHits.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new StorageException("interrupted");
+      } catch (ExecutionException e) {
+        Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new IOException(e.getCause());
+      }
+    }
+
     /**
      * Returns null for the first page or when pagination type is not {@link
      * PaginationType#SEARCH_AFTER search-after}, otherwise returns the last doc from previous
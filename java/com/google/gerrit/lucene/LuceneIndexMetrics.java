@@ -0,0 +1,116 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.Histogram1;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/** Metrics for writing to the Lucene indexes. */
+@Singleton
+class LuceneIndexMetrics {
+  /** Number of writes that are applied together, after coalescing writes of the same document. */
+  final Histogram1<String> writeBatchSize;
+
+  /** Latency for applying a batch of writes, including the commit if it is done for every batch. */
+  final Timer1<String> writeBatchLatency;
+
+  /** Number of writes that have been applied. */
+  final Counter1<String> writeCount;
+
+  /** Number of writes that were superseded by a later write of the same document. */
+  final Counter1<String> coalescedWriteCount;
+
+  /** Latency for refreshing the searcher because a search needs to see completed writes. */
+  final Timer1<String> searchRefreshLatency;
+
+  /** Number of search results whose stored fields were found in the stored field cache. */
+  final Counter1<String> storedFieldCacheHitCount;
+
+  /** Number of search results whose stored fields were loaded from the index. */
+  final Counter1<String> storedFieldCacheMissCount;
+
+  @Inject
+  LuceneIndexMetrics(MetricMaker metricMaker) {
+    Field<String> indexField =
+        Field.ofString("index", Metadata.Builder::indexName)
+            .description("The name of the index.")
+            .build();
+
+    writeBatchSize =
+        metricMaker.newHistogram(
+            "index/lucene/write_batch_size",
+            new Description("Number of writes that are applied to a Lucene index together")
+                .setCumulative()
+                .setUnit("writes"),
+            indexField);
+
+    writeBatchLatency =
+        metricMaker.newTimer(
+            "index/lucene/write_batch_latency",
+            new Description("Latency for applying a batch of writes to a Lucene index")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            indexField);
+
+    writeCount =
+        metricMaker.newCounter(
+            "index/lucene/write_count",
+            new Description("Number of writes applied to a Lucene index")
+                .setRate()
+                .setUnit("writes"),
+            indexField);
+
+    coalescedWriteCount =
+        metricMaker.newCounter(
+            "index/lucene/coalesced_write_count",
+            new Description("Number of writes superseded by a later write of the same document")
+                .setRate()
+                .setUnit("writes"),
+            indexField);
+
+    searchRefreshLatency =
+        metricMaker.newTimer(
+            "index/lucene/search_refresh_latency",
+            new Description(
+                    "Latency for refreshing a Lucene index searcher on search to see recent writes")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            indexField);
+
+    storedFieldCacheHitCount =
+        metricMaker.newCounter(
+            "index/lucene/stored_field_cache_hit_count",
+            new Description("Number of search results whose stored fields were cached")
+                .setRate()
+                .setUnit("documents"),
+            indexField);
+
+    storedFieldCacheMissCount =
+        metricMaker.newCounter(
+            "index/lucene/stored_field_cache_miss_count",
+            new Description("Number of search results whose stored fields were not cached")
+                .setRate()
+                .setUnit("documents"),
+            indexField);
+  }
+}
@@ -0,0 +1,177 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Executor for the parts of a search that can run concurrently, e.g. the searches in the
+ * sub-indexes or in the segments of an index.
+ *
+ * <p>Searches already run on the interactive index executor. If they waited for tasks that are
+ * queued behind other searches on the same executor, all threads of the executor could end up
+ * waiting. Hence a task that no thread has picked up yet is run by the thread that waits for its
+ * result. Tasks are only run concurrently if there are idle threads.
+ *
+ * <p>Tasks are executed by the given executor, which is not owned by this instance. Shutting down
+ * this instance only affects the tasks submitted through it: new tasks are rejected, {@link
+ * #shutdownNow()} cancels the pending ones, and {@link #awaitTermination(long, TimeUnit)} waits
+ * for them to complete. The given executor keeps running.
+ */
+class SearchExecutor extends AbstractExecutorService {
+  private final Executor executor;
+
+  // Tasks that were submitted through this instance and are not done yet, guarded by this.
+  private final Set<Task<?>> pending = new LinkedHashSet<>();
+  private boolean shutdown;
+
+  SearchExecutor(Executor executor) {
+    this.executor = requireNonNull(executor, "executor");
+  }
+
+  @Override
+  protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+    return new Task<>(runnable, value);
+  }
+
+  @Override
+  protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+    return new Task<>(callable);
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    Task<?> task = command instanceof Task ? (Task<?>) command : new Task<>(command, null);
+    synchronized (this) {
+      if (shutdown) {
+        throw new RejectedExecutionException("search executor is shut down");
+      }
+      pending.add(task);
+    }
+    try {
+      executor.execute(task);
+    } catch (RuntimeException e) {
+      task.cancel(false);
+      throw e;
+    }
+  }
+
+  @Override
+  public synchronized void shutdown() {
+    shutdown = true;
+    notifyAll();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    List<Runnable> notStarted = new ArrayList<>();
+    List<Task<?>> tasks;
+    synchronized (this) {
+      shutdown();
+      tasks = new ArrayList<>(pending);
+    }
+    for (Task<?> task : tasks) {
+      if (!task.started.get()) {
+        notStarted.add(task);
+      }
+      task.cancel(true);
+    }
+    return notStarted;
+  }
+
+  @Override
+  public synchronized boolean isShutdown() {
+    return shutdown;
+  }
+
+  @Override
+  public synchronized boolean isTerminated() {
+    return shutdown && pending.isEmpty();
+  }
+
+  @Override
+  public synchronized boolean awaitTermination(long timeout, TimeUnit unit)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (!isTerminated()) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return false;
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+    }
+    return true;
+  }
+
+  private synchronized void done(Task<?> task) {
+    if (pending.remove(task) && pending.isEmpty()) {
+      notifyAll();
+    }
+  }
+
+  /** Task that is run by the first thread that waits for it, unless it has been started before. */
+  private class Task<T> extends FutureTask<T> {
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    Task(Callable<T> callable) {
+      super(callable);
+    }
+
+    Task(Runnable runnable, T value) {
+      super(runnable, value);
+    }
+
+    @Override
+    public void run() {
+      if (started.compareAndSet(false, true)) {
+        super.run();
+      }
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+      // Does nothing if the task is already running or done.
+      run();
+      return super.get();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      run();
+      return super.get(timeout, unit);
+    }
+
+    @Override
+    protected void done() {
+      SearchExecutor.this.done(this);
+    }
+  }
+}
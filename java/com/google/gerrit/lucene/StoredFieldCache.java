@@ -0,0 +1,152 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.common.Nullable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Cache of the stored fields that have been loaded for search results.
+ *
+ * <p>Loading the stored fields of a document decompresses the block of the segment that contains
+ * the document. Queries that run over and over again, e.g. the queries of dashboards, load the
+ * same documents each time, hence the loaded fields are cached.
+ *
+ * <p>Documents are cached by segment and by their number in the segment. The stored fields of a
+ * document never change once the document is written to a segment, so cached documents never
+ * become stale. An update of a change writes a new document to a new segment, which is not
+ * cached yet. The documents of a segment are removed from the cache when the segment is closed.
+ */
+class StoredFieldCache {
+  // Rough estimate of the memory that is used for a cached document and for each of its fields.
+  private static final int DOCUMENT_OVERHEAD = 64;
+  private static final int FIELD_OVERHEAD = 48;
+
+  static StoredFieldCache create(String index, long maxBytes, LuceneIndexMetrics metrics) {
+    return new StoredFieldCache(
+        index,
+        maxBytes > 0
+            ? CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Key k, Document d) -> weigh(d))
+                .build()
+            : null,
+        metrics);
+  }
+
+  private final String index;
+  @Nullable private final Cache<Key, Document> cache;
+  private final LuceneIndexMetrics metrics;
+  private final Set<IndexReader.CacheKey> segments = ConcurrentHashMap.newKeySet();
+
+  private StoredFieldCache(
+      String index, @Nullable Cache<Key, Document> cache, LuceneIndexMetrics metrics) {
+    this.index = index;
+    this.cache = cache;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns the given fields of a document, like {@link IndexSearcher#doc(int, Set)}.
+   *
+   * <p>The returned document must not be modified.
+   */
+  Document doc(IndexSearcher searcher, int docId, Set<String> fields) throws IOException {
+    if (cache == null) {
+      return searcher.doc(docId, fields);
+    }
+
+    List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+    LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+    IndexReader.CacheHelper cacheHelper = leaf.reader().getCoreCacheHelper();
+    if (cacheHelper == null) {
+      return searcher.doc(docId, fields);
+    }
+
+    IndexReader.CacheKey segment = cacheHelper.getKey();
+    if (segments.add(segment)) {
+      cacheHelper.addClosedListener(this::evict);
+    }
+    Key key = new Key(segment, docId - leaf.docBase, ImmutableSet.copyOf(fields));
+    Document doc = cache.getIfPresent(key);
+    if (doc != null) {
+      metrics.storedFieldCacheHitCount.increment(index);
+      return doc;
+    }
+    metrics.storedFieldCacheMissCount.increment(index);
+    doc = searcher.doc(docId, fields);
+    cache.put(key, doc);
+    return doc;
+  }
+
+  private void evict(IndexReader.CacheKey segment) {
+    segments.remove(segment);
+    cache.asMap().keySet().removeIf(k -> k.segment == segment);
+  }
+
+  private static int weigh(Document doc) {
+    long weight = DOCUMENT_OVERHEAD;
+    for (IndexableField f : doc) {
+      weight += FIELD_OVERHEAD;
+      BytesRef bytes = f.binaryValue();
+      if (bytes != null) {
+        weight += bytes.length;
+      } else if (f.stringValue() != null) {
+        weight += 2L * f.stringValue().length();
+      }
+    }
+    return (int) Math.min(weight, Integer.MAX_VALUE);
+  }
+
+  private static class Key {
+    private final IndexReader.CacheKey segment;
+    private final int docId;
+    private final ImmutableSet<String> fields;
+
+    Key(IndexReader.CacheKey segment, int docId, ImmutableSet<String> fields) {
+      this.segment = segment;
+      this.docId = docId;
+      this.fields = fields;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key k = (Key) o;
+      return segment == k.segment && docId == k.docId && fields.equals(k.fields);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(segment), docId, fields);
+    }
+  }
+}
@@ -87,6 +87,13 @@ public class Reindex extends SiteProgram {
   @Option(name = "--index", usage = "Only reindex specified indices")
   private List<String> indices = new ArrayList<>();
 
+  @Option(
+      name = "--resume",
+      usage =
+          "Resume an earlier reindex that was interrupted, instead of starting from scratch."
+              + " Only supported by indices that checkpoint their progress.")
+  private boolean resume;
+
   @Option(
       name = "--disable-cache-stats",
       usage =
@@ -246,9 +253,14 @@ public class Reindex extends SiteProgram {
     requireNonNull(
         index, () -> String.format("no active search index configured for %s", def.getName()));
     index.markReady(false);
-    index.deleteAll();
 
     SiteIndexer<K, V, I> siteIndexer = def.getSiteIndexer();
+    if (resume && siteIndexer.hasCheckpoint(index)) {
+      System.out.format("Resuming reindex of %s index\n", def.getName());
+      siteIndexer.setResume(true);
+    } else {
+      index.deleteAll();
+    }
     siteIndexer.setProgressOut(System.err);
     siteIndexer.setVerboseOut(verbose ? System.out : NullOutputStream.INSTANCE);
     SiteIndexer.Result result = siteIndexer.indexAll(index);
@@ -25,6 +25,7 @@ import com.google.gerrit.pgm.http.jetty.HttpLog.HttpLogFactory;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.config.ThreadSettingsConfig;
+import com.google.gerrit.server.util.VirtualThreads;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Singleton;
@@ -42,6 +43,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.DispatcherType;
@@ -461,16 +463,27 @@ public class JettyServer {
     int maxQueued = cfg.getInt("httpd", null, "maxqueued", 200);
     int idleTimeout = (int) MILLISECONDS.convert(60, SECONDS);
     int maxCapacity = maxQueued == 0 ? Integer.MAX_VALUE : Math.max(minThreads, maxQueued);
-    QueuedThreadPool pool =
-        new QueuedThreadPool(
-            maxThreads,
-            minThreads,
-            idleTimeout,
-            new BlockingArrayQueue<>(
-                minThreads, // capacity,
-                minThreads, // growBy,
-                maxCapacity // maxCapacity
-                ));
+    BlockingArrayQueue<Runnable> queue =
+        new BlockingArrayQueue<>(
+            minThreads, // capacity,
+            minThreads, // growBy,
+            maxCapacity // maxCapacity
+            );
+    QueuedThreadPool pool;
+    if (threadSettingsConfig.isHttpdVirtualThreads()) {
+      ThreadFactory factory = VirtualThreads.newThreadFactory("HTTP");
+      pool =
+          new QueuedThreadPool(maxThreads, minThreads, idleTimeout, queue) {
+            @Override
+            public Thread newThread(Runnable runnable) {
+              return factory.newThread(runnable);
+            }
+          };
+      // Virtual threads are always daemon threads and reject being made non-daemon.
+      pool.setDaemon(true);
+    } else {
+      pool = new QueuedThreadPool(maxThreads, minThreads, idleTimeout, queue);
+    }
     pool.setName("HTTP");
     return pool;
   }
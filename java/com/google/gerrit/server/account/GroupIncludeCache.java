@@ -29,6 +29,18 @@ public interface GroupIncludeCache {
    */
   Collection<AccountGroup.UUID> getGroupsWithMember(Account.Id memberId);
 
+  /**
+   * Returns the UUIDs of all groups of which the specified account is a direct or indirect member,
+   * through any number of internal subgroups.
+   *
+   * <p>Membership through subgroups that are not internal groups, e.g. LDAP groups, is not
+   * considered.
+   *
+   * @param memberId the ID of the account
+   * @return the UUIDs of all groups that have the account as member, directly or indirectly
+   */
+  Collection<AccountGroup.UUID> getAllGroupsWithMember(Account.Id memberId);
+
   /**
    * Returns the parent groups of a subgroup.
    *
@@ -37,6 +49,15 @@ public interface GroupIncludeCache {
    */
   Collection<AccountGroup.UUID> parentGroupsOf(AccountGroup.UUID groupId);
 
+  /**
+   * Returns all groups that include a subgroup, directly or through any number of intermediate
+   * groups.
+   *
+   * @param groupId the UUID of the subgroup
+   * @return the UUIDs of all direct and indirect parent groups, not including the subgroup itself
+   */
+  Collection<AccountGroup.UUID> allParentGroupsOf(AccountGroup.UUID groupId);
+
   /** Returns set of any UUIDs that are not internal groups. */
   Collection<AccountGroup.UUID> allExternalMembers();
 
@@ -43,8 +43,12 @@ import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
 import com.google.inject.name.Named;
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
 /** Tracks group inclusions in memory for efficient access. */
@@ -53,7 +57,9 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private static final String PARENT_GROUPS_NAME = "groups_bysubgroup";
+  private static final String ALL_PARENT_GROUPS_NAME = "groups_bysubgroup_transitive";
   private static final String GROUPS_WITH_MEMBER_NAME = "groups_bymember";
+  private static final String ALL_GROUPS_WITH_MEMBER_NAME = "groups_bymember_transitive";
   private static final String EXTERNAL_NAME = "groups_external";
   private static final String PERSISTED_EXTERNAL_NAME = "groups_external_persisted";
 
@@ -73,6 +79,21 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
                 new TypeLiteral<ImmutableList<AccountGroup.UUID>>() {})
             .loader(ParentGroupsLoader.class);
 
+        // The transitive closures are derived from the two caches above. They are kept up to date
+        // by evicting only the entries that contain a group whose parents have changed, see
+        // evictParentGroupsOf.
+        cache(
+                ALL_GROUPS_WITH_MEMBER_NAME,
+                Account.Id.class,
+                new TypeLiteral<ImmutableSet<AccountGroup.UUID>>() {})
+            .loader(AllGroupsWithMemberLoader.class);
+
+        cache(
+                ALL_PARENT_GROUPS_NAME,
+                AccountGroup.UUID.class,
+                new TypeLiteral<ImmutableSet<AccountGroup.UUID>>() {})
+            .loader(AllParentGroupsLoader.class);
+
         /**
          * Splitting the groups external cache into 2 caches: The first one is in memory, used to
          * serve the callers and has a single constant key "EXTERNAL_NAME". The second one is
@@ -102,6 +123,8 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
 
   private final LoadingCache<Account.Id, ImmutableSet<AccountGroup.UUID>> groupsWithMember;
   private final LoadingCache<AccountGroup.UUID, ImmutableList<AccountGroup.UUID>> parentGroups;
+  private final LoadingCache<Account.Id, ImmutableSet<AccountGroup.UUID>> allGroupsWithMember;
+  private final LoadingCache<AccountGroup.UUID, ImmutableSet<AccountGroup.UUID>> allParentGroups;
   private final LoadingCache<String, ImmutableList<AccountGroup.UUID>> external;
 
   @Inject
@@ -110,9 +133,15 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
           LoadingCache<Account.Id, ImmutableSet<AccountGroup.UUID>> groupsWithMember,
       @Named(PARENT_GROUPS_NAME)
           LoadingCache<AccountGroup.UUID, ImmutableList<AccountGroup.UUID>> parentGroups,
+      @Named(ALL_GROUPS_WITH_MEMBER_NAME)
+          LoadingCache<Account.Id, ImmutableSet<AccountGroup.UUID>> allGroupsWithMember,
+      @Named(ALL_PARENT_GROUPS_NAME)
+          LoadingCache<AccountGroup.UUID, ImmutableSet<AccountGroup.UUID>> allParentGroups,
       @Named(EXTERNAL_NAME) LoadingCache<String, ImmutableList<AccountGroup.UUID>> external) {
     this.groupsWithMember = groupsWithMember;
     this.parentGroups = parentGroups;
+    this.allGroupsWithMember = allGroupsWithMember;
+    this.allParentGroups = allParentGroups;
     this.external = external;
   }
 
@@ -126,6 +155,17 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
     }
   }
 
+  @Override
+  public Collection<AccountGroup.UUID> getAllGroupsWithMember(Account.Id memberId) {
+    try {
+      return allGroupsWithMember.get(memberId);
+    } catch (ExecutionException e) {
+      logger.atWarning().withCause(e).log(
+          "Cannot load groups containing %s as direct or indirect member", memberId);
+      return ImmutableSet.of();
+    }
+  }
+
   @Override
   public Collection<AccountGroup.UUID> parentGroupsOf(AccountGroup.UUID groupId) {
     try {
@@ -136,11 +176,22 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
     }
   }
 
+  @Override
+  public Collection<AccountGroup.UUID> allParentGroupsOf(AccountGroup.UUID groupId) {
+    try {
+      return allParentGroups.get(groupId);
+    } catch (ExecutionException e) {
+      logger.atWarning().withCause(e).log("Cannot load direct and indirect parent groups");
+      return Collections.emptySet();
+    }
+  }
+
   @Override
   public void evictGroupsWithMember(Account.Id memberId) {
     if (memberId != null) {
       logger.atFine().log("Evict groups with member %d", memberId.get());
       groupsWithMember.invalidate(memberId);
+      allGroupsWithMember.invalidate(memberId);
     }
   }
 
@@ -150,6 +201,13 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
       logger.atFine().log("Evict parent groups of %s", groupId.get());
       parentGroups.invalidate(groupId);
 
+      // The closures of the group itself and of all groups and accounts that are directly or
+      // indirectly included in it have changed. All of them contain the group, other entries stay
+      // valid.
+      allParentGroups.invalidate(groupId);
+      allParentGroups.asMap().values().removeIf(parents -> parents.contains(groupId));
+      allGroupsWithMember.asMap().values().removeIf(groups -> groups.contains(groupId));
+
       if (!groupId.isInternalGroup()) {
         logger.atFine().log("Evict external group %s", groupId.get());
         /**
@@ -214,6 +272,64 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
     }
   }
 
+  static class AllGroupsWithMemberLoader
+      extends CacheLoader<Account.Id, ImmutableSet<AccountGroup.UUID>> {
+    private final LoadingCache<Account.Id, ImmutableSet<AccountGroup.UUID>> groupsWithMember;
+    private final LoadingCache<AccountGroup.UUID, ImmutableSet<AccountGroup.UUID>> allParentGroups;
+
+    @Inject
+    AllGroupsWithMemberLoader(
+        @Named(GROUPS_WITH_MEMBER_NAME)
+            LoadingCache<Account.Id, ImmutableSet<AccountGroup.UUID>> groupsWithMember,
+        @Named(ALL_PARENT_GROUPS_NAME)
+            LoadingCache<AccountGroup.UUID, ImmutableSet<AccountGroup.UUID>> allParentGroups) {
+      this.groupsWithMember = groupsWithMember;
+      this.allParentGroups = allParentGroups;
+    }
+
+    @Override
+    public ImmutableSet<AccountGroup.UUID> load(Account.Id memberId) throws ExecutionException {
+      ImmutableSet.Builder<AccountGroup.UUID> all = ImmutableSet.builder();
+      for (AccountGroup.UUID group : groupsWithMember.get(memberId)) {
+        all.add(group).addAll(allParentGroups.get(group));
+      }
+      return all.build();
+    }
+  }
+
+  static class AllParentGroupsLoader
+      extends CacheLoader<AccountGroup.UUID, ImmutableSet<AccountGroup.UUID>> {
+    private final LoadingCache<AccountGroup.UUID, ImmutableList<AccountGroup.UUID>> parentGroups;
+
+    @Inject
+    AllParentGroupsLoader(
+        @Named(PARENT_GROUPS_NAME)
+            LoadingCache<AccountGroup.UUID, ImmutableList<AccountGroup.UUID>> parentGroups) {
+      this.parentGroups = parentGroups;
+    }
+
+    @Override
+    public ImmutableSet<AccountGroup.UUID> load(AccountGroup.UUID key) throws ExecutionException {
+      try (TraceTimer timer =
+          TraceContext.newTimer(
+              "Loading direct and indirect parent groups",
+              Metadata.builder().groupUuid(key.get()).build())) {
+        Set<AccountGroup.UUID> all = new LinkedHashSet<>();
+        Deque<AccountGroup.UUID> todo = new ArrayDeque<>();
+        todo.add(key);
+        while (!todo.isEmpty()) {
+          for (AccountGroup.UUID parent : parentGroups.get(todo.remove())) {
+            // Groups may include each other, the subgroup itself is not its own parent though.
+            if (!parent.equals(key) && all.add(parent)) {
+              todo.add(parent);
+            }
+          }
+        }
+        return ImmutableSet.copyOf(all);
+      }
+    }
+  }
+
   static class AllExternalInMemoryLoader
       extends CacheLoader<String, ImmutableList<AccountGroup.UUID>> {
     private final Cache<String, ImmutableList<AccountGroup.UUID>> persisted;
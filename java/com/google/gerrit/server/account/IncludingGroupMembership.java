@@ -14,48 +14,36 @@
 
 package com.google.gerrit.server.account;
 
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
 import com.google.gerrit.entities.AccountGroup;
-import com.google.gerrit.entities.InternalGroup;
 import com.google.gerrit.server.CurrentUser;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
-import java.util.Collection;
 import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Determines membership in the internal group system for a given user.
  *
- * <p>Groups the user is directly a member of are pulled from the in-memory AccountCache by way of
- * the IdentifiedUser. Transitive group memberhips are resolved on demand starting from the
- * requested group and looking for a path to a group the user is a member of. Other group backends
- * are supported by recursively invoking the universal GroupMembership.
+ * <p>The internal groups the user is a direct or indirect member of are pulled from the
+ * precomputed closure in the GroupIncludeCache. Groups that include a group of another group
+ * backend are resolved by checking the user's membership in those groups through the universal
+ * GroupMembership and adding their parent groups. The result is computed once, after which
+ * membership checks are set lookups.
  */
 public class IncludingGroupMembership implements GroupMembership {
   public interface Factory {
     IncludingGroupMembership create(CurrentUser user);
   }
 
-  private final GroupCache groupCache;
   private final GroupIncludeCache includeCache;
   private final CurrentUser user;
-  private final Map<AccountGroup.UUID, Boolean> memberOf;
-  private Set<AccountGroup.UUID> knownGroups;
+  private volatile ImmutableSet<AccountGroup.UUID> knownGroups;
 
   @Inject
-  IncludingGroupMembership(
-      GroupCache groupCache, GroupIncludeCache includeCache, @Assisted CurrentUser user) {
-    this.groupCache = groupCache;
+  IncludingGroupMembership(GroupIncludeCache includeCache, @Assisted CurrentUser user) {
     this.includeCache = includeCache;
     this.user = user;
-    memberOf = new ConcurrentHashMap<>();
   }
 
   @Override
@@ -63,50 +51,17 @@ public class IncludingGroupMembership implements GroupMembership {
     if (id == null) {
       return false;
     }
-
-    Boolean b = memberOf.get(id);
-    return b != null ? b : containsAnyOf(ImmutableSet.of(id));
+    return getKnownGroups().contains(id);
   }
 
   @Override
   public boolean containsAnyOf(Iterable<AccountGroup.UUID> queryIds) {
-    // Prefer lookup of a cached result over expanding includes.
-    boolean tryExpanding = false;
+    Set<AccountGroup.UUID> known = getKnownGroups();
     for (AccountGroup.UUID id : queryIds) {
-      Boolean b = memberOf.get(id);
-      if (b == null) {
-        tryExpanding = true;
-      } else if (b) {
+      if (id != null && known.contains(id)) {
         return true;
       }
     }
-
-    if (tryExpanding) {
-      Set<AccountGroup.UUID> queryIdsSet = new HashSet<>();
-      queryIds.forEach(i -> queryIdsSet.add(i));
-      Map<AccountGroup.UUID, InternalGroup> groups = groupCache.get(queryIdsSet);
-      for (AccountGroup.UUID id : queryIds) {
-        if (memberOf.containsKey(id)) {
-          // Membership was earlier proven to be false.
-          continue;
-        }
-
-        memberOf.put(id, false);
-        InternalGroup group = groups.get(id);
-        if (group == null) {
-          continue;
-        }
-        if (user.isIdentifiedUser() && group.getMembers().contains(user.getAccountId())) {
-          memberOf.put(id, true);
-          return true;
-        }
-        if (search(group.getSubgroups())) {
-          memberOf.put(id, true);
-          return true;
-        }
-      }
-    }
-
     return false;
   }
 
@@ -121,44 +76,29 @@ public class IncludingGroupMembership implements GroupMembership {
     return r;
   }
 
-  private boolean search(Iterable<AccountGroup.UUID> ids) {
-    return user.getEffectiveGroups().containsAnyOf(ids);
-  }
-
   private ImmutableSet<AccountGroup.UUID> computeKnownGroups() {
-    GroupMembership membership = user.getEffectiveGroups();
-    Collection<AccountGroup.UUID> direct =
-        user.isIdentifiedUser()
-            ? includeCache.getGroupsWithMember(user.getAccountId())
-            : ImmutableList.of();
-    direct.forEach(groupUuid -> memberOf.put(groupUuid, true));
-    Set<AccountGroup.UUID> r = Sets.newHashSet(direct);
-    r.remove(null);
+    Set<AccountGroup.UUID> r = new HashSet<>();
+    if (user.isIdentifiedUser()) {
+      r.addAll(includeCache.getAllGroupsWithMember(user.getAccountId()));
+    }
 
-    List<AccountGroup.UUID> q = Lists.newArrayList(r);
+    GroupMembership membership = user.getEffectiveGroups();
     for (AccountGroup.UUID g : membership.intersection(includeCache.allExternalMembers())) {
       if (g != null && r.add(g)) {
-        q.add(g);
-      }
-    }
-
-    while (!q.isEmpty()) {
-      AccountGroup.UUID id = q.remove(q.size() - 1);
-      for (AccountGroup.UUID g : includeCache.parentGroupsOf(id)) {
-        if (g != null && r.add(g)) {
-          q.add(g);
-          memberOf.put(g, true);
-        }
+        r.addAll(includeCache.allParentGroupsOf(g));
       }
     }
+    r.remove(null);
     return ImmutableSet.copyOf(r);
   }
 
   @Override
   public Set<AccountGroup.UUID> getKnownGroups() {
-    if (knownGroups == null) {
-      knownGroups = computeKnownGroups();
+    ImmutableSet<AccountGroup.UUID> known = knownGroups;
+    if (known == null) {
+      known = computeKnownGroups();
+      knownGroups = known;
     }
-    return knownGroups;
+    return known;
   }
 }
@@ -14,9 +14,14 @@
 
 package com.google.gerrit.server.account.externalids;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
 import com.google.auto.value.AutoValue;
+import com.google.auto.value.extension.memoized.Memoized;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.gerrit.entities.Account;
 import com.google.gerrit.proto.Protos;
@@ -24,40 +29,90 @@ import com.google.gerrit.server.cache.proto.Cache.AllExternalIdsProto;
 import com.google.gerrit.server.cache.proto.Cache.AllExternalIdsProto.ExternalIdProto;
 import com.google.gerrit.server.cache.serialize.CacheSerializer;
 import com.google.gerrit.server.cache.serialize.ObjectIdConverter;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.stream.Stream;
 
-/** Cache value containing all external IDs. */
+/**
+ * Cache value containing all external IDs.
+ *
+ * <p>With hundreds of thousands of accounts this value is large, hence the external IDs by account
+ * are not kept as a multimap. Instead they are held in a list that is sorted by account ID, next to
+ * an {@code int} array with the account ID of each element, and looked up by binary search. The
+ * multimap returned by {@link #byAccount()} is only built if a caller needs all external IDs by
+ * account.
+ */
 @AutoValue
 public abstract class AllExternalIds {
+  private static final Comparator<ExternalId> BY_ACCOUNT =
+      Comparator.<ExternalId>comparingInt(id -> id.accountId().get())
+          .thenComparing(id -> id.key().get());
+
   static AllExternalIds create(Stream<ExternalId> externalIds) {
-    ImmutableMap.Builder<ExternalId.Key, ExternalId> byKey = ImmutableMap.builder();
-    ImmutableSetMultimap.Builder<Account.Id, ExternalId> byAccount = ImmutableSetMultimap.builder();
-    ImmutableSetMultimap.Builder<String, ExternalId> byEmail = ImmutableSetMultimap.builder();
-    externalIds.forEach(
-        id -> {
-          byKey.put(id.key(), id);
-          byAccount.put(id.accountId(), id);
-          if (!Strings.isNullOrEmpty(id.email())) {
-            byEmail.put(id.email(), id);
-          }
-        });
-
-    return new AutoValue_AllExternalIds(byKey.build(), byAccount.build(), byEmail.build());
+    return create(externalIds.collect(toImmutableList()));
   }
 
-  static AllExternalIds create(
-      ImmutableMap<ExternalId.Key, ExternalId> byKey,
-      ImmutableSetMultimap<Account.Id, ExternalId> byAccount,
-      ImmutableSetMultimap<String, ExternalId> byEmail) {
-    return new AutoValue_AllExternalIds(byKey, byAccount, byEmail);
+  static AllExternalIds create(Collection<ExternalId> externalIds) {
+    ImmutableMap.Builder<ExternalId.Key, ExternalId> byKey =
+        ImmutableMap.builderWithExpectedSize(externalIds.size());
+    ImmutableSetMultimap.Builder<String, ExternalId> byEmail = ImmutableSetMultimap.builder();
+    for (ExternalId id : externalIds) {
+      byKey.put(id.key(), id);
+      if (!Strings.isNullOrEmpty(id.email())) {
+        byEmail.put(id.email(), id);
+      }
+    }
+
+    ImmutableList<ExternalId> sortedByAccount = ImmutableList.sortedCopyOf(BY_ACCOUNT, externalIds);
+    int[] accountIds = new int[sortedByAccount.size()];
+    for (int i = 0; i < accountIds.length; i++) {
+      accountIds[i] = sortedByAccount.get(i).accountId().get();
+    }
+    return new AutoValue_AllExternalIds(
+        byKey.build(), accountIds, sortedByAccount, byEmail.build());
   }
 
   public abstract ImmutableMap<ExternalId.Key, ExternalId> byKey();
 
-  public abstract ImmutableSetMultimap<Account.Id, ExternalId> byAccount();
+  /** Account ID of each element of {@link #sortedByAccount()}, in ascending order. */
+  @SuppressWarnings("mutable")
+  abstract int[] accountIds();
+
+  /** All external IDs, sorted by account ID and then by key. */
+  abstract ImmutableList<ExternalId> sortedByAccount();
 
   public abstract ImmutableSetMultimap<String, ExternalId> byEmail();
 
+  /** Returns the external IDs of the given account. */
+  public ImmutableSet<ExternalId> byAccount(Account.Id accountId) {
+    int[] accountIds = accountIds();
+    int from = lowerBound(accountIds, accountId.get());
+    int to = lowerBound(accountIds, accountId.get() + 1L);
+    return ImmutableSet.copyOf(sortedByAccount().subList(from, to));
+  }
+
+  /** Returns all external IDs by account. The multimap is built on the first call. */
+  @Memoized
+  public ImmutableSetMultimap<Account.Id, ExternalId> byAccount() {
+    ImmutableSetMultimap.Builder<Account.Id, ExternalId> byAccount = ImmutableSetMultimap.builder();
+    sortedByAccount().forEach(id -> byAccount.put(id.accountId(), id));
+    return byAccount.build();
+  }
+
+  private static int lowerBound(int[] a, long key) {
+    int low = 0;
+    int high = a.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (a[mid] < key) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
   enum Serializer implements CacheSerializer<AllExternalIds> {
     INSTANCE;
 
@@ -65,7 +120,7 @@ public abstract class AllExternalIds {
     public byte[] serialize(AllExternalIds object) {
       ObjectIdConverter idConverter = ObjectIdConverter.create();
       AllExternalIdsProto.Builder allBuilder = AllExternalIdsProto.newBuilder();
-      object.byAccount().values().stream()
+      object.sortedByAccount().stream()
           .map(extId -> toProto(idConverter, extId))
           .forEach(allBuilder::addExternalId);
       return Protos.toByteArray(allBuilder.build());
@@ -56,12 +56,12 @@ class ExternalIdCacheImpl implements ExternalIdCache {
 
   @Override
   public ImmutableSet<ExternalId> byAccount(Account.Id accountId) throws IOException {
-    return get().byAccount().get(accountId);
+    return get().byAccount(accountId);
   }
 
   @Override
   public ImmutableSet<ExternalId> byAccount(Account.Id accountId, ObjectId rev) throws IOException {
-    return get(rev).byAccount().get(accountId);
+    return get(rev).byAccount(accountId);
   }
 
   @Override
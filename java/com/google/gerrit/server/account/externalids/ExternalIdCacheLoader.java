@@ -16,11 +16,8 @@ package com.google.gerrit.server.account.externalids;
 
 import com.google.common.base.CharMatcher;
 import com.google.common.cache.Cache;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.flogger.FluentLogger;
-import com.google.gerrit.entities.Account;
 import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.metrics.Counter1;
 import com.google.gerrit.metrics.Description;
@@ -38,8 +35,10 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -63,6 +62,11 @@ public class ExternalIdCacheLoader {
   // is found within this number of parents, we fall back to reading everything from scratch.
   private static final int MAX_HISTORY_LOOKBACK = 10;
 
+  // Maximum number of prior states we inspect if the cache is persisted. After a restart, the most
+  // recent persisted state may be many updates behind, but walking commits and probing the disk
+  // cache is still much cheaper than reading all external IDs.
+  private static final int MAX_PERSISTED_HISTORY_LOOKBACK = 1000;
+
   private final ExternalIdReader externalIdReader;
   private final Cache<ObjectId, AllExternalIds> externalIdCache;
   private final GitRepositoryManager gitRepositoryManager;
@@ -70,6 +74,7 @@ public class ExternalIdCacheLoader {
   private final Counter1<Boolean> reloadCounter;
   private final Timer0 reloadDifferential;
   private final boolean isPersistentCache;
+  private final int maxHistoryLookback;
   private final ExternalIdFactory externalIdFactory;
 
   @Inject
@@ -102,7 +107,9 @@ public class ExternalIdCacheLoader {
                 .setCumulative()
                 .setUnit(Units.MILLISECONDS));
     this.isPersistentCache =
-        config.getInt("cache", ExternalIdCacheImpl.CACHE_NAME, "diskLimit", 0) > 0;
+        config.getLong("cache", ExternalIdCacheImpl.CACHE_NAME, "diskLimit", 0) > 0;
+    this.maxHistoryLookback =
+        isPersistentCache ? MAX_PERSISTED_HISTORY_LOOKBACK : MAX_HISTORY_LOOKBACK;
     this.externalIdFactory = externalIdFactory;
   }
 
@@ -114,8 +121,9 @@ public class ExternalIdCacheLoader {
     //
     // First, try to find the most recent state we have in the cache. Most of the time, this will be
     // the state before the last update happened, but it can also date further back. We try a best
-    // effort approach and check the last 10 states. If nothing is found, we default to loading the
-    // value from scratch.
+    // effort approach and check the last 10 states, or the last 1000 states if the cache is
+    // persisted, so that a restarted server can start from the state it persisted last. If nothing
+    // is found, we default to loading the value from scratch.
     //
     // If a prior state was found, we use Git to diff the trees and find modifications. This is
     // faster than just loading the complete current tree and working off of that because of how the
@@ -142,7 +150,7 @@ public class ExternalIdCacheLoader {
       AllExternalIds oldExternalIds = null;
       int i = 0;
       while ((parentWithCacheValue = rw.next()) != null
-          && i++ < MAX_HISTORY_LOOKBACK
+          && i++ < maxHistoryLookback
           && parentWithCacheValue.getParentCount() < 2) {
         oldExternalIds = externalIdCache.getIfPresent(parentWithCacheValue.getId());
         if (oldExternalIds != null) {
@@ -213,20 +221,12 @@ public class ExternalIdCacheLoader {
       Map<ObjectId, ObjectId> additions,
       Set<ObjectId> removals)
       throws IOException {
-    ImmutableMap.Builder<ExternalId.Key, ExternalId> byKey = ImmutableMap.builder();
-    ImmutableSetMultimap.Builder<Account.Id, ExternalId> byAccount = ImmutableSetMultimap.builder();
-    ImmutableSetMultimap.Builder<String, ExternalId> byEmail = ImmutableSetMultimap.builder();
+    List<ExternalId> externalIds = new ArrayList<>(oldExternalIds.byKey().size());
 
     // Copy over old ExternalIds but exclude deleted ones
-    for (ExternalId externalId : oldExternalIds.byAccount().values()) {
-      if (removals.contains(externalId.blobId())) {
-        continue;
-      }
-
-      byKey.put(externalId.key(), externalId);
-      byAccount.put(externalId.accountId(), externalId);
-      if (externalId.email() != null) {
-        byEmail.put(externalId.email(), externalId);
+    for (ExternalId externalId : oldExternalIds.byKey().values()) {
+      if (!removals.contains(externalId.blobId())) {
+        externalIds.add(externalId);
       }
     }
 
@@ -246,14 +246,10 @@ public class ExternalIdCacheLoader {
           continue;
         }
 
-        byKey.put(parsedExternalId.key(), parsedExternalId);
-        byAccount.put(parsedExternalId.accountId(), parsedExternalId);
-        if (parsedExternalId.email() != null) {
-          byEmail.put(parsedExternalId.email(), parsedExternalId);
-        }
+        externalIds.add(parsedExternalId);
       }
     }
-    return AllExternalIds.create(byKey.build(), byAccount.build(), byEmail.build());
+    return AllExternalIds.create(externalIds);
   }
 
   private AllExternalIds reloadAllExternalIds(ObjectId notesRev)
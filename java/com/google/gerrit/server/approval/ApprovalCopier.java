@@ -32,8 +32,16 @@ import com.google.gerrit.entities.PatchSetApproval;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.extensions.client.ChangeKind;
+import com.google.gerrit.index.query.AndPredicate;
+import com.google.gerrit.index.query.NotPredicate;
+import com.google.gerrit.index.query.OrPredicate;
 import com.google.gerrit.index.query.Predicate;
 import com.google.gerrit.index.query.QueryParseException;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.server.PatchSetUtil;
 import com.google.gerrit.server.change.ChangeKindCache;
 import com.google.gerrit.server.change.LabelNormalizer;
@@ -45,12 +53,14 @@ import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.query.approval.ApprovalContext;
+import com.google.gerrit.server.query.approval.ApprovalPredicate;
 import com.google.gerrit.server.query.approval.ApprovalQueryBuilder;
 import com.google.gerrit.server.util.ManualRequestContext;
 import com.google.gerrit.server.util.OneOffRequestContext;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import org.eclipse.jgit.lib.Config;
@@ -177,6 +187,7 @@ public class ApprovalCopier {
   private final LabelNormalizer labelNormalizer;
   private final ApprovalQueryBuilder approvalQueryBuilder;
   private final OneOffRequestContext requestContext;
+  private final Timer1<String> copyConditionLatency;
 
   @Inject
   ApprovalCopier(
@@ -186,7 +197,8 @@ public class ApprovalCopier {
       PatchSetUtil psUtil,
       LabelNormalizer labelNormalizer,
       ApprovalQueryBuilder approvalQueryBuilder,
-      OneOffRequestContext requestContext) {
+      OneOffRequestContext requestContext,
+      MetricMaker metricMaker) {
     this.repoManager = repoManager;
     this.projectCache = projectCache;
     this.changeKindCache = changeKindCache;
@@ -194,6 +206,15 @@ public class ApprovalCopier {
     this.labelNormalizer = labelNormalizer;
     this.approvalQueryBuilder = approvalQueryBuilder;
     this.requestContext = requestContext;
+    this.copyConditionLatency =
+        metricMaker.newTimer(
+            "approval/copy_condition_evaluation",
+            new Description("Latency for evaluating the copy condition of an approval")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            Field.ofString("label", (metadataBuilder, fieldValue) -> {})
+                .description("The label of the approval.")
+                .build());
   }
 
   /**
@@ -287,6 +308,7 @@ public class ApprovalCopier {
         boolean isMerge = isMerge(changeNotes.getProjectName(), revWalk, followUpPatchSet);
 
         if (computeCopyResult(
+                new PatchSetPairEvaluation(),
                 changeNotes,
                 priorPatchSet.id(),
                 followUpPatchSet,
@@ -317,8 +339,12 @@ public class ApprovalCopier {
    *
    * <p>The returned result also informs about which atoms of the copy condition are
    * passing/failing.
+   *
+   * @param pairEvaluation state that is shared by all approvals that are copied from the given
+   *     source patch set to the given target patch set
    */
   private ApprovalCopyResult computeCopyResult(
+      PatchSetPairEvaluation pairEvaluation,
       ChangeNotes changeNotes,
       PatchSet.Id sourcePatchSetId,
       PatchSet targetPatchSet,
@@ -344,18 +370,18 @@ public class ApprovalCopier {
             isMerge,
             revWalk,
             repoConfig);
-    try {
+    try (Timer1.Context<String> ignoredTimer = copyConditionLatency.start(labelType.getName())) {
       // Use a request context to run checks as an internal user with expanded visibility. This is
       // so that the output of the copy condition does not depend on who is running the current
       // request (e.g. a group used in this query might not be visible to the person sending this
       // request).
       try (ManualRequestContext ignored = requestContext.open()) {
         Predicate<ApprovalContext> copyConditionPredicate =
-            approvalQueryBuilder.parse(labelType.getCopyCondition().get());
-        boolean canCopy = copyConditionPredicate.asMatchable().match(ctx);
+            pairEvaluation.parse(labelType.getCopyCondition().get());
         ImmutableSet.Builder<String> passingAtoms = ImmutableSet.builder();
         ImmutableSet.Builder<String> failingAtoms = ImmutableSet.builder();
-        evaluateAtoms(copyConditionPredicate, ctx, passingAtoms, failingAtoms);
+        boolean canCopy =
+            evaluate(copyConditionPredicate, ctx, pairEvaluation, passingAtoms, failingAtoms);
         return ApprovalCopyResult.create(canCopy, passingAtoms.build(), failingAtoms.build());
       }
     } catch (QueryParseException e) {
@@ -416,6 +442,7 @@ public class ApprovalCopier {
         priorPatchSet.getValue().id().changeId(),
         changeKind);
 
+    PatchSetPairEvaluation pairEvaluation = new PatchSetPairEvaluation();
     for (PatchSetApproval priorPsa : priorApprovals) {
       if (priorPsa.value() == 0) {
         // approvals with a zero vote record the deletion of a vote,
@@ -440,6 +467,7 @@ public class ApprovalCopier {
       }
       ApprovalCopyResult approvalCopyResult =
           computeCopyResult(
+              pairEvaluation,
               notes,
               priorPsa.patchSetId(),
               targetPatchSet,
@@ -501,26 +529,87 @@ public class ApprovalCopier {
    * Evaluates a predicate of the copy condition and adds its passing and failing atoms to the given
    * builders.
    *
+   * <p>Each atom is matched only once. Boolean operators are combined from the results of their
+   * children, hence all atoms are evaluated, even if the result of the copy condition is decided
+   * early.
+   *
    * @param predicate a predicate of the copy condition that should be evaluated
    * @param approvalContext the approval context against which the predicate should be evaluated
+   * @param pairEvaluation state that is shared by all approvals of the patch set pair
    * @param passingAtoms a builder to which passing atoms should be added
    * @param failingAtoms a builder to which failing atoms should be added
+   * @return whether the predicate matches
    */
-  private static void evaluateAtoms(
+  private static boolean evaluate(
       Predicate<ApprovalContext> predicate,
       ApprovalContext approvalContext,
+      PatchSetPairEvaluation pairEvaluation,
       ImmutableSet.Builder<String> passingAtoms,
       ImmutableSet.Builder<String> failingAtoms) {
     if (predicate.isLeaf()) {
-      boolean isPassing = predicate.asMatchable().match(approvalContext);
+      boolean isPassing = pairEvaluation.match(predicate, approvalContext);
       (isPassing ? passingAtoms : failingAtoms).add(predicate.getPredicateString());
-      return;
+      return isPassing;
+    }
+
+    boolean isAnd = predicate.getClass() == AndPredicate.class;
+    boolean isOr = predicate.getClass() == OrPredicate.class;
+    boolean isNot = predicate.getClass() == NotPredicate.class;
+    boolean result = isAnd;
+    for (Predicate<ApprovalContext> childPredicate : predicate.getChildren()) {
+      boolean childResult =
+          evaluate(childPredicate, approvalContext, pairEvaluation, passingAtoms, failingAtoms);
+      if (isAnd) {
+        result &= childResult;
+      } else if (isOr) {
+        result |= childResult;
+      } else if (isNot) {
+        result = !childResult;
+      }
+    }
+    if (!isAnd && !isOr && !isNot) {
+      // Unknown operator, let it match itself.
+      result = predicate.asMatchable().match(approvalContext);
+    }
+    return result;
+  }
+
+  /**
+   * State that is shared by the copy condition evaluations of all approvals that are copied from
+   * one patch set to another.
+   *
+   * <p>Copy conditions are parsed only once, and predicates that only depend on the patch sets
+   * (e.g. {@code changekind} and {@code has:unchanged-files}) are matched only once, regardless of
+   * how many approvals and labels use them.
+   *
+   * <p>Not thread-safe.
+   */
+  private class PatchSetPairEvaluation {
+    private final Map<String, Predicate<ApprovalContext>> copyConditions = new HashMap<>();
+    private final Map<Predicate<ApprovalContext>, Boolean> patchSetPredicateResults =
+        new HashMap<>();
+
+    Predicate<ApprovalContext> parse(String copyCondition) throws QueryParseException {
+      Predicate<ApprovalContext> predicate = copyConditions.get(copyCondition);
+      if (predicate == null) {
+        predicate = approvalQueryBuilder.parse(copyCondition);
+        copyConditions.put(copyCondition, predicate);
+      }
+      return predicate;
+    }
+
+    boolean match(Predicate<ApprovalContext> predicate, ApprovalContext approvalContext) {
+      if (!(predicate instanceof ApprovalPredicate)
+          || !((ApprovalPredicate) predicate).dependsOnlyOnPatchSets()) {
+        return predicate.asMatchable().match(approvalContext);
+      }
+      Boolean result = patchSetPredicateResults.get(predicate);
+      if (result == null) {
+        result = predicate.asMatchable().match(approvalContext);
+        patchSetPredicateResults.put(predicate, result);
+      }
+      return result;
     }
-    predicate
-        .getChildren()
-        .forEach(
-            childPredicate ->
-                evaluateAtoms(childPredicate, approvalContext, passingAtoms, failingAtoms));
   }
 
   /** Result for checking if an approval can be copied to the next patch set. */
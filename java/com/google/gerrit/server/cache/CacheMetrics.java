@@ -73,8 +73,32 @@ public class CacheMetrics {
             new Description("Disk hit ratio for persistent cache").setGauge().setUnit("percent"),
             F_NAME);
 
+    CallbackMetric1<String, Long> perDiskWriteQueue =
+        metrics.newCallbackMetric(
+            "caches/disk_write_queue_size",
+            Long.class,
+            new Description("Entries waiting to be written to disk by persistent cache")
+                .setGauge()
+                .setUnit("entries"),
+            F_NAME);
+    CallbackMetric1<String, Long> perDiskWriteDropped =
+        metrics.newCallbackMetric(
+            "caches/disk_write_dropped_count",
+            Long.class,
+            new Description("Entries not written to disk by persistent cache as the queue was full")
+                .setCumulative()
+                .setUnit("entries"),
+            F_NAME);
+
     Set<CallbackMetric<?>> cacheMetrics =
-        ImmutableSet.of(memEnt, memHit, memEvict, perDiskEnt, perDiskHit);
+        ImmutableSet.of(
+            memEnt,
+            memHit,
+            memEvict,
+            perDiskEnt,
+            perDiskHit,
+            perDiskWriteQueue,
+            perDiskWriteDropped);
 
     metrics.newTrigger(
         cacheMetrics,
@@ -86,11 +110,15 @@ public class CacheMetrics {
             memEnt.set(name, c.size());
             memHit.set(name, cstats.hitRate() * 100);
             memEvict.set(name, cstats.evictionCount());
-            if (c instanceof PersistentCache
-                && config.getBoolean("cache", "enableDiskStatMetrics", false)) {
-              PersistentCache.DiskStats d = ((PersistentCache) c).diskStats();
-              perDiskEnt.set(name, d.size());
-              perDiskHit.set(name, hitRatio(d));
+            if (c instanceof PersistentCache) {
+              PersistentCache p = (PersistentCache) c;
+              perDiskWriteQueue.set(name, p.writeQueueSize());
+              perDiskWriteDropped.set(name, p.droppedWriteCount());
+              if (config.getBoolean("cache", "enableDiskStatMetrics", false)) {
+                PersistentCache.DiskStats d = p.diskStats();
+                perDiskEnt.set(name, d.size());
+                perDiskHit.set(name, hitRatio(d));
+              }
             }
           }
           cacheMetrics.forEach(CallbackMetric::prune);
@@ -119,7 +119,9 @@ public class PerThreadCache implements AutoCloseable {
     return cache != null ? cache.get(key, loader) : loader.get();
   }
 
-  private final Map<Key<?>, Object> cache = Maps.newHashMapWithExpectedSize(PER_THREAD_CACHE_SIZE);
+  // Allocated on first use, as many requests don't cache anything and, when served on virtual
+  // threads, each request has its own thread and thus its own cache.
+  @Nullable private Map<Key<?>, Object> cache;
 
   private PerThreadCache() {}
 
@@ -128,6 +130,9 @@ public class PerThreadCache implements AutoCloseable {
    * provided {@link Supplier}.
    */
   public <T> T get(Key<T> key, Supplier<T> loader) {
+    if (cache == null) {
+      cache = Maps.newHashMapWithExpectedSize(PER_THREAD_CACHE_SIZE);
+    }
     @SuppressWarnings("unchecked")
     T value = (T) cache.get(key);
     if (value == null) {
@@ -18,6 +18,16 @@ public interface PersistentCache {
 
   DiskStats diskStats();
 
+  /** Returns the number of entries waiting to be written to disk. */
+  default long writeQueueSize() {
+    return 0;
+  }
+
+  /** Returns the number of entries that were not written to disk because the queue was full. */
+  default long droppedWriteCount() {
+    return 0;
+  }
+
   class DiskStats {
     private final long size;
     private final long space;
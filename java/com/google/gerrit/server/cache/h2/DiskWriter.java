@@ -0,0 +1,190 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import com.google.common.collect.Maps;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.DiskStore;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes entries of an {@link H2CacheImpl} to its {@link DiskStore} on a background executor.
+ *
+ * <p>By default each write is submitted to the executor on its own. In write-behind mode writes
+ * are buffered in a bounded queue, which a single task drains in batches. If the queue is full the
+ * write is dropped: the entry stays dirty in the memory tier and is written when the cache is
+ * stopped, or loaded again if it gets evicted before.
+ *
+ * <p>Invalidations go through the same queue as the writes, so that a write that is still queued
+ * can't restore an invalidated entry on disk. Invalidations are never dropped, the queue may exceed
+ * its size by the number of pending invalidations.
+ */
+class DiskWriter<K, V> {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final int MAX_BATCH_SIZE = 256;
+
+  private final Executor executor;
+  private final DiskStore<K, V> store;
+  private final int queueSize;
+
+  /** Pending writes, and invalidations with a {@code null} value. */
+  @Nullable private final BlockingQueue<Map.Entry<K, ValueHolder<V>>> queue;
+
+  /** Held while a batch is written, so that {@link #invalidateAll()} can't overtake it. */
+  private final Object writeLock = new Object();
+
+  private final AtomicBoolean draining = new AtomicBoolean();
+  private final AtomicLong dropped = new AtomicLong();
+
+  DiskWriter(Executor executor, DiskStore<K, V> store, int queueSize) {
+    this.executor = executor;
+    this.store = store;
+    this.queueSize = queueSize;
+    this.queue = queueSize > 0 ? new LinkedBlockingQueue<>() : null;
+  }
+
+  void put(K key, ValueHolder<V> h) {
+    if (queue == null) {
+      executor.execute(() -> store.put(key, h));
+      return;
+    }
+    enqueue(key, h);
+    scheduleDrain();
+  }
+
+  void putAll(Map<K, ValueHolder<V>> entries) {
+    if (entries.isEmpty()) {
+      return;
+    }
+    if (queue == null) {
+      executor.execute(() -> store.putAll(entries));
+      return;
+    }
+    entries.forEach(this::enqueue);
+    scheduleDrain();
+  }
+
+  void invalidate(K key) {
+    if (queue == null) {
+      if (store.mightContain(key)) {
+        executor.execute(() -> store.invalidate(key));
+      }
+      return;
+    }
+    // The key may not be on disk yet, but be written by a queued write.
+    queue.add(Maps.immutableEntry(key, null));
+    scheduleDrain();
+  }
+
+  /** Discards all buffered writes and invalidates all entries on disk in the calling thread. */
+  void invalidateAll() {
+    if (queue == null) {
+      store.invalidateAll();
+      return;
+    }
+    synchronized (writeLock) {
+      queue.clear();
+      store.invalidateAll();
+    }
+  }
+
+  /** Writes all buffered entries in the calling thread. */
+  void flush() {
+    if (queue == null) {
+      return;
+    }
+    List<Map.Entry<K, ValueHolder<V>>> batch = new ArrayList<>(MAX_BATCH_SIZE);
+    while (true) {
+      synchronized (writeLock) {
+        if (queue.drainTo(batch, MAX_BATCH_SIZE) == 0) {
+          return;
+        }
+        // Only the latest operation on a key needs to be applied. Invalidations are applied
+        // first, so a write that follows an invalidation of the same key isn't lost.
+        Map<K, ValueHolder<V>> entries = new LinkedHashMap<>();
+        Set<K> invalidations = new LinkedHashSet<>();
+        for (Map.Entry<K, ValueHolder<V>> e : batch) {
+          if (e.getValue() != null) {
+            entries.put(e.getKey(), e.getValue());
+          } else {
+            entries.remove(e.getKey());
+            invalidations.add(e.getKey());
+          }
+        }
+        for (K key : invalidations) {
+          if (store.mightContain(key)) {
+            store.invalidate(key);
+          }
+        }
+        store.putAll(entries);
+        batch.clear();
+      }
+    }
+  }
+
+  long queueSize() {
+    return queue != null ? queue.size() : 0;
+  }
+
+  long droppedCount() {
+    return dropped.get();
+  }
+
+  private void enqueue(K key, ValueHolder<V> h) {
+    // The size check races with other writers, so the queue may slightly exceed its size.
+    if (queue.size() >= queueSize) {
+      dropped.incrementAndGet();
+      return;
+    }
+    queue.add(Maps.immutableEntry(key, h));
+  }
+
+  private void scheduleDrain() {
+    if (draining.compareAndSet(false, true)) {
+      try {
+        executor.execute(this::drain);
+      } catch (RejectedExecutionException e) {
+        draining.set(false);
+        logger.atWarning().withCause(e).log("Cannot schedule disk cache writes");
+      }
+    }
+  }
+
+  private void drain() {
+    try {
+      flush();
+    } finally {
+      draining.set(false);
+    }
+    // Entries may have been queued after the last batch was taken, but before the flag was reset.
+    if (!queue.isEmpty()) {
+      scheduleDrain();
+    }
+  }
+}
@@ -24,6 +24,7 @@ import com.google.gerrit.extensions.registration.DynamicMap;
 import com.google.gerrit.server.cache.MemoryCacheFactory;
 import com.google.gerrit.server.cache.PersistentCacheBaseFactory;
 import com.google.gerrit.server.cache.PersistentCacheDef;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.DiskStore;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
 import com.google.gerrit.server.config.GerritServerConfig;
@@ -46,17 +47,26 @@ import org.eclipse.jgit.lib.Config;
 /**
  * Creates persistent caches depending on gerrit.config parameters. If the cache.directory property
  * is unset, it will fall back to in-memory caches.
+ *
+ * <p>The disk tier of each cache is selected by {@code cache.<name>.diskStore}: either an H2
+ * database (the default) or a {@link MappedSegmentStore}.
  */
 @Singleton
 class H2CacheFactory extends PersistentCacheBaseFactory implements LifecycleListener {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  enum DiskStoreType {
+    H2,
+    MMAP
+  }
+
   private final List<H2CacheImpl<?, ?>> caches;
   private final DynamicMap<Cache<?, ?>> cacheMap;
   private final ExecutorService executor;
   private final ScheduledExecutorService cleanup;
   private final long h2CacheSize;
   private final boolean h2AutoServer;
+  private final long mmapSegmentSize;
 
   @Inject
   H2CacheFactory(
@@ -67,6 +77,7 @@ class H2CacheFactory extends PersistentCacheBaseFactory implements LifecycleList
     super(memCacheFactory, cfg, site);
     h2CacheSize = cfg.getLong("cache", null, "h2CacheSize", -1);
     h2AutoServer = cfg.getBoolean("cache", null, "h2AutoServer", false);
+    mmapSegmentSize = cfg.getLong("cache", null, "mmapSegmentSize", 256 << 20);
     caches = new ArrayList<>();
     this.cacheMap = cacheMap;
 
@@ -133,10 +144,13 @@ class H2CacheFactory extends PersistentCacheBaseFactory implements LifecycleList
   @Override
   public <K, V> Cache<K, V> buildImpl(PersistentCacheDef<K, V> in, long limit) {
     H2CacheDefProxy<K, V> def = new H2CacheDefProxy<>(in);
-    SqlStore<K, V> store = newSqlStore(def, limit);
+    DiskStore<K, V> store = newStore(def, limit);
     H2CacheImpl<K, V> cache =
         new H2CacheImpl<>(
-            executor, store, def.keyType(), (Cache<K, ValueHolder<V>>) memCacheFactory.build(def));
+            store,
+            newWriter(def, store),
+            def.keyType(),
+            (Cache<K, ValueHolder<V>>) memCacheFactory.build(def));
     synchronized (caches) {
       caches.add(cache);
     }
@@ -148,12 +162,13 @@ class H2CacheFactory extends PersistentCacheBaseFactory implements LifecycleList
   public <K, V> LoadingCache<K, V> buildImpl(
       PersistentCacheDef<K, V> in, CacheLoader<K, V> loader, long limit) {
     H2CacheDefProxy<K, V> def = new H2CacheDefProxy<>(in);
-    SqlStore<K, V> store = newSqlStore(def, limit);
+    DiskStore<K, V> store = newStore(def, limit);
+    DiskWriter<K, V> writer = newWriter(def, store);
     Cache<K, ValueHolder<V>> mem =
         (Cache<K, ValueHolder<V>>)
             memCacheFactory.build(
-                def, (CacheLoader<K, V>) new H2CacheImpl.Loader<>(executor, store, loader));
-    H2CacheImpl<K, V> cache = new H2CacheImpl<>(executor, store, def.keyType(), mem);
+                def, (CacheLoader<K, V>) new H2CacheImpl.Loader<>(executor, store, writer, loader));
+    H2CacheImpl<K, V> cache = new H2CacheImpl<>(store, writer, def.keyType(), mem);
     synchronized (caches) {
       caches.add(cache);
     }
@@ -172,6 +187,28 @@ class H2CacheFactory extends PersistentCacheBaseFactory implements LifecycleList
     }
   }
 
+  private <K, V> DiskWriter<K, V> newWriter(PersistentCacheDef<K, V> def, DiskStore<K, V> store) {
+    return new DiskWriter<>(
+        executor, store, config.getInt("cache", def.configKey(), "writeBehindQueueSize", 0));
+  }
+
+  private <K, V> DiskStore<K, V> newStore(PersistentCacheDef<K, V> def, long maxSize) {
+    DiskStoreType type = config.getEnum("cache", def.configKey(), "diskStore", DiskStoreType.H2);
+    if (type == DiskStoreType.MMAP) {
+      return new MappedSegmentStore<>(
+          cacheDir,
+          def.name(),
+          def.keySerializer(),
+          def.valueSerializer(),
+          def.version(),
+          maxSize,
+          mmapSegmentSize,
+          def.expireAfterWrite(),
+          def.expireFromMemoryAfterAccess());
+    }
+    return newSqlStore(def, maxSize);
+  }
+
   private <V, K> SqlStore<K, V> newSqlStore(PersistentCacheDef<K, V> def, long maxSize) {
     StringBuilder url = new StringBuilder();
     url.append("jdbc:h2:").append(cacheDir.resolve(def.name()).toUri());
@@ -70,13 +70,17 @@ import java.util.concurrent.atomic.AtomicLong;
  * such as the PatchListCache.
  *
  * <p>Cache stores and invalidations are performed on a background thread, hiding the latency
- * associated with serializing the key and value pairs and writing them to the database log.
+ * associated with serializing the key and value pairs and writing them to the database log. In
+ * write-behind mode stores are buffered and written in batches by {@link DiskWriter}.
  *
  * <p>A BloomFilter is used around the database to reduce the number of SELECTs issued against the
  * database for new cache items that have not been seen before, a common operation for the
  * PatchListCache. The BloomFilter is sized when the cache starts to be 64,000 entries or double the
  * number of items currently in the database table.
  *
+ * <p>Instead of the database, the disk tier may be a {@link MappedSegmentStore}, which serves
+ * lookups from memory-mapped files without going through JDBC.
+ *
  * <p>This cache does not export its items as a ConcurrentMap.
  *
  * @see H2CacheFactory
@@ -87,18 +91,26 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
   private static final ImmutableSet<String> OLD_CLASS_NAMES =
       ImmutableSet.of("com.google.gerrit.server.change.ChangeKind");
 
-  private final Executor executor;
-  private final SqlStore<K, V> store;
+  private final DiskStore<K, V> store;
+  private final DiskWriter<K, V> writer;
   private final TypeLiteral<K> keyType;
   private final Cache<K, ValueHolder<V>> mem;
 
   H2CacheImpl(
       Executor executor,
-      SqlStore<K, V> store,
+      DiskStore<K, V> store,
+      TypeLiteral<K> keyType,
+      Cache<K, ValueHolder<V>> mem) {
+    this(store, new DiskWriter<>(executor, store, 0), keyType, mem);
+  }
+
+  H2CacheImpl(
+      DiskStore<K, V> store,
+      DiskWriter<K, V> writer,
       TypeLiteral<K> keyType,
       Cache<K, ValueHolder<V>> mem) {
-    this.executor = executor;
     this.store = store;
+    this.writer = writer;
     this.keyType = keyType;
     this.mem = mem;
   }
@@ -172,7 +184,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
 
               ValueHolder<V> h =
                   new ValueHolder<>(valueLoader.call(), Instant.ofEpochMilli(TimeUtil.nowMs()));
-              executor.execute(() -> store.put(key, h));
+              writer.put(key, h);
               return h;
             })
         .value;
@@ -182,21 +194,21 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
   public void put(K key, V val) {
     final ValueHolder<V> h = new ValueHolder<>(val, Instant.ofEpochMilli(TimeUtil.nowMs()));
     mem.put(key, h);
-    executor.execute(() -> store.put(key, h));
+    writer.put(key, h);
   }
 
   @SuppressWarnings("unchecked")
   @Override
   public void invalidate(Object key) {
-    if (keyType.getRawType().isInstance(key) && store.mightContain((K) key)) {
-      executor.execute(() -> store.invalidate((K) key));
+    if (keyType.getRawType().isInstance(key)) {
+      writer.invalidate((K) key);
     }
     mem.invalidate(key);
   }
 
   @Override
   public void invalidateAll() {
-    store.invalidateAll();
+    writer.invalidateAll();
     mem.invalidateAll();
   }
 
@@ -215,11 +227,22 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
     return store.diskStats();
   }
 
+  @Override
+  public long writeQueueSize() {
+    return writer.queueSize();
+  }
+
+  @Override
+  public long droppedWriteCount() {
+    return writer.droppedCount();
+  }
+
   void start() {
     store.open();
   }
 
   void stop() {
+    writer.flush();
     for (Map.Entry<K, ValueHolder<V>> e : mem.asMap().entrySet()) {
       ValueHolder<V> h = e.getValue();
       if (!h.clean) {
@@ -258,12 +281,22 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
 
   static class Loader<K, V> extends CacheLoader<K, ValueHolder<V>> {
     private final Executor executor;
-    private final SqlStore<K, V> store;
+    private final DiskStore<K, V> store;
+    private final DiskWriter<K, V> writer;
     private final CacheLoader<K, V> loader;
 
-    Loader(Executor executor, SqlStore<K, V> store, CacheLoader<K, V> loader) {
+    Loader(Executor executor, DiskStore<K, V> store, CacheLoader<K, V> loader) {
+      this(executor, store, new DiskWriter<>(executor, store, 0), loader);
+    }
+
+    Loader(
+        Executor executor,
+        DiskStore<K, V> store,
+        DiskWriter<K, V> writer,
+        CacheLoader<K, V> loader) {
       this.executor = executor;
       this.store = store;
+      this.writer = writer;
       this.loader = loader;
     }
 
@@ -281,7 +314,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
 
         final ValueHolder<V> h =
             new ValueHolder<>(loader.load(key), Instant.ofEpochMilli(TimeUtil.nowMs()));
-        executor.execute(() -> store.put(key, h));
+        writer.put(key, h);
         return h;
       }
     }
@@ -306,14 +339,16 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
         try {
           Map<K, V> remaining = loader.loadAll(notInMemory);
           Instant instant = Instant.ofEpochMilli(TimeUtil.nowMs());
-          storeInDatabase(remaining, instant);
+          Map<K, ValueHolder<V>> loaded = new HashMap<>();
           remaining
               .entrySet()
-              .forEach(e -> result.put(e.getKey(), new ValueHolder<>(e.getValue(), instant)));
+              .forEach(e -> loaded.put(e.getKey(), new ValueHolder<>(e.getValue(), instant)));
+          writer.putAll(loaded);
+          result.putAll(loaded);
         } catch (UnsupportedLoadingOperationException e) {
           // Fallback to the default load() if loadAll() is not implemented
           for (K k : notInMemory) {
-            result.put(k, load(k)); // No need to storeInDatabase here; load(k) does that.
+            result.put(k, load(k)); // No need to write to disk here; load(k) does that.
           }
         }
         return result;
@@ -329,7 +364,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
           new FutureCallback<V>() {
             @Override
             public void onSuccess(V result) {
-              store.put(key, new ValueHolder<>(result, TimeUtil.now()));
+              writer.put(key, new ValueHolder<>(result, TimeUtil.now()));
             }
 
             @Override
@@ -341,18 +376,39 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
 
       return Futures.transform(reloadedValue, v -> new ValueHolder<>(v, TimeUtil.now()), executor);
     }
+  }
 
-    private void storeInDatabase(Map<K, V> entries, Instant instant) {
-      executor.execute(
-          () -> {
-            for (Map.Entry<K, V> entry : entries.entrySet()) {
-              store.put(entry.getKey(), new ValueHolder<>(entry.getValue(), instant));
-            }
-          });
+  /** Disk tier of the cache, holding serialized entries that survive restarts. */
+  abstract static class DiskStore<K, V> {
+    abstract void open();
+
+    abstract void close();
+
+    /** Returns false only if the key is definitely not present on disk. */
+    abstract boolean mightContain(K key);
+
+    @Nullable
+    abstract ValueHolder<V> getIfPresent(K key);
+
+    abstract boolean needsRefresh(Instant created);
+
+    abstract void put(K key, ValueHolder<V> holder);
+
+    void putAll(Map<K, ValueHolder<V>> entries) {
+      entries.forEach(this::put);
     }
+
+    abstract void invalidate(K key);
+
+    abstract void invalidateAll();
+
+    /** Trims the store to its size limit, keeping entries still present in {@code mem}. */
+    abstract void prune(Cache<K, ?> mem);
+
+    abstract DiskStats diskStats();
   }
 
-  static class SqlStore<K, V> {
+  static class SqlStore<K, V> extends DiskStore<K, V> {
     private final String url;
     private final KeyType<K> keyType;
     private final CacheSerializer<V> valueSerializer;
@@ -397,12 +453,14 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       return new ObjectKeyTypeImpl<>(serializer);
     }
 
+    @Override
     synchronized void open() {
       if (bloomFilter == null) {
         bloomFilter = buildBloomFilter();
       }
     }
 
+    @Override
     void close() {
       SqlHandle h;
       while ((h = handles.poll()) != null) {
@@ -410,6 +468,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
+    @Override
     boolean mightContain(K key) {
       BloomFilter<K> b = bloomFilter;
       if (b == null) {
@@ -475,6 +534,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
     }
 
     @Nullable
+    @Override
     ValueHolder<V> getIfPresent(K key) {
       SqlHandle c = null;
       try {
@@ -538,7 +598,8 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       return age.compareTo(expireAfterWrite) > 0;
     }
 
-    private boolean needsRefresh(Instant created) {
+    @Override
+    boolean needsRefresh(Instant created) {
       if (refreshAfterWrite == null) {
         return false;
       }
@@ -560,6 +621,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
+    @Override
     void put(K key, ValueHolder<V> holder) {
       if (holder.clean) {
         return;
@@ -598,6 +660,63 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
+    @Override
+    void putAll(Map<K, ValueHolder<V>> entries) {
+      List<ValueHolder<V>> written = new ArrayList<>(entries.size());
+      SqlHandle c = null;
+      try {
+        c = acquire();
+        if (c.put == null) {
+          c.put =
+              c.conn.prepareStatement(
+                  "MERGE INTO data (k, v, version, created, accessed) VALUES(?,?,?,?,?)");
+        }
+        try {
+          Timestamp accessed = new Timestamp(TimeUtil.nowMs());
+          for (Map.Entry<K, ValueHolder<V>> e : entries.entrySet()) {
+            ValueHolder<V> holder = e.getValue();
+            if (holder.clean) {
+              continue;
+            }
+            BloomFilter<K> b = bloomFilter;
+            if (b != null) {
+              b.put(e.getKey());
+            }
+            keyType.set(c.put, 1, e.getKey());
+            c.put.setBytes(2, valueSerializer.serialize(holder.value));
+            c.put.setInt(3, version);
+            c.put.setTimestamp(4, Timestamp.from(holder.created));
+            c.put.setTimestamp(5, accessed);
+            c.put.addBatch();
+            written.add(holder);
+          }
+          if (!written.isEmpty()) {
+            // Commit the batch at once rather than each row on its own.
+            c.conn.setAutoCommit(false);
+            try {
+              c.put.executeBatch();
+              c.conn.commit();
+            } catch (SQLException e) {
+              c.conn.rollback();
+              throw e;
+            } finally {
+              c.conn.setAutoCommit(true);
+            }
+            written.forEach(h -> h.clean = true);
+          }
+        } finally {
+          c.put.clearBatch();
+          c.put.clearParameters();
+        }
+      } catch (IOException | SQLException e) {
+        logger.atWarning().withCause(e).log("Cannot put into cache %s", url);
+        c = close(c);
+      } finally {
+        release(c);
+      }
+    }
+
+    @Override
     void invalidate(K key) {
       SqlHandle c = null;
       try {
@@ -624,6 +743,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
+    @Override
     void invalidateAll() {
       SqlHandle c = null;
       try {
@@ -640,6 +760,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
+    @Override
     void prune(Cache<K, ?> mem) {
       SqlHandle c = null;
       try {
@@ -686,6 +807,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
+    @Override
     DiskStats diskStats() {
       long size = 0;
       long space = 0;
@@ -0,0 +1,831 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.cache.PersistentCache.DiskStats;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.DiskStore;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.util.time.TimeUtil;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Disk store keeping entries in append-only, memory-mapped segment files.
+ *
+ * <p>Every put or invalidation appends a record to the current segment. An open addressing hash
+ * table held in direct memory maps the 64 bit hash of each serialized key to the location of its
+ * latest record, so a lookup is one probe into the table and one read from the mapped segment. The
+ * table is rebuilt by scanning the segments when the store is opened. Lookups are misses until the
+ * scan has completed.
+ *
+ * <p>Overwritten and invalidated records remain in their segment until it is compacted by {@link
+ * #prune(Cache)}. Segments are compacted oldest first while the store exceeds its size limit, or
+ * while the oldest segment is mostly garbage. Live entries of a compacted segment are appended
+ * again, except that only entries still held in memory are kept while the store exceeds its limit.
+ */
+class MappedSegmentStore<K, V> extends DiskStore<K, V> {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String SUFFIX = ".seg";
+  private static final long MIN_SEGMENT_SIZE = 1 << 20;
+
+  // Record layout: length (int), type (byte), version (int), created (long), key length (int),
+  // followed by the key and the value. The length is written last, a length of 0 marks the end of
+  // the segment.
+  private static final int HEADER_SIZE = 4 + 1 + 4 + 8 + 4;
+  private static final byte PUT = 1;
+  private static final byte DELETE = 2;
+
+  private final Path dir;
+  private final String name;
+  private final CacheSerializer<K> keySerializer;
+  private final CacheSerializer<V> valueSerializer;
+  private final int version;
+  private final long maxSize;
+  private final int segmentSize;
+  @Nullable private final Duration expireAfterWrite;
+  @Nullable private final Duration refreshAfterWrite;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // Held while the segments are scanned, which is done without holding the lock above. Must be
+  // acquired before the lock above.
+  private final ReentrantLock openLock = new ReentrantLock();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private TreeMap<Integer, Segment> segments = new TreeMap<>();
+  private Index index = new Index();
+  private volatile boolean opened;
+
+  MappedSegmentStore(
+      Path dir,
+      String name,
+      CacheSerializer<K> keySerializer,
+      CacheSerializer<V> valueSerializer,
+      int version,
+      long maxSize,
+      long segmentSize,
+      @Nullable Duration expireAfterWrite,
+      @Nullable Duration refreshAfterWrite) {
+    this.dir = dir;
+    this.name = name;
+    this.keySerializer = keySerializer;
+    this.valueSerializer = valueSerializer;
+    this.version = version;
+    this.maxSize = maxSize;
+    // Segments must be small enough for compaction to bring the store below its limit.
+    this.segmentSize =
+        (int)
+            Math.min(
+                Integer.MAX_VALUE, Math.max(MIN_SEGMENT_SIZE, Math.min(segmentSize, maxSize / 4)));
+    this.expireAfterWrite = expireAfterWrite;
+    this.refreshAfterWrite = refreshAfterWrite;
+  }
+
+  @Override
+  void open() {
+    openLock.lock();
+    try {
+      load();
+    } finally {
+      openLock.unlock();
+    }
+  }
+
+  @Override
+  void close() {
+    openLock.lock();
+    lock.writeLock().lock();
+    try {
+      for (Segment s : segments.values()) {
+        s.buf.force();
+        s.unmap();
+      }
+      segments.clear();
+      index.clear();
+      opened = false;
+    } finally {
+      lock.writeLock().unlock();
+      openLock.unlock();
+    }
+  }
+
+  @Override
+  boolean mightContain(K key) {
+    long hash = hash(keySerializer.serialize(key));
+    if (!tryOpen()) {
+      return false;
+    }
+    lock.readLock().lock();
+    try {
+      return opened && index.get(hash) >= 0;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Nullable
+  @Override
+  ValueHolder<V> getIfPresent(K key) {
+    byte[] k = keySerializer.serialize(key);
+    long hash = hash(k);
+    Instant created;
+    byte[] v;
+    if (!tryOpen()) {
+      missCount.incrementAndGet();
+      return null;
+    }
+    lock.readLock().lock();
+    try {
+      long loc = opened ? index.get(hash) : -1;
+      Segment s = loc >= 0 ? segments.get(segmentId(loc)) : null;
+      if (s == null) {
+        missCount.incrementAndGet();
+        return null;
+      }
+      int off = offset(loc);
+      int keyLength = s.keyLength(off);
+      if (!Arrays.equals(k, s.bytes(off + HEADER_SIZE, keyLength))) {
+        // 64 bit hash collision with a different key.
+        missCount.incrementAndGet();
+        return null;
+      }
+      created = Instant.ofEpochMilli(s.created(off));
+      v = s.bytes(off + HEADER_SIZE + keyLength, s.length(off) - HEADER_SIZE - keyLength);
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    if (expired(created)) {
+      invalidate(key);
+      missCount.incrementAndGet();
+      return null;
+    }
+
+    V val;
+    try {
+      val = valueSerializer.deserialize(v);
+    } catch (RuntimeException e) {
+      logger.atWarning().withCause(e).log("Cannot read cache %s for %s", name, key);
+      invalidate(key);
+      missCount.incrementAndGet();
+      return null;
+    }
+    ValueHolder<V> h = new ValueHolder<>(val, created);
+    h.clean = true;
+    hitCount.incrementAndGet();
+    return h;
+  }
+
+  private boolean expired(Instant created) {
+    if (expireAfterWrite == null) {
+      return false;
+    }
+    Duration age = Duration.between(created, TimeUtil.now());
+    return age.compareTo(expireAfterWrite) > 0;
+  }
+
+  @Override
+  boolean needsRefresh(Instant created) {
+    if (refreshAfterWrite == null) {
+      return false;
+    }
+    Duration age = Duration.between(created, TimeUtil.now());
+    return age.compareTo(refreshAfterWrite) > 0;
+  }
+
+  @Override
+  void put(K key, ValueHolder<V> holder) {
+    if (holder.clean) {
+      return;
+    }
+    byte[] k = keySerializer.serialize(key);
+    byte[] v = valueSerializer.serialize(holder.value);
+    long hash = hash(k);
+    lockOpen();
+    try {
+      if (!index.reserve(hash)) {
+        logger.atWarning().atMostEvery(1, MINUTES).log(
+            "Cannot put into cache %s, its index is full", name);
+        return;
+      }
+      long loc = append(PUT, holder.created.toEpochMilli(), k, v);
+      if (loc >= 0) {
+        markDead(index.put(hash, loc));
+        holder.clean = true;
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot put into cache %s", name);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  void invalidate(K key) {
+    byte[] k = keySerializer.serialize(key);
+    lockOpen();
+    try {
+      long old = index.remove(hash(k));
+      if (old >= 0) {
+        markDead(old);
+        // The tombstone prevents the old record from being indexed again on the next open.
+        long tombstone = append(DELETE, TimeUtil.nowMs(), k, new byte[0]);
+        markDead(tombstone);
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot invalidate cache %s", name);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  void invalidateAll() {
+    lockOpen();
+    try {
+      for (Segment s : segments.values()) {
+        delete(s);
+      }
+      segments.clear();
+      index.clear();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  void prune(Cache<K, ?> mem) {
+    // Compact one segment at a time so that readers are only blocked for a single segment. Only
+    // segments that were already full when pruning started are compacted, as the others may
+    // contain entries that were just appended again.
+    int current;
+    lockOpen();
+    try {
+      if (segments.isEmpty()) {
+        return;
+      }
+      current = segments.lastKey();
+    } finally {
+      lock.writeLock().unlock();
+    }
+    while (true) {
+      lock.writeLock().lock();
+      try {
+        Segment oldest = segments.isEmpty() ? null : segments.firstEntry().getValue();
+        boolean overLimit = diskSpace() > maxSize;
+        if (oldest == null
+            || oldest.id >= current
+            || (!overLimit && oldest.deadBytes * 2 < oldest.end)) {
+          return;
+        }
+        compact(oldest, overLimit ? mem : null);
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot prune cache %s", name);
+        return;
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
+  @Override
+  DiskStats diskStats() {
+    lock.readLock().lock();
+    try {
+      return new DiskStats(index.size(), diskSpace(), hitCount.get(), missCount.get());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Opens the store unless another thread is already doing so, returning whether it's open.
+   *
+   * <p>Reads that arrive while the segments are scanned, usually by the background open on startup,
+   * are treated as misses rather than waiting for the scan to complete.
+   */
+  private boolean tryOpen() {
+    if (opened) {
+      return true;
+    }
+    if (!openLock.tryLock()) {
+      return false;
+    }
+    try {
+      load();
+      return true;
+    } finally {
+      openLock.unlock();
+    }
+  }
+
+  /** Acquires the write lock, opening the store first if necessary. */
+  private void lockOpen() {
+    while (true) {
+      open();
+      lock.writeLock().lock();
+      if (opened) {
+        return;
+      }
+      // Closed concurrently.
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Scans the segments and publishes them together with their index. Must be called with {@link
+   * #openLock} held, the scan itself doesn't hold {@link #lock}.
+   */
+  private void load() {
+    if (opened) {
+      return;
+    }
+    TreeMap<Integer, Segment> loaded = new TreeMap<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, name + ".*" + SUFFIX)) {
+      for (Path p : files) {
+        Integer id = segmentId(p);
+        if (id != null) {
+          loaded.put(id, Segment.open(id, p));
+        }
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot open cache %s in %s", name, dir);
+    }
+    Index loadedIndex = new Index();
+    for (Segment s : loaded.values()) {
+      scan(s, loaded, loadedIndex);
+    }
+
+    lock.writeLock().lock();
+    try {
+      // Nothing was written in the meantime, writes open the store before writing.
+      Index old = index;
+      segments = loaded;
+      index = loadedIndex;
+      old.release();
+      opened = true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private long diskSpace() {
+    long space = 0;
+    for (Segment s : segments.values()) {
+      space += s.end;
+    }
+    return space;
+  }
+
+  private void scan(Segment s, TreeMap<Integer, Segment> segments, Index index) {
+    int off = 0;
+    while (true) {
+      int length = s.validLength(off);
+      if (length == 0) {
+        break;
+      }
+      int keyLength = s.keyLength(off);
+      long hash = hash(s.bytes(off + HEADER_SIZE, keyLength));
+      long loc = location(s.id, off);
+      if (s.type(off) == DELETE) {
+        markDead(segments, index.remove(hash));
+        s.deadBytes += length;
+      } else if (s.version(off) != version) {
+        s.deadBytes += length;
+      } else if (!index.reserve(hash)) {
+        logger.atWarning().atMostEvery(1, MINUTES).log(
+            "Cannot load all entries of cache %s, its index is full", name);
+        s.deadBytes += length;
+      } else {
+        markDead(segments, index.put(hash, loc));
+      }
+      off += length;
+    }
+    s.end = off;
+  }
+
+  /**
+   * Compacts a segment by appending its live entries again and deleting it. If {@code mem} is set,
+   * only entries still held in memory are kept.
+   */
+  private void compact(Segment s, @Nullable Cache<K, ?> mem) throws IOException {
+    int pruned = 0;
+    for (int off = 0; off < s.end; off += s.length(off)) {
+      if (s.type(off) != PUT) {
+        continue;
+      }
+      int keyLength = s.keyLength(off);
+      byte[] k = s.bytes(off + HEADER_SIZE, keyLength);
+      long hash = hash(k);
+      if (index.get(hash) != location(s.id, off)) {
+        continue;
+      }
+      Instant created = Instant.ofEpochMilli(s.created(off));
+      if (!expired(created)
+          && (mem == null || mem.getIfPresent(keySerializer.deserialize(k)) != null)) {
+        byte[] v = s.bytes(off + HEADER_SIZE + keyLength, s.length(off) - HEADER_SIZE - keyLength);
+        long loc = append(PUT, created.toEpochMilli(), k, v);
+        if (loc >= 0) {
+          index.put(hash, loc);
+          continue;
+        }
+      }
+      index.remove(hash);
+      pruned++;
+    }
+    segments.remove(s.id);
+    delete(s);
+    if (pruned > 0) {
+      logger.atInfo().log("Pruned %d entries from cache %s", pruned, name);
+    }
+  }
+
+  /** Appends a record, returning its location or -1 if it's too large to fit into a segment. */
+  private long append(byte type, long created, byte[] k, byte[] v) throws IOException {
+    int length = HEADER_SIZE + k.length + v.length;
+    if (length > segmentSize) {
+      logger.atWarning().log(
+          "Cannot store entry of %d bytes in cache %s with segments of %d bytes",
+          length, name, segmentSize);
+      return -1;
+    }
+    Segment s = segments.isEmpty() ? null : segments.lastEntry().getValue();
+    if (s == null || s.buf.capacity() - s.end < length) {
+      if (s != null) {
+        s.buf.force();
+      }
+      int id = s == null ? 0 : s.id + 1;
+      s =
+          Segment.create(
+              id, dir.resolve(String.format("%s.%08d%s", name, id, SUFFIX)), segmentSize);
+      segments.put(id, s);
+    }
+    int off = s.end;
+    ByteBuffer b = s.buf.duplicate();
+    b.position(off + 4);
+    b.put(type).putInt(version).putLong(created).putInt(k.length).put(k).put(v);
+    s.buf.putInt(off, length);
+    s.end = off + length;
+    return location(s.id, off);
+  }
+
+  private void markDead(long loc) {
+    markDead(segments, loc);
+  }
+
+  private static void markDead(TreeMap<Integer, Segment> segments, long loc) {
+    if (loc >= 0) {
+      Segment s = segments.get(segmentId(loc));
+      if (s != null) {
+        s.deadBytes += s.length(offset(loc));
+      }
+    }
+  }
+
+  private void delete(Segment s) {
+    s.unmap();
+    try {
+      Files.deleteIfExists(s.path);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot delete %s", s.path);
+    }
+  }
+
+  @Nullable
+  private Integer segmentId(Path p) {
+    String n = p.getFileName().toString();
+    try {
+      return Integer.valueOf(n.substring(name.length() + 1, n.length() - SUFFIX.length()));
+    } catch (NumberFormatException | IndexOutOfBoundsException e) {
+      return null;
+    }
+  }
+
+  private static long hash(byte[] key) {
+    return Hashing.murmur3_128().hashBytes(key).asLong();
+  }
+
+  private static long location(int segment, int offset) {
+    return ((long) segment << 32) | offset;
+  }
+
+  private static int segmentId(long loc) {
+    return (int) (loc >>> 32);
+  }
+
+  private static int offset(long loc) {
+    return (int) loc;
+  }
+
+  private static class Segment {
+    final int id;
+    final Path path;
+    final MappedByteBuffer buf;
+    int end;
+    long deadBytes;
+
+    static Segment create(int id, Path path, int size) throws IOException {
+      try (FileChannel ch =
+          FileChannel.open(
+              path,
+              StandardOpenOption.CREATE_NEW,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE)) {
+        return new Segment(id, path, ch.map(FileChannel.MapMode.READ_WRITE, 0, size));
+      }
+    }
+
+    static Segment open(int id, Path path) throws IOException {
+      try (FileChannel ch =
+          FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        return new Segment(id, path, ch.map(FileChannel.MapMode.READ_WRITE, 0, ch.size()));
+      }
+    }
+
+    private Segment(int id, Path path, MappedByteBuffer buf) {
+      this.id = id;
+      this.path = path;
+      this.buf = buf;
+    }
+
+    /** Returns the length of the record at {@code off}, or 0 if there is no complete record. */
+    int validLength(int off) {
+      if (buf.capacity() - off < HEADER_SIZE) {
+        return 0;
+      }
+      int length = length(off);
+      byte type = type(off);
+      if (length < HEADER_SIZE
+          || length > buf.capacity() - off
+          || (type != PUT && type != DELETE)
+          || keyLength(off) < 0
+          || keyLength(off) > length - HEADER_SIZE) {
+        return 0;
+      }
+      return length;
+    }
+
+    int length(int off) {
+      return buf.getInt(off);
+    }
+
+    byte type(int off) {
+      return buf.get(off + 4);
+    }
+
+    int version(int off) {
+      return buf.getInt(off + 5);
+    }
+
+    long created(int off) {
+      return buf.getLong(off + 9);
+    }
+
+    int keyLength(int off) {
+      return buf.getInt(off + 17);
+    }
+
+    byte[] bytes(int off, int length) {
+      byte[] dst = new byte[length];
+      ByteBuffer b = buf.duplicate();
+      b.position(off);
+      b.get(dst);
+      return dst;
+    }
+
+    /**
+     * Releases the mapping of the segment. Must be called with the write lock held, and the segment
+     * must not be accessed afterwards.
+     */
+    void unmap() {
+      Unmapper.release(buf);
+    }
+  }
+
+  /**
+   * Releases direct and mapped buffers right away instead of waiting for the garbage collector,
+   * which may keep the mappings of deleted segment files, and the disk space of these files, alive
+   * for a long time.
+   */
+  private static class Unmapper {
+    @Nullable private static final MethodHandle INVOKE_CLEANER = invokeCleaner();
+
+    @Nullable
+    private static MethodHandle invokeCleaner() {
+      try {
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        return MethodHandles.lookup()
+            .findVirtual(
+                unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+            .bindTo(theUnsafe.get(null));
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        logger.atWarning().withCause(e).log(
+            "Cannot release cache buffers explicitly, relying on garbage collection");
+        return null;
+      }
+    }
+
+    static void release(ByteBuffer buf) {
+      if (INVOKE_CLEANER == null || !buf.isDirect()) {
+        return;
+      }
+      try {
+        INVOKE_CLEANER.invokeExact(buf);
+      } catch (Throwable e) {
+        logger.atWarning().withCause(e).log("Cannot release cache buffer");
+      }
+    }
+  }
+
+  /**
+   * Open addressing hash table with linear probing, stored in a direct buffer to keep large indexes
+   * off the Java heap. Each slot holds a key hash and the record location plus one, so that 0
+   * denotes an empty slot. New hashes are refused once the table has reached its maximum capacity
+   * and is filled to its load factor.
+   */
+  @VisibleForTesting
+  static class Index {
+    private static final int SLOT_SIZE = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    // The capacity is a power of 2 and the table must fit into a single buffer.
+    private static final int MAX_CAPACITY = Integer.highestOneBit(Integer.MAX_VALUE / SLOT_SIZE);
+    private static final long EMPTY = 0;
+    private static final long REMOVED = -1;
+
+    static final long FULL = -2;
+
+    private final int maxCapacity;
+    private ByteBuffer table;
+    private int mask;
+    private int size;
+    private int used;
+
+    Index() {
+      this(MAX_CAPACITY);
+    }
+
+    @VisibleForTesting
+    Index(int maxCapacity) {
+      this.maxCapacity = maxCapacity;
+      allocate(INITIAL_CAPACITY);
+    }
+
+    int size() {
+      return size;
+    }
+
+    /** Returns the location stored for {@code hash}, or -1. */
+    long get(long hash) {
+      for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+        long loc = table.getLong(i * SLOT_SIZE + 8);
+        if (loc == EMPTY) {
+          return -1;
+        }
+        if (loc != REMOVED && table.getLong(i * SLOT_SIZE) == hash) {
+          return loc - 1;
+        }
+      }
+    }
+
+    /**
+     * Makes room for storing {@code hash}, growing the table if necessary. Returns false if the
+     * table is full and {@code hash} isn't present yet.
+     */
+    boolean reserve(long hash) {
+      return used < threshold(capacity()) || get(hash) >= 0 || rehash();
+    }
+
+    /**
+     * Stores {@code loc} for {@code hash}, returning the previous location, -1 if there was none,
+     * or {@link #FULL} if {@code hash} was refused as the table is full.
+     */
+    long put(long hash, long loc) {
+      if (!reserve(hash)) {
+        return FULL;
+      }
+      int removed = -1;
+      for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+        long old = table.getLong(i * SLOT_SIZE + 8);
+        if (old == EMPTY) {
+          int slot = removed >= 0 ? removed : i;
+          if (removed < 0) {
+            used++;
+          }
+          table.putLong(slot * SLOT_SIZE, hash);
+          table.putLong(slot * SLOT_SIZE + 8, loc + 1);
+          size++;
+          return -1;
+        }
+        if (old == REMOVED) {
+          if (removed < 0) {
+            removed = i;
+          }
+        } else if (table.getLong(i * SLOT_SIZE) == hash) {
+          table.putLong(i * SLOT_SIZE + 8, loc + 1);
+          return old - 1;
+        }
+      }
+    }
+
+    /** Removes {@code hash}, returning the location stored for it or -1. */
+    long remove(long hash) {
+      for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+        long old = table.getLong(i * SLOT_SIZE + 8);
+        if (old == EMPTY) {
+          return -1;
+        }
+        if (old != REMOVED && table.getLong(i * SLOT_SIZE) == hash) {
+          table.putLong(i * SLOT_SIZE + 8, REMOVED);
+          size--;
+          return old - 1;
+        }
+      }
+    }
+
+    void clear() {
+      ByteBuffer old = table;
+      allocate(INITIAL_CAPACITY);
+      Unmapper.release(old);
+    }
+
+    /** Releases the table. The index must not be accessed afterwards. */
+    void release() {
+      Unmapper.release(table);
+    }
+
+    private int capacity() {
+      return mask + 1;
+    }
+
+    private static int threshold(int capacity) {
+      return capacity / 4 * 3;
+    }
+
+    private void allocate(int capacity) {
+      table = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+      mask = capacity - 1;
+      size = 0;
+      used = 0;
+    }
+
+    /** Grows the table or drops its removed slots, returning false if there is no room left. */
+    private boolean rehash() {
+      ByteBuffer old = table;
+      int oldCapacity = capacity();
+      // Grow only if live entries fill the table, otherwise just drop the removed slots.
+      int capacity =
+          size > oldCapacity / 2 && oldCapacity < maxCapacity ? oldCapacity * 2 : oldCapacity;
+      if (size >= threshold(capacity)) {
+        return false;
+      }
+      allocate(capacity);
+      for (int i = 0; i < oldCapacity; i++) {
+        long loc = old.getLong(i * SLOT_SIZE + 8);
+        if (loc != EMPTY && loc != REMOVED) {
+          put(old.getLong(i * SLOT_SIZE), loc - 1);
+        }
+      }
+      Unmapper.release(old);
+      return true;
+    }
+  }
+}
@@ -18,6 +18,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableSet;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 /**
  * Context that allows to register {@link RequestStateProvider}s.
@@ -30,10 +31,11 @@ import java.util.Set;
  *
  * <p>Nesting {@code RequestStateContext}s is possible.
  *
- * <p>Currently there is no logic to automatically copy the {@link RequestStateContext} to
- * background threads, but implementing this may be considered in the future. This means that by
- * default we only support cancellation of the main thread, but not of background threads. That's
- * fine as all significant work is being done in the main thread.
+ * <p>The {@link RequestStateContext} is not automatically copied to background threads. This means
+ * that by default we only support cancellation of the main thread, but not of background threads.
+ * That's fine as most significant work is being done in the main thread. Work that is offloaded
+ * to a background thread on behalf of the request can be wrapped by {@link #wrap(Callable)}, so
+ * that it can be aborted when the request is cancelled.
  *
  * <p>{@link com.google.gerrit.server.util.RequestContext} is also a context that is available for
  * the time of the request, but it is not suitable to manage registrations of {@link
@@ -117,6 +119,30 @@ public class RequestStateContext implements AutoCloseable {
     return ImmutableSet.copyOf(threadLocalRequestStateProviders.get());
   }
 
+  /**
+   * Wraps a task so that it runs with the {@link RequestStateProvider}s that are registered for the
+   * current thread.
+   *
+   * <p>This allows a task that is executed in a background thread on behalf of the current request
+   * to abort by {@link #abortIfCancelled()} when the request is cancelled.
+   *
+   * @param callable the task that should be wrapped
+   * @return the wrapped task, or {@code callable} if no {@link RequestStateProvider}s are
+   *     registered
+   */
+  public static <T> Callable<T> wrap(Callable<T> callable) {
+    ImmutableSet<RequestStateProvider> requestStateProviders = getRequestStateProviders();
+    if (requestStateProviders.isEmpty()) {
+      return callable;
+    }
+    return () -> {
+      try (RequestStateContext requestStateContext = open()) {
+        requestStateProviders.forEach(requestStateContext::addRequestStateProvider);
+        return callable.call();
+      }
+    };
+  }
+
   /** Opens a {@code RequestStateContext}. */
   public static RequestStateContext open() {
     return new RequestStateContext();
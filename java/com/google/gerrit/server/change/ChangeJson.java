@@ -91,6 +91,7 @@ import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.metrics.Timer0;
 import com.google.gerrit.server.ChangeMessagesUtil;
 import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.FanOutExecutor;
 import com.google.gerrit.server.GpgException;
 import com.google.gerrit.server.ReviewerByEmailSet;
 import com.google.gerrit.server.ReviewerSet;
@@ -127,6 +128,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ObjectId;
@@ -157,6 +159,9 @@ public class ChangeJson {
           CURRENT_COMMIT,
           MESSAGES);
 
+  /** Number of changes whose notes are loaded together when streaming query results. */
+  private static final int PREFETCH_BATCH_SIZE = 50;
+
   @Singleton
   public static class Factory {
     private final AssistedFactory factory;
@@ -237,6 +242,8 @@ public class ChangeJson {
   private final boolean includeMergeable;
   private final boolean lazyLoad;
   private final boolean cacheQueryResultsByChangeNum;
+  private final ExecutorService prefetchExecutor;
+  private final int prefetchParallelism;
 
   private AccountLoader accountLoader;
   private FixInput fix;
@@ -257,6 +264,7 @@ public class ChangeJson {
       Metrics metrics,
       RevisionJson.Factory revisionJsonFactory,
       @GerritServerConfig Config cfg,
+      @FanOutExecutor ExecutorService prefetchExecutor,
       @Assisted Iterable<ListChangesOption> options,
       @Assisted Optional<PluginDefinedInfosFactory> pluginDefinedInfosFactory) {
     this.userProvider = user;
@@ -278,10 +286,18 @@ public class ChangeJson {
     this.pluginDefinedInfosFactory = pluginDefinedInfosFactory;
     this.cacheQueryResultsByChangeNum =
         cfg.getBoolean("index", "cacheQueryResultsByChangeNum", true);
+    this.prefetchExecutor = prefetchExecutor;
+    this.prefetchParallelism = cfg.getInt("change", "queryPrefetchParallelism", 4);
 
     logger.atFine().log("options = %s", options);
   }
 
+  /** Receives changes formatted by {@link #format(List, boolean, ChangeInfoConsumer)}. */
+  @FunctionalInterface
+  public interface ChangeInfoConsumer {
+    void accept(ChangeInfo info) throws IOException;
+  }
+
   public ChangeJson fix(FixInput fix) {
     this.fix = fix;
     return this;
@@ -315,8 +331,10 @@ public class ChangeJson {
       accountLoader = accountLoaderFactory.create(has(DETAILED_ACCOUNTS));
       List<List<ChangeInfo>> res = new ArrayList<>(in.size());
       Map<Change.Id, ChangeInfo> cache = Maps.newHashMapWithExpectedSize(in.size());
+      List<ChangeData> all = in.stream().flatMap(e -> e.entities().stream()).collect(toList());
       ImmutableListMultimap<Change.Id, PluginDefinedInfo> pluginInfosByChange =
-          getPluginInfos(in.stream().flatMap(e -> e.entities().stream()).collect(toList()));
+          getPluginInfos(all);
+      prefetch(all);
       for (QueryResult<ChangeData> r : in) {
         List<ChangeInfo> infos = toChangeInfos(r.entities(), cache, pluginInfosByChange);
         if (!infos.isEmpty() && r.more()) {
@@ -329,6 +347,58 @@ public class ChangeJson {
     }
   }
 
+  /**
+   * Formats the changes of a query result like {@link #format(List)}, but hands each {@link
+   * ChangeInfo} to {@code consumer} as soon as it is formatted instead of building all of them up
+   * front.
+   *
+   * <p>Each {@link ChangeData} is removed from {@code changes} once it is formatted so that it can
+   * be garbage collected while the remaining changes are formatted. Accounts are filled per change.
+   *
+   * @param changes changes of the query result, must be mutable
+   * @param more whether the query has more results, see {@link ChangeInfo#_moreChanges}
+   * @param consumer receives the formatted changes in order
+   */
+  public void format(List<ChangeData> changes, boolean more, ChangeInfoConsumer consumer)
+      throws IOException {
+    try (Timer0.Context ignored = metrics.formatQueryResultsLatency.start()) {
+      ImmutableListMultimap<Change.Id, PluginDefinedInfo> pluginInfosByChange =
+          getPluginInfos(changes);
+      // Hold back one change, the last one needs _moreChanges to be set before it is written.
+      ChangeInfo pending = null;
+      for (int i = 0; i < changes.size(); i++) {
+        if (i % PREFETCH_BATCH_SIZE == 0) {
+          prefetch(changes.subList(i, Math.min(i + PREFETCH_BATCH_SIZE, changes.size())));
+        }
+        ChangeData cd = changes.set(i, null);
+        ChangeInfo info;
+        try {
+          ensureLoaded(Collections.singleton(cd));
+          info = format(cd, Optional.empty(), true, pluginInfosByChange.get(cd.getId()));
+        } catch (RuntimeException e) {
+          Optional<RequestCancelledException> requestCancelledException =
+              RequestCancelledException.getFromCausalChain(e);
+          if (requestCancelledException.isPresent()) {
+            throw e;
+          }
+          logger.atWarning().withCause(e).log(
+              "Omitting corrupt change %s from results", cd.getId());
+          continue;
+        }
+        if (pending != null) {
+          consumer.accept(pending);
+        }
+        pending = info;
+      }
+      if (pending != null) {
+        if (more) {
+          pending._moreChanges = true;
+        }
+        consumer.accept(pending);
+      }
+    }
+  }
+
   public List<ChangeInfo> format(Collection<ChangeData> in) throws PermissionBackendException {
     accountLoader = accountLoaderFactory.create(has(DETAILED_ACCOUNTS));
     ensureLoaded(in);
@@ -483,6 +553,16 @@ public class ChangeJson {
     }
   }
 
+  /**
+   * Loads the notes of the changes in bulk if the requested options need them, so that they are not
+   * read one change at a time by {@link #ensureLoaded(Iterable)}.
+   */
+  private void prefetch(List<ChangeData> changes) {
+    if (lazyLoad && prefetchParallelism > 0) {
+      ChangeData.ensureNotesLoaded(changes, prefetchExecutor, prefetchParallelism);
+    }
+  }
+
   private boolean has(ListChangesOption option) {
     return options.contains(option);
   }
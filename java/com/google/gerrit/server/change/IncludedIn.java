@@ -30,6 +30,7 @@ import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.extensions.restapi.ResourceConflictException;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.ReachabilityBitmapCache;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.PermissionBackend.RefFilterOptions;
 import com.google.gerrit.server.permissions.PermissionBackendException;
@@ -37,6 +38,7 @@ import com.google.gerrit.server.plugincontext.PluginSetContext;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
@@ -56,15 +58,18 @@ public class IncludedIn {
   private final GitRepositoryManager repoManager;
   private final PermissionBackend permissionBackend;
   private final PluginSetContext<ExternalIncludedIn> externalIncludedIn;
+  private final ReachabilityBitmapCache reachabilityBitmapCache;
 
   @Inject
   IncludedIn(
       GitRepositoryManager repoManager,
       PermissionBackend permissionBackend,
-      PluginSetContext<ExternalIncludedIn> externalIncludedIn) {
+      PluginSetContext<ExternalIncludedIn> externalIncludedIn,
+      ReachabilityBitmapCache reachabilityBitmapCache) {
     this.repoManager = repoManager;
     this.permissionBackend = permissionBackend;
     this.externalIncludedIn = externalIncludedIn;
+    this.reachabilityBitmapCache = reachabilityBitmapCache;
   }
 
   public IncludedInInfo apply(Project.NameKey project, String revisionId)
@@ -88,10 +93,15 @@ public class IncludedIn {
       allTagsAndBranches.addAll(tags);
       allTagsAndBranches.addAll(branches);
 
+      ReachabilityBitmapCache.Result cached =
+          reachabilityBitmapCache.getMergedInto(
+              project, r, rw, rev, IncludedInUtil.getSortedRefs(allTagsAndBranches, rw));
+      List<Ref> mergedInto = new ArrayList<>(cached.reachable());
+      if (!cached.unchecked().isEmpty()) {
+        mergedInto.addAll(rw.getMergedInto(rev, cached.unchecked()));
+      }
       Set<String> allMatchingTagsAndBranches =
-          rw.getMergedInto(rev, IncludedInUtil.getSortedRefs(allTagsAndBranches, rw)).stream()
-              .map(Ref::getName)
-              .collect(Collectors.toSet());
+          mergedInto.stream().map(Ref::getName).collect(Collectors.toSet());
 
       // Filter branches and tags according to their visbility by the user
       ImmutableSortedSet<String> filteredBranches =
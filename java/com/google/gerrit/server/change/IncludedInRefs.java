@@ -19,11 +19,13 @@ import static java.util.stream.Collectors.toSet;
 import com.google.common.collect.ImmutableMap;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.ReachabilityBitmapCache;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.PermissionBackend.RefFilterOptions;
 import com.google.gerrit.server.permissions.PermissionBackendException;
 import com.google.inject.Inject;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -42,11 +44,16 @@ import org.eclipse.jgit.revwalk.RevWalk;
 public class IncludedInRefs {
   protected final GitRepositoryManager repoManager;
   protected final PermissionBackend permissionBackend;
+  protected final ReachabilityBitmapCache reachabilityBitmapCache;
 
   @Inject
-  IncludedInRefs(GitRepositoryManager repoManager, PermissionBackend permissionBackend) {
+  IncludedInRefs(
+      GitRepositoryManager repoManager,
+      PermissionBackend permissionBackend,
+      ReachabilityBitmapCache reachabilityBitmapCache) {
     this.repoManager = repoManager;
     this.permissionBackend = permissionBackend;
+    this.reachabilityBitmapCache = reachabilityBitmapCache;
   }
 
   public Map<String, Set<String>> apply(
@@ -62,7 +69,11 @@ public class IncludedInRefs {
 
           if (!revCommits.isEmpty()) {
             return commitsIncludedIn(
-                revCommits, IncludedInUtil.getSortedRefs(visibleRefs, revWalk), revWalk);
+                project,
+                repo,
+                revCommits,
+                IncludedInUtil.getSortedRefs(visibleRefs, revWalk),
+                revWalk);
           }
         }
       }
@@ -106,10 +117,20 @@ public class IncludedInRefs {
   }
 
   private Map<String, Set<String>> commitsIncludedIn(
-      Collection<RevCommit> commits, Collection<Ref> refs, RevWalk revWalk) throws IOException {
+      Project.NameKey project,
+      Repository repo,
+      Collection<RevCommit> commits,
+      Collection<Ref> refs,
+      RevWalk revWalk)
+      throws IOException {
     Map<String, Set<String>> refsByCommit = new HashMap<>();
     for (RevCommit commit : commits) {
-      List<Ref> matchingRefs = revWalk.getMergedInto(commit, refs);
+      ReachabilityBitmapCache.Result cached =
+          reachabilityBitmapCache.getMergedInto(project, repo, revWalk, commit, refs);
+      List<Ref> matchingRefs = new ArrayList<>(cached.reachable());
+      if (!cached.unchecked().isEmpty()) {
+        matchingRefs.addAll(revWalk.getMergedInto(commit, cached.unchecked()));
+      }
       if (matchingRefs.size() > 0) {
         refsByCommit.put(
             commit.getName(), matchingRefs.stream().map(Ref::getName).collect(toSet()));
@@ -49,6 +49,18 @@ public class SysExecutorModule extends AbstractModule {
     return queues.createQueue(poolSize, "ReceiveCommits", true);
   }
 
+  @Provides
+  @Singleton
+  @CommitValidationExecutor
+  public ExecutorService provideCommitValidationExecutor(
+      @GerritServerConfig Config config, WorkQueue queues) {
+    int poolSize = config.getInt("receive", null, "commitValidationThreadPoolSize", 0);
+    if (poolSize == 0) {
+      return newDirectExecutorService();
+    }
+    return queues.createQueue(poolSize, "CommitValidation", true);
+  }
+
   @Provides
   @Singleton
   @SendEmailExecutor
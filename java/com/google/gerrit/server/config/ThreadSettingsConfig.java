@@ -14,16 +14,22 @@
 
 package com.google.gerrit.server.config;
 
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.server.util.VirtualThreads;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import org.eclipse.jgit.lib.Config;
 
 @Singleton
 public class ThreadSettingsConfig {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
   private final int sshdThreads;
   private final int httpdMaxThreads;
   private final int sshdBatchThreads;
   private final int databasePoolLimit;
+  private final boolean sshdVirtualThreads;
+  private final boolean httpdVirtualThreads;
 
   @Inject
   ThreadSettingsConfig(@GerritServerConfig Config cfg) {
@@ -33,6 +39,22 @@ public class ThreadSettingsConfig {
     int defaultDatabasePoolLimit = sshdThreads + httpdMaxThreads + 2;
     databasePoolLimit = cfg.getInt("database", "poolLimit", defaultDatabasePoolLimit);
     sshdBatchThreads = cores == 1 ? 1 : 2;
+    sshdVirtualThreads = virtualThreads(cfg, "sshd");
+    httpdVirtualThreads = virtualThreads(cfg, "httpd");
+  }
+
+  private static boolean virtualThreads(Config cfg, String section) {
+    if (!cfg.getBoolean(section, "virtualThreads", false)) {
+      return false;
+    }
+    if (!VirtualThreads.isSupported()) {
+      logger.atWarning().log(
+          "%s.virtualThreads is enabled, but Java %s does not support virtual threads;"
+              + " using platform threads",
+          section, System.getProperty("java.version"));
+      return false;
+    }
+    return true;
   }
 
   public int getDatabasePoolLimit() {
@@ -50,4 +72,14 @@ public class ThreadSettingsConfig {
   public int getSshdBatchTreads() {
     return sshdBatchThreads;
   }
+
+  /** Whether SSH commands are executed on virtual threads. */
+  public boolean isSshdVirtualThreads() {
+    return sshdVirtualThreads;
+  }
+
+  /** Whether HTTP requests are handled on virtual threads. */
+  public boolean isHttpdVirtualThreads() {
+    return httpdVirtualThreads;
+  }
 }
@@ -0,0 +1,367 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.gerrit.server.logging.TraceContext;
+import com.google.gerrit.server.logging.TraceContext.TraceTimer;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import java.io.IOException;
+import java.util.Collection;
+import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase;
+import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource;
+import org.eclipse.jgit.internal.storage.dfs.DfsPackDescription;
+import org.eclipse.jgit.internal.storage.dfs.DfsPackFile;
+import org.eclipse.jgit.internal.storage.file.BitmapIndexImpl;
+import org.eclipse.jgit.internal.storage.file.BitmapIndexImpl.CompressedBitmap;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.Pack;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.BitmapIndex;
+import org.eclipse.jgit.lib.BitmapObject;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectDatabase;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.BitmapWalker;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Caches the objects that are reachable from the branches and tags of a project as bitmaps, so that
+ * checking whether a commit is included in a branch or tag doesn't need to walk the history.
+ *
+ * <p>The bitmap of a ref is computed by JGit's {@link BitmapWalker}, which starts from the bitmaps
+ * stored with the packs of the repository and only walks the objects that they don't cover. Refs of
+ * repositories without a pack bitmap index can't be checked by this cache, callers have to walk the
+ * history for them as before.
+ *
+ * <p>Entries don't reference the bitmap index of the object reader that computed them, which must
+ * not be used by other threads. Instead, an entry holds the bit positions of the reachable objects
+ * in the bitmapped pack, and the reachable commits that are not in that pack. Each entry remembers
+ * the tip and the pack it was computed for. An entry is recomputed when it is looked up after its
+ * ref was updated or the repository was repacked, so updates made by other servers sharing the
+ * repositories are picked up as well.
+ *
+ * <p>The cache is disabled unless {@code cache.reachability_bitmaps.memoryLimit} is set, in which
+ * case it limits the approximate number of bytes held by the bitmaps.
+ */
+@Singleton
+public class ReachabilityBitmapCache {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final String CACHE_NAME = "reachability_bitmaps";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, Key.class, TipBitmap.class).maximumWeight(0).weigher(Weigher.class);
+        bind(ReachabilityBitmapCache.class);
+      }
+    };
+  }
+
+  /** Refs checked by {@link #getMergedInto} or {@link #isMergedIntoAny}. */
+  @AutoValue
+  public abstract static class Result {
+    /** Refs from which the commit is reachable. */
+    public abstract ImmutableList<Ref> reachable();
+
+    /**
+     * Refs that couldn't be checked with bitmaps, in the order in which they were passed. The
+     * caller has to check them otherwise.
+     */
+    public abstract ImmutableList<Ref> unchecked();
+
+    private static Result create(ImmutableList<Ref> reachable, ImmutableList<Ref> unchecked) {
+      return new AutoValue_ReachabilityBitmapCache_Result(reachable, unchecked);
+    }
+  }
+
+  @AutoValue
+  abstract static class Key {
+    abstract Project.NameKey project();
+
+    abstract String ref();
+
+    private static Key create(Project.NameKey project, String ref) {
+      return new AutoValue_ReachabilityBitmapCache_Key(project, ref);
+    }
+  }
+
+  /**
+   * The pack of a repository whose bitmap index is used by the object readers of the repository.
+   * Bit positions in the bitmap index below the object count of the pack refer to objects of the
+   * pack, higher positions are assigned by each object reader to the objects that it finds outside
+   * the pack.
+   */
+  @AutoValue
+  abstract static class BitmappedPack {
+    abstract String name();
+
+    abstract long objectCount();
+
+    private static BitmappedPack create(String name, long objectCount) {
+      return new AutoValue_ReachabilityBitmapCache_BitmappedPack(name, objectCount);
+    }
+  }
+
+  /** The commits reachable from a ref, along with the tip and the pack they were computed for. */
+  static class TipBitmap {
+    /** Approximate number of bytes used by a commit that isn't in the bitmapped pack. */
+    private static final int UNPACKED_COMMIT_WEIGHT = 64;
+
+    private final ObjectId tip;
+    private final BitmappedPack pack;
+
+    /** Bit positions of the reachable objects in the bitmap index of the pack. */
+    private final EWAHCompressedBitmap packed;
+
+    /** Reachable commits that are not in the pack. */
+    private final ImmutableSet<ObjectId> unpackedCommits;
+
+    private TipBitmap(
+        ObjectId tip,
+        BitmappedPack pack,
+        EWAHCompressedBitmap packed,
+        ImmutableSet<ObjectId> unpackedCommits) {
+      this.tip = tip.copy();
+      this.pack = pack;
+      this.packed = packed;
+      this.unpackedCommits = unpackedCommits;
+    }
+
+    /**
+     * Checks whether a commit is reachable.
+     *
+     * @param commit commit to check.
+     * @param position bit position of the commit in the bitmap index of the pack this bitmap was
+     *     computed for.
+     */
+    boolean contains(AnyObjectId commit, int position) {
+      if (position < pack.objectCount()) {
+        return packed.get(position);
+      }
+      return unpackedCommits.contains(commit);
+    }
+
+    int weight() {
+      return packed.sizeInBytes() + unpackedCommits.size() * UNPACKED_COMMIT_WEIGHT;
+    }
+  }
+
+  static class Weigher implements com.google.common.cache.Weigher<Key, TipBitmap> {
+    @Override
+    public int weigh(Key key, TipBitmap bitmap) {
+      return key.project().get().length() + key.ref().length() + bitmap.weight();
+    }
+  }
+
+  private final Cache<Key, TipBitmap> cache;
+  private final boolean enabled;
+
+  @Inject
+  ReachabilityBitmapCache(
+      @Named(CACHE_NAME) Cache<Key, TipBitmap> cache, @GerritServerConfig Config config) {
+    this.cache = cache;
+    this.enabled = config.getLong("cache", CACHE_NAME, "memoryLimit", 0) > 0;
+  }
+
+  /**
+   * Checks from which of the given refs {@code commit} is reachable.
+   *
+   * @param project project of the repository.
+   * @param repo repository of the project.
+   * @param rw walk of the repository, its reader is used to compute missing bitmaps.
+   * @param commit commit to check.
+   * @param refs refs to check.
+   * @return the refs from which {@code commit} is reachable and the refs that couldn't be checked.
+   *     All refs are unchecked if the cache is disabled or the repository has no bitmap index.
+   * @throws IOException if a bitmap cannot be computed.
+   */
+  public Result getMergedInto(
+      Project.NameKey project,
+      Repository repo,
+      RevWalk rw,
+      AnyObjectId commit,
+      Collection<Ref> refs)
+      throws IOException {
+    return check(project, repo, rw, commit, refs, false);
+  }
+
+  /**
+   * Like {@link #getMergedInto}, but stops at the first ref from which {@code commit} is reachable.
+   * The refs after it are neither reachable nor unchecked in the result.
+   */
+  public Result isMergedIntoAny(
+      Project.NameKey project,
+      Repository repo,
+      RevWalk rw,
+      AnyObjectId commit,
+      Collection<Ref> refs)
+      throws IOException {
+    return check(project, repo, rw, commit, refs, true);
+  }
+
+  private Result check(
+      Project.NameKey project,
+      Repository repo,
+      RevWalk rw,
+      AnyObjectId commit,
+      Collection<Ref> refs,
+      boolean stopAtFirst)
+      throws IOException {
+    if (!enabled) {
+      return Result.create(ImmutableList.of(), ImmutableList.copyOf(refs));
+    }
+    ObjectReader reader = rw.getObjectReader();
+    // The pack is looked up before and after the reader opens its bitmap index. If it is the same,
+    // the bitmap index is the one of that pack, and not of a pack written by a concurrent repack.
+    BitmappedPack pack = bitmappedPack(repo);
+    BitmapIndex bitmapIndex = reader.getBitmapIndex();
+    if (pack == null
+        || !(bitmapIndex instanceof BitmapIndexImpl)
+        || !pack.equals(bitmappedPack(repo))) {
+      logger.atFine().log("Repository of project %s has no usable bitmap index", project);
+      return Result.create(ImmutableList.of(), ImmutableList.copyOf(refs));
+    }
+
+    int position = position(bitmapIndex, commit);
+    ImmutableList.Builder<Ref> reachable = ImmutableList.builder();
+    ImmutableList.Builder<Ref> unchecked = ImmutableList.builder();
+    for (Ref ref : refs) {
+      ObjectId tip = ref.getObjectId();
+      if (tip == null || !isCacheable(ref.getName())) {
+        unchecked.add(ref);
+        continue;
+      }
+      TipBitmap bitmap = get(project, reader, (BitmapIndexImpl) bitmapIndex, pack, ref, tip);
+      if (bitmap.contains(commit, position)) {
+        reachable.add(ref);
+        if (stopAtFirst) {
+          break;
+        }
+      }
+    }
+    return Result.create(reachable.build(), unchecked.build());
+  }
+
+  private TipBitmap get(
+      Project.NameKey project,
+      ObjectReader reader,
+      BitmapIndexImpl bitmapIndex,
+      BitmappedPack pack,
+      Ref ref,
+      ObjectId tip)
+      throws IOException {
+    Key key = Key.create(project, ref.getName());
+    TipBitmap cached = cache.getIfPresent(key);
+    if (cached != null && cached.tip.equals(tip) && cached.pack.equals(pack)) {
+      return cached;
+    }
+
+    try (TraceTimer timer =
+            TraceContext.newTimer(
+                "Compute reachability bitmap",
+                Metadata.builder().projectName(project.get()).branchName(ref.getName()).build());
+        ObjectWalk ow = new ObjectWalk(reader)) {
+      BitmapWalker walker = new BitmapWalker(ow, bitmapIndex, NullProgressMonitor.INSTANCE);
+      EWAHCompressedBitmap reachable =
+          walker.findObjects(ImmutableList.of(tip), null, true).retrieveCompressed();
+      TipBitmap computed = snapshot(bitmapIndex, pack, tip, reachable);
+      // Replaces the entry of a previous tip or pack.
+      cache.put(key, computed);
+      return computed;
+    }
+  }
+
+  /** Copies the reachable objects out of the bitmap index of the object reader. */
+  private static TipBitmap snapshot(
+      BitmapIndexImpl bitmapIndex,
+      BitmappedPack pack,
+      ObjectId tip,
+      EWAHCompressedBitmap reachable) {
+    EWAHCompressedBitmap inPack = new EWAHCompressedBitmap();
+    inPack.setSizeInBits((int) pack.objectCount(), true);
+    ImmutableSet.Builder<ObjectId> unpackedCommits = ImmutableSet.builder();
+    for (BitmapObject obj : new CompressedBitmap(reachable.andNot(inPack), bitmapIndex)) {
+      if (obj.getType() == Constants.OBJ_COMMIT) {
+        unpackedCommits.add(obj.getObjectId().copy());
+      }
+    }
+    return new TipBitmap(tip, pack, reachable.and(inPack), unpackedCommits.build());
+  }
+
+  /** Returns the bit position of an object in a bitmap index. */
+  private static int position(BitmapIndex bitmapIndex, AnyObjectId id) {
+    return bitmapIndex
+        .newBitmapBuilder()
+        .addObject(id, Constants.OBJ_COMMIT)
+        .retrieveCompressed()
+        .getFirstSetBit();
+  }
+
+  /**
+   * Returns the pack whose bitmap index is used by the object readers of the repository, or {@code
+   * null} if the repository has no bitmap index or uses an unknown storage. The pack is found the
+   * same way as by the object readers.
+   */
+  @Nullable
+  @VisibleForTesting
+  static BitmappedPack bitmappedPack(Repository repo) throws IOException {
+    ObjectDatabase odb = repo.getObjectDatabase();
+    if (odb instanceof ObjectDirectory) {
+      for (Pack pack : ((ObjectDirectory) odb).getPacks()) {
+        if (pack.getPackFile().create(PackExt.BITMAP_INDEX).exists()) {
+          return BitmappedPack.create(pack.getPackName(), pack.getIndex().getObjectCount());
+        }
+      }
+    } else if (odb instanceof DfsObjDatabase) {
+      for (DfsPackFile pack : ((DfsObjDatabase) odb).getPacks()) {
+        DfsPackDescription desc = pack.getPackDescription();
+        if (desc.getPackSource() != PackSource.UNREACHABLE_GARBAGE
+            && desc.hasFileExt(PackExt.BITMAP_INDEX)) {
+          return BitmappedPack.create(desc.getFileName(PackExt.PACK), desc.getObjectCount());
+        }
+      }
+    }
+    return null;
+  }
+
+  /** Only branches and tags are cached, other refs are too many and too short-lived. */
+  private static boolean isCacheable(String refName) {
+    return refName.startsWith(Constants.R_HEADS) || refName.startsWith(Constants.R_TAGS);
+  }
+}
@@ -14,6 +14,7 @@
 
 package com.google.gerrit.server.git;
 
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.stream.Collectors.toList;
 
 import com.google.common.base.CaseFormat;
@@ -24,13 +25,16 @@ import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.extensions.registration.DynamicMap;
 import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
 import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.ScheduleConfig.Schedule;
 import com.google.gerrit.server.logging.LoggingContext;
 import com.google.gerrit.server.logging.LoggingContextAwareRunnable;
 import com.google.gerrit.server.plugincontext.PluginMapContext;
 import com.google.gerrit.server.util.IdGenerator;
+import com.google.gerrit.server.util.VirtualThreads;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.lang.reflect.Field;
@@ -102,6 +106,16 @@ public class WorkQueue {
     }
   }
 
+  /**
+   * Runnable that runs ahead of or behind other tasks of its queue which are ready to execute.
+   *
+   * <p>The priority is only taken into account if {@code queue.<name>.priorityAging} is configured
+   * for the queue.
+   */
+  public interface PrioritizedRunnable extends Runnable {
+    Task.Priority getPriority();
+  }
+
   public static class WorkQueueModule extends LifecycleModule {
     @Override
     protected void configure() {
@@ -112,6 +126,7 @@ public class WorkQueue {
   }
 
   private final ScheduledExecutorService defaultQueue;
+  private final Config cfg;
   private final IdGenerator idGenerator;
   private final MetricMaker metrics;
   private final CopyOnWriteArrayList<Executor> queues;
@@ -125,6 +140,7 @@ public class WorkQueue {
       PluginMapContext<TaskListener> listeners) {
     this(
         idGenerator,
+        cfg,
         Math.max(cfg.getInt("execution", "defaultThreadPoolSize", 2), 2),
         metrics,
         listeners);
@@ -136,6 +152,20 @@ public class WorkQueue {
       int defaultThreadPoolSize,
       MetricMaker metrics,
       PluginMapContext<TaskListener> listeners) {
+    this(idGenerator, new Config(), defaultThreadPoolSize, metrics, listeners);
+  }
+
+  /**
+   * Constructor to allow binding the WorkQueue more explicitly in a vhost setup, reading the
+   * scheduling settings of the queues from the given configuration.
+   */
+  public WorkQueue(
+      IdGenerator idGenerator,
+      Config cfg,
+      int defaultThreadPoolSize,
+      MetricMaker metrics,
+      PluginMapContext<TaskListener> listeners) {
+    this.cfg = cfg;
     this.idGenerator = idGenerator;
     this.metrics = metrics;
     this.queues = new CopyOnWriteArrayList<>();
@@ -192,7 +222,12 @@ public class WorkQueue {
   @SuppressWarnings("ThreadPriorityCheck")
   public ScheduledThreadPoolExecutor createQueue(
       int poolsize, String queueName, int threadPriority, boolean withMetrics) {
-    Executor executor = new Executor(poolsize, queueName);
+    Executor executor =
+        new Executor(
+            poolsize,
+            queueName,
+            cfg.getTimeUnit("queue", queueName, "priorityAging", 0, NANOSECONDS),
+            cfg.getTimeUnit("queue", queueName, "fairShareWindow", 0, NANOSECONDS));
     if (withMetrics) {
       logger.atInfo().log("Adding metrics for '%s' queue", queueName);
       executor.buildMetrics(queueName);
@@ -213,6 +248,33 @@ public class WorkQueue {
     return executor;
   }
 
+  /**
+   * Create a new executor queue that executes its tasks on virtual threads, optionally with
+   * metrics.
+   *
+   * <p>The pool size still limits how many tasks of the queue are executed concurrently, but as
+   * virtual threads that are blocked on I/O do not occupy a platform thread, it can be much larger
+   * than for a queue of platform threads.
+   *
+   * @param poolsize the maximum number of tasks that are executed concurrently.
+   * @param queueName the name of the queue.
+   * @param withMetrics whether to create metrics.
+   * @throws UnsupportedOperationException if the Java runtime does not support virtual threads.
+   */
+  public ScheduledThreadPoolExecutor createVirtualThreadQueue(
+      int poolsize, String queueName, boolean withMetrics) {
+    ThreadFactory factory = VirtualThreads.newThreadFactory(queueName);
+    ScheduledThreadPoolExecutor executor =
+        createQueue(poolsize, queueName, Thread.NORM_PRIORITY, withMetrics);
+    executor.setThreadFactory(
+        task -> {
+          Thread t = factory.newThread(task);
+          t.setUncaughtExceptionHandler(WorkQueue::logUncaughtException);
+          return t;
+        });
+    return executor;
+  }
+
   /** Executes a periodic command at a fixed schedule on the default queue. */
   public void scheduleAtFixedRate(Runnable command, Schedule schedule) {
     @SuppressWarnings("unused")
@@ -287,8 +349,20 @@ public class WorkQueue {
   private class Executor extends ScheduledThreadPoolExecutor {
     private final ConcurrentHashMap<Integer, Task<?>> all;
     private final String queueName;
+    private final long priorityAgingNanos;
+    private final long fairShareWindowNanos;
+
+    /** Number of tasks per project that are ready to execute but have not been started yet. */
+    private final ConcurrentHashMap<Project.NameKey, Integer> pendingByProject;
 
-    Executor(int corePoolSize, final String queueName) {
+    private volatile Timer1<Task.Priority> waitTime;
+    private volatile Timer1<Task.Priority> runTime;
+
+    Executor(
+        int corePoolSize,
+        final String queueName,
+        long priorityAgingNanos,
+        long fairShareWindowNanos) {
       super(
           corePoolSize,
           new ThreadFactory() {
@@ -311,6 +385,9 @@ public class WorkQueue {
               corePoolSize + 4 // concurrency level
               );
       this.queueName = queueName;
+      this.priorityAgingNanos = priorityAgingNanos;
+      this.fairShareWindowNanos = fairShareWindowNanos;
+      this.pendingByProject = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -427,6 +504,27 @@ public class WorkQueue {
               .setCumulative()
               .setUnit("tasks"),
           this::getCompletedTaskCount);
+
+      com.google.gerrit.metrics.Field<Task.Priority> priorityField =
+          com.google.gerrit.metrics.Field.ofEnum(
+                  Task.Priority.class, "priority", (metadataBuilder, fieldValue) -> {})
+              .description("The priority class of the task.")
+              .build();
+      waitTime =
+          metrics.newTimer(
+              getMetricName(queueName, "wait_time"),
+              new Description(
+                      "Time tasks waited for a worker thread after they became ready to execute")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS),
+              priorityField);
+      runTime =
+          metrics.newTimer(
+              getMetricName(queueName, "run_time"),
+              new Description("Time tasks spent executing on a worker thread")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS),
+              priorityField);
     }
 
     private String getMetricName(String queueName, String metricName) {
@@ -456,11 +554,55 @@ public class WorkQueue {
         }
 
         if (all.putIfAbsent(task.getTaskId(), task) == null) {
+          if (r.getDelay(NANOSECONDS) <= 0) {
+            task.setHeadStart(priorityHeadStart(task) + fairShareHeadStart(task));
+          }
           return task;
         }
       }
     }
 
+    /**
+     * Returns how much earlier than its submission time the task is ordered due to its priority
+     * class.
+     *
+     * <p>A task of a higher class is executed before any ready task of a lower class that was
+     * submitted less than {@code priorityAgingNanos} earlier, so that low priority tasks are
+     * delayed but never starved.
+     */
+    private long priorityHeadStart(Task<?> task) {
+      if (priorityAgingNanos <= 0) {
+        return 0;
+      }
+      return (Task.Priority.LOW.ordinal() - task.getPriority().ordinal()) * priorityAgingNanos;
+    }
+
+    /**
+     * Returns how much earlier than its submission time the task is ordered to give each project a
+     * fair share of the worker threads.
+     *
+     * <p>The n-th pending task of a project is moved ahead by {@code fairShareWindowNanos / n}, so
+     * that the first task of a project that has no other pending tasks overtakes the backlog that
+     * other projects built up during the window, while the order among the tasks of one project is
+     * preserved. Tasks are never moved behind their submission time, hence delayed tasks that
+     * became due are not held up by this.
+     */
+    private long fairShareHeadStart(Task<?> task) {
+      if (fairShareWindowNanos <= 0 || !(task instanceof ProjectTask)) {
+        return 0;
+      }
+      Project.NameKey project = ((ProjectTask<?>) task).getProjectNameKey();
+      if (project == null) {
+        return 0;
+      }
+      task.fairShareProject.set(project);
+      return fairShareWindowNanos / pendingByProject.merge(project, 1, Integer::sum);
+    }
+
+    private void releaseFairShare(Project.NameKey project) {
+      pendingByProject.computeIfPresent(project, (p, n) -> n > 1 ? n - 1 : null);
+    }
+
     @Override
     protected <V> RunnableScheduledFuture<V> decorateTask(
         Callable<V> callable, RunnableScheduledFuture<V> task) {
@@ -469,6 +611,7 @@ public class WorkQueue {
 
     void remove(Task<?> task) {
       all.remove(task.getTaskId(), task);
+      task.releaseFairShare();
     }
 
     Task<?> getTask(int id) {
@@ -490,6 +633,18 @@ public class WorkQueue {
     public void onStop(Task<?> task) {
       listeners.runEach(extension -> extension.getProvider().get().onStop(task));
     }
+
+    void recordWaitTime(Task<?> task, long waitNanos) {
+      if (waitTime != null) {
+        waitTime.record(task.getPriority(), waitNanos, NANOSECONDS);
+      }
+    }
+
+    void recordRunTime(Task<?> task, long runNanos) {
+      if (runTime != null) {
+        runTime.record(task.getPriority(), runNanos, NANOSECONDS);
+      }
+    }
   }
 
   private static void logUncaughtException(Thread t, Throwable e) {
@@ -548,11 +703,34 @@ public class WorkQueue {
       OTHER
     }
 
+    /**
+     * Priority class of a task.
+     *
+     * <p>Tasks implementing {@link PrioritizedRunnable} declare their class, all other tasks are
+     * {@link #NORMAL}.
+     */
+    public enum Priority {
+      HIGH,
+      NORMAL,
+      LOW
+    }
+
     private final Runnable runnable;
     private final RunnableScheduledFuture<V> task;
     private final Executor executor;
     private final int taskId;
     private final Instant startTime;
+    private final Priority priority;
+
+    // How much earlier than its scheduled time the task is ordered in its queue. Only non-zero
+    // until the task is first taken from the queue, so it does not change while the task is queued.
+    private volatile long headStartNanos;
+
+    // Project on whose fair share the task was counted, null once released.
+    private final AtomicReference<Project.NameKey> fairShareProject = new AtomicReference<>();
+
+    // Time the task waited for a worker thread before its last start, negative if not yet started
+    private volatile long waitNanos = -1;
 
     // runningState is non-null when listener or task code is running in an executor thread
     private final AtomicReference<State> runningState = new AtomicReference<>();
@@ -563,6 +741,10 @@ public class WorkQueue {
       this.executor = executor;
       this.taskId = taskId;
       this.startTime = Instant.now();
+      this.priority =
+          runnable instanceof PrioritizedRunnable
+              ? ((PrioritizedRunnable) runnable).getPriority()
+              : Priority.NORMAL;
     }
 
     public int getTaskId() {
@@ -596,6 +778,50 @@ public class WorkQueue {
       return executor.queueName;
     }
 
+    public Priority getPriority() {
+      return priority;
+    }
+
+    /**
+     * Returns the effective priority of the task in its queue.
+     *
+     * <p>This is the time by which the task is ordered ahead of other ready tasks due to its
+     * priority class and the fair share of its project, 0 if it is ordered by its scheduled time
+     * only.
+     */
+    public long getHeadStart(TimeUnit unit) {
+      return unit.convert(headStartNanos, NANOSECONDS);
+    }
+
+    /**
+     * Returns how long the task has been waiting for a worker thread.
+     *
+     * <p>For tasks that are ready this is the time since they became ready, for tasks that were
+     * started it is the time they waited before their last start. Sleeping tasks have no wait time
+     * and return 0.
+     */
+    public long getWaitTime(TimeUnit unit) {
+      if (runningState.get() == null) {
+        long delay = getDelay(NANOSECONDS);
+        if (delay < 0) {
+          return unit.convert(-delay, NANOSECONDS);
+        }
+        return 0;
+      }
+      return unit.convert(Math.max(waitNanos, 0), NANOSECONDS);
+    }
+
+    void setHeadStart(long headStartNanos) {
+      this.headStartNanos = headStartNanos;
+    }
+
+    void releaseFairShare() {
+      Project.NameKey project = fairShareProject.getAndSet(null);
+      if (project != null) {
+        executor.releaseFairShare(project);
+      }
+    }
+
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
       if (task.cancel(mayInterruptIfRunning)) {
@@ -630,6 +856,18 @@ public class WorkQueue {
 
     @Override
     public int compareTo(Delayed o) {
+      if (o instanceof Task) {
+        Task<?> other = (Task<?>) o;
+        if (headStartNanos != 0 || other.headStartNanos != 0) {
+          long d =
+              (getDelay(NANOSECONDS) - headStartNanos)
+                  - (other.getDelay(NANOSECONDS) - other.headStartNanos);
+          if (d != 0) {
+            return d < 0 ? -1 : 1;
+          }
+        }
+        return task.compareTo(other.task);
+      }
       return task.compareTo(o);
     }
 
@@ -667,13 +905,21 @@ public class WorkQueue {
     @Override
     public void run() {
       if (runningState.compareAndSet(null, State.STARTING)) {
+        // The task was taken from the queue, periodic tasks are queued again by task.run() and
+        // are then ordered by their scheduled time only.
+        headStartNanos = 0;
+        releaseFairShare();
+        waitNanos = Math.max(-getDelay(NANOSECONDS), 0);
+        executor.recordWaitTime(this, waitNanos);
         String oldThreadName = Thread.currentThread().getName();
+        long runStart = System.nanoTime();
         try {
           executor.onStart(this);
           runningState.set(State.RUNNING);
           Thread.currentThread().setName(oldThreadName + "[" + task.toString() + "]");
           task.run();
         } finally {
+          executor.recordRunTime(this, System.nanoTime() - runStart);
           Thread.currentThread().setName(oldThreadName);
           runningState.set(State.STOPPING);
           executor.onStop(this);
@@ -101,6 +101,7 @@ import com.google.gerrit.extensions.validators.CommentForValidation.CommentType;
 import com.google.gerrit.extensions.validators.CommentValidationContext;
 import com.google.gerrit.extensions.validators.CommentValidationFailure;
 import com.google.gerrit.extensions.validators.CommentValidator;
+import com.google.gerrit.index.IndexConfig;
 import com.google.gerrit.metrics.Counter0;
 import com.google.gerrit.metrics.Counter3;
 import com.google.gerrit.metrics.Description;
@@ -111,6 +112,7 @@ import com.google.gerrit.server.ChangeUtil;
 import com.google.gerrit.server.CommentsUtil;
 import com.google.gerrit.server.CreateGroupPermissionSyncer;
 import com.google.gerrit.server.DeadlineChecker;
+import com.google.gerrit.server.FanOutExecutor;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.InvalidDeadlineException;
 import com.google.gerrit.server.PatchSetUtil;
@@ -129,6 +131,7 @@ import com.google.gerrit.server.change.SetHashtagsOp;
 import com.google.gerrit.server.change.SetPrivateOp;
 import com.google.gerrit.server.change.SetTopicOp;
 import com.google.gerrit.server.config.AllProjectsName;
+import com.google.gerrit.server.config.CommitValidationExecutor;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.PluginConfig;
 import com.google.gerrit.server.config.ProjectConfigEntry;
@@ -224,6 +227,7 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -239,6 +243,7 @@ import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.notes.Note;
 import org.eclipse.jgit.notes.NoteMap;
 import org.eclipse.jgit.revwalk.FooterLine;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -371,12 +376,15 @@ class ReceiveCommits {
   private final CommentsUtil commentsUtil;
   private final PluginSetContext<CommentValidator> commentValidators;
   private final BranchCommitValidator.Factory commitValidatorFactory;
+  private final ExecutorService commitValidationExecutor;
   private final Config config;
   private final CreateGroupPermissionSyncer createGroupPermissionSyncer;
   private final CreateRefControl createRefControl;
   private final DeadlineChecker.Factory deadlineCheckerFactory;
   private final DynamicMap<ProjectConfigEntry> pluginConfigEntries;
   private final DynamicSet<PluginPushOption> pluginPushOptions;
+  private final ExecutorService fanOutExecutor;
+  private final IndexConfig indexConfig;
   private final PluginSetContext<ReceivePackInitializer> initializers;
   private final MergedByPushOp.Factory mergedByPushOpFactory;
   private final Metrics metrics;
@@ -460,11 +468,14 @@ class ReceiveCommits {
       CmdLineParser.Factory optionParserFactory,
       CommentsUtil commentsUtil,
       BranchCommitValidator.Factory commitValidatorFactory,
+      @CommitValidationExecutor ExecutorService commitValidationExecutor,
       CreateGroupPermissionSyncer createGroupPermissionSyncer,
       CreateRefControl createRefControl,
       DeadlineChecker.Factory deadlineCheckerFactory,
       DynamicMap<ProjectConfigEntry> pluginConfigEntries,
       DynamicSet<PluginPushOption> pluginPushOptions,
+      @FanOutExecutor ExecutorService fanOutExecutor,
+      IndexConfig indexConfig,
       PluginSetContext<ReceivePackInitializer> initializers,
       PluginSetContext<CommentValidator> commentValidators,
       MergedByPushOp.Factory mergedByPushOpFactory,
@@ -511,6 +522,7 @@ class ReceiveCommits {
     this.commentsUtil = commentsUtil;
     this.commentValidators = commentValidators;
     this.commitValidatorFactory = commitValidatorFactory;
+    this.commitValidationExecutor = commitValidationExecutor;
     this.config = config;
     this.createRefControl = createRefControl;
     this.createGroupPermissionSyncer = createGroupPermissionSyncer;
@@ -530,6 +542,8 @@ class ReceiveCommits {
     this.permissionBackend = permissionBackend;
     this.pluginConfigEntries = pluginConfigEntries;
     this.pluginPushOptions = pluginPushOptions;
+    this.fanOutExecutor = fanOutExecutor;
+    this.indexConfig = indexConfig;
     this.projectCache = projectCache;
     this.psUtil = psUtil;
     this.performanceLoggers = performanceLoggers;
@@ -1013,6 +1027,38 @@ class ReceiveCommits {
     u.getOutdatedApprovalsMessage().map(msg -> "\n" + msg + "\n").ifPresent(this::addMessage);
   }
 
+  /**
+   * Computes the auto-merge trees of the uploaded merge commits concurrently, so that the batch
+   * update that creates the changes and patch sets only needs to write the auto-merge commits.
+   */
+  private void precomputeAutoMergeTrees(ImmutableList<CreateRequest> newChanges)
+      throws IOException {
+    try (TraceTimer traceTimer = newTimer("precomputeAutoMergeTrees")) {
+      List<ObjectId> merges = new ArrayList<>();
+      for (CreateRequest create : newChanges) {
+        if (create.commit.getParentCount() == 2) {
+          merges.add(create.commit);
+        }
+      }
+      // Change edits don't get auto-merge commits.
+      if (magicBranch == null || !magicBranch.edit) {
+        RevWalk rw = receivePack.getRevWalk();
+        for (ReplaceRequest replace : replaceByChange.values()) {
+          if (rw.parseCommit(replace.newCommitId).getParentCount() == 2) {
+            merges.add(replace.newCommitId);
+          }
+        }
+      }
+      // A single auto-merge is computed by the batch update without any delay.
+      if (merges.size() > 1) {
+        autoMerger.precomputeAutoMergeTrees(repo, merges, fanOutExecutor);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StorageException("interrupted while computing auto-merge trees", e);
+    }
+  }
+
   private void insertChangesAndPatchSets(
       ImmutableList<CreateRequest> newChanges, Task replaceProgress) {
     try (TraceTimer traceTimer =
@@ -1074,6 +1120,8 @@ class ReceiveCommits {
         logger.atFine().log("Adding %d group update requests", newChanges.size());
         updateGroups.forEach(r -> r.addOps(bu));
 
+        precomputeAutoMergeTrees(newChanges);
+
         logger.atFine().log("Executing batch");
         try {
           bu.execute();
@@ -2290,7 +2338,10 @@ class ReceiveCommits {
           return ImmutableList.of();
         }
 
-        LinkedHashMap<RevCommit, ChangeLookup> pending = new LinkedHashMap<>();
+        // Commits for which changes are looked up, with the Change-Id from their footer if any.
+        LinkedHashMap<RevCommit, Change.Key> commitsToLookUp = new LinkedHashMap<>();
+        Set<RevCommit> trackedCommits = new HashSet<>();
+        List<RevCommit> commitsToValidate = new ArrayList<>();
         Set<Change.Key> newChangeIds = new HashSet<>();
         int maxBatchChanges = receiveConfig.getEffectiveMaxBatchChangesLimit(user);
         int total = 0;
@@ -2319,7 +2370,6 @@ class ReceiveCommits {
           }
           total++;
           receivePack.getRevWalk().parseBody(c);
-          String name = c.name();
           groupCollector.visit(c);
           Collection<PatchSet.Id> existingPatchSets =
               receivePackRefCache.patchSetIdsFromObjectId(c);
@@ -2353,24 +2403,36 @@ class ReceiveCommits {
           }
 
           List<String> idList = ChangeUtil.getChangeIdsFromFooter(c, urlFormatter.get());
-          if (!idList.isEmpty()) {
-            pending.put(c, lookupByChangeKey(c, Change.key(idList.get(idList.size() - 1).trim())));
-          } else {
-            pending.put(c, lookupByCommit(c));
+          commitsToLookUp.put(
+              c, !idList.isEmpty() ? Change.key(idList.get(idList.size() - 1).trim()) : null);
+          if (commitAlreadyTracked) {
+            trackedCommits.add(c);
+          }
+
+          // Each looked up commit counts as at least one change, don't walk further than needed.
+          if (maxBatchChanges != 0 && commitsToLookUp.size() > maxBatchChanges) {
+            rejectMaxBatchChanges(commitsToLookUp.size(), maxBatchChanges);
+            return ImmutableList.of();
           }
+        }
+
+        // Look up the changes of all commits together, instead of querying the index per commit.
+        LinkedHashMap<RevCommit, ChangeLookup> pending = lookupChanges(commitsToLookUp);
+        int lookedUp = 0;
+        for (ChangeLookup p : pending.values()) {
+          RevCommit c = p.commit;
+          String name = c.name();
+          lookedUp++;
 
-          int n = pending.size() + newChanges.size();
+          int n = lookedUp + newChanges.size();
           if (maxBatchChanges != 0 && n > maxBatchChanges) {
-            logger.atFine().log("%d changes exceeds limit of %d", n, maxBatchChanges);
-            reject(
-                magicBranch.cmd,
-                "the number of pushed changes in a batch exceeds the max limit " + maxBatchChanges);
+            rejectMaxBatchChanges(n, maxBatchChanges);
             return ImmutableList.of();
           }
 
-          if (commitAlreadyTracked) {
+          if (trackedCommits.contains(c)) {
             boolean changeExistsOnDestBranch = false;
-            for (ChangeData cd : pending.get(c).destChanges) {
+            for (ChangeData cd : p.destChanges) {
               if (cd.change().getDest().equals(magicBranch.dest)) {
                 changeExistsOnDestBranch = true;
                 break;
@@ -2384,22 +2446,7 @@ class ReceiveCommits {
                 "Creating new change for %s even though it is already tracked", name);
           }
 
-          BranchCommitValidator.Result validationResult =
-              validator.validateCommit(
-                  repo,
-                  receivePack.getRevWalk().getObjectReader(),
-                  magicBranch.cmd,
-                  c,
-                  ImmutableListMultimap.copyOf(pushOptions),
-                  magicBranch.merged,
-                  rejectCommits,
-                  null);
-          messages.addAll(validationResult.messages());
-          if (!validationResult.isValid()) {
-            // Not a change the user can propose? Abort as early as possible.
-            logger.atFine().log("Aborting early due to invalid commit");
-            return ImmutableList.of();
-          }
+          commitsToValidate.add(c);
 
           // Don't allow merges to be uploaded in commit chain via all-not-in-target
           if (newChangeForAllNotInTarget && c.getParentCount() > 1) {
@@ -2411,9 +2458,8 @@ class ReceiveCommits {
             // TODO(dborowitz): Should we early return here?
           }
 
-          if (idList.isEmpty()) {
+          if (p.changeKey == null) {
             newChanges.add(new CreateRequest(c, magicBranch.dest.branch(), newProgress));
-            continue;
           }
         }
         logger.atFine().log(
@@ -2422,6 +2468,12 @@ class ReceiveCommits {
                 + " lookups",
             total, alreadyTracked, newChanges.size(), pending.size());
 
+        if (!validateNewCommits(validator, commitsToValidate)) {
+          // Not a change the user can propose? Abort as early as possible.
+          logger.atFine().log("Aborting early due to invalid commit");
+          return ImmutableList.of();
+        }
+
         if (rejectImplicitMerges) {
           rejectImplicitMerges(mergedParents);
         }
@@ -2535,6 +2587,134 @@ class ReceiveCommits {
     }
   }
 
+  /**
+   * Validates the commits of a magic branch push for which changes or patch sets are created.
+   *
+   * <p>If {@code receive.commitValidationThreadPoolSize} is set, the commits are validated
+   * concurrently. In any case the validation messages are added in the order of the commits, and
+   * only for the commits up to and including the first invalid commit.
+   *
+   * @param validator the validator to use if the commits are validated on this thread
+   * @param commits the commits to validate, in the order in which they were walked
+   * @return whether all commits are valid; if not, the magic branch command has been rejected
+   */
+  private boolean validateNewCommits(BranchCommitValidator validator, List<RevCommit> commits)
+      throws IOException {
+    try (TraceTimer traceTimer =
+        newTimer("validateNewCommits", Metadata.builder().resourceCount(commits.size()))) {
+      ImmutableListMultimap<String, String> options = ImmutableListMultimap.copyOf(pushOptions);
+      if (!receiveConfig.parallelCommitValidation || commits.size() < 2) {
+        for (RevCommit c : commits) {
+          BranchCommitValidator.Result validationResult =
+              validator.validateCommit(
+                  repo,
+                  receivePack.getRevWalk().getObjectReader(),
+                  magicBranch.cmd,
+                  c,
+                  options,
+                  magicBranch.merged,
+                  rejectCommits,
+                  null);
+          messages.addAll(validationResult.messages());
+          if (!validationResult.isValid()) {
+            return false;
+          }
+        }
+        return true;
+      }
+
+      // The reject-commits map reads its notes with the object reader of the receive pack, which
+      // must not be used by other threads. Copy it into memory once for all validations.
+      NoteMap bannedCommits = copyInMemory(rejectCommits);
+      List<Future<ConcurrentValidation>> validations = new ArrayList<>(commits.size());
+      try {
+        for (RevCommit c : commits) {
+          ObjectId commitId = c.copy();
+          validations.add(
+              commitValidationExecutor.submit(
+                  requestScopePropagator.wrap(
+                      () -> validateConcurrently(commitId, options, bannedCommits))));
+        }
+        for (Future<ConcurrentValidation> future : validations) {
+          ConcurrentValidation validation = getValidation(future);
+          messages.addAll(validation.result.messages());
+          if (!validation.result.isValid()) {
+            // The validator rejected the copy of the command it was given.
+            magicBranch.cmd.setResult(validation.cmd.getResult(), validation.cmd.getMessage());
+            return false;
+          }
+        }
+        return true;
+      } finally {
+        // Commits after an invalid commit don't need to be validated anymore.
+        validations.forEach(f -> f.cancel(false));
+      }
+    }
+  }
+
+  /**
+   * Validates a single commit of a magic branch push on a thread of the commit validation executor.
+   *
+   * <p>The object reader, rev walk and permission checks of this instance must not be used by other
+   * threads, hence the validation uses its own. The validator may reject the command that it is
+   * given, so it is given a copy of the magic branch command.
+   */
+  private ConcurrentValidation validateConcurrently(
+      ObjectId commitId, ImmutableListMultimap<String, String> pushOptions, NoteMap bannedCommits)
+      throws IOException {
+    ReceiveCommand cmd =
+        new ReceiveCommand(
+            magicBranch.cmd.getOldId(),
+            magicBranch.cmd.getNewId(),
+            magicBranch.cmd.getRefName(),
+            magicBranch.cmd.getType());
+    try (ObjectReader reader = receivePack.getRevWalk().getObjectReader().newReader();
+        RevWalk rw = new RevWalk(reader)) {
+      RevCommit commit = rw.parseCommit(commitId);
+      rw.parseBody(commit);
+      BranchCommitValidator.Result result =
+          commitValidatorFactory
+              .create(projectState, magicBranch.dest, user)
+              .validateCommit(
+                  repo, reader, cmd, commit, pushOptions, magicBranch.merged, bannedCommits, null);
+      return new ConcurrentValidation(cmd, result);
+    }
+  }
+
+  /** Returns a copy of the notes that doesn't need an object reader to be read. */
+  private static NoteMap copyInMemory(NoteMap notes) throws IOException {
+    NoteMap copy = NoteMap.newEmptyMap();
+    for (Note note : notes) {
+      copy.set(note, note.getData());
+    }
+    return copy;
+  }
+
+  private static ConcurrentValidation getValidation(Future<ConcurrentValidation> future)
+      throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StorageException("interrupted while validating commits", e);
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new StorageException(e.getCause());
+    }
+  }
+
+  /** Result of a commit validation that was done on another thread. */
+  private static class ConcurrentValidation {
+    final ReceiveCommand cmd;
+    final BranchCommitValidator.Result result;
+
+    ConcurrentValidation(ReceiveCommand cmd, BranchCommitValidator.Result result) {
+      this.cmd = cmd;
+      this.result = result;
+    }
+  }
+
   private boolean foundInExistingPatchSets(Collection<PatchSet.Id> existingPatchSets) {
     try (TraceTimer traceTimer = newTimer("foundInExistingPatchSet")) {
       for (PatchSet.Id psId : existingPatchSets) {
@@ -2670,21 +2850,67 @@ class ReceiveCommits {
     }
   }
 
-  private ChangeLookup lookupByChangeKey(RevCommit c, Change.Key key) {
-    try (TraceTimer traceTimer = newTimer("lookupByChangeKey")) {
-      List<ChangeData> byBranchKeyExactMatch =
-          queryProvider.get().byBranchKey(magicBranch.dest, key).stream()
-              .filter(cd -> cd.change().getKey().equals(key))
-              .collect(toList());
-      return new ChangeLookup(c, key, byBranchKeyExactMatch);
+  /**
+   * Looks up the changes on the destination branch of the magic branch push for the given commits.
+   * Commits with a Change-Id are looked up by the Change-Id, the other commits by their SHA-1.
+   *
+   * @param commits the commits, with their Change-Id or null
+   * @return the lookups, in the order of the given commits
+   */
+  private LinkedHashMap<RevCommit, ChangeLookup> lookupChanges(
+      LinkedHashMap<RevCommit, Change.Key> commits) {
+    try (TraceTimer traceTimer =
+        newTimer("lookupChanges", Metadata.builder().resourceCount(commits.size()))) {
+      Set<Change.Key> keys = new HashSet<>();
+      Set<String> hashes = new HashSet<>();
+      commits.forEach(
+          (c, key) -> {
+            if (key != null) {
+              keys.add(key);
+            } else {
+              hashes.add(c.name());
+            }
+          });
+
+      ListMultimap<Change.Key, ChangeData> byKey =
+          MultimapBuilder.hashKeys().arrayListValues().build();
+      for (ChangeData cd :
+          InternalChangeQuery.byBranchKeys(queryProvider, indexConfig, magicBranch.dest, keys)) {
+        // The index matches Change-Id prefixes, only keep exact matches.
+        Change.Key key = cd.change().getKey();
+        if (keys.contains(key)) {
+          byKey.put(key, cd);
+        }
+      }
+
+      ListMultimap<String, ChangeData> byCommit =
+          MultimapBuilder.hashKeys().arrayListValues().build();
+      for (ChangeData cd :
+          InternalChangeQuery.byBranchCommits(
+              queryProvider, indexConfig, magicBranch.dest, hashes)) {
+        for (PatchSet ps : cd.patchSets()) {
+          String hash = ps.commitId().name();
+          if (hashes.contains(hash)) {
+            byCommit.put(hash, cd);
+          }
+        }
+      }
+
+      LinkedHashMap<RevCommit, ChangeLookup> lookups = new LinkedHashMap<>();
+      commits.forEach(
+          (c, key) -> {
+            List<ChangeData> destChanges = key != null ? byKey.get(key) : byCommit.get(c.name());
+            lookups.put(c, new ChangeLookup(c, key, ImmutableList.copyOf(destChanges)));
+          });
+      return lookups;
     }
   }
 
-  private ChangeLookup lookupByCommit(RevCommit c) {
-    try (TraceTimer traceTimer = newTimer("lookupByCommit")) {
-      return new ChangeLookup(
-          c, null, queryProvider.get().byBranchCommit(magicBranch.dest, c.getName()));
-    }
+  private void rejectMaxBatchChanges(int changes, int maxBatchChanges) {
+    logger.atFine().log("%d changes exceeds limit of %d", changes, maxBatchChanges);
+    reject(
+        magicBranch.cmd,
+        "the number of pushed changes in a batch exceeds the max limit " + maxBatchChanges);
   }
 
   /** Represents a commit for which a Change should be created. */
@@ -2870,11 +3096,45 @@ class ReceiveCommits {
   }
 
   private void readChangesForReplace() {
-    try (TraceTimer traceTimer = newTimer("readChangesForReplace")) {
-      replaceByChange.values().stream()
-          .map(r -> r.ontoChange)
-          .map(id -> notesFactory.create(repo, project.getNameKey(), id))
-          .forEach(notes -> replaceByChange.get(notes.getChangeId()).notes = notes);
+    try (TraceTimer traceTimer =
+        newTimer(
+            "readChangesForReplace", Metadata.builder().resourceCount(replaceByChange.size()))) {
+      if (replaceByChange.size() < 2) {
+        replaceByChange.values().stream()
+            .map(r -> r.ontoChange)
+            .map(id -> notesFactory.create(repo, project.getNameKey(), id))
+            .forEach(notes -> replaceByChange.get(notes.getChangeId()).notes = notes);
+        return;
+      }
+
+      // The notes of the replaced changes are independent of each other, load them concurrently.
+      List<Future<ChangeNotes>> notes = new ArrayList<>(replaceByChange.size());
+      try {
+        for (Change.Id id : replaceByChange.keySet()) {
+          notes.add(
+              fanOutExecutor.submit(
+                  requestScopePropagator.wrap(
+                      () -> notesFactory.create(repo, project.getNameKey(), id))));
+        }
+        for (Future<ChangeNotes> f : notes) {
+          ChangeNotes n = getChangeNotes(f);
+          replaceByChange.get(n.getChangeId()).notes = n;
+        }
+      } finally {
+        notes.forEach(f -> f.cancel(false));
+      }
+    }
+  }
+
+  private static ChangeNotes getChangeNotes(Future<ChangeNotes> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StorageException("interrupted while reading changes", e);
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new StorageException(e.getCause());
     }
   }
 
@@ -106,7 +106,11 @@ public class OnlineReindexer<K, V, I extends Index<K, V>> {
         "Starting online reindex of %s from schema version %s to %s",
         name, version(indexes.getSearchIndex()), version(index));
 
-    if (oldVersion != newVersion) {
+    if (batchIndexer.hasCheckpoint(index)) {
+      // An earlier online reindex to this version was interrupted, e.g. by a restart.
+      logger.atInfo().log("Resuming online reindex of %s schema version %s", name, version(index));
+      batchIndexer.setResume(true);
+    } else if (oldVersion != newVersion) {
       index.deleteAll();
     }
     SiteIndexer.Result result = batchIndexer.indexAll(index);
@@ -30,6 +30,7 @@ import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.index.SiteIndexer;
+import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.MultiProgressMonitor;
 import com.google.gerrit.server.git.MultiProgressMonitor.Task;
@@ -44,6 +45,7 @@ import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.inject.Inject;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -63,6 +65,7 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
   private MultiProgressMonitor mpm;
   private VolatileTask doneTask;
   private Task failedTask;
+  private ReindexCheckpoint checkpoint;
   private static final int PROJECT_SLICE_MAX_REFS = 1000;
 
   private final MultiProgressMonitor.Factory multiProgressMonitorFactory;
@@ -81,6 +84,8 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
   private final ChangeIndexer.Factory indexerFactory;
   private final ChangeNotes.Factory notesFactory;
   private final ProjectCache projectCache;
+  private final SitePaths sitePaths;
+  private final ReindexMetrics metrics;
 
   @Inject
   AllChangesIndexer(
@@ -90,7 +95,9 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
       @IndexExecutor(BATCH) ListeningExecutorService executor,
       ChangeIndexer.Factory indexerFactory,
       ChangeNotes.Factory notesFactory,
-      ProjectCache projectCache) {
+      ProjectCache projectCache,
+      SitePaths sitePaths,
+      ReindexMetrics metrics) {
     this.multiProgressMonitorFactory = multiProgressMonitorFactory;
     this.changeDataFactory = changeDataFactory;
     this.repoManager = repoManager;
@@ -98,6 +105,8 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     this.indexerFactory = indexerFactory;
     this.notesFactory = notesFactory;
     this.projectCache = projectCache;
+    this.sitePaths = sitePaths;
+    this.metrics = metrics;
   }
 
   @AutoValue
@@ -119,6 +128,15 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     }
   }
 
+  @Override
+  public boolean hasCheckpoint(ChangeIndex index) {
+    return ReindexCheckpoint.exists(checkpointFile(index));
+  }
+
+  private Path checkpointFile(ChangeIndex index) {
+    return ReindexCheckpoint.path(sitePaths.index_dir, index.getSchema().getVersion());
+  }
+
   @Override
   public Result indexAll(ChangeIndex index) {
     // The simplest approach to distribute indexing would be to let each thread grab a project
@@ -135,9 +153,22 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     // which had 2 big projects, many middle sized ones, and lots of smaller ones, the
     // splitting of repos into smaller parts reduced indexing time from 1.5 hours to 55 minutes
     // in 2020.
+    //
+    // Every slice that was indexed without failures is recorded in a checkpoint, so that an
+    // interrupted reindex can be resumed by skipping these slices.
 
     Stopwatch sw = Stopwatch.createStarted();
     AtomicBoolean ok = new AtomicBoolean(true);
+    if (resume) {
+      checkpoint = ReindexCheckpoint.resume(checkpointFile(index));
+      logger.atInfo().log(
+          "Resuming reindex of changes, skipping %d completed project slices",
+          checkpoint.completedCount());
+      resume = false;
+    } else {
+      checkpoint = ReindexCheckpoint.start(checkpointFile(index));
+    }
+    metrics.begin();
     mpm = multiProgressMonitorFactory.create(progressOut, TaskKind.INDEXING, "Reindexing changes");
     doneTask = mpm.beginVolatileSubTask("changes");
     failedTask = mpm.beginSubTask("failed", MultiProgressMonitor.UNKNOWN);
@@ -146,6 +177,7 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
       futures = new SliceScheduler(index, ok).schedule();
     } catch (ProjectsCollectionFailure e) {
       logger.atSevere().log("%s", e.getMessage());
+      metrics.end();
       return Result.create(sw, false, 0, 0);
     }
 
@@ -162,6 +194,7 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
       logger.atSevere().withCause(e).log("Error in batch indexer");
       ok.set(false);
     }
+    metrics.end();
     // If too many changes failed, maybe there was a bug in the indexer. Don't
     // trust the results. This is not an exact percentage since we bump the same
     // failure counter if a project can't be read, but close enough.
@@ -177,6 +210,9 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     } else if (nFailed > 0) {
       logger.atWarning().log("Failed %s/%s changes", nFailed, nTotal);
     }
+    if (ok.get()) {
+      checkpoint.delete();
+    }
     return Result.create(sw, ok.get(), nDone, nFailed);
   }
 
@@ -197,7 +233,7 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
 
   public Callable<Void> reindexProjectSlice(
       ChangeIndexer indexer, ProjectSlice projectSlice, Task done, Task failed) {
-    return new ProjectSliceIndexer(indexer, projectSlice, done, failed);
+    return new ProjectSliceIndexer(indexer, projectSlice, done, failed, null);
   }
 
   private class ProjectSliceIndexer implements Callable<Void> {
@@ -205,20 +241,26 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     private final ProjectSlice projectSlice;
     private final ProgressMonitor done;
     private final ProgressMonitor failed;
+    @Nullable private final ReindexCheckpoint checkpoint;
+    private int changeCount;
+    private int failedCount;
 
     private ProjectSliceIndexer(
         ChangeIndexer indexer,
         ProjectSlice projectSlice,
         ProgressMonitor done,
-        ProgressMonitor failed) {
+        ProgressMonitor failed,
+        @Nullable ReindexCheckpoint checkpoint) {
       this.indexer = indexer;
       this.projectSlice = projectSlice;
       this.done = done;
       this.failed = failed;
+      this.checkpoint = checkpoint;
     }
 
     @Override
     public Void call() throws Exception {
+      long start = System.nanoTime();
       OnlineReindexMode.begin();
       // Order of scanning changes is undefined. This is ok if we assume that packfile locality is
       // not important for indexing, since sites should have a fully populated DiffSummary cache.
@@ -232,10 +274,18 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
               id -> (id.get() % projectSlice.slices()) == projectSlice.slice())
           .forEach(r -> index(r));
       OnlineReindexMode.end();
+      if (checkpoint != null) {
+        metrics.sliceDone(changeCount, System.nanoTime() - start);
+        if (failedCount == 0) {
+          checkpoint.markCompleted(
+              projectSlice.name(), projectSlice.slice(), projectSlice.slices());
+        }
+      }
       return null;
     }
 
     private void index(ChangeNotesResult r) {
+      changeCount++;
       if (r.error().isPresent()) {
         fail("Failed to read change " + r.id() + " for indexing", true, r.error().get());
         return;
@@ -254,6 +304,7 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     }
 
     private void fail(String error, boolean failed, Throwable e) {
+      failedCount++;
       if (failed) {
         this.failed.update(1);
       }
@@ -263,6 +314,7 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     }
 
     private void failSilently() {
+      failedCount++;
       this.failed.update(1);
     }
 
@@ -345,14 +397,23 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
             projTask.updateTotal(slices);
 
             for (int slice = 0; slice < slices; slice++) {
+              int sliceSize = sliceSize(sr, slice, slices);
+              if (checkpoint.isCompleted(name, slice, slices)) {
+                // Indexed by an earlier, interrupted reindex.
+                doneTask.update(sliceSize);
+                projTask.update(1);
+                continue;
+              }
+              metrics.addChanges(sliceSize);
               ProjectSlice projectSlice = ProjectSlice.create(name, slice, slices, sr);
               ListenableFuture<?> future =
                   executor.submit(
-                      reindexProjectSlice(
+                      new ProjectSliceIndexer(
                           indexerFactory.create(executor, index),
                           projectSlice,
                           doneTask,
-                          failedTask));
+                          failedTask,
+                          checkpoint));
               String description = "project " + name + " (" + slice + "/" + slices + ")";
               addErrorListener(future, description, projTask, ok);
               sliceIndexerFutures.add(future);
@@ -365,6 +426,13 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
         slicingProjects.update(1);
         return null;
       }
+
+      private int sliceSize(ScanResult sr, int slice, int slices) {
+        if (slices == 1) {
+          return sr.all().size();
+        }
+        return (int) sr.all().stream().filter(id -> (id.get() % slices) == slice).count();
+      }
     }
   }
 }
@@ -0,0 +1,121 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.entities.Project;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Records which project slices of a change reindex have been completed, so that an interrupted
+ * reindex can be resumed without indexing these slices again.
+ *
+ * <p>The checkpoint is a text file with one line per completed slice, which is appended to as
+ * slices complete. A slice is identified by its project, slice number and number of slices of the
+ * project; if the number of changes in a project changed since the checkpoint was written such
+ * that it is split differently, all of its slices are indexed again.
+ *
+ * <p>Checkpointing is best effort: if the file cannot be written, a warning is logged and the
+ * reindex continues without checkpoints.
+ */
+class ReindexCheckpoint {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static Path path(Path indexDir, int schemaVersion) {
+    return indexDir.resolve(String.format("changes_%04d.checkpoint", schemaVersion));
+  }
+
+  /** Returns whether a checkpoint was left by an earlier, unfinished reindex. */
+  static boolean exists(Path file) {
+    return Files.isRegularFile(file);
+  }
+
+  /** Loads the slices completed by an earlier reindex and continues to record slices there. */
+  static ReindexCheckpoint resume(Path file) {
+    Set<String> completed = new HashSet<>();
+    try {
+      if (Files.exists(file)) {
+        completed.addAll(Files.readAllLines(file, UTF_8));
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot read reindex checkpoint %s", file);
+      completed.clear();
+    }
+    return new ReindexCheckpoint(file, completed);
+  }
+
+  /** Discards any earlier checkpoint and starts recording slices from scratch. */
+  static ReindexCheckpoint start(Path file) {
+    ReindexCheckpoint checkpoint = new ReindexCheckpoint(file, new HashSet<>());
+    checkpoint.delete();
+    return checkpoint;
+  }
+
+  private final Path file;
+  private final Set<String> completed;
+  private volatile boolean enabled = true;
+
+  private ReindexCheckpoint(Path file, Set<String> completed) {
+    this.file = file;
+    this.completed = completed;
+  }
+
+  int completedCount() {
+    return completed.size();
+  }
+
+  synchronized boolean isCompleted(Project.NameKey project, int slice, int slices) {
+    return completed.contains(key(project, slice, slices));
+  }
+
+  synchronized void markCompleted(Project.NameKey project, int slice, int slices) {
+    String key = key(project, slice, slices);
+    if (!completed.add(key) || !enabled) {
+      return;
+    }
+    try {
+      Files.write(
+          file,
+          (key + "\n").getBytes(UTF_8),
+          StandardOpenOption.CREATE,
+          StandardOpenOption.APPEND,
+          StandardOpenOption.DSYNC);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log(
+          "Cannot write reindex checkpoint %s; reindex will not be resumable", file);
+      enabled = false;
+    }
+  }
+
+  /** Removes the checkpoint, e.g. once the reindex completed successfully. */
+  void delete() {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot delete reindex checkpoint %s", file);
+    }
+  }
+
+  private static String key(Project.NameKey project, int slice, int slices) {
+    return project.get() + '\t' + slice + '\t' + slices;
+  }
+}
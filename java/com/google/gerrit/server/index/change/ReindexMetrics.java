@@ -0,0 +1,118 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Metrics for the progress of reindexing all changes with {@link AllChangesIndexer}. */
+@Singleton
+class ReindexMetrics {
+  private final Counter0 sliceCount;
+  private final Timer0 sliceLatency;
+  private final Ticker ticker;
+
+  private final AtomicLong totalChanges = new AtomicLong();
+  private final AtomicLong doneChanges = new AtomicLong();
+  private volatile long startNanos;
+  private volatile boolean running;
+
+  @Inject
+  ReindexMetrics(MetricMaker metrics) {
+    this(metrics, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  ReindexMetrics(MetricMaker metrics, Ticker ticker) {
+    this.ticker = ticker;
+    sliceCount =
+        metrics.newCounter(
+            "index/reindex/changes/slice_count",
+            new Description("Number of project slices indexed by a change reindex")
+                .setRate()
+                .setUnit("slices"));
+    sliceLatency =
+        metrics.newTimer(
+            "index/reindex/changes/slice_latency",
+            new Description("Latency for indexing a project slice in a change reindex")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+    metrics.newCallbackMetric(
+        "index/reindex/changes/throughput",
+        Long.class,
+        new Description("Number of changes indexed per second by the running change reindex")
+            .setGauge()
+            .setUnit("changes/s"),
+        this::throughput);
+    metrics.newCallbackMetric(
+        "index/reindex/changes/eta",
+        Long.class,
+        new Description("Estimated time until the running change reindex is done")
+            .setGauge()
+            .setUnit(Units.SECONDS),
+        this::eta);
+  }
+
+  void begin() {
+    totalChanges.set(0);
+    doneChanges.set(0);
+    startNanos = ticker.read();
+    running = true;
+  }
+
+  void end() {
+    running = false;
+  }
+
+  /** Adds changes that need to be indexed by the running reindex. */
+  void addChanges(int count) {
+    totalChanges.addAndGet(count);
+  }
+
+  void sliceDone(int changes, long elapsedNanos) {
+    doneChanges.addAndGet(changes);
+    sliceCount.increment();
+    sliceLatency.record(elapsedNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @VisibleForTesting
+  long throughput() {
+    if (!running) {
+      return 0L;
+    }
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(ticker.read() - startNanos);
+    return elapsedMillis > 0 ? doneChanges.get() * 1000 / elapsedMillis : 0L;
+  }
+
+  @VisibleForTesting
+  long eta() {
+    long done = doneChanges.get();
+    if (!running || done == 0) {
+      return 0L;
+    }
+    long remaining = Math.max(0, totalChanges.get() - done);
+    long elapsedNanos = ticker.read() - startNanos;
+    return TimeUnit.NANOSECONDS.toSeconds((long) ((double) elapsedNanos / done * remaining));
+  }
+}
@@ -35,7 +35,8 @@ class LoggingContextAwareCallable<T> implements Callable<T> {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private final Callable<T> callable;
-  private final Thread callingThread;
+  // Not the Thread itself, see LoggingContextAwareRunnable.
+  private final long callingThreadId;
   private final ImmutableSetMultimap<String, String> tags;
   private final boolean forceLogging;
   private final boolean performanceLogging;
@@ -57,7 +58,7 @@ class LoggingContextAwareCallable<T> implements Callable<T> {
       MutablePerformanceLogRecords mutablePerformanceLogRecords,
       MutableAclLogRecords mutableAclLogRecords) {
     this.callable = callable;
-    this.callingThread = Thread.currentThread();
+    this.callingThreadId = Thread.currentThread().getId();
     this.tags = LoggingContext.getInstance().getTagsAsMap();
     this.forceLogging = LoggingContext.getInstance().isLoggingForced();
     this.performanceLogging = LoggingContext.getInstance().isPerformanceLogging();
@@ -68,7 +69,7 @@ class LoggingContextAwareCallable<T> implements Callable<T> {
 
   @Override
   public T call() throws Exception {
-    if (callingThread.equals(Thread.currentThread())) {
+    if (callingThreadId == Thread.currentThread().getId()) {
       // propagation of logging context is not needed
       return callable.call();
     }
@@ -53,7 +53,9 @@ public class LoggingContextAwareRunnable implements Runnable {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private final Runnable runnable;
-  private final Thread callingThread;
+  // Only the id is kept, so that queued tasks don't retain the calling thread and its thread locals
+  // after it terminated, which matters if requests are served on short-lived virtual threads.
+  private final long callingThreadId;
   private final ImmutableSetMultimap<String, String> tags;
   private final boolean forceLogging;
   private final boolean performanceLogging;
@@ -75,7 +77,7 @@ public class LoggingContextAwareRunnable implements Runnable {
       MutablePerformanceLogRecords mutablePerformanceLogRecords,
       MutableAclLogRecords mutableAclLogRecords) {
     this.runnable = runnable;
-    this.callingThread = Thread.currentThread();
+    this.callingThreadId = Thread.currentThread().getId();
     this.tags = LoggingContext.getInstance().getTagsAsMap();
     this.forceLogging = LoggingContext.getInstance().isLoggingForced();
     this.performanceLogging = LoggingContext.getInstance().isPerformanceLogging();
@@ -90,7 +92,7 @@ public class LoggingContextAwareRunnable implements Runnable {
 
   @Override
   public void run() {
-    if (callingThread.equals(Thread.currentThread())) {
+    if (callingThreadId == Thread.currentThread().getId()) {
       // propagation of logging context is not needed
       runnable.run();
       return;
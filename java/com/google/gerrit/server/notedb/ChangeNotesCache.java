@@ -17,6 +17,7 @@ package com.google.gerrit.server.notedb;
 import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Table;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.Nullable;
@@ -31,6 +32,7 @@ import com.google.gerrit.server.cache.CacheModule;
 import com.google.gerrit.server.cache.proto.Cache.ChangeNotesKeyProto;
 import com.google.gerrit.server.cache.serialize.CacheSerializer;
 import com.google.gerrit.server.cache.serialize.ObjectIdConverter;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.notedb.AbstractChangeNotes.Args;
 import com.google.gerrit.server.notedb.ChangeNotesCommit.ChangeNotesRevWalk;
 import com.google.inject.Inject;
@@ -45,6 +47,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Supplier;
 import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ObjectId;
 
 @Singleton
@@ -365,35 +368,79 @@ public class ChangeNotesCache {
     public ChangeNotesState call() throws ConfigInvalidException, IOException {
       logger.atFine().log(
           "Load change notes for change %s of project %s", key.changeId(), key.project());
-      ChangeNotesParser parser =
-          new ChangeNotesParser(
-              key.changeId(),
-              key.id(),
-              walkSupplier.get(),
-              args.changeNoteJson,
-              args.metrics,
-              args.serverId,
-              externalIdCache);
-      ChangeNotesState result = parser.parseAll();
-      // This assignment only happens if call() was actually called, which only
-      // happens when Cache#get(K, Callable<V>) incurs a cache miss.
+      ChangeNotesRevWalk walk = walkSupplier.get();
+      ChangeNotesState result = parseIncremental(walk);
+      if (result == null) {
+        ChangeNotesParser parser = newParser(walk);
+        result = parser.parseAll();
+        // This assignment only happens if call() was actually called, which only
+        // happens when Cache#get(K, Callable<V>) incurs a cache miss.
+        revisionNoteMap = parser.getRevisionNoteMap();
+      }
+      latestKeys.put(key.changeId(), key);
+      return result;
+    }
+
+    @Nullable
+    private ChangeNotesState parseIncremental(ChangeNotesRevWalk walk)
+        throws ConfigInvalidException, IOException {
+      if (maxIncrementalParseCommits <= 0) {
+        return null;
+      }
+      Key baseKey = latestKeys.getIfPresent(key.changeId());
+      if (baseKey == null || !baseKey.project().equals(key.project())) {
+        return null;
+      }
+      ChangeNotesState base = cache.getIfPresent(baseKey);
+      if (base == null) {
+        return null;
+      }
+      ChangeNotesParser parser = newParser(walk);
+      ChangeNotesState result = parser.parseIncremental(base, maxIncrementalParseCommits);
+      if (result == null) {
+        args.metrics.incrementalParseFallbackCount.increment();
+        return null;
+      }
+      args.metrics.incrementalParseCount.increment();
       revisionNoteMap = parser.getRevisionNoteMap();
       return result;
     }
+
+    private ChangeNotesParser newParser(ChangeNotesRevWalk walk) {
+      return new ChangeNotesParser(
+          key.changeId(),
+          key.id(),
+          walk,
+          args.changeNoteJson,
+          args.metrics,
+          args.serverId,
+          externalIdCache);
+    }
   }
 
   private final Cache<Key, ChangeNotesState> cache;
   private final Args args;
   private final ExternalIdCache externalIdCache;
+  private final int maxIncrementalParseCommits;
+
+  /**
+   * Key of the most recently loaded state of each change, which is used as the starting point for
+   * parsing newer states incrementally.
+   */
+  private final Cache<Change.Id, Key> latestKeys;
 
   @Inject
   ChangeNotesCache(
       @Named(CACHE_NAME) Cache<Key, ChangeNotesState> cache,
       Args args,
-      ExternalIdCache externalIdCache) {
+      ExternalIdCache externalIdCache,
+      @GerritServerConfig Config cfg) {
     this.cache = cache;
     this.args = args;
     this.externalIdCache = externalIdCache;
+    this.maxIncrementalParseCommits =
+        cfg.getInt("notedb", "changes", "maxIncrementalParseCommits", 10);
+    this.latestKeys = CacheBuilder.newBuilder().maximumSize(1 << 16).build();
   }
 
   Value get(
@@ -104,11 +104,13 @@ import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.errors.InvalidObjectIdException;
+import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.notes.NoteMap;
 import org.eclipse.jgit.revwalk.FooterKey;
+import org.eclipse.jgit.revwalk.FooterLine;
 import org.eclipse.jgit.util.RawParseUtils;
 
 /**
@@ -142,6 +144,17 @@ class ChangeNotesParser {
   private static final Splitter RULE_SPLITTER = Splitter.on(": ");
   private static final Splitter HASHTAG_SPLITTER = Splitter.on(",");
 
+  /** Footers of commits that can be applied on top of a previously parsed state. */
+  private static final ImmutableSet<FooterKey> INCREMENTAL_FOOTERS =
+      ImmutableSet.of(
+          FOOTER_PATCH_SET,
+          FOOTER_LABEL,
+          FOOTER_ATTENTION,
+          FOOTER_TAG,
+          FOOTER_REAL_USER,
+          FOOTER_HASHTAGS,
+          FOOTER_TOPIC);
+
   // Private final members initialized in the constructor.
   private final ChangeNoteJson changeNoteJson;
   private final NoteDbMetrics metrics;
@@ -270,6 +283,150 @@ class ChangeNotesParser {
     return buildState();
   }
 
+  /**
+   * Parses the notes by applying only the commits on top of a previously parsed state.
+   *
+   * <p>Incremental parsing is limited to changes that are open and to commits that do not touch
+   * anything other than votes, change messages, the attention set, hashtags and the topic, which
+   * covers the vast majority of updates on busy changes. In all other cases, e.g. if the meta ref
+   * was rewritten, {@code base} is not an ancestor of the tip or more than {@code maxCommits} new
+   * commits need to be applied, {@code null} is returned and the caller should fall back to {@link
+   * #parseAll()} with a fresh parser.
+   *
+   * @param base state parsed from an ancestor of the tip this parser was created for.
+   * @param maxCommits maximum number of new commits to apply on top of {@code base}.
+   * @return the parsed state, or {@code null} if the notes could not be parsed incrementally.
+   */
+  @Nullable
+  ChangeNotesState parseIncremental(ChangeNotesState base, int maxCommits)
+      throws ConfigInvalidException, IOException {
+    ChangeNotesState.ChangeColumns baseColumns = base.columns();
+    if (base.metaId() == null
+        || baseColumns == null
+        || baseColumns.status() != Change.Status.NEW
+        || !base.changeId().equals(id)) {
+      return null;
+    }
+    List<ChangeNotesCommit> commits = new ArrayList<>();
+    ChangeNotesCommit baseCommit;
+    walk.reset();
+    try {
+      baseCommit = walk.parseCommit(base.metaId());
+      walk.markStart(walk.parseCommit(tip));
+      walk.markUninteresting(baseCommit);
+      ChangeNotesCommit commit;
+      while ((commit = walk.next()) != null) {
+        if (commits.size() >= maxCommits || !canParseIncrementally(commit)) {
+          return null;
+        }
+        commits.add(commit);
+      }
+    } catch (MissingObjectException e) {
+      return null; // History was rewritten and the base commit is gone.
+    }
+    if (commits.isEmpty() || !commits.get(commits.size() - 1).getParent(0).equals(baseCommit)) {
+      return null;
+    }
+
+    try (Timer0.Context timer = metrics.parseLatency.start()) {
+      for (ChangeNotesCommit commit : commits) {
+        parse(commit);
+      }
+      applyBase(base);
+      if (walk.parseCommit(tip).getTree().equals(baseCommit.getTree())) {
+        humanComments.putAll(base.publishedComments());
+        submitRequirementResults.addAll(base.submitRequirementsResult());
+      } else {
+        parseNotes();
+      }
+      updatePatchSetStates();
+      checkMandatoryFooters();
+    }
+
+    return buildState();
+  }
+
+  private static boolean canParseIncrementally(ChangeNotesCommit commit) {
+    if (commit.getParentCount() != 1) {
+      return false;
+    }
+    for (FooterLine fl : commit.getFooterLines()) {
+      if (INCREMENTAL_FOOTERS.stream().noneMatch(fl::matches)) {
+        return false;
+      }
+    }
+    // Patch set states (e.g. deleted patch sets) affect the already parsed history.
+    List<String> psIdLines = commit.getFooterLineValues(FOOTER_PATCH_SET);
+    return psIdLines.size() == 1 && psIdLines.get(0).indexOf(' ') < 0;
+  }
+
+  /**
+   * Fills in the data from a previously parsed state as if it had been parsed from the commits
+   * that are older than the ones parsed so far.
+   */
+  private void applyBase(ChangeNotesState base) {
+    ChangeNotesState.ChangeColumns c = base.columns();
+    changeId = c.changeKey().get();
+    submissionId = c.submissionId();
+    mergedOn = base.mergedOn();
+    branch = c.branch();
+    createdOn = c.createdOn();
+    if (lastUpdatedOn == null || c.lastUpdatedOn().isAfter(lastUpdatedOn)) {
+      lastUpdatedOn = c.lastUpdatedOn();
+    }
+    ownerId = c.owner();
+    serverId = base.serverId();
+    status = c.status();
+    subject = c.subject();
+    originalSubject = c.originalSubject();
+    if (topic == null) {
+      topic = c.topic();
+    }
+    if (hashtags == null) {
+      hashtags = base.hashtags();
+    }
+    isPrivate = c.isPrivate();
+    workInProgress = c.workInProgress();
+    hasReviewStarted = c.reviewStarted();
+    revertOf = c.revertOf();
+    cherryPickOf = Optional.ofNullable(c.cherryPickOf());
+    if (c.currentPatchSetId() != null) {
+      currentPatchSets.add(c.currentPatchSetId());
+    }
+    updateCount += base.updateCount();
+
+    for (Map.Entry<PatchSet.Id, PatchSet> e : base.patchSets()) {
+      PatchSet ps = e.getValue();
+      patchSets.put(
+          e.getKey(),
+          PatchSet.builder()
+              .id(ps.id())
+              .commitId(ps.commitId())
+              .uploader(ps.uploader())
+              .createdOn(ps.createdOn())
+              .groups(ps.groups())
+              .pushCertificate(ps.pushCertificate())
+              .description(ps.description()));
+    }
+    for (Map.Entry<PatchSet.Id, PatchSetApproval> e : base.approvals()) {
+      approvals.putIfAbsent(e.getValue().key(), e.getValue().toBuilder());
+    }
+    reviewers.putAll(Tables.transpose(base.reviewers().asTable()));
+    reviewersByEmail.putAll(Tables.transpose(base.reviewersByEmail().asTable()));
+    pendingReviewers = base.pendingReviewers();
+    pendingReviewersByEmail = base.pendingReviewersByEmail();
+    allPastReviewers.addAll(base.allPastReviewers());
+    // Both lists are kept in parse order, i.e. newest first.
+    reviewerUpdates.addAll(Lists.reverse(base.reviewerUpdates()));
+    allChangeMessages.addAll(Lists.reverse(base.changeMessages()));
+    for (AttentionSetUpdate u : base.attentionSet()) {
+      latestAttentionStatus.putIfAbsent(u.account(), u);
+    }
+    allAttentionSetUpdates.addAll(base.allAttentionSetUpdates());
+    assigneeUpdates.addAll(base.assigneeUpdates());
+    submitRecords.addAll(base.submitRecords());
+  }
+
   RevisionNoteMap<ChangeRevisionNote> getRevisionNoteMap() {
     return revisionNoteMap;
   }
@@ -14,10 +14,15 @@
 
 package com.google.gerrit.server.notedb;
 
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Counter1;
 import com.google.gerrit.metrics.Description;
 import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
 import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.logging.Metadata;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
@@ -43,6 +48,24 @@ class NoteDbMetrics {
    */
   final Timer0 parseLatency;
 
+  /** Number of changes that were parsed incrementally on top of a previously cached state. */
+  final Counter0 incrementalParseCount;
+
+  /** Number of incremental parse attempts that had to fall back to parsing the full history. */
+  final Counter0 incrementalParseFallbackCount;
+
+  /** Latency for reserving a block of IDs from a {@link RepoSequence}, by sequence name. */
+  final Timer1<String> sequenceRefillLatency;
+
+  /** Number of ref updates of a {@link RepoSequence} that failed due to a concurrent update. */
+  final Counter1<String> sequenceLockFailureCount;
+
+  /**
+   * Number of times a caller of a {@link RepoSequence} had to wait for a block of IDs to be
+   * reserved, since no prefetched block was available.
+   */
+  final Counter1<String> sequenceRefillWaitCount;
+
   @Inject
   NoteDbMetrics(MetricMaker metrics) {
     updateLatency =
@@ -72,5 +95,48 @@ class NoteDbMetrics {
             new Description("NoteDb parse latency for changes")
                 .setCumulative()
                 .setUnit(Units.MICROSECONDS));
+
+    incrementalParseCount =
+        metrics.newCounter(
+            "notedb/incremental_parse_count",
+            new Description("Number of changes parsed incrementally from a cached state")
+                .setRate()
+                .setUnit("changes"));
+
+    incrementalParseFallbackCount =
+        metrics.newCounter(
+            "notedb/incremental_parse_fallback_count",
+            new Description("Number of incremental change parses that fell back to a full parse")
+                .setRate()
+                .setUnit("changes"));
+
+    Field<String> sequenceField =
+        Field.ofString("sequence", Metadata.Builder::noteDbSequenceType)
+            .description("The name of the sequence.")
+            .build();
+
+    sequenceRefillLatency =
+        metrics.newTimer(
+            "notedb/sequence_refill_latency",
+            new Description("Latency for reserving a block of IDs from a sequence")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            sequenceField);
+
+    sequenceLockFailureCount =
+        metrics.newCounter(
+            "notedb/sequence_lock_failure_count",
+            new Description("Number of sequence updates that failed due to a concurrent update")
+                .setRate()
+                .setUnit("updates"),
+            sequenceField);
+
+    sequenceRefillWaitCount =
+        metrics.newCounter(
+            "notedb/sequence_refill_wait_count",
+            new Description("Number of times a block of IDs had to be reserved while waiting")
+                .setRate()
+                .setUnit("refills"),
+            sequenceField);
   }
 }
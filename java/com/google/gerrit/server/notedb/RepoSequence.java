@@ -32,18 +32,24 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.Runnables;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.git.LockFailureException;
 import com.google.gerrit.git.RefUpdateUtil;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.server.extensions.events.GitReferenceUpdated;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -63,6 +69,10 @@ import org.eclipse.jgit.transport.ReceiveCommand;
  * processes can increment the counter by a larger number and hand out numbers from that range in
  * memory until they run out. This means concurrent processes will hand out somewhat non-monotonic
  * numbers.
+ *
+ * <p>If an executor for prefetching is given, the next batch is reserved in the background once
+ * half of the current batch has been handed out, so that callers don't have to wait for the ref
+ * update, and don't queue up behind it, when the current batch is exhausted.
  */
 public class RepoSequence {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
@@ -91,18 +101,22 @@ public class RepoSequence {
   private final GitRepositoryManager repoManager;
   private final GitReferenceUpdated gitRefUpdated;
   private final Project.NameKey projectName;
+  private final String name;
   private final String refName;
   private final Seed seed;
   private final int floor;
   private final int batchSize;
   private final Runnable afterReadRef;
   private final Retryer<ImmutableList<Integer>> retryer;
+  @Nullable private final Executor prefetchExecutor;
+  private final NoteDbMetrics metrics;
 
   // Protects all non-final fields.
   private final Lock counterLock;
 
   private int limit;
   private int counter;
+  @Nullable private CompletableFuture<Block> prefetched;
 
   @VisibleForTesting int acquireCount;
 
@@ -122,7 +136,9 @@ public class RepoSequence {
         batchSize,
         Runnables.doNothing(),
         RETRYER,
-        0);
+        0,
+        null,
+        disabledMetrics());
   }
 
   public RepoSequence(
@@ -142,7 +158,32 @@ public class RepoSequence {
         batchSize,
         Runnables.doNothing(),
         RETRYER,
-        floor);
+        floor,
+        null,
+        disabledMetrics());
+  }
+
+  RepoSequence(
+      GitRepositoryManager repoManager,
+      GitReferenceUpdated gitRefUpdated,
+      Project.NameKey projectName,
+      String name,
+      Seed seed,
+      int batchSize,
+      @Nullable Executor prefetchExecutor,
+      NoteDbMetrics metrics) {
+    this(
+        repoManager,
+        gitRefUpdated,
+        projectName,
+        name,
+        seed,
+        batchSize,
+        Runnables.doNothing(),
+        RETRYER,
+        0,
+        prefetchExecutor,
+        metrics);
   }
 
   @VisibleForTesting
@@ -155,9 +196,21 @@ public class RepoSequence {
       int batchSize,
       Runnable afterReadRef,
       Retryer<ImmutableList<Integer>> retryer) {
-    this(repoManager, gitRefUpdated, projectName, name, seed, batchSize, afterReadRef, retryer, 0);
+    this(
+        repoManager,
+        gitRefUpdated,
+        projectName,
+        name,
+        seed,
+        batchSize,
+        afterReadRef,
+        retryer,
+        0,
+        null,
+        disabledMetrics());
   }
 
+  @VisibleForTesting
   RepoSequence(
       GitRepositoryManager repoManager,
       GitReferenceUpdated gitRefUpdated,
@@ -167,7 +220,9 @@ public class RepoSequence {
       int batchSize,
       Runnable afterReadRef,
       Retryer<ImmutableList<Integer>> retryer,
-      int floor) {
+      int floor,
+      @Nullable Executor prefetchExecutor,
+      NoteDbMetrics metrics) {
     this.repoManager = requireNonNull(repoManager, "repoManager");
     this.gitRefUpdated = requireNonNull(gitRefUpdated, "gitRefUpdated");
     this.projectName = requireNonNull(projectName, "projectName");
@@ -178,6 +233,7 @@ public class RepoSequence {
             && !name.startsWith(REFS_SEQUENCES.substring(REFS.length())),
         "name should be a suffix to follow \"refs/sequences/\", got: %s",
         name);
+    this.name = name;
     this.refName = RefNames.REFS_SEQUENCES + name;
 
     this.seed = requireNonNull(seed, "seed");
@@ -187,6 +243,8 @@ public class RepoSequence {
     this.batchSize = batchSize;
     this.afterReadRef = requireNonNull(afterReadRef, "afterReadRef");
     this.retryer = requireNonNull(retryer, "retryer");
+    this.prefetchExecutor = prefetchExecutor;
+    this.metrics = requireNonNull(metrics, "metrics");
 
     logger.atFine().log("sequence batch size for %s is %s", name, batchSize);
     counterLock = new ReentrantLock(true);
@@ -224,22 +282,21 @@ public class RepoSequence {
             try {
               if (count == 1) {
                 if (counter >= limit) {
-                  acquire(batchSize);
+                  refill(batchSize);
                 }
-                return ImmutableList.of(counter++);
+                int id = counter++;
+                maybePrefetch();
+                return ImmutableList.of(id);
               }
 
               List<Integer> ids = new ArrayList<>(count);
-              while (counter < limit) {
-                ids.add(counter++);
-                if (ids.size() == count) {
-                  return ImmutableList.copyOf(ids);
-                }
-              }
-              acquire(Math.max(count - ids.size(), batchSize));
               while (ids.size() < count) {
+                if (counter >= limit) {
+                  refill(Math.max(count - ids.size(), batchSize));
+                }
                 ids.add(counter++);
               }
+              maybePrefetch();
               return ImmutableList.copyOf(ids);
             } finally {
               counterLock.unlock();
@@ -254,18 +311,76 @@ public class RepoSequence {
   }
 
   /**
-   * Updates the next available sequence number in NoteDb in order to have a batch of sequence
-   * numbers available that can be handed out. {@link #counter} stores the next sequence number that
-   * can be handed out. When {@link #limit} is reached a new batch of sequence numbers needs to be
-   * retrieved by calling this method.
+   * Makes a new batch of sequence numbers available that can be handed out. {@link #counter} stores
+   * the next sequence number that can be handed out. When {@link #limit} is reached a new batch of
+   * sequence numbers needs to be retrieved by calling this method.
+   *
+   * <p>Uses the prefetched batch if there is one, otherwise reserves a new batch in NoteDb.
+   *
+   * <p><strong>Note:</strong> Callers are required to acquire the {@link #counterLock} before
+   * calling this method.
+   *
+   * @param count the number of sequence numbers which should be retrieved if there is no prefetched
+   *     batch; a prefetched batch may contain fewer sequence numbers
+   */
+  private void refill(int count) {
+    CompletableFuture<Block> next = prefetched;
+    prefetched = null;
+    Block block = null;
+    if (next == null || !next.isDone()) {
+      metrics.sequenceRefillWaitCount.increment(name);
+    }
+    if (next != null) {
+      try {
+        block = next.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new StorageException("interrupted while waiting for prefetched ids of " + refName, e);
+      } catch (ExecutionException e) {
+        // Most likely a lock failure due to a concurrent update, acquire with retrying instead.
+        logger.atFine().withCause(e.getCause()).log(
+            "failed to prefetch ids on %s in %s, acquiring them now", refName, projectName);
+      }
+    }
+    if (block == null) {
+      block = acquire(count);
+    }
+    counter = block.start;
+    limit = block.limit;
+    acquireCount++;
+  }
+
+  /**
+   * Starts to reserve the next batch of sequence numbers in the background if prefetching is
+   * enabled and at least half of the current batch has been handed out.
    *
    * <p><strong>Note:</strong> Callers are required to acquire the {@link #counterLock} before
    * calling this method.
+   */
+  private void maybePrefetch() {
+    if (prefetchExecutor == null || prefetched != null || limit - counter > batchSize / 2) {
+      return;
+    }
+    try {
+      prefetched = CompletableFuture.supplyAsync(() -> acquire(batchSize), prefetchExecutor);
+    } catch (RejectedExecutionException e) {
+      logger.atFine().withCause(e).log("cannot prefetch ids on %s in %s", refName, projectName);
+    }
+  }
+
+  /**
+   * Updates the next available sequence number in NoteDb in order to reserve a batch of sequence
+   * numbers that can be handed out.
+   *
+   * <p>Doesn't modify the state of this instance and hence can be called without holding the
+   * {@link #counterLock}.
    *
    * @param count the number of sequence numbers which should be retrieved
+   * @return the reserved batch
    */
-  private void acquire(int count) {
-    try (Repository repo = repoManager.openRepository(projectName);
+  private Block acquire(int count) {
+    try (Timer1.Context<String> timer = metrics.sequenceRefillLatency.start(name);
+        Repository repo = repoManager.openRepository(projectName);
         RevWalk rw = new RevWalk(repo)) {
       logger.atFine().log("acquire %d ids on %s in %s", count, refName, projectName);
       Optional<IntBlob> blob = IntBlob.parse(repo, refName, rw);
@@ -282,10 +397,11 @@ public class RepoSequence {
       next = Math.max(floor, next);
       RefUpdate refUpdate =
           IntBlob.tryStore(repo, rw, projectName, refName, oldId, next + count, gitRefUpdated);
+      if (refUpdate.getResult() == RefUpdate.Result.LOCK_FAILURE) {
+        metrics.sequenceLockFailureCount.increment(name);
+      }
       RefUpdateUtil.checkResult(refUpdate);
-      counter = next;
-      limit = counter + count;
-      acquireCount++;
+      return new Block(next, next + count);
     } catch (IOException e) {
       throw new StorageException(e);
     }
@@ -312,8 +428,15 @@ public class RepoSequence {
       RefUpdate refUpdate =
           IntBlob.tryStore(repo, rw, projectName, refName, oldId, value, gitRefUpdated);
       RefUpdateUtil.checkResult(refUpdate);
+      if (prefetched != null) {
+        // The prefetched batch may overlap with the numbers after the new value.
+        prefetched.cancel(false);
+        prefetched = null;
+      }
+      // The new value isn't reserved yet, hence the next call acquires a batch starting with it.
+      // Otherwise the same numbers could be handed out again by the next acquired batch.
       counter = value;
-      limit = counter + batchSize;
+      limit = counter;
       acquireCount++;
     } catch (IOException e) {
       throw new StorageException(e);
@@ -352,4 +475,22 @@ public class RepoSequence {
     }
     return counter - 1;
   }
+
+  private static NoteDbMetrics disabledMetrics() {
+    return new NoteDbMetrics(new DisabledMetricMaker());
+  }
+
+  /** A batch of reserved sequence numbers. */
+  private static class Block {
+    /** The first sequence number of the batch. */
+    final int start;
+
+    /** The sequence number after the last sequence number of the batch. */
+    final int limit;
+
+    Block(int start, int limit) {
+      this.start = start;
+      this.limit = limit;
+    }
+  }
 }
@@ -15,8 +15,10 @@
 package com.google.gerrit.server.notedb;
 
 import com.google.common.collect.ImmutableList;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.metrics.Description;
 import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.DisabledMetricMaker;
 import com.google.gerrit.metrics.Field;
 import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.metrics.Timer2;
@@ -25,15 +27,19 @@ import com.google.gerrit.server.config.AllUsersName;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.extensions.events.GitReferenceUpdated;
 import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.logging.Metadata;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.Singleton;
+import java.util.concurrent.Executor;
 import org.eclipse.jgit.lib.Config;
 
 @Singleton
 public class Sequences {
   private static final String SECTION_NOTEDB = "noteDb";
   private static final String KEY_SEQUENCE_BATCH_SIZE = "sequenceBatchSize";
+  private static final String KEY_SEQUENCE_PREFETCH = "sequencePrefetch";
   private static final int DEFAULT_ACCOUNTS_SEQUENCE_BATCH_SIZE = 1;
   private static final int DEFAULT_CHANGES_SEQUENCE_BATCH_SIZE = 20;
 
@@ -59,7 +65,7 @@ public class Sequences {
   private final int changeBatchSize;
   private final int groupBatchSize = 1;
 
-  @Inject
+  /** Creates sequences that don't prefetch IDs, for use outside of the server injector. */
   public Sequences(
       @GerritServerConfig Config cfg,
       GitRepositoryManager repoManager,
@@ -67,6 +73,54 @@ public class Sequences {
       AllProjectsName allProjects,
       AllUsersName allUsers,
       MetricMaker metrics) {
+    this(
+        cfg,
+        repoManager,
+        gitRefUpdated,
+        allProjects,
+        allUsers,
+        metrics,
+        new NoteDbMetrics(new DisabledMetricMaker()),
+        (Executor) null);
+  }
+
+  /**
+   * Creates sequences that prefetch change IDs if {@code noteDb.changes.sequencePrefetch} is set.
+   * Prefetching uses a queue of the {@link WorkQueue}, so it must only be enabled in injectors that
+   * install {@link WorkQueue.WorkQueueModule}, which stops the queues when shutting down.
+   */
+  @Inject
+  Sequences(
+      @GerritServerConfig Config cfg,
+      GitRepositoryManager repoManager,
+      GitReferenceUpdated gitRefUpdated,
+      AllProjectsName allProjects,
+      AllUsersName allUsers,
+      MetricMaker metrics,
+      NoteDbMetrics noteDbMetrics,
+      Provider<WorkQueue> workQueue) {
+    this(
+        cfg,
+        repoManager,
+        gitRefUpdated,
+        allProjects,
+        allUsers,
+        metrics,
+        noteDbMetrics,
+        cfg.getBoolean(SECTION_NOTEDB, NAME_CHANGES, KEY_SEQUENCE_PREFETCH, false)
+            ? workQueue.get().createQueue(1, "SequencePrefetch-" + NAME_CHANGES)
+            : null);
+  }
+
+  private Sequences(
+      Config cfg,
+      GitRepositoryManager repoManager,
+      GitReferenceUpdated gitRefUpdated,
+      AllProjectsName allProjects,
+      AllUsersName allUsers,
+      MetricMaker metrics,
+      NoteDbMetrics noteDbMetrics,
+      @Nullable Executor changePrefetchExecutor) {
 
     accountBatchSize =
         cfg.getInt(
@@ -96,7 +150,9 @@ public class Sequences {
             allProjects,
             NAME_CHANGES,
             () -> FIRST_CHANGE_ID,
-            changeBatchSize);
+            changeBatchSize,
+            changePrefetchExecutor,
+            noteDbMetrics);
 
     groupSeq =
         new RepoSequence(
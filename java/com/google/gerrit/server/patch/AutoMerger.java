@@ -16,28 +16,52 @@ package com.google.gerrit.server.patch;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
 import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.UsedAt;
 import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.metrics.Counter0;
 import com.google.gerrit.metrics.Counter1;
 import com.google.gerrit.metrics.Description;
 import com.google.gerrit.metrics.Field;
 import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
 import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.proto.Protos;
 import com.google.gerrit.server.GerritPersonIdent;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.proto.Cache.AutoMergeTreeKeyProto;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.cache.serialize.ObjectIdCacheSerializer;
+import com.google.gerrit.server.cache.serialize.ObjectIdConverter;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.InMemoryInserter;
 import com.google.gerrit.server.git.MergeUtil;
 import com.google.gerrit.server.logging.Metadata;
 import com.google.gerrit.server.update.RepoView;
 import com.google.inject.Inject;
+import com.google.inject.Module;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
 import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.CommitBuilder;
 import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ObjectReader;
@@ -71,6 +95,12 @@ import org.eclipse.jgit.transport.ReceiveCommand;
  *
  * <p>The second point means that these commits are referenced from NoteDb. The consequence of this
  * is that these refs should never be deleted.
+ *
+ * <p>Computing the tree of an auto-merge is the expensive part of creating it. The tree only
+ * depends on the parents of the merge commit, the merge strategy and the diff algorithm configured
+ * for the repository, hence the trees are cached in the persistent {@code auto_merge_trees} cache
+ * by these, so that merge commits with the same parents, e.g. the same merge uploaded for several
+ * branches or re-uploaded with a new commit message, reuse the tree that was computed first.
  */
 @Singleton
 public class AutoMerger {
@@ -78,6 +108,20 @@ public class AutoMerger {
 
   public static final String AUTO_MERGE_MSG_PREFIX = "Auto-merge of ";
 
+  private static final String TREE_CACHE = "auto_merge_trees";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        persist(TREE_CACHE, TreeKey.class, ObjectId.class)
+            .version(2)
+            .keySerializer(TreeKey.Serializer.INSTANCE)
+            .valueSerializer(ObjectIdCacheSerializer.INSTANCE);
+      }
+    };
+  }
+
   @UsedAt(UsedAt.Project.GOOGLE)
   public static boolean cacheAutomerge(Config cfg) {
     return cfg.getBoolean("change", null, "cacheAutomerge", true);
@@ -91,6 +135,11 @@ public class AutoMerger {
 
   private final Counter1<OperationType> counter;
   private final Timer1<OperationType> latency;
+  private final Counter0 treeCacheHits;
+  private final Counter0 treeCacheMisses;
+  private final Timer0 treeLatency;
+  private final Timer0 precomputeLatency;
+  private final Cache<TreeKey, ObjectId> treeCache;
   private final Provider<PersonIdent> gerritIdentProvider;
   private final boolean save;
   private final ThreeWayMergeStrategy configuredMergeStrategy;
@@ -99,7 +148,8 @@ public class AutoMerger {
   AutoMerger(
       MetricMaker metricMaker,
       @GerritServerConfig Config cfg,
-      @GerritPersonIdent Provider<PersonIdent> gerritIdentProvider) {
+      @GerritPersonIdent Provider<PersonIdent> gerritIdentProvider,
+      @Named(TREE_CACHE) Cache<TreeKey, ObjectId> treeCache) {
     Field<OperationType> operationTypeField =
         Field.ofEnum(OperationType.class, "type", Metadata.Builder::operationName)
             .description("The type of the operation (CACHE_LOAD, IN_MEMORY_WRITE, ON_DISK_WRITE).")
@@ -116,6 +166,29 @@ public class AutoMerger {
                 .setCumulative()
                 .setUnit("milliseconds"),
             operationTypeField);
+    this.treeCacheHits =
+        metricMaker.newCounter(
+            "git/auto-merge/tree_cache/hit_count",
+            new Description("AutoMerge trees that were found in the auto_merge_trees cache")
+                .setRate()
+                .setUnit("trees"));
+    this.treeCacheMisses =
+        metricMaker.newCounter(
+            "git/auto-merge/tree_cache/miss_count",
+            new Description("AutoMerge trees that had to be computed").setRate().setUnit("trees"));
+    this.treeLatency =
+        metricMaker.newTimer(
+            "git/auto-merge/tree_latency",
+            new Description("Latency of merging the parents of a merge commit into a tree")
+                .setCumulative()
+                .setUnit("milliseconds"));
+    this.precomputeLatency =
+        metricMaker.newTimer(
+            "git/auto-merge/precompute_latency",
+            new Description("Latency of precomputing the AutoMerge trees of the commits of a push")
+                .setCumulative()
+                .setUnit("milliseconds"));
+    this.treeCache = treeCache;
     this.save = cacheAutomerge(cfg);
     this.gerritIdentProvider = gerritIdentProvider;
     this.configuredMergeStrategy = MergeUtil.getMergeStrategy(cfg);
@@ -203,6 +276,71 @@ public class AutoMerger {
     return autoMerge;
   }
 
+  /**
+   * Computes the auto-merge trees of the given commits concurrently, so that creating their
+   * auto-merge commits later on only needs to write the commits.
+   *
+   * <p>The trees are written to the repository and recorded in the {@code auto_merge_trees} cache.
+   * Commits that are not merge commits with 2 parents are skipped, and nothing is done if
+   * auto-merge commits are not stored in the repository. Blocks until all computations are done.
+   * Failing computations are only logged, the trees of these commits are then computed when their
+   * auto-merge commits are created.
+   *
+   * @param repo repository that contains the commits.
+   * @param commits the commits.
+   * @param executor executor on which the trees are computed.
+   * @throws InterruptedException if interrupted while waiting for the computations, which are
+   *     cancelled then.
+   */
+  public void precomputeAutoMergeTrees(
+      Repository repo, Collection<? extends ObjectId> commits, ExecutorService executor)
+      throws InterruptedException {
+    if (!save || commits.isEmpty()) {
+      return;
+    }
+
+    List<Future<?>> futures = new ArrayList<>(commits.size());
+    try (Timer0.Context ignored = precomputeLatency.start()) {
+      for (ObjectId commit : commits) {
+        ObjectId commitId = commit.copy();
+        futures.add(
+            executor.submit(
+                () -> {
+                  precomputeAutoMergeTree(repo, commitId);
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          logger.atWarning().withCause(e.getCause()).log("Cannot precompute AutoMerge tree");
+        }
+      }
+    } finally {
+      futures.forEach(f -> f.cancel(true));
+    }
+  }
+
+  private void precomputeAutoMergeTree(Repository repo, ObjectId commitId) throws IOException {
+    try (ObjectInserter ins = repo.newObjectInserter();
+        ObjectReader reader = ins.newReader();
+        RevWalk rw = new RevWalk(reader)) {
+      RevCommit merge = rw.parseCommit(commitId);
+      if (merge.getParentCount() != 2) {
+        return;
+      }
+      Config repoConfig = repo.getConfig();
+      TreeKey key = TreeKey.create(merge, configuredMergeStrategy, repoConfig);
+      if (lookupTree(rw, key) != null) {
+        return;
+      }
+      ObjectId treeId = mergeTree(repoConfig, rw, ins, merge, configuredMergeStrategy);
+      ins.flush();
+      treeCache.put(key, treeId);
+    }
+  }
+
   Optional<RevCommit> lookupCommit(Repository repo, RevWalk rw, String refName) throws IOException {
     Ref ref = repo.getRefDatabase().exactRef(refName);
     if (ref != null && ref.getObjectId() != null) {
@@ -227,6 +365,90 @@ public class AutoMerger {
       ThreeWayMergeStrategy mergeStrategy)
       throws IOException {
     rw.parseHeaders(merge);
+    TreeKey key =
+        merge.getParentCount() == 2 ? TreeKey.create(merge, mergeStrategy, repoConfig) : null;
+    ObjectId treeId = key != null ? lookupTree(rw, key) : null;
+    boolean computed = treeId == null;
+    if (computed) {
+      treeId = mergeTree(repoConfig, rw, ins, merge, mergeStrategy);
+    }
+
+    // For maximum stability, choose a single ident using the committer time of
+    // the input commit, using the server name and timezone.
+    PersonIdent ident =
+        new PersonIdent(
+            gerritIdentProvider.get(),
+            merge.getCommitterIdent().getWhen(),
+            gerritIdentProvider.get().getTimeZone());
+    CommitBuilder cb = new CommitBuilder();
+    cb.setAuthor(ident);
+    cb.setCommitter(ident);
+    cb.setTreeId(treeId);
+    cb.setMessage(AUTO_MERGE_MSG_PREFIX + merge.name() + '\n');
+    for (RevCommit p : merge.getParents()) {
+      cb.addParentId(p);
+    }
+
+    ObjectId commitId = ins.insert(cb);
+    logger.atFine().log("AutoMerge commitId=%s", commitId.name());
+    ins.flush();
+
+    // Trees written by an InMemoryInserter are discarded, hence they must not be cached.
+    if (key != null && computed && !(ins instanceof InMemoryInserter)) {
+      treeCache.put(key, treeId);
+    }
+
+    if (ins instanceof InMemoryInserter) {
+      // When using an InMemoryInserter we need to read back the values from that inserter because
+      // they are not available.
+      try (ObjectReader tmpReader = ins.newReader();
+          RevWalk tmpRw = new RevWalk(tmpReader)) {
+        return tmpRw.parseCommit(commitId);
+      }
+    }
+    return rw.parseCommit(commitId);
+  }
+
+  /**
+   * Looks up the auto-merge tree of the given key in the cache.
+   *
+   * @return the tree, {@code null} if it is not cached or doesn't exist in the repository of the
+   *     given walk.
+   */
+  @Nullable
+  private ObjectId lookupTree(RevWalk rw, TreeKey key) throws IOException {
+    ObjectId treeId = treeCache.getIfPresent(key);
+    // The cache is shared by all repositories, and a tree may have been pruned if the ref update
+    // that would have referenced it failed.
+    if (treeId != null && rw.getObjectReader().has(treeId, Constants.OBJ_TREE)) {
+      treeCacheHits.increment();
+      logger.atFine().log("AutoMerge treeId=%s (cached)", treeId.name());
+      return treeId;
+    }
+    treeCacheMisses.increment();
+    return null;
+  }
+
+  /** Merges the parents of the given merge commit and returns the resulting tree. */
+  private ObjectId mergeTree(
+      Config repoConfig,
+      RevWalk rw,
+      ObjectInserter ins,
+      RevCommit merge,
+      ThreeWayMergeStrategy mergeStrategy)
+      throws IOException {
+    try (Timer0.Context ignored = treeLatency.start()) {
+      return doMergeTree(repoConfig, rw, ins, merge, mergeStrategy);
+    }
+  }
+
+  private ObjectId doMergeTree(
+      Config repoConfig,
+      RevWalk rw,
+      ObjectInserter ins,
+      RevCommit merge,
+      ThreeWayMergeStrategy mergeStrategy)
+      throws IOException {
     ResolveMerger m = (ResolveMerger) mergeStrategy.newMerger(ins, repoConfig);
     DirCache dc = DirCache.newInCore();
     m.setDirCache(dc);
@@ -253,38 +475,74 @@ public class AutoMerger {
               m.getMergeResults());
     }
     logger.atFine().log("AutoMerge treeId=%s", treeId.name());
+    return treeId;
+  }
 
-    rw.parseHeaders(merge);
-    // For maximum stability, choose a single ident using the committer time of
-    // the input commit, using the server name and timezone.
-    PersonIdent ident =
-        new PersonIdent(
-            gerritIdentProvider.get(),
-            merge.getCommitterIdent().getWhen(),
-            gerritIdentProvider.get().getTimeZone());
-    CommitBuilder cb = new CommitBuilder();
-    cb.setAuthor(ident);
-    cb.setCommitter(ident);
-    cb.setTreeId(treeId);
-    cb.setMessage(AUTO_MERGE_MSG_PREFIX + merge.name() + '\n');
-    for (RevCommit p : merge.getParents()) {
-      cb.addParentId(p);
+  /**
+   * Key of the {@code auto_merge_trees} cache.
+   *
+   * <p>Besides the parents and the merge strategy, the key contains the diff algorithm of the
+   * repository, which is the only configuration that the in-core merge reads. Repositories that
+   * share objects, e.g. forks, can reuse each other's trees, since a tree that isn't in the
+   * repository is never used.
+   */
+  @AutoValue
+  public abstract static class TreeKey {
+    @VisibleForTesting
+    static TreeKey create(
+        AnyObjectId parent1, AnyObjectId parent2, String strategyName, String diffAlgorithm) {
+      return new AutoValue_AutoMerger_TreeKey(
+          parent1.copy(), parent2.copy(), strategyName, diffAlgorithm);
     }
 
-    ObjectId commitId = ins.insert(cb);
-    logger.atFine().log("AutoMerge commitId=%s", commitId.name());
-    ins.flush();
+    private static TreeKey create(
+        RevCommit merge, ThreeWayMergeStrategy mergeStrategy, Config repoConfig) {
+      // Read the same way as by ResolveMerger.
+      SupportedAlgorithm diffAlgorithm =
+          repoConfig.getEnum(
+              ConfigConstants.CONFIG_DIFF_SECTION,
+              null,
+              ConfigConstants.CONFIG_KEY_ALGORITHM,
+              SupportedAlgorithm.HISTOGRAM);
+      return create(
+          merge.getParent(0), merge.getParent(1), mergeStrategy.getName(), diffAlgorithm.name());
+    }
 
-    if (ins instanceof InMemoryInserter) {
-      // When using an InMemoryInserter we need to read back the values from that inserter because
-      // they are not available.
-      try (ObjectReader tmpReader = ins.newReader();
-          RevWalk tmpRw = new RevWalk(tmpReader)) {
-        return tmpRw.parseCommit(commitId);
+    public abstract ObjectId parent1();
+
+    public abstract ObjectId parent2();
+
+    public abstract String strategyName();
+
+    public abstract String diffAlgorithm();
+
+    @VisibleForTesting
+    enum Serializer implements CacheSerializer<TreeKey> {
+      INSTANCE;
+
+      @Override
+      public byte[] serialize(TreeKey object) {
+        ObjectIdConverter idConverter = ObjectIdConverter.create();
+        return Protos.toByteArray(
+            AutoMergeTreeKeyProto.newBuilder()
+                .setParent1(idConverter.toByteString(object.parent1()))
+                .setParent2(idConverter.toByteString(object.parent2()))
+                .setStrategyName(object.strategyName())
+                .setDiffAlgorithm(object.diffAlgorithm())
+                .build());
       }
-    }
 
-    return rw.parseCommit(commitId);
+      @Override
+      public TreeKey deserialize(byte[] in) {
+        AutoMergeTreeKeyProto proto = Protos.parseUnchecked(AutoMergeTreeKeyProto.parser(), in);
+        ObjectIdConverter idConverter = ObjectIdConverter.create();
+        return create(
+            idConverter.fromByteString(proto.getParent1()),
+            idConverter.fromByteString(proto.getParent2()),
+            proto.getStrategyName(),
+            proto.getDiffAlgorithm());
+      }
+    }
   }
 
   private static class NonFlushingWrapper extends ObjectInserter.Filter {
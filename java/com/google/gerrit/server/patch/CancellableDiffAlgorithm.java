@@ -0,0 +1,102 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.server.cancellation.RequestCancelledException;
+import com.google.gerrit.server.cancellation.RequestStateContext;
+import java.util.concurrent.CancellationException;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.Sequence;
+import org.eclipse.jgit.diff.SequenceComparator;
+
+/**
+ * Diff algorithm that stops the computation of a delegate algorithm when it is no longer needed.
+ *
+ * <p>The JGit diff algorithms don't react to interrupts, so a computation that is abandoned after
+ * a timeout keeps its thread busy until it finishes. This algorithm regularly checks from within
+ * the comparisons of the delegate algorithm whether the computing thread was interrupted, e.g. by
+ * {@link java.util.concurrent.Future#cancel(boolean)}, or whether the request on behalf of which
+ * the diff is computed was cancelled, e.g. because its deadline was exceeded.
+ */
+public class CancellableDiffAlgorithm extends DiffAlgorithm {
+  /** Number of comparisons between two checks for cancellation. */
+  private static final int CHECK_INTERVAL = 1 << 12;
+
+  public static DiffAlgorithm wrap(DiffAlgorithm delegate) {
+    return delegate instanceof CancellableDiffAlgorithm
+        ? delegate
+        : new CancellableDiffAlgorithm(delegate);
+  }
+
+  private final DiffAlgorithm delegate;
+
+  private CancellableDiffAlgorithm(DiffAlgorithm delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws CancellationException if the computing thread was interrupted.
+   * @throws RequestCancelledException if the current request was cancelled.
+   */
+  @Override
+  public <S extends Sequence> EditList diffNonCommon(
+      SequenceComparator<? super S> cmp, S a, S b) {
+    checkCancelled();
+    return delegate.diffNonCommon(new CancellableComparator<>(cmp), a, b);
+  }
+
+  private static void checkCancelled() {
+    if (Thread.currentThread().isInterrupted()) {
+      throw new CancellationException("diff computation was cancelled");
+    }
+    RequestStateContext.abortIfCancelled();
+  }
+
+  private static class CancellableComparator<S extends Sequence> extends SequenceComparator<S> {
+    private final SequenceComparator<? super S> cmp;
+    private int comparisons;
+
+    CancellableComparator(SequenceComparator<? super S> cmp) {
+      this.cmp = cmp;
+    }
+
+    @Override
+    public boolean equals(S a, int ai, S b, int bi) {
+      count();
+      return cmp.equals(a, ai, b, bi);
+    }
+
+    @Override
+    public int hash(S seq, int ptr) {
+      count();
+      return cmp.hash(seq, ptr);
+    }
+
+    @Override
+    public Edit reduceCommonStartEnd(S a, S b, Edit e) {
+      return cmp.reduceCommonStartEnd(a, b, e);
+    }
+
+    private void count() {
+      if (++comparisons % CHECK_INTERVAL == 0) {
+        checkCancelled();
+      }
+    }
+  }
+}
@@ -14,13 +14,21 @@
 
 package com.google.gerrit.server.patch;
 
+import com.google.common.util.concurrent.ForwardingExecutorService;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.logging.LoggingContextAwareExecutorService;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import org.eclipse.jgit.lib.Config;
 
 /** Module providing the {@link DiffExecutor}. */
 public class DiffExecutorModule extends AbstractModule {
@@ -31,9 +39,65 @@ public class DiffExecutorModule extends AbstractModule {
   @Provides
   @Singleton
   @DiffExecutor
-  public ExecutorService provideDiffExecutor() {
+  public ExecutorService provideDiffExecutor(@GerritServerConfig Config cfg, WorkQueue queues) {
+    int poolSize =
+        cfg.getInt(
+            "execution", null, "diffThreadPoolSize", Runtime.getRuntime().availableProcessors());
+    if (poolSize <= 0) {
+      return new LoggingContextAwareExecutorService(
+          Executors.newCachedThreadPool(
+              new ThreadFactoryBuilder().setNameFormat("Diff-%d").setDaemon(true).build()));
+    }
+    ThreadPoolExecutor executor = queues.createQueue(poolSize, "Diff", true);
+    int queueSize = cfg.getInt("execution", null, "diffQueueSize", 0);
     return new LoggingContextAwareExecutorService(
-        Executors.newCachedThreadPool(
-            new ThreadFactoryBuilder().setNameFormat("Diff-%d").setDaemon(true).build()));
+        queueSize > 0 ? new BoundedQueueExecutorService(executor, queueSize) : executor);
+  }
+
+  /** Rejects new tasks while the queue of the executor holds {@code maxQueued} tasks or more. */
+  private static class BoundedQueueExecutorService extends ForwardingExecutorService {
+    private final ThreadPoolExecutor executor;
+    private final int maxQueued;
+
+    BoundedQueueExecutorService(ThreadPoolExecutor executor, int maxQueued) {
+      this.executor = executor;
+      this.maxQueued = maxQueued;
+    }
+
+    @Override
+    protected ExecutorService delegate() {
+      return executor;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      checkQueue();
+      super.execute(command);
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+      checkQueue();
+      return super.submit(task);
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+      checkQueue();
+      return super.submit(task);
+    }
+
+    @Override
+    public <T> Future<T> submit(Runnable task, T result) {
+      checkQueue();
+      return super.submit(task, result);
+    }
+
+    private void checkQueue() {
+      if (executor.getQueue().size() >= maxQueued) {
+        throw new RejectedExecutionException(
+            String.format("%d diff computations are waiting already", maxQueued));
+      }
+    }
   }
 }
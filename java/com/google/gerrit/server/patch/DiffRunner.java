@@ -0,0 +1,148 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.cancellation.RequestStateContext;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs diff computations on the {@link DiffExecutor} with a time budget.
+ *
+ * <p>The budget of a computation starts when it starts running, not when it is submitted, so that
+ * computations that are delayed because the executor is busy are not mistaken for computations that
+ * hit a pathological case of the diff algorithm. A computation that is still waiting for a thread
+ * when its budget has passed is rejected instead.
+ *
+ * <p>Computations run with the {@link com.google.gerrit.server.cancellation.RequestStateProvider}s
+ * of the submitting request, so that they are aborted when the request is cancelled if they use
+ * {@link CancellableDiffAlgorithm}. A computation that exceeds its budget is cancelled and, if it
+ * uses {@link CancellableDiffAlgorithm}, stops and frees its thread.
+ */
+@Singleton
+public class DiffRunner {
+  private static final long NOT_STARTED = Long.MIN_VALUE;
+
+  private final ExecutorService diffExecutor;
+  private final Ticker ticker;
+  private final Counter0 rejected;
+  private final Counter0 cancelled;
+
+  @Inject
+  DiffRunner(@DiffExecutor ExecutorService diffExecutor, MetricMaker metricMaker) {
+    this(diffExecutor, metricMaker, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  DiffRunner(ExecutorService diffExecutor, MetricMaker metricMaker, Ticker ticker) {
+    this.diffExecutor = diffExecutor;
+    this.ticker = ticker;
+    this.rejected =
+        metricMaker.newCounter(
+            "diff/executor/rejected_count",
+            new Description(
+                    "Number of diff computations that were rejected because the diff executor was"
+                        + " saturated")
+                .setRate()
+                .setUnit("computations"));
+    this.cancelled =
+        metricMaker.newCounter(
+            "diff/executor/cancelled_count",
+            new Description("Number of diff computations that were cancelled after their timeout")
+                .setRate()
+                .setUnit("computations"));
+  }
+
+  /**
+   * Runs a diff computation on the diff executor and waits for its result.
+   *
+   * @param computation the diff computation.
+   * @param timeoutMillis the time the computation may run, in milliseconds.
+   * @return the result of the computation.
+   * @throws RejectedExecutionException if the diff executor didn't accept the computation, or the
+   *     computation didn't start running within the timeout.
+   * @throws TimeoutException if the computation ran longer than the timeout. The computation is
+   *     cancelled.
+   * @throws ExecutionException if the computation failed.
+   * @throws InterruptedException if the current thread was interrupted while waiting. The
+   *     computation is cancelled.
+   */
+  public <T> T run(Callable<T> computation, long timeoutMillis)
+      throws ExecutionException, InterruptedException, TimeoutException {
+    AtomicLong startNanos = new AtomicLong(NOT_STARTED);
+    Callable<T> task =
+        RequestStateContext.wrap(
+            () -> {
+              startNanos.set(ticker.read());
+              return computation.call();
+            });
+    long submittedNanos = ticker.read();
+
+    Future<T> result;
+    try {
+      result = diffExecutor.submit(task);
+    } catch (RejectedExecutionException e) {
+      rejected.increment();
+      throw e;
+    }
+
+    long timeoutNanos = MILLISECONDS.toNanos(timeoutMillis);
+    try {
+      while (true) {
+        // Read the current time first, so that a computation is only rejected if it hadn't
+        // started at that time.
+        long now = ticker.read();
+        long started = startNanos.get();
+        long remainingNanos =
+            (started == NOT_STARTED ? submittedNanos : started) + timeoutNanos - now;
+        if (remainingNanos <= 0) {
+          if (started == NOT_STARTED) {
+            result.cancel(true);
+            rejected.increment();
+            throw new RejectedExecutionException(
+                String.format("diff computation didn't start within %d ms", timeoutMillis));
+          }
+          throw new TimeoutException(
+              String.format("diff computation didn't finish within %d ms", timeoutMillis));
+        }
+        try {
+          return result.get(remainingNanos, NANOSECONDS);
+        } catch (TimeoutException e) {
+          // Check again whether the computation has started or run out of time.
+        }
+      }
+    } catch (InterruptedException | TimeoutException e) {
+      if (result.cancel(true)) {
+        cancelled.increment();
+      }
+      throw e;
+    }
+  }
+}
@@ -30,12 +30,12 @@ import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import org.eclipse.jgit.diff.DiffAlgorithm;
 import org.eclipse.jgit.diff.Edit;
 import org.eclipse.jgit.diff.MyersDiff;
 import org.eclipse.jgit.lib.Config;
@@ -52,18 +52,20 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
 
   private static final Pattern CONTROL_BLOCK_START_RE = Pattern.compile("[{:][ \\t]*$");
 
-  private final ExecutorService diffExecutor;
+  private static final DiffAlgorithm MYERS = CancellableDiffAlgorithm.wrap(MyersDiff.INSTANCE);
+
+  private final DiffRunner diffRunner;
   private final long timeoutMillis;
   private final IntraLineDiffKey key;
   private final IntraLineDiffArgs args;
 
   @Inject
   IntraLineLoader(
-      @DiffExecutor ExecutorService diffExecutor,
+      DiffRunner diffRunner,
       @GerritServerConfig Config cfg,
       @Assisted IntraLineDiffKey key,
       @Assisted IntraLineDiffArgs args) {
-    this.diffExecutor = diffExecutor;
+    this.diffRunner = diffRunner;
     timeoutMillis =
         ConfigUtil.getTimeUnit(
             cfg,
@@ -78,13 +80,12 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
 
   @Override
   public IntraLineDiff call() throws Exception {
-    Future<IntraLineDiff> result =
-        diffExecutor.submit(
-            () ->
-                IntraLineLoader.compute(
-                    args.aText(), args.bText(), args.edits(), args.editsDueToRebase()));
     try {
-      return result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+      return diffRunner.run(
+          () ->
+              IntraLineLoader.compute(
+                  args.aText(), args.bText(), args.edits(), args.editsDueToRebase()),
+          timeoutMillis);
     } catch (InterruptedException | TimeoutException e) {
       logger.atWarning().log(
           "%s ms timeout reached for IntraLineDiff"
@@ -95,8 +96,10 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
           args.path(),
           key.getBlobA().name(),
           key.getBlobB().name());
-      result.cancel(true);
       return new IntraLineDiff(IntraLineDiff.Status.TIMEOUT);
+    } catch (RejectedExecutionException e) {
+      // Don't cache a result, the computation may succeed once the diff executor is less busy.
+      throw new Exception("intraline diff computation was rejected", e);
     } catch (ExecutionException e) {
       // If there was an error computing the result, carry it
       // up to the caller so the cache knows this key is invalid.
@@ -121,7 +124,7 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
         CharText b = new CharText(bText, e.getBeginB(), e.getEndB());
         CharTextComparator cmp = new CharTextComparator();
 
-        List<Edit> wordEdits = MyersDiff.INSTANCE.diff(cmp, a, b);
+        List<Edit> wordEdits = MYERS.diff(cmp, a, b);
 
         // Combine edits that are really close together. If they are
         // just a few characters apart we tend to get better results
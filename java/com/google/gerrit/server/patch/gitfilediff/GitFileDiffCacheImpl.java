@@ -35,14 +35,16 @@ import com.google.gerrit.metrics.Counter0;
 import com.google.gerrit.metrics.Description;
 import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cancellation.RequestCancelledException;
 import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.logging.Metadata;
 import com.google.gerrit.server.logging.TraceContext;
 import com.google.gerrit.server.logging.TraceContext.TraceTimer;
-import com.google.gerrit.server.patch.DiffExecutor;
+import com.google.gerrit.server.patch.CancellableDiffAlgorithm;
 import com.google.gerrit.server.patch.DiffNotAvailableException;
+import com.google.gerrit.server.patch.DiffRunner;
 import com.google.gerrit.server.util.git.CloseablePool;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -56,8 +58,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
@@ -123,7 +124,7 @@ public class GitFileDiffCacheImpl implements GitFileDiffCache {
       if (diffAlgorithm.equals(DiffAlgorithm.HISTOGRAM_NO_FALLBACK)) {
         result.setFallbackAlgorithm(null);
       }
-      return result;
+      return CancellableDiffAlgorithm.wrap(result);
     }
   }
 
@@ -156,7 +157,7 @@ public class GitFileDiffCacheImpl implements GitFileDiffCache {
 
   static class Loader extends CacheLoader<GitFileDiffCacheKey, GitFileDiff> {
     private final GitRepositoryManager repoManager;
-    private final ExecutorService diffExecutor;
+    private final DiffRunner diffRunner;
     private final long timeoutMillis;
     private final Metrics metrics;
 
@@ -164,10 +165,10 @@ public class GitFileDiffCacheImpl implements GitFileDiffCache {
     public Loader(
         @GerritServerConfig Config cfg,
         GitRepositoryManager repoManager,
-        @DiffExecutor ExecutorService de,
+        DiffRunner diffRunner,
         Metrics metrics) {
       this.repoManager = repoManager;
-      this.diffExecutor = de;
+      this.diffRunner = diffRunner;
       this.timeoutMillis =
           ConfigUtil.getTimeUnit(
               cfg,
@@ -349,18 +350,21 @@ public class GitFileDiffCacheImpl implements GitFileDiffCache {
       // only used by a single thread concurrently. However, ObjectReaders have a reference to
       // Repository which might not be thread safe (FileRepository is, DfsRepository might not).
       // This could lead to a race condition.
-      Future<GitFileDiff> fileDiffFuture =
-          diffExecutor.submit(
-              () -> {
-                try (CloseablePool<DiffFormatter>.Handle formatter = diffPool.get()) {
-                  return GitFileDiff.create(diffEntry, formatter.get().toFileHeader(diffEntry));
-                }
-              });
       try {
         // We employ the timeout because of a bug in Myers diff in JGit. See
         // bugs.chromium.org/p/gerrit/issues/detail?id=487 for more details. The bug may happen
         // if the algorithm used in diffs is HISTOGRAM_WITH_FALLBACK_MYERS.
-        return fileDiffFuture.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        return diffRunner.run(
+            () -> {
+              try (CloseablePool<DiffFormatter>.Handle formatter = diffPool.get()) {
+                return GitFileDiff.create(diffEntry, formatter.get().toFileHeader(diffEntry));
+              }
+            },
+            timeoutMillis);
+      } catch (RejectedExecutionException e) {
+        // Don't create a negative result, the computation may succeed once the diff executor is
+        // less busy.
+        throw new IOException("git file diff computation was rejected", e);
       } catch (InterruptedException | TimeoutException e) {
         // If timeout happens, create a negative result
         metrics.timeouts.increment();
@@ -372,6 +376,7 @@ public class GitFileDiffCacheImpl implements GitFileDiffCache {
         // If there was an error computing the result, carry it
         // up to the caller so the cache knows this key is invalid.
         Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+        Throwables.throwIfInstanceOf(e.getCause(), RequestCancelledException.class);
         throw new IOException(e.getMessage(), e.getCause());
       }
     }
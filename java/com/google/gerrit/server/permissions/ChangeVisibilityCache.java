@@ -0,0 +1,546 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.CachedProjectConfig;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.exceptions.StorageException;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.account.GroupMembership;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.gerrit.server.project.RefPattern;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Caches the destination branch of the changes of a project, so that the visibility of many
+ * changes can be computed with one permission check per branch rather than one per change.
+ *
+ * <p>A change that is not private is visible if the user can read its destination branch. For each
+ * project, the cache holds the destination branch and private flag of its changes along with the
+ * SHA-1 of the meta ref they were read from. Entries are refreshed lazily: when refs are filtered,
+ * only changes whose meta ref moved since they were cached are loaded again.
+ *
+ * <p>On top of that, each project entry holds bitmaps of the visible non-private changes, keyed by
+ * the configuration revisions of the project and its parents and by the groups referenced in those
+ * configurations that the user is a member of. Users that share these groups share a bitmap, so
+ * ref advertisements for them only need bitmap lookups. Private changes are always checked one by
+ * one.
+ *
+ * <p>When changes are reloaded, the bitmaps are carried over to the new project entry and only the
+ * bits of the reloaded changes are updated, using the permissions on their branches that were
+ * recorded when the bitmap was computed. Changes whose meta ref was deleted are dropped at the same
+ * time.
+ *
+ * <p>The cache is disabled unless {@code cache.change_visibility.memoryLimit} is set, in which case
+ * it limits the number of changes held in memory.
+ */
+@Singleton
+class ChangeVisibilityCache {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final String CACHE_NAME = "change_visibility";
+
+  /** Maximum number of distinct group sets for which visible changes are kept per project. */
+  private static final int MAX_GROUP_SETS_PER_PROJECT = 256;
+
+  static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, Project.NameKey.class, ProjectChanges.class)
+            .maximumWeight(0)
+            .weigher(Weigher.class);
+        bind(ChangeVisibilityCache.class);
+      }
+    };
+  }
+
+  private final Cache<Project.NameKey, ProjectChanges> cache;
+  private final ChangeNotes.Factory changeNotesFactory;
+  private final ChangeData.Factory changeDataFactory;
+  private final boolean enabled;
+
+  @Inject
+  ChangeVisibilityCache(
+      @Named(CACHE_NAME) Cache<Project.NameKey, ProjectChanges> cache,
+      @GerritServerConfig Config config,
+      ChangeNotes.Factory changeNotesFactory,
+      ChangeData.Factory changeDataFactory) {
+    this.cache = cache;
+    this.changeNotesFactory = changeNotesFactory;
+    this.changeDataFactory = changeDataFactory;
+    this.enabled = config.getLong("cache", CACHE_NAME, "memoryLimit", 0) > 0;
+  }
+
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Returns the changes referenced by {@code refs} that are visible to the user. */
+  VisibleChanges get(
+      ProjectControl projectControl,
+      PermissionBackend.ForProject forProject,
+      Repository repo,
+      Collection<Ref> refs)
+      throws PermissionBackendException {
+    ProjectState projectState = projectControl.getProjectState();
+    Project.NameKey project = projectState.getNameKey();
+    Map<Change.Id, ObjectId> metaIds;
+    ProjectChanges changes;
+    try {
+      metaIds = metaIds(repo, refs);
+      changes = refresh(project, repo, metaIds);
+    } catch (IOException e) {
+      throw new PermissionBackendException(e);
+    }
+
+    GroupKey key = groupKey(projectState, projectControl.getUser());
+    VisibleBitmap visible = changes.visible(key, forProject);
+
+    Set<Change.Id> visiblePrivate = new HashSet<>();
+    for (Change.Id id : metaIds.keySet()) {
+      if (changes.isPrivate(id) && isVisible(project, id, forProject)) {
+        visiblePrivate.add(id);
+      }
+    }
+    return new BitmapVisibleChanges(
+        project, changes, metaIds.keySet(), visible.changes, visiblePrivate);
+  }
+
+  /**
+   * Returns the SHA-1 of the meta ref of each change referenced by {@code refs}. Meta refs that are
+   * not part of {@code refs} are looked up in the repository.
+   */
+  private static Map<Change.Id, ObjectId> metaIds(Repository repo, Collection<Ref> refs)
+      throws IOException {
+    Map<Change.Id, ObjectId> metaIds = new HashMap<>();
+    Set<Change.Id> withoutMetaRef = new HashSet<>();
+    for (Ref ref : refs) {
+      String name = ref.getName();
+      Change.Id id = Change.Id.fromRef(name);
+      if (id == null) {
+        continue;
+      }
+      if (RefNames.isRefsChanges(name)
+          && name.endsWith(RefNames.META_SUFFIX)
+          && ref.getObjectId() != null) {
+        metaIds.put(id, ref.getObjectId());
+      } else {
+        withoutMetaRef.add(id);
+      }
+    }
+    for (Change.Id id : withoutMetaRef) {
+      if (!metaIds.containsKey(id)) {
+        Ref meta = repo.exactRef(RefNames.changeMetaRef(id));
+        if (meta != null && meta.getObjectId() != null) {
+          metaIds.put(id, meta.getObjectId());
+        }
+      }
+    }
+    return metaIds;
+  }
+
+  private ProjectChanges refresh(
+      Project.NameKey project, Repository repo, Map<Change.Id, ObjectId> metaIds)
+      throws IOException {
+    ProjectChanges cached = cache.getIfPresent(project);
+    Map<String, String> branchNames = new HashMap<>();
+    if (cached != null) {
+      cached.byBranch.keySet().forEach(b -> branchNames.put(b, b));
+    }
+    Map<Change.Id, Entry> updated = new HashMap<>();
+    for (Map.Entry<Change.Id, ObjectId> e : metaIds.entrySet()) {
+      if (cached == null || !cached.isCurrent(e.getKey(), e.getValue())) {
+        updated.put(e.getKey(), load(repo, project, e.getKey(), e.getValue(), branchNames));
+      }
+    }
+    if (cached != null && updated.isEmpty()) {
+      return cached;
+    }
+    Set<Change.Id> deleted = cached != null ? deleted(repo, cached, metaIds) : ImmutableSet.of();
+    logger.atFine().log(
+        "Loaded %d and dropped %d changes of project %s", updated.size(), deleted.size(), project);
+    ProjectChanges changes = ProjectChanges.create(cached, updated, deleted);
+    cache.put(project, changes);
+    return changes;
+  }
+
+  /**
+   * Returns the cached changes whose meta ref was deleted. Only changes that are not referenced by
+   * {@code metaIds} are looked up.
+   */
+  private static Set<Change.Id> deleted(
+      Repository repo, ProjectChanges cached, Map<Change.Id, ObjectId> metaIds) throws IOException {
+    List<String> names = new ArrayList<>();
+    for (Change.Id id : cached.entries.keySet()) {
+      if (!metaIds.containsKey(id)) {
+        names.add(RefNames.changeMetaRef(id));
+      }
+    }
+    if (names.isEmpty()) {
+      return ImmutableSet.of();
+    }
+    Map<String, Ref> existing = repo.getRefDatabase().exactRef(names.toArray(new String[0]));
+    Set<Change.Id> deleted = new HashSet<>();
+    for (String name : names) {
+      if (!existing.containsKey(name)) {
+        deleted.add(Change.Id.fromRef(name));
+      }
+    }
+    return deleted;
+  }
+
+  private Entry load(
+      Repository repo,
+      Project.NameKey project,
+      Change.Id id,
+      ObjectId metaId,
+      Map<String, String> branchNames) {
+    try {
+      Change change = changeNotesFactory.createChecked(repo, project, id, metaId).getChange();
+      String branch = branchNames.computeIfAbsent(change.getDest().branch(), b -> b);
+      return Entry.create(metaId, branch, change.isPrivate());
+    } catch (StorageException e) {
+      // Repositories may contain 'dead' change refs; treat them as invisible but remember the
+      // meta SHA-1 so that they are not loaded again until the ref moves.
+      logger.atWarning().withCause(e).log("Unable to load ChangeNotes for %s", id);
+      return Entry.create(metaId, null, false);
+    }
+  }
+
+  private boolean isVisible(
+      Project.NameKey project, Change.Id id, PermissionBackend.ForProject forProject)
+      throws PermissionBackendException {
+    try {
+      return forProject.change(changeDataFactory.create(project, id)).test(ChangePermission.READ);
+    } catch (StorageException e) {
+      logger.atFinest().withCause(e).log("Can't load change %s", id);
+      return false;
+    }
+  }
+
+  /**
+   * Returns the key under which the visible changes for the user are shared, or {@code null} if
+   * they can't be shared since the permissions depend on more than the user's groups.
+   */
+  @Nullable
+  private static GroupKey groupKey(ProjectState projectState, CurrentUser user) {
+    if (user.isInternalUser()) {
+      return null;
+    }
+    GroupMembership membership = user.getEffectiveGroups();
+    ImmutableList.Builder<ObjectId> revisions = ImmutableList.builder();
+    ImmutableSet.Builder<AccountGroup.UUID> groups = ImmutableSet.builder();
+    for (ProjectState state : projectState.tree()) {
+      CachedProjectConfig config = state.getConfig();
+      if (config.getAccessSections().keySet().stream().anyMatch(RefPattern::containsParameters)) {
+        // Permissions on ${username} refs are specific to the user.
+        return null;
+      }
+      revisions.add(config.getRevision().orElse(ObjectId.zeroId()));
+      config.getAllGroupUUIDs().stream().filter(membership::contains).forEach(groups::add);
+    }
+    return GroupKey.create(revisions.build(), groups.build());
+  }
+
+  /** Cached destination of a change at a given meta SHA-1. */
+  @AutoValue
+  abstract static class Entry {
+    static Entry create(ObjectId metaId, @Nullable String branch, boolean isPrivate) {
+      return new AutoValue_ChangeVisibilityCache_Entry(metaId, branch, isPrivate);
+    }
+
+    abstract ObjectId metaId();
+
+    /** Destination branch, or {@code null} if the change couldn't be loaded. */
+    @Nullable
+    abstract String branch();
+
+    abstract boolean isPrivate();
+  }
+
+  @AutoValue
+  abstract static class GroupKey {
+    static GroupKey create(
+        ImmutableList<ObjectId> revisions, ImmutableSet<AccountGroup.UUID> groups) {
+      return new AutoValue_ChangeVisibilityCache_GroupKey(revisions, groups);
+    }
+
+    abstract ImmutableList<ObjectId> revisions();
+
+    abstract ImmutableSet<AccountGroup.UUID> groups();
+  }
+
+  /** Destinations of the changes of a project and bitmaps of visible changes derived from them. */
+  @VisibleForTesting
+  static class ProjectChanges {
+    @VisibleForTesting
+    static ProjectChanges create(@Nullable ProjectChanges base, Map<Change.Id, Entry> updated) {
+      return create(base, updated, ImmutableSet.of());
+    }
+
+    /**
+     * Creates the entry of a project from {@code base} by replacing the {@code updated} changes and
+     * dropping the {@code deleted} ones. The branch and visibility bitmaps of {@code base} are
+     * updated for these changes only.
+     */
+    @VisibleForTesting
+    static ProjectChanges create(
+        @Nullable ProjectChanges base, Map<Change.Id, Entry> updated, Set<Change.Id> deleted) {
+      if (base == null) {
+        Map<String, BitSet> byBranch = new HashMap<>();
+        updated.forEach(
+            (id, e) -> {
+              if (isOnBranch(e)) {
+                byBranch.computeIfAbsent(e.branch(), b -> new BitSet()).set(id.get());
+              }
+            });
+        return new ProjectChanges(ImmutableMap.copyOf(updated), ImmutableMap.copyOf(byBranch));
+      }
+
+      Map<Change.Id, Entry> entries = new HashMap<>(base.entries);
+      entries.keySet().removeAll(deleted);
+      entries.putAll(updated);
+      // Bitmaps of branches without updated changes are shared with the base.
+      Map<String, BitSet> byBranch = new HashMap<>(base.byBranch);
+      Set<String> copied = new HashSet<>();
+      for (Change.Id id : Sets.union(deleted, updated.keySet())) {
+        Entry old = base.entries.get(id);
+        if (isOnBranch(old)) {
+          branchForUpdate(byBranch, copied, old.branch()).clear(id.get());
+        }
+      }
+      updated.forEach(
+          (id, e) -> {
+            if (isOnBranch(e)) {
+              branchForUpdate(byBranch, copied, e.branch()).set(id.get());
+            }
+          });
+      byBranch.values().removeIf(BitSet::isEmpty);
+      ProjectChanges changes =
+          new ProjectChanges(ImmutableMap.copyOf(entries), ImmutableMap.copyOf(byBranch));
+
+      base.visibleByGroups
+          .asMap()
+          .forEach(
+              (key, visible) -> {
+                VisibleBitmap v = visible.update(updated, deleted);
+                if (v != null) {
+                  changes.visibleByGroups.put(key, v);
+                }
+              });
+      return changes;
+    }
+
+    private static boolean isOnBranch(@Nullable Entry e) {
+      return e != null && e.branch() != null && !e.isPrivate();
+    }
+
+    /** Returns the bitmap of {@code branch}, copying it first if it's shared with the base. */
+    private static BitSet branchForUpdate(
+        Map<String, BitSet> byBranch, Set<String> copied, String branch) {
+      if (copied.add(branch)) {
+        BitSet shared = byBranch.get(branch);
+        byBranch.put(branch, shared != null ? (BitSet) shared.clone() : new BitSet());
+      }
+      return byBranch.get(branch);
+    }
+
+    private final ImmutableMap<Change.Id, Entry> entries;
+
+    /** Bitmap of the non-private changes of each branch, never modified once created. */
+    private final ImmutableMap<String, BitSet> byBranch;
+
+    private final Cache<GroupKey, VisibleBitmap> visibleByGroups =
+        CacheBuilder.newBuilder().maximumSize(MAX_GROUP_SETS_PER_PROJECT).build();
+
+    private ProjectChanges(
+        ImmutableMap<Change.Id, Entry> entries, ImmutableMap<String, BitSet> byBranch) {
+      this.entries = entries;
+      this.byBranch = byBranch;
+    }
+
+    int size() {
+      return entries.size();
+    }
+
+    boolean isCurrent(Change.Id id, ObjectId metaId) {
+      Entry e = entries.get(id);
+      return e != null && e.metaId().equals(metaId);
+    }
+
+    boolean isPrivate(Change.Id id) {
+      Entry e = entries.get(id);
+      return e != null && e.isPrivate();
+    }
+
+    /**
+     * Returns the visible non-private changes for users with the given key, computing them unless
+     * they are cached. Users without key never share their bitmap.
+     */
+    @VisibleForTesting
+    VisibleBitmap visible(@Nullable GroupKey key, PermissionBackend.ForProject forProject)
+        throws PermissionBackendException {
+      if (key == null) {
+        return computeVisible(forProject);
+      }
+      VisibleBitmap visible = visibleByGroups.getIfPresent(key);
+      if (visible != null) {
+        logger.atFinest().log("Reusing visible changes for %s", key);
+        return visible;
+      }
+      visible = computeVisible(forProject);
+      visibleByGroups.put(key, visible);
+      return visible;
+    }
+
+    /** Returns the bitmap of non-private changes on branches the user can read. */
+    @VisibleForTesting
+    VisibleBitmap computeVisible(PermissionBackend.ForProject forProject)
+        throws PermissionBackendException {
+      BitSet visible = new BitSet();
+      ImmutableMap.Builder<String, Boolean> canRead = ImmutableMap.builder();
+      for (Map.Entry<String, BitSet> e : byBranch.entrySet()) {
+        boolean read = forProject.ref(e.getKey()).test(RefPermission.READ);
+        if (read) {
+          visible.or(e.getValue());
+        }
+        canRead.put(e.getKey(), read);
+      }
+      return new VisibleBitmap(visible, canRead.build());
+    }
+  }
+
+  /**
+   * Visible non-private changes and whether the user can read the branches they were taken from.
+   */
+  @VisibleForTesting
+  static class VisibleBitmap {
+    final BitSet changes;
+    private final ImmutableMap<String, Boolean> canRead;
+
+    VisibleBitmap(BitSet changes, ImmutableMap<String, Boolean> canRead) {
+      this.changes = changes;
+      this.canRead = canRead;
+    }
+
+    /**
+     * Returns the bitmap after replacing the {@code updated} changes and dropping the {@code
+     * deleted} ones, or {@code null} if a change moved to a branch whose permissions are not known.
+     */
+    @Nullable
+    VisibleBitmap update(Map<Change.Id, Entry> updated, Set<Change.Id> deleted) {
+      BitSet visible = (BitSet) changes.clone();
+      deleted.forEach(id -> visible.clear(id.get()));
+      for (Map.Entry<Change.Id, Entry> e : updated.entrySet()) {
+        visible.clear(e.getKey().get());
+        if (ProjectChanges.isOnBranch(e.getValue())) {
+          Boolean read = canRead.get(e.getValue().branch());
+          if (read == null) {
+            return null;
+          }
+          if (read) {
+            visible.set(e.getKey().get());
+          }
+        }
+      }
+      return new VisibleBitmap(visible, canRead);
+    }
+  }
+
+  @VisibleForTesting
+  static class BitmapVisibleChanges implements VisibleChanges {
+    private final Project.NameKey project;
+    private final ProjectChanges changes;
+    private final Set<Change.Id> current;
+    private final BitSet visible;
+    private final Set<Change.Id> visiblePrivate;
+
+    BitmapVisibleChanges(
+        Project.NameKey project,
+        ProjectChanges changes,
+        Set<Change.Id> current,
+        BitSet visible,
+        Set<Change.Id> visiblePrivate) {
+      this.project = project;
+      this.changes = changes;
+      this.current = current;
+      this.visible = visible;
+      this.visiblePrivate = visiblePrivate;
+    }
+
+    @Override
+    public boolean contains(Change.Id id) {
+      // Entries of changes that aren't referenced by the filtered refs may be stale.
+      if (!current.contains(id)) {
+        return false;
+      }
+      Entry e = changes.entries.get(id);
+      if (e == null || e.branch() == null) {
+        return false;
+      }
+      return e.isPrivate() ? visiblePrivate.contains(id) : visible.get(id.get());
+    }
+
+    @Override
+    public BranchNameKey getDest(Change.Id id) {
+      checkArgument(contains(id), "change %s is not visible", id);
+      return BranchNameKey.create(project, changes.entries.get(id).branch());
+    }
+  }
+
+  static class Weigher implements com.google.common.cache.Weigher<Project.NameKey, ProjectChanges> {
+    @Override
+    public int weigh(Project.NameKey project, ProjectChanges changes) {
+      return changes.size();
+    }
+  }
+}
@@ -22,6 +22,7 @@ public class DefaultPermissionBackendModule extends AbstractModule {
   @Override
   protected void configure() {
     install(new LegacyControlsModule());
+    install(ChangeVisibilityCache.module());
   }
 
   /** Binds legacy ProjectControl, RefControl, ChangeControl. */
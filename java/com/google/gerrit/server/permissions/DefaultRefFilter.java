@@ -24,13 +24,13 @@ import com.google.auto.value.AutoValue;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.BranchNameKey;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.metrics.Counter0;
 import com.google.gerrit.metrics.Description;
 import com.google.gerrit.metrics.MetricMaker;
@@ -75,6 +75,7 @@ class DefaultRefFilter {
   private final @Nullable SearchingChangeCacheImpl searchingChangeDataProvider;
   private final ChangeData.Factory changeDataFactory;
   private final ChangeNotes.Factory changeNotesFactory;
+  private final ChangeVisibilityCache changeVisibilityCache;
   private final Counter0 fullFilterCount;
   private final Counter0 skipFilterCount;
   private final boolean skipFullRefEvaluationIfAllRefsAreVisible;
@@ -89,6 +90,7 @@ class DefaultRefFilter {
       @Nullable SearchingChangeCacheImpl searchingChangeDataProvider,
       ChangeData.Factory changeDataFactory,
       ChangeNotes.Factory changeNotesFactory,
+      ChangeVisibilityCache changeVisibilityCache,
       @Assisted ProjectControl projectControl) {
     this.tagCache = tagCache;
     this.permissionBackend = permissionBackend;
@@ -96,6 +98,7 @@ class DefaultRefFilter {
     this.searchingChangeDataProvider = searchingChangeDataProvider;
     this.changeDataFactory = changeDataFactory;
     this.changeNotesFactory = changeNotesFactory;
+    this.changeVisibilityCache = changeVisibilityCache;
     this.skipFullRefEvaluationIfAllRefsAreVisible =
         config.getBoolean("auth", "skipFullRefEvaluationIfAllRefsAreVisible", true);
     this.projectControl = projectControl;
@@ -135,17 +138,7 @@ class DefaultRefFilter {
     // Perform an initial ref filtering with all the refs the caller asked for. If we find tags that
     // we have to investigate separately (deferred tags) then perform a reachability check starting
     // from all visible branches (refs/heads/*).
-    Supplier<ImmutableMap<Change.Id, ChangeData>> visibleChanges =
-        Suppliers.memoize(
-            () ->
-                GitVisibleChangeFilter.getVisibleChanges(
-                    searchingChangeDataProvider,
-                    changeNotesFactory,
-                    changeDataFactory,
-                    projectState.getNameKey(),
-                    permissionBackendForProject,
-                    repo,
-                    changes(refs)));
+    Supplier<VisibleChanges> visibleChanges = Suppliers.memoize(() -> visibleChanges(refs, repo));
     Result initialRefFilter = filterRefs(new ArrayList<>(refs), opts, visibleChanges);
     ImmutableList.Builder<Ref> visibleRefs = ImmutableList.builder();
     visibleRefs.addAll(initialRefFilter.visibleRefs());
@@ -189,7 +182,7 @@ class DefaultRefFilter {
   Result filterRefs(
       List<Ref> refs,
       RefFilterOptions opts,
-      Supplier<ImmutableMap<Change.Id, ChangeData>> visibleChanges)
+      Supplier<VisibleChanges> visibleChanges)
       throws PermissionBackendException {
     logger.atFinest().log("Filter refs (refs = %s)", refs);
     if (!projectState.statePermitsRead()) {
@@ -260,7 +253,7 @@ class DefaultRefFilter {
         // most recent changes).
         if (hasAccessDatabase) {
           resultRefs.add(ref);
-        } else if (!visibleChanges.get().containsKey(changeId)) {
+        } else if (!visibleChanges.get().contains(changeId)) {
           logger.atFinest().log("Filter out invisible change ref %s", refName);
         } else if (RefNames.isRefsEdit(refName) && !visibleEdit(refName, visibleChanges.get())) {
           logger.atFinest().log("Filter out invisible change edit ref %s", refName);
@@ -277,6 +270,28 @@ class DefaultRefFilter {
     return result;
   }
 
+  private VisibleChanges visibleChanges(Collection<Ref> refs, Repository repo) {
+    ImmutableSet<Change.Id> changes = changes(refs);
+    if (changeVisibilityCache.isEnabled()
+        && changes.size() >= GitVisibleChangeFilter.CHANGE_LIMIT_FOR_DIRECT_FILTERING) {
+      try (TraceTimer traceTimer =
+          TraceContext.newTimer("Get visible changes from change visibility cache")) {
+        return changeVisibilityCache.get(projectControl, permissionBackendForProject, repo, refs);
+      } catch (PermissionBackendException e) {
+        throw new StorageException(e);
+      }
+    }
+    return VisibleChanges.of(
+        GitVisibleChangeFilter.getVisibleChanges(
+            searchingChangeDataProvider,
+            changeNotesFactory,
+            changeDataFactory,
+            projectState.getNameKey(),
+            permissionBackendForProject,
+            repo,
+            changes));
+  }
+
   /**
    * Returns all refs tag we regard as starting points for reachability computation for tags. In
    * general, these are all refs not managed by Gerrit excluding symbolic refs and tags.
@@ -322,7 +337,7 @@ class DefaultRefFilter {
     return refs;
   }
 
-  private boolean visibleEdit(String name, ImmutableMap<Change.Id, ChangeData> visibleChanges)
+  private boolean visibleEdit(String name, VisibleChanges visibleChanges)
       throws PermissionBackendException {
     Change.Id id = Change.Id.fromEditRefPart(name);
     if (id == null) {
@@ -332,14 +347,14 @@ class DefaultRefFilter {
 
     if (user.isIdentifiedUser()
         && name.startsWith(RefNames.refsEditPrefix(user.asIdentifiedUser().getAccountId()))
-        && visibleChanges.containsKey(id)) {
+        && visibleChanges.contains(id)) {
       logger.atFinest().log("Own change edit ref is visible: %s", name);
       return true;
     }
 
-    if (visibleChanges.containsKey(id)) {
+    if (visibleChanges.contains(id)) {
       // Default to READ_PRIVATE_CHANGES as there is no special permission for reading edits.
-      BranchNameKey dest = visibleChanges.get(id).change().getDest();
+      BranchNameKey dest = visibleChanges.getDest(id);
       boolean canRead =
           permissionBackendForProject.ref(dest.branch()).test(RefPermission.READ_PRIVATE_CHANGES);
       logger.atFinest().log(
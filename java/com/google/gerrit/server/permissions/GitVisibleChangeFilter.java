@@ -55,7 +55,7 @@ import org.eclipse.jgit.lib.Repository;
 public class GitVisibleChangeFilter {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
-  private static final int CHANGE_LIMIT_FOR_DIRECT_FILTERING = 5;
+  static final int CHANGE_LIMIT_FOR_DIRECT_FILTERING = 5;
 
   private GitVisibleChangeFilter() {}
 
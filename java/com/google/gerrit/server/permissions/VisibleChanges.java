@@ -0,0 +1,52 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.server.query.change.ChangeData;
+
+/** Changes of a project that are visible to the user for whom refs are filtered. */
+interface VisibleChanges {
+  /** Returns whether the change is visible. */
+  boolean contains(Change.Id id);
+
+  /**
+   * Returns the destination branch of a visible change.
+   *
+   * @throws IllegalArgumentException if the change is not visible.
+   */
+  BranchNameKey getDest(Change.Id id);
+
+  /** Returns visible changes backed by a map of visible change data. */
+  static VisibleChanges of(ImmutableMap<Change.Id, ChangeData> changes) {
+    return new VisibleChanges() {
+      @Override
+      public boolean contains(Change.Id id) {
+        return changes.containsKey(id);
+      }
+
+      @Override
+      public BranchNameKey getDest(Change.Id id) {
+        ChangeData cd = changes.get(id);
+        if (cd == null) {
+          throw new IllegalArgumentException("change " + id + " is not visible");
+        }
+        return cd.change().getDest();
+      }
+    };
+  }
+}
@@ -14,12 +14,16 @@
 
 package com.google.gerrit.server.project;
 
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.AccountGroup;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.exceptions.StorageException;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Supplier;
@@ -94,6 +98,21 @@ public interface ProjectCache {
   /** Returns sorted iteration of projects. */
   ImmutableSortedSet<Project.NameKey> all();
 
+  /**
+   * Loads the given projects into the cache.
+   *
+   * <p>Implementations may load the projects in bulk, which is cheaper than calling {@link
+   * #get(Project.NameKey)} for each of them.
+   *
+   * @param projectNames names of the projects to load.
+   * @return names of the loaded projects; projects that don't exist are omitted.
+   * @throws StorageException when a project can't be loaded.
+   */
+  default ImmutableSet<Project.NameKey> loadAll(Collection<Project.NameKey> projectNames)
+      throws StorageException {
+    return projectNames.stream().filter(n -> get(n).isPresent()).collect(toImmutableSet());
+  }
+
   /** Refreshes project list cache */
   void refreshProjectList();
 
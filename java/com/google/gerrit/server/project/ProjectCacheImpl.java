@@ -14,12 +14,14 @@
 
 package com.google.gerrit.server.project;
 
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.gerrit.server.project.ProjectCache.illegalState;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.toSet;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
@@ -30,6 +32,7 @@ import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.AccountGroup;
 import com.google.gerrit.entities.CachedProjectConfig;
@@ -70,6 +73,9 @@ import com.google.protobuf.ByteString;
 import java.io.IOException;
 import java.time.Duration;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
@@ -227,6 +233,20 @@ public class ProjectCacheImpl implements ProjectCache {
     }
   }
 
+  @Override
+  public ImmutableSet<Project.NameKey> loadAll(Collection<Project.NameKey> projectNames) {
+    try {
+      return inMemoryProjectCache.getAll(projectNames).keySet();
+    } catch (InvalidCacheLoadException e) {
+      // Projects that don't exist were omitted by the loader, the others are cached.
+      return projectNames.stream()
+          .filter(n -> inMemoryProjectCache.getIfPresent(n) != null)
+          .collect(toImmutableSet());
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw new StorageException("project states not available", e);
+    }
+  }
+
   @Override
   public void evict(Project.NameKey p) {
     if (p != null) {
@@ -393,19 +413,49 @@ public class ProjectCacheImpl implements ProjectCache {
                   "Loading project from serialized cache",
                   Metadata.builder().projectName(key.get()).build());
           Repository git = repoManager.openRepository(key)) {
-        Cache.ProjectCacheKeyProto.Builder keyProto =
-            Cache.ProjectCacheKeyProto.newBuilder().setProject(key.get());
-        Ref configRef = git.exactRef(RefNames.REFS_CONFIG);
-        if (key.get().equals(allProjectsName.get())) {
-          Optional<StoredConfig> allProjectsConfig = allProjectsConfigProvider.get(allProjectsName);
-          byte[] fileHash = allProjectsFileProjectConfigHash(allProjectsConfig);
-          keyProto.setGlobalConfigRevision(ByteString.copyFrom(fileHash));
-        }
-        if (configRef != null) {
-          keyProto.setRevision(ObjectIdConverter.create().toByteString(configRef.getObjectId()));
+        return persistedCache.get(persistedKey(key, git));
+      }
+    }
+
+    /**
+     * Loads the projects from the persisted cache in one bulk read.
+     *
+     * <p>The revision of {@code refs/meta/config} is read from each repository to build the
+     * persisted key, so values that are not current are not used. Projects whose repository doesn't
+     * exist are omitted from the result.
+     */
+    @Override
+    public Map<Project.NameKey, CachedProjectConfig> loadAll(
+        Iterable<? extends Project.NameKey> keys) throws IOException, ExecutionException {
+      try (TraceTimer ignored = TraceContext.newTimer("Loading projects from serialized cache")) {
+        Map<Cache.ProjectCacheKeyProto, Project.NameKey> names = new HashMap<>();
+        for (Project.NameKey key : keys) {
+          try (Repository git = repoManager.openRepository(key)) {
+            names.put(persistedKey(key, git), key);
+          } catch (RepositoryNotFoundException e) {
+            logger.atFine().log("Cannot find project %s", key.get());
+          }
         }
-        return persistedCache.get(keyProto.build());
+        Map<Project.NameKey, CachedProjectConfig> result = new HashMap<>();
+        persistedCache.getAll(names.keySet()).forEach((k, v) -> result.put(names.get(k), v));
+        return result;
+      }
+    }
+
+    private Cache.ProjectCacheKeyProto persistedKey(Project.NameKey key, Repository git)
+        throws IOException {
+      Cache.ProjectCacheKeyProto.Builder keyProto =
+          Cache.ProjectCacheKeyProto.newBuilder().setProject(key.get());
+      Ref configRef = git.exactRef(RefNames.REFS_CONFIG);
+      if (key.get().equals(allProjectsName.get())) {
+        Optional<StoredConfig> allProjectsConfig = allProjectsConfigProvider.get(allProjectsName);
+        byte[] fileHash = allProjectsFileProjectConfigHash(allProjectsConfig);
+        keyProto.setGlobalConfigRevision(ByteString.copyFrom(fileHash));
+      }
+      if (configRef != null) {
+        keyProto.setRevision(ObjectIdConverter.create().toByteString(configRef.getObjectId()));
       }
+      return keyProto.build();
     }
 
     @Override
@@ -14,6 +14,10 @@
 
 package com.google.gerrit.server.project;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gerrit.entities.Project;
@@ -22,16 +26,30 @@ import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.logging.LoggingContextAwareExecutorService;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import java.util.Optional;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.eclipse.jgit.lib.Config;
 
+/**
+ * Loads all projects into the project cache on server startup.
+ *
+ * <p>Projects are loaded in batches through {@link ProjectCache#loadAll(java.util.Collection)},
+ * which reads the revision of {@code refs/meta/config} from each repository and the persisted
+ * project configurations of the whole batch at once. If a batch fails, its projects are loaded one
+ * by one so that each failure is attributed to its project. Progress is logged periodically while
+ * loading.
+ */
 @Singleton
 public class ProjectCacheWarmer implements LifecycleListener {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  private static final long PROGRESS_INTERVAL_SECONDS = 10;
+
+  @VisibleForTesting static final int BATCH_SIZE = 100;
+
   private final Config config;
   private final ProjectCache cache;
 
@@ -50,29 +68,7 @@ public class ProjectCacheWarmer implements LifecycleListener {
               new ScheduledThreadPoolExecutor(
                   config.getInt("cache", "projects", "loadThreads", cpus),
                   new ThreadFactoryBuilder().setNameFormat("ProjectCacheLoader-%d").build()));
-      Thread scheduler =
-          new Thread(
-              () -> {
-                for (Project.NameKey name : cache.all()) {
-                  pool.execute(
-                      () -> {
-                        Optional<ProjectState> project = cache.get(name);
-                        if (!project.isPresent()) {
-                          throw new IllegalStateException(
-                              "race while traversing projects. got "
-                                  + name
-                                  + " when loading all projects, but can't load it now");
-                        }
-                      });
-                }
-                pool.shutdown();
-                try {
-                  pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
-                  logger.atInfo().log("Finished loading project cache");
-                } catch (InterruptedException e) {
-                  logger.atWarning().log("Interrupted while waiting for project cache to load");
-                }
-              });
+      Thread scheduler = new Thread(() -> load(pool));
       scheduler.setName("ProjectCacheWarmer");
       scheduler.setDaemon(true);
 
@@ -81,6 +77,103 @@ public class ProjectCacheWarmer implements LifecycleListener {
     }
   }
 
+  @VisibleForTesting
+  Progress load(ExecutorService pool) {
+    ImmutableSortedSet<Project.NameKey> names = cache.all();
+    long memoryLimit = config.getLong("cache", ProjectCacheImpl.CACHE_NAME, "memoryLimit", 1024);
+    if (names.size() > memoryLimit) {
+      logger.atWarning().log(
+          "cache.%s.memoryLimit = %d is smaller than the number of projects (%d), not all projects"
+              + " will stay in the project cache",
+          ProjectCacheImpl.CACHE_NAME, memoryLimit, names.size());
+    }
+
+    Progress progress = new Progress(names.size());
+    for (List<Project.NameKey> batch : Iterables.partition(names, BATCH_SIZE)) {
+      pool.execute(() -> loadBatch(batch, progress));
+    }
+    pool.shutdown();
+    try {
+      while (!pool.awaitTermination(PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS)) {
+        logger.atInfo().log("%s", progress.message());
+      }
+      logger.atInfo().log("%s", progress.summary());
+    } catch (InterruptedException e) {
+      logger.atWarning().log("Interrupted while waiting for project cache to load");
+    }
+    return progress;
+  }
+
+  private void loadBatch(List<Project.NameKey> batch, Progress progress) {
+    ImmutableSet<Project.NameKey> loaded;
+    try {
+      loaded = cache.loadAll(batch);
+    } catch (RuntimeException e) {
+      logger.atWarning().withCause(e).log(
+          "Cannot load %d projects starting at %s in bulk, loading them one by one",
+          batch.size(), batch.get(0));
+      batch.forEach(name -> load(name, progress));
+      return;
+    }
+    for (Project.NameKey name : batch) {
+      if (loaded.contains(name)) {
+        progress.loaded.incrementAndGet();
+      } else {
+        logMissing(name);
+        progress.failed.incrementAndGet();
+      }
+    }
+  }
+
+  private void load(Project.NameKey name, Progress progress) {
+    try {
+      if (cache.get(name).isPresent()) {
+        progress.loaded.incrementAndGet();
+      } else {
+        logMissing(name);
+        progress.failed.incrementAndGet();
+      }
+    } catch (RuntimeException e) {
+      logger.atWarning().withCause(e).log("Cannot load project %s", name);
+      progress.failed.incrementAndGet();
+    }
+  }
+
+  private static void logMissing(Project.NameKey name) {
+    logger.atWarning().log(
+        "race while traversing projects. got %s when loading all projects, but can't load it now",
+        name);
+  }
+
   @Override
   public void stop() {}
+
+  /** Number of projects that were loaded and that failed to load. */
+  @VisibleForTesting
+  static class Progress {
+    final int total;
+    final AtomicInteger loaded = new AtomicInteger();
+    final AtomicInteger failed = new AtomicInteger();
+    private final long start = System.nanoTime();
+
+    Progress(int total) {
+      this.total = total;
+    }
+
+    String message() {
+      int done = loaded.get() + failed.get();
+      return String.format(
+          "Loaded %d of %d projects into the project cache (%d%%), %d failed",
+          loaded.get(), total, total == 0 ? 100 : done * 100 / total, failed.get());
+    }
+
+    String summary() {
+      return String.format(
+          "Finished loading project cache: %d of %d projects loaded in %d s, %d failed",
+          loaded.get(),
+          total,
+          TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start),
+          failed.get());
+    }
+  }
 }
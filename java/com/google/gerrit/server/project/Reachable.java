@@ -18,6 +18,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.git.ReachabilityBitmapCache;
 import com.google.gerrit.server.logging.Metadata;
 import com.google.gerrit.server.logging.TraceContext;
 import com.google.gerrit.server.logging.TraceContext.TraceTimer;
@@ -48,10 +49,12 @@ public class Reachable {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private final PermissionBackend permissionBackend;
+  private final ReachabilityBitmapCache reachabilityBitmapCache;
 
   @Inject
-  Reachable(PermissionBackend permissionBackend) {
+  Reachable(PermissionBackend permissionBackend, ReachabilityBitmapCache reachabilityBitmapCache) {
     this.permissionBackend = permissionBackend;
+    this.reachabilityBitmapCache = reachabilityBitmapCache;
   }
 
   /**
@@ -77,8 +80,16 @@ public class Reachable {
               .orElse(permissionBackend.currentUser())
               .project(project)
               .filter(refs, repo, RefFilterOptions.defaults());
+
+      // Branches and tags can be checked with cached bitmaps, only walk the remaining refs.
+      ReachabilityBitmapCache.Result cached =
+          reachabilityBitmapCache.isMergedIntoAny(project, repo, rw, commit, filtered);
+      if (!cached.reachable().isEmpty()) {
+        return true;
+      }
+
       Collection<RevCommit> visible = new ArrayList<>();
-      for (Ref r : filtered) {
+      for (Ref r : cached.unchecked()) {
         try {
           visible.add(rw.parseCommit(r.getObjectId()));
         } catch (IncorrectObjectTypeException notCommit) {
@@ -17,17 +17,24 @@ package com.google.gerrit.server.project;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static com.google.gerrit.server.project.ProjectCache.illegalState;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.SubmitRequirement;
 import com.google.gerrit.entities.SubmitRequirementExpression;
 import com.google.gerrit.entities.SubmitRequirementExpressionResult;
 import com.google.gerrit.entities.SubmitRequirementExpressionResult.PredicateResult;
 import com.google.gerrit.entities.SubmitRequirementResult;
+import com.google.gerrit.index.query.AndPredicate;
+import com.google.gerrit.index.query.NotPredicate;
+import com.google.gerrit.index.query.OrPredicate;
 import com.google.gerrit.index.query.Predicate;
 import com.google.gerrit.index.query.QueryParseException;
+import com.google.gerrit.server.cache.PerThreadCache;
 import com.google.gerrit.server.plugincontext.PluginSetContext;
 import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.query.change.LabelPredicate;
 import com.google.gerrit.server.query.change.SubmitRequirementChangeQueryBuilder;
 import com.google.gerrit.server.util.ManualRequestContext;
 import com.google.gerrit.server.util.OneOffRequestContext;
@@ -36,15 +43,28 @@ import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Provider;
 import com.google.inject.Scopes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.stream.Stream;
+import org.eclipse.jgit.lib.ObjectId;
 
-/** Evaluates submit requirements for different change data. */
+/**
+ * Evaluates submit requirements for different change data.
+ *
+ * <p>Expressions are parsed once per request for each project config revision, and the results of
+ * equal predicates are reused while evaluating the requirements of a change, since different
+ * requirements often check the same labels.
+ */
 public class SubmitRequirementsEvaluatorImpl implements SubmitRequirementsEvaluator {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  private static final PerThreadCache.Key<ParsedExpressions> PARSED_EXPRESSIONS_KEY =
+      PerThreadCache.Key.create(ParsedExpressions.class);
+
   private final Provider<SubmitRequirementChangeQueryBuilder> queryBuilder;
   private final ProjectCache projectCache;
   private final PluginSetContext<SubmitRequirement> globalSubmitRequirements;
@@ -87,14 +107,22 @@ public class SubmitRequirementsEvaluatorImpl implements SubmitRequirementsEvalua
 
   @Override
   public SubmitRequirementResult evaluateRequirement(SubmitRequirement sr, ChangeData cd) {
+    return evaluateRequirement(sr, cd, new HashMap<>());
+  }
+
+  private SubmitRequirementResult evaluateRequirement(
+      SubmitRequirement sr, ChangeData cd, Map<Predicate<ChangeData>, Boolean> results) {
     try (ManualRequestContext ignored = requestContext.open()) {
       // Use a request context to execute predicates as an internal user with expanded visibility.
       // This is so that the evaluation does not depend on who is running the current request (e.g.
       // a "ownerin" predicate with group that is not visible to the person making this request).
+      // For the same reason, parsed expressions can be reused for all changes of a project.
+      Function<SubmitRequirementExpression, SubmitRequirementExpressionResult> evaluator =
+          expression -> evaluateExpression(expression, cd, true, results);
 
       Optional<SubmitRequirementExpressionResult> applicabilityResult =
           sr.applicabilityExpression().isPresent()
-              ? Optional.of(evaluateExpression(sr.applicabilityExpression().get(), cd))
+              ? Optional.of(evaluator.apply(sr.applicabilityExpression().get()))
               : Optional.empty();
       Optional<SubmitRequirementExpressionResult> submittabilityResult =
           Optional.of(
@@ -106,10 +134,10 @@ public class SubmitRequirementsEvaluatorImpl implements SubmitRequirementsEvalua
               : Optional.empty();
       if (!sr.applicabilityExpression().isPresent()
           || SubmitRequirementResult.assertPass(applicabilityResult)) {
-        submittabilityResult = Optional.of(evaluateExpression(sr.submittabilityExpression(), cd));
+        submittabilityResult = Optional.of(evaluator.apply(sr.submittabilityExpression()));
         overrideResult =
             sr.overrideExpression().isPresent()
-                ? Optional.of(evaluateExpression(sr.overrideExpression().get(), cd))
+                ? Optional.of(evaluator.apply(sr.overrideExpression().get()))
                 : Optional.empty();
       }
 
@@ -150,15 +178,57 @@ public class SubmitRequirementsEvaluatorImpl implements SubmitRequirementsEvalua
   @Override
   public SubmitRequirementExpressionResult evaluateExpression(
       SubmitRequirementExpression expression, ChangeData changeData) {
+    return evaluateExpression(expression, changeData, false, new HashMap<>());
+  }
+
+  private SubmitRequirementExpressionResult evaluateExpression(
+      SubmitRequirementExpression expression,
+      ChangeData changeData,
+      boolean reuseParsed,
+      Map<Predicate<ChangeData>, Boolean> results) {
     try {
-      Predicate<ChangeData> predicate = queryBuilder.get().parse(expression.expressionString());
-      PredicateResult predicateResult = evaluatePredicateTree(predicate, changeData);
+      Predicate<ChangeData> predicate =
+          reuseParsed ? parseForProject(expression, changeData) : parse(expression);
+      PredicateResult predicateResult = evaluatePredicateTree(predicate, changeData, results);
       return SubmitRequirementExpressionResult.create(expression, predicateResult);
     } catch (QueryParseException | SubmitRequirementEvaluationException e) {
       return SubmitRequirementExpressionResult.error(expression, e.getMessage());
     }
   }
 
+  private Predicate<ChangeData> parse(SubmitRequirementExpression expression)
+      throws QueryParseException {
+    return queryBuilder.get().parse(expression.expressionString());
+  }
+
+  /**
+   * Parses an expression, or returns the predicate that was parsed for the same expression and
+   * project config revision earlier in this request.
+   *
+   * <p>Predicates may keep state that is not thread-safe, hence they are only reused within the
+   * thread serving the request.
+   */
+  private Predicate<ChangeData> parseForProject(
+      SubmitRequirementExpression expression, ChangeData changeData) throws QueryParseException {
+    ParsedExpressions parsed =
+        PerThreadCache.getOrCompute(PARSED_EXPRESSIONS_KEY, ParsedExpressions::new);
+    ImmutableList<Object> key =
+        ImmutableList.of(
+            expression.expressionString(),
+            changeData.project(),
+            projectCache
+                .get(changeData.project())
+                .flatMap(s -> s.getConfig().getRevision())
+                .map(ObjectId::name)
+                .orElse(""));
+    Predicate<ChangeData> predicate = parsed.predicates.get(key);
+    if (predicate == null) {
+      predicate = parse(expression);
+      parsed.predicates.put(key, predicate);
+    }
+    return predicate;
+  }
+
   /**
    * Evaluate and return all {@link SubmitRequirement}s.
    *
@@ -190,8 +260,9 @@ public class SubmitRequirementsEvaluatorImpl implements SubmitRequirementsEvalua
                             : globalSubmitRequirement));
     ImmutableMap.Builder<SubmitRequirement, SubmitRequirementResult> results =
         ImmutableMap.builder();
+    Map<Predicate<ChangeData>, Boolean> predicateResults = new HashMap<>();
     for (SubmitRequirement requirement : requirements.values()) {
-      results.put(requirement, evaluateRequirement(requirement, cd));
+      results.put(requirement, evaluateRequirement(requirement, cd, predicateResults));
     }
     return results.build();
   }
@@ -208,17 +279,68 @@ public class SubmitRequirementsEvaluatorImpl implements SubmitRequirementsEvalua
                 globalRequirement -> globalRequirement.name().toLowerCase(), Function.identity()));
   }
 
-  /** Evaluate the predicate recursively using change data. */
+  /**
+   * Evaluate the predicate recursively using change data.
+   *
+   * <p>The status of AND, OR and NOT predicates is derived from the results of their children. The
+   * results of all other predicates are stored in {@code results}, so that equal predicates are
+   * evaluated only once.
+   */
   private PredicateResult evaluatePredicateTree(
-      Predicate<ChangeData> predicate, ChangeData changeData) {
-    PredicateResult.Builder predicateResult =
-        PredicateResult.builder()
-            .predicateString(predicate.isLeaf() ? predicate.getPredicateString() : "")
-            .status(predicate.asMatchable().match(changeData));
-    predicate
-        .getChildren()
-        .forEach(
-            c -> predicateResult.addChildPredicateResult(evaluatePredicateTree(c, changeData)));
+      Predicate<ChangeData> predicate,
+      ChangeData changeData,
+      Map<Predicate<ChangeData>, Boolean> results) {
+    PredicateResult.Builder predicateResult = PredicateResult.builder();
+    evaluatePredicateTree(predicate, changeData, results, predicateResult);
     return predicateResult.build();
   }
+
+  private boolean evaluatePredicateTree(
+      Predicate<ChangeData> predicate,
+      ChangeData changeData,
+      Map<Predicate<ChangeData>, Boolean> results,
+      PredicateResult.Builder predicateResult) {
+    List<Boolean> childStatuses = new ArrayList<>(predicate.getChildCount());
+    for (Predicate<ChangeData> c : predicate.getChildren()) {
+      PredicateResult.Builder childResult = PredicateResult.builder();
+      childStatuses.add(evaluatePredicateTree(c, changeData, results, childResult));
+      predicateResult.addChildPredicateResult(childResult.build());
+    }
+
+    Boolean status = combine(predicate, childStatuses);
+    if (status == null) {
+      status = results.get(predicate);
+      if (status == null) {
+        status = predicate.asMatchable().match(changeData);
+        results.put(predicate, status);
+      }
+    }
+    predicateResult
+        .predicateString(predicate.isLeaf() ? predicate.getPredicateString() : "")
+        .status(status);
+    return status;
+  }
+
+  /**
+   * Returns the status of a boolean operator given the status of its children, or {@code null} if
+   * the predicate isn't one.
+   *
+   * <p>Only the exact classes are handled, subclasses may match differently.
+   */
+  @Nullable
+  private static Boolean combine(Predicate<ChangeData> predicate, List<Boolean> children) {
+    Class<?> clazz = predicate.getClass();
+    if (clazz == AndPredicate.class) {
+      return !children.contains(false);
+    } else if (clazz == OrPredicate.class || clazz == LabelPredicate.class) {
+      return children.contains(true);
+    } else if (clazz == NotPredicate.class) {
+      return !children.get(0);
+    }
+    return null;
+  }
+
+  private static class ParsedExpressions {
+    final Map<ImmutableList<Object>, Predicate<ChangeData>> predicates = new HashMap<>();
+  }
 }
@@ -23,4 +23,15 @@ public abstract class ApprovalPredicate extends Predicate<ApprovalContext>
   public int getCost() {
     return 1;
   }
+
+  /**
+   * Whether the result of this predicate depends only on the source and the target patch set, but
+   * not on the approval that is being copied.
+   *
+   * <p>The results of such predicates are computed once per pair of patch sets and are then reused
+   * for all approvals that are copied between these patch sets.
+   */
+  public boolean dependsOnlyOnPatchSets() {
+    return false;
+  }
 }
@@ -35,6 +35,11 @@ public class ChangeKindPredicate extends ApprovalPredicate {
     return ctx.changeKind().matches(changeKind, ctx.isMerge());
   }
 
+  @Override
+  public boolean dependsOnlyOnPatchSets() {
+    return true;
+  }
+
   @Override
   public Predicate<ApprovalContext> copy(
       Collection<? extends Predicate<ApprovalContext>> children) {
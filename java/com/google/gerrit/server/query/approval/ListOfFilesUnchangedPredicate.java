@@ -17,10 +17,8 @@ package com.google.gerrit.server.query.approval;
 import com.google.gerrit.entities.Patch;
 import com.google.gerrit.entities.Patch.ChangeType;
 import com.google.gerrit.entities.PatchSet;
-import com.google.gerrit.entities.Project;
 import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.index.query.Predicate;
-import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.patch.DiffNotAvailableException;
 import com.google.gerrit.server.patch.DiffOperations;
 import com.google.gerrit.server.patch.DiffOptions;
@@ -34,20 +32,16 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevWalk;
 
 /** Predicate that matches when the new patch-set includes the same files as the old patch-set. */
 @Singleton
 public class ListOfFilesUnchangedPredicate extends ApprovalPredicate {
   private final DiffOperations diffOperations;
-  private final GitRepositoryManager repositoryManager;
 
   @Inject
-  public ListOfFilesUnchangedPredicate(
-      DiffOperations diffOperations, GitRepositoryManager repositoryManager) {
+  public ListOfFilesUnchangedPredicate(DiffOperations diffOperations) {
     this.diffOperations = diffOperations;
-    this.repositoryManager = repositoryManager;
   }
 
   @Override
@@ -55,8 +49,7 @@ public class ListOfFilesUnchangedPredicate extends ApprovalPredicate {
     PatchSet targetPatchSet = ctx.targetPatchSet();
     PatchSet sourcePatchSet = ctx.changeNotes().getPatchSets().get(ctx.sourcePatchSetId());
 
-    Integer parentNum =
-        isInitialCommit(ctx.changeNotes().getProjectName(), targetPatchSet.commitId()) ? 0 : 1;
+    Integer parentNum = isInitialCommit(ctx.revWalk(), targetPatchSet.commitId()) ? 0 : 1;
     try {
       Map<String, ModifiedFile> baseVsCurrent =
           diffOperations.loadModifiedFilesAgainstParent(
@@ -123,24 +116,28 @@ public class ListOfFilesUnchangedPredicate extends ApprovalPredicate {
     return true;
   }
 
-  public boolean isInitialCommit(Project.NameKey project, ObjectId objectId) {
-    try (Repository repo = repositoryManager.openRepository(project);
-        RevWalk revWalk = new RevWalk(repo)) {
+  public boolean isInitialCommit(RevWalk revWalk, ObjectId objectId) {
+    try {
       return revWalk.parseCommit(objectId).getParentCount() == 0;
     } catch (IOException ex) {
       throw new StorageException(ex);
     }
   }
 
+  @Override
+  public boolean dependsOnlyOnPatchSets() {
+    return true;
+  }
+
   @Override
   public Predicate<ApprovalContext> copy(
       Collection<? extends Predicate<ApprovalContext>> children) {
-    return new ListOfFilesUnchangedPredicate(diffOperations, repositoryManager);
+    return new ListOfFilesUnchangedPredicate(diffOperations);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(diffOperations, repositoryManager);
+    return Objects.hash(diffOperations);
   }
 
   @Override
@@ -149,7 +146,6 @@ public class ListOfFilesUnchangedPredicate extends ApprovalPredicate {
       return false;
     }
     ListOfFilesUnchangedPredicate o = (ListOfFilesUnchangedPredicate) other;
-    return Objects.equals(o.diffOperations, diffOperations)
-        && Objects.equals(o.repositoryManager, repositoryManager);
+    return Objects.equals(o.diffOperations, diffOperations);
   }
 }
@@ -63,6 +63,11 @@ public class UserInPredicate extends ApprovalPredicate {
     return identifiedUserFactory.create(accountId).getEffectiveGroups().contains(group);
   }
 
+  @Override
+  public boolean dependsOnlyOnPatchSets() {
+    return field == Field.UPLOADER;
+  }
+
   @Override
   public Predicate<ApprovalContext> copy(
       Collection<? extends Predicate<ApprovalContext>> children) {
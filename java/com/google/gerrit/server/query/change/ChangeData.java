@@ -33,10 +33,13 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.Multimaps;
 import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Table;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Account;
 import com.google.gerrit.entities.AttentionSetUpdate;
@@ -105,7 +108,12 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -226,6 +234,107 @@ public class ChangeData {
     }
   }
 
+  /**
+   * Loads the notes of the changes that don't have them loaded yet, in bulk.
+   *
+   * <p>The repository of each project is opened once for all of its changes, and the notes are
+   * parsed by up to {@code parallelism} threads, the calling thread being one of them. Tasks that
+   * the executor did not start yet are picked up by the calling thread, so a busy executor delays
+   * but never blocks loading.
+   *
+   * <p>Changes whose notes can't be loaded are skipped. They are loaded lazily again when accessed
+   * through {@link #notes()}, which then reports the failure for that change only.
+   *
+   * @param changes changes to load the notes for.
+   * @param executor executor to parse notes on in addition to the calling thread.
+   * @param parallelism maximum number of threads parsing notes, including the calling thread.
+   */
+  public static void ensureNotesLoaded(
+      Iterable<ChangeData> changes, Executor executor, int parallelism) {
+    ListMultimap<Project.NameKey, ChangeData> byProject =
+        MultimapBuilder.linkedHashKeys().arrayListValues().build();
+    for (ChangeData cd : changes) {
+      if (cd.notes == null && cd.lazyload()) {
+        byProject.put(cd.project(), cd);
+      }
+    }
+    if (byProject.size() < 2) {
+      return;
+    }
+
+    List<Repository> repos = new ArrayList<>(byProject.keySet().size());
+    try {
+      List<ChangeData> pending = new ArrayList<>(byProject.size());
+      List<Runnable> tasks = new ArrayList<>(byProject.size());
+      ChangeNotes[] loaded = new ChangeNotes[byProject.size()];
+      for (Map.Entry<Project.NameKey, List<ChangeData>> e : Multimaps.asMap(byProject).entrySet()) {
+        Project.NameKey project = e.getKey();
+        Repository repo;
+        try {
+          repo = e.getValue().get(0).repoManager.openRepository(project);
+        } catch (IOException | RuntimeException ex) {
+          logger.atFine().withCause(ex).log("Cannot prefetch notes of changes in %s", project);
+          continue;
+        }
+        repos.add(repo);
+        for (ChangeData cd : e.getValue()) {
+          int i = pending.size();
+          pending.add(cd);
+          tasks.add(
+              () -> {
+                try {
+                  loaded[i] = cd.notesFactory.create(repo, project, cd.getId());
+                } catch (RuntimeException ex) {
+                  logger.atFine().withCause(ex).log(
+                      "Cannot prefetch notes of change %s", cd.getId());
+                }
+              });
+        }
+      }
+
+      runInParallel(tasks, executor, parallelism);
+
+      for (int i = 0; i < pending.size(); i++) {
+        ChangeData cd = pending.get(i);
+        if (loaded[i] != null && cd.notes == null) {
+          cd.notes = loaded[i];
+          if (cd.change == null) {
+            cd.change = loaded[i].getChange();
+          }
+        }
+      }
+    } finally {
+      repos.forEach(Repository::close);
+    }
+  }
+
+  private static void runInParallel(List<Runnable> tasks, Executor executor, int parallelism) {
+    Queue<Runnable> queue = new ConcurrentLinkedQueue<>(tasks);
+    CountDownLatch done = new CountDownLatch(tasks.size());
+    Runnable worker =
+        () -> {
+          Runnable task;
+          while ((task = queue.poll()) != null) {
+            try {
+              task.run();
+            } finally {
+              done.countDown();
+            }
+          }
+        };
+    int helpers = Math.min(parallelism, tasks.size()) - 1;
+    for (int i = 0; i < helpers; i++) {
+      try {
+        executor.execute(worker);
+      } catch (RejectedExecutionException e) {
+        break;
+      }
+    }
+    worker.run();
+    // Only tasks that other threads already started are left, wait for them to finish.
+    Uninterruptibles.awaitUninterruptibly(done);
+  }
+
   public static class Factory {
     private final AssistedFactory assistedFactory;
 
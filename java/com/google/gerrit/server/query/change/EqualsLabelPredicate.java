@@ -30,6 +30,7 @@ import com.google.gerrit.server.permissions.PermissionBackendException;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.query.change.ChangeData.StorageConstraint;
+import java.util.Objects;
 import java.util.Optional;
 
 public class EqualsLabelPredicate extends ChangeIndexPostFilterPredicate {
@@ -185,4 +186,15 @@ public class EqualsLabelPredicate extends ChangeIndexPostFilterPredicate {
   public int getCost() {
     return 1 + (group == null ? 0 : 1);
   }
+
+  // The group is not part of the value, but predicates with different groups match differently.
+  @Override
+  public int hashCode() {
+    return super.hashCode() * 31 + Objects.hashCode(group);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return super.equals(other) && Objects.equals(group, ((EqualsLabelPredicate) other).group);
+  }
 }
@@ -314,4 +314,55 @@ public class InternalChangeQuery extends InternalQuery<ChangeData, InternalChang
     }
     return result.build();
   }
+
+  /**
+   * Returns the changes on the given branch whose Change-Id starts with any of the given keys.
+   *
+   * <p>The keys are queried in as few queries as the maximum number of query terms allows.
+   */
+  public static ImmutableList<ChangeData> byBranchKeys(
+      Provider<InternalChangeQuery> queryProvider,
+      IndexConfig indexConfig,
+      BranchNameKey branch,
+      Collection<Change.Key> keys) {
+    List<Predicate<ChangeData>> preds = new ArrayList<>(keys.size());
+    for (Change.Key key : keys) {
+      preds.add(change(key));
+    }
+    return byBranchAnyOf(queryProvider, indexConfig, branch, preds);
+  }
+
+  /**
+   * Returns the changes on the given branch that have a patch set for any of the given commits.
+   *
+   * <p>The commits are queried in as few queries as the maximum number of query terms allows.
+   */
+  public static ImmutableList<ChangeData> byBranchCommits(
+      Provider<InternalChangeQuery> queryProvider,
+      IndexConfig indexConfig,
+      BranchNameKey branch,
+      Collection<String> hashes) {
+    return byBranchAnyOf(queryProvider, indexConfig, branch, commits(hashes));
+  }
+
+  private static ImmutableList<ChangeData> byBranchAnyOf(
+      Provider<InternalChangeQuery> queryProvider,
+      IndexConfig indexConfig,
+      BranchNameKey branch,
+      List<Predicate<ChangeData>> preds) {
+    // Account for the ref and project predicates.
+    int batchSize = indexConfig.maxTerms() - 2;
+    Set<Change.Id> seen = new HashSet<>();
+    ImmutableList.Builder<ChangeData> result = ImmutableList.builder();
+    for (List<Predicate<ChangeData>> part : Iterables.partition(preds, batchSize)) {
+      for (ChangeData cd :
+          queryExhaustively(
+              queryProvider::get, and(ref(branch), project(branch.project()), or(part)))) {
+        if (seen.add(cd.getId())) {
+          result.add(cd);
+        }
+      }
+    }
+    return result.build();
+  }
 }
@@ -25,6 +25,7 @@ import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.server.project.ProjectState;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 
 public class MagicLabelPredicate extends ChangeIndexPredicate {
@@ -112,4 +113,16 @@ public class MagicLabelPredicate extends ChangeIndexPredicate {
     }
     return null;
   }
+
+  // Like in EqualsLabelPredicate, the group must be compared separately.
+  @Override
+  public int hashCode() {
+    return super.hashCode() * 31 + Objects.hashCode(args.group);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return super.equals(other)
+        && Objects.equals(args.group, ((MagicLabelPredicate) other).args.group);
+  }
 }
@@ -31,6 +31,7 @@ import com.google.gerrit.index.query.QueryResult;
 import com.google.gerrit.server.DynamicOptions;
 import com.google.gerrit.server.account.AccountAttributeLoader;
 import com.google.gerrit.server.cache.PerThreadCache;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.TrackingFooters;
 import com.google.gerrit.server.data.ChangeAttribute;
 import com.google.gerrit.server.data.PatchSetAttribute;
@@ -58,6 +59,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.util.io.DisabledOutputStream;
@@ -90,6 +92,7 @@ public class OutputStreamQuery {
   private final TrackingFooters trackingFooters;
   private final SubmitRuleEvaluator.Factory submitRuleEvaluatorFactory;
   private final AccountAttributeLoader.Factory accountAttributeLoaderFactory;
+  private final boolean streamResults;
 
   private OutputFormat outputFormat = OutputFormat.TEXT;
   private boolean includePatchSets;
@@ -115,7 +118,8 @@ public class OutputStreamQuery {
       EventFactory eventFactory,
       TrackingFooters trackingFooters,
       SubmitRuleEvaluator.Factory submitRuleEvaluatorFactory,
-      AccountAttributeLoader.Factory accountAttributeLoaderFactory) {
+      AccountAttributeLoader.Factory accountAttributeLoaderFactory,
+      @GerritServerConfig Config cfg) {
     this.repoManager = repoManager;
     this.queryBuilder = queryBuilder;
     this.queryProcessor = queryProcessor;
@@ -123,6 +127,7 @@ public class OutputStreamQuery {
     this.trackingFooters = trackingFooters;
     this.submitRuleEvaluatorFactory = submitRuleEvaluatorFactory;
     this.accountAttributeLoaderFactory = accountAttributeLoaderFactory;
+    this.streamResults = cfg.getBoolean("change", "streamQueryResults", false);
   }
 
   void setLimit(int n) {
@@ -219,20 +224,34 @@ public class OutputStreamQuery {
         Map<Project.NameKey, RevWalk> revWalks = new HashMap<>();
         QueryResult<ChangeData> results = queryProcessor.query(queryBuilder.parse(queryString));
         pluginInfosByChange = queryProcessor.createPluginDefinedInfos(results.entities());
+        stats.rowCount = results.entities().size();
+        stats.moreChanges = results.more();
         try {
-          AccountAttributeLoader accountLoader = accountAttributeLoaderFactory.create();
-          List<ChangeAttribute> changeAttributes = new ArrayList<>();
-          for (ChangeData d : results.entities()) {
-            changeAttributes.add(buildChangeAttribute(d, repos, revWalks, accountLoader));
+          if (streamResults) {
+            List<ChangeData> changes = new ArrayList<>(results.entities());
+            // Only the mutable copy refers to the changes now, so that each of them can be garbage
+            // collected once it was shown.
+            results = null;
+            for (int i = 0; i < changes.size(); i++) {
+              ChangeData d = changes.set(i, null);
+              AccountAttributeLoader accountLoader = accountAttributeLoaderFactory.create();
+              ChangeAttribute c = buildChangeAttribute(d, repos, revWalks, accountLoader);
+              accountLoader.fill();
+              show(c);
+            }
+          } else {
+            AccountAttributeLoader accountLoader = accountAttributeLoaderFactory.create();
+            List<ChangeAttribute> changeAttributes = new ArrayList<>();
+            for (ChangeData d : results.entities()) {
+              changeAttributes.add(buildChangeAttribute(d, repos, revWalks, accountLoader));
+            }
+            accountLoader.fill();
+            changeAttributes.forEach(c -> show(c));
           }
-          accountLoader.fill();
-          changeAttributes.forEach(c -> show(c));
         } finally {
           closeAll(revWalks.values(), repos.values());
         }
 
-        stats.rowCount = results.entities().size();
-        stats.moreChanges = results.more();
         stats.runTimeMilliseconds = TimeUtil.nowMs() - stats.runTimeMilliseconds;
         show(stats);
       } catch (StorageException err) {
@@ -27,6 +27,7 @@ import com.google.gerrit.extensions.restapi.TopLevelResource;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.change.ChangeFinder;
 import com.google.gerrit.server.change.ChangeResource;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.permissions.ChangePermission;
 import com.google.gerrit.server.permissions.PermissionBackend;
@@ -39,6 +40,7 @@ import com.google.inject.Singleton;
 import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
+import org.eclipse.jgit.lib.Config;
 
 @Singleton
 public class ChangesCollection implements RestCollection<TopLevelResource, ChangeResource> {
@@ -49,6 +51,7 @@ public class ChangesCollection implements RestCollection<TopLevelResource, Chang
   private final ChangeResource.Factory changeResourceFactory;
   private final PermissionBackend permissionBackend;
   private final ProjectCache projectCache;
+  private final boolean streamQueryResults;
 
   @Inject
   public ChangesCollection(
@@ -58,7 +61,8 @@ public class ChangesCollection implements RestCollection<TopLevelResource, Chang
       ChangeFinder changeFinder,
       ChangeResource.Factory changeResourceFactory,
       PermissionBackend permissionBackend,
-      ProjectCache projectCache) {
+      ProjectCache projectCache,
+      @GerritServerConfig Config cfg) {
     this.user = user;
     this.queryFactory = queryFactory;
     this.views = views;
@@ -66,11 +70,14 @@ public class ChangesCollection implements RestCollection<TopLevelResource, Chang
     this.changeResourceFactory = changeResourceFactory;
     this.permissionBackend = permissionBackend;
     this.projectCache = projectCache;
+    this.streamQueryResults = cfg.getBoolean("change", "streamQueryResults", false);
   }
 
   @Override
   public QueryChanges list() {
-    return queryFactory.get();
+    QueryChanges query = queryFactory.get();
+    query.setStreamResults(streamQueryResults);
+    return query;
   }
 
   @Override
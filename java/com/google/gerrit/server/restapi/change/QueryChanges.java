@@ -22,7 +22,8 @@ import com.google.gerrit.extensions.common.ChangeInfo;
 import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.extensions.restapi.Response;
-import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.extensions.restapi.StreamingResult;
+import com.google.gerrit.extensions.restapi.StreamingView;
 import com.google.gerrit.extensions.restapi.TopLevelResource;
 import com.google.gerrit.index.query.QueryParseException;
 import com.google.gerrit.index.query.QueryRequiresAuthException;
@@ -46,7 +47,7 @@ import java.util.HashMap;
 import java.util.List;
 import org.kohsuke.args4j.Option;
 
-public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOptions.BeanReceiver {
+public class QueryChanges implements StreamingView<TopLevelResource>, DynamicOptions.BeanReceiver {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private final ChangeJson.Factory json;
@@ -60,6 +61,7 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
   private Integer start;
   private Boolean noLimit;
   private Boolean skipVisibility;
+  private boolean streamResults;
 
   @Option(
       name = "--query",
@@ -144,6 +146,19 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
     return queries.get(i);
   }
 
+  /**
+   * Whether REST requests are served by {@link #applyStreaming}, which formats the changes while
+   * they are written. {@link #apply} always returns lists of {@link ChangeInfo}.
+   */
+  public void setStreamResults(boolean streamResults) {
+    this.streamResults = streamResults;
+  }
+
+  @Override
+  public boolean isStreaming() {
+    return streamResults;
+  }
+
   @Override
   public Response<List<?>> apply(TopLevelResource rsrc)
       throws BadRequestException, AuthException, PermissionBackendException {
@@ -159,8 +174,64 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
     return Response.ok(out.size() == 1 ? out.get(0) : out);
   }
 
+  @Override
+  public Response<StreamingResult> applyStreaming(TopLevelResource rsrc)
+      throws BadRequestException, AuthException {
+    try {
+      return Response.ok(queryStreamed());
+    } catch (QueryRequiresAuthException e) {
+      throw new AuthException("Must be signed-in to use this operator", e);
+    } catch (QueryParseException e) {
+      logger.atFine().withCause(e).log("Reject change query with 400 Bad Request: %s", queries);
+      throw new BadRequestException(e.getMessage(), e);
+    }
+  }
+
   private List<List<ChangeInfo>> query()
       throws BadRequestException, QueryParseException, PermissionBackendException {
+    ChangeQueryProcessor queryProcessor = newQueryProcessor();
+    int cnt = queries.size();
+    List<QueryResult<ChangeData>> results = queryProcessor.query(qb.parse(queries));
+    List<List<ChangeInfo>> res =
+        json.create(options, queryProcessor.getInfosFactory()).format(results);
+    for (int n = 0; n < cnt; n++) {
+      List<ChangeInfo> info = res.get(n);
+      if (results.get(n).more() && !info.isEmpty()) {
+        Iterables.getLast(info)._moreChanges = true;
+      }
+    }
+    return res;
+  }
+
+  private StreamingResult queryStreamed() throws BadRequestException, QueryParseException {
+    ChangeQueryProcessor queryProcessor = newQueryProcessor();
+    List<QueryResult<ChangeData>> results = queryProcessor.query(qb.parse(queries));
+    ChangeJson changeJson = json.create(options, queryProcessor.getInfosFactory());
+    // Copy the results into mutable lists that only the streaming result refers to, so that
+    // ChangeJson can release each ChangeData once it was written.
+    List<List<ChangeData>> changes = new ArrayList<>(results.size());
+    List<Boolean> more = new ArrayList<>(results.size());
+    for (QueryResult<ChangeData> r : results) {
+      changes.add(new ArrayList<>(r.entities()));
+      more.add(r.more());
+    }
+    return writer -> {
+      boolean multipleQueries = changes.size() > 1;
+      if (multipleQueries) {
+        writer.beginArray();
+      }
+      for (int n = 0; n < changes.size(); n++) {
+        writer.beginArray();
+        changeJson.format(changes.get(n), more.get(n), writer::value);
+        writer.endArray();
+      }
+      if (multipleQueries) {
+        writer.endArray();
+      }
+    };
+  }
+
+  private ChangeQueryProcessor newQueryProcessor() throws BadRequestException, QueryParseException {
     ChangeQueryProcessor queryProcessor = queryProcessorProvider.get();
     if (queryProcessor.isDisabled()) {
       throw new QueryParseException("query disabled");
@@ -190,17 +261,6 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
       // users from submitting too much to the server in a single call.
       throw new QueryParseException("limit of 10 queries");
     }
-
-    int cnt = queries.size();
-    List<QueryResult<ChangeData>> results = queryProcessor.query(qb.parse(queries));
-    List<List<ChangeInfo>> res =
-        json.create(options, queryProcessor.getInfosFactory()).format(results);
-    for (int n = 0; n < cnt; n++) {
-      List<ChangeInfo> info = res.get(n);
-      if (results.get(n).more() && !info.isEmpty()) {
-        Iterables.getLast(info)._moreChanges = true;
-      }
-    }
-    return res;
+    return queryProcessor;
   }
 }
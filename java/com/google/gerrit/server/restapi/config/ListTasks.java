@@ -121,6 +121,9 @@ public class ListTasks implements RestReadView<ConfigResource> {
     public String remoteName;
     public String projectName;
     public String queueName;
+    public Task.Priority priority;
+    public long headStart;
+    public long waitTime;
 
     public TaskInfo(Task<?> task) {
       this.id = HexFormat.fromInt(task.getTaskId());
@@ -129,6 +132,9 @@ public class ListTasks implements RestReadView<ConfigResource> {
       this.delay = task.getDelay(TimeUnit.MILLISECONDS);
       this.command = task.toString();
       this.queueName = task.getQueueName();
+      this.priority = task.getPriority();
+      this.headStart = task.getHeadStart(TimeUnit.MILLISECONDS);
+      this.waitTime = task.getWaitTime(TimeUnit.MILLISECONDS);
 
       if (task instanceof ProjectTask) {
         ProjectTask<?> projectTask = ((ProjectTask<?>) task);
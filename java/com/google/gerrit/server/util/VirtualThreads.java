@@ -0,0 +1,95 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.util;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads if the Java runtime supports them.
+ *
+ * <p>Gerrit is compiled for Java 11, hence virtual threads are created by reflection. On runtimes
+ * without virtual threads, or where they are a preview feature that is not enabled, {@link
+ * #isSupported()} returns false and callers should fall back to platform threads.
+ */
+public class VirtualThreads {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  @Nullable private static final Method OF_VIRTUAL = ofVirtual();
+  @Nullable private static final Method NAME;
+  @Nullable private static final Method FACTORY;
+
+  static {
+    Method name = null;
+    Method factory = null;
+    if (OF_VIRTUAL != null) {
+      try {
+        Class<?> builder = Class.forName("java.lang.Thread$Builder");
+        name = builder.getMethod("name", String.class, long.class);
+        factory = builder.getMethod("factory");
+      } catch (ReflectiveOperationException e) {
+        logger.atFine().withCause(e).log("Virtual thread builder not available");
+      }
+    }
+    NAME = name;
+    FACTORY = factory;
+  }
+
+  @Nullable
+  private static Method ofVirtual() {
+    try {
+      Method ofVirtual = Thread.class.getMethod("ofVirtual");
+      // Fails with UnsupportedOperationException if virtual threads are a disabled preview feature.
+      ofVirtual.invoke(null);
+      return ofVirtual;
+    } catch (NoSuchMethodException e) {
+      return null;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      logger.atFine().withCause(e).log("Virtual threads are not enabled");
+      return null;
+    }
+  }
+
+  /** Returns whether the Java runtime can create virtual threads. */
+  public static boolean isSupported() {
+    return FACTORY != null;
+  }
+
+  /**
+   * Returns a factory for virtual threads named {@code <prefix>-<n>} with a counter starting at 1.
+   *
+   * @throws UnsupportedOperationException if the runtime can't create virtual threads.
+   */
+  public static ThreadFactory newThreadFactory(String prefix) {
+    if (!isSupported()) {
+      throw new UnsupportedOperationException(
+          "virtual threads are not supported by Java " + System.getProperty("java.version"));
+    }
+    try {
+      Object builder = OF_VIRTUAL.invoke(null);
+      builder = NAME.invoke(builder, prefix + "-", 1L);
+      return (ThreadFactory) FACTORY.invoke(builder);
+    } catch (InvocationTargetException e) {
+      throw new IllegalStateException("cannot create virtual thread factory", e.getCause());
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("cannot create virtual thread factory", e);
+    }
+  }
+
+  private VirtualThreads() {}
+}
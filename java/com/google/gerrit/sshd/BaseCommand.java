@@ -31,6 +31,8 @@ import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.RequestCleanup;
 import com.google.gerrit.server.git.ProjectRunnable;
 import com.google.gerrit.server.git.WorkQueue.CancelableRunnable;
+import com.google.gerrit.server.git.WorkQueue.PrioritizedRunnable;
+import com.google.gerrit.server.git.WorkQueue.Task;
 import com.google.gerrit.server.permissions.GlobalPermission;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.PermissionBackendException;
@@ -302,6 +304,17 @@ public abstract class BaseCommand implements Command {
     }
   }
 
+  /**
+   * Returns the priority class of the command's task in the SSH work queue, which is taken into
+   * account if {@code queue.<name>.priorityAging} is configured for the queue.
+   *
+   * <p>Long running maintenance commands should return {@link Task.Priority#LOW}, so that they
+   * don't hold up interactive commands when the queue is busy.
+   */
+  protected Task.Priority getTaskPriority() {
+    return Task.Priority.NORMAL;
+  }
+
   private boolean isAdminHighPriorityCommand() {
     if (getClass().getAnnotation(AdminHighPriorityCommand.class) != null) {
       try {
@@ -446,7 +459,8 @@ public abstract class BaseCommand implements Command {
     return m.toString();
   }
 
-  private final class TaskThunk implements CancelableRunnable, ProjectRunnable {
+  private final class TaskThunk
+      implements CancelableRunnable, ProjectRunnable, PrioritizedRunnable {
     private final CommandRunnable thunk;
     private final String taskName;
     private final AccessPath accessPath;
@@ -534,6 +548,11 @@ public abstract class BaseCommand implements Command {
       return projectName;
     }
 
+    @Override
+    public Task.Priority getPriority() {
+      return getTaskPriority();
+    }
+
     @Override
     public String getRemoteName() {
       return null;
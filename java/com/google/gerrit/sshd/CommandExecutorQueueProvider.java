@@ -28,6 +28,7 @@ public class CommandExecutorQueueProvider implements QueueProvider {
 
   private int poolSize;
   private final int batchThreads;
+  private final boolean virtualThreads;
   private final ScheduledThreadPoolExecutor interactiveExecutor;
   private final ScheduledThreadPoolExecutor batchExecutor;
 
@@ -43,16 +44,22 @@ public class CommandExecutorQueueProvider implements QueueProvider {
       poolSize += batchThreads;
     }
     int interactiveThreads = Math.max(1, poolSize - batchThreads);
-    interactiveExecutor =
-        queues.createQueue(interactiveThreads, "SSH-Interactive-Worker", Thread.MIN_PRIORITY, true);
+    virtualThreads = threadsSettingsConfig.isSshdVirtualThreads();
+    interactiveExecutor = createQueue(queues, interactiveThreads, "SSH-Interactive-Worker");
     if (batchThreads != 0) {
-      batchExecutor =
-          queues.createQueue(batchThreads, "SSH-Batch-Worker", Thread.MIN_PRIORITY, true);
+      batchExecutor = createQueue(queues, batchThreads, "SSH-Batch-Worker");
     } else {
       batchExecutor = interactiveExecutor;
     }
   }
 
+  private ScheduledThreadPoolExecutor createQueue(WorkQueue queues, int threads, String name) {
+    if (virtualThreads) {
+      return queues.createVirtualThreadQueue(threads, name, true);
+    }
+    return queues.createQueue(threads, name, Thread.MIN_PRIORITY, true);
+  }
+
   @Override
   public ScheduledThreadPoolExecutor getQueue(QueueType type) {
     switch (type) {
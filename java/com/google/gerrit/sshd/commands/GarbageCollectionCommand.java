@@ -25,6 +25,7 @@ import com.google.gerrit.common.data.GarbageCollectionResult.GcError;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.annotations.RequiresAnyCapability;
 import com.google.gerrit.server.git.GarbageCollection;
+import com.google.gerrit.server.git.WorkQueue.Task;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.sshd.CommandMetaData;
@@ -61,6 +62,11 @@ public class GarbageCollectionCommand extends SshCommand {
 
   @Inject private GarbageCollection.Factory garbageCollectionFactory;
 
+  @Override
+  protected Task.Priority getTaskPriority() {
+    return Task.Priority.LOW;
+  }
+
   @Override
   public void run() throws Exception {
     enableGracefulStop();
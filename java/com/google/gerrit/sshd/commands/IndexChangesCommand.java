@@ -18,6 +18,7 @@ import com.google.gerrit.entities.Change;
 import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.extensions.common.Input;
 import com.google.gerrit.server.change.ChangeResource;
+import com.google.gerrit.server.git.WorkQueue.Task;
 import com.google.gerrit.server.permissions.PermissionBackendException;
 import com.google.gerrit.server.restapi.change.Index;
 import com.google.gerrit.sshd.ChangeArgumentParser;
@@ -50,6 +51,11 @@ final class IndexChangesCommand extends SshCommand {
 
   private Map<Change.Id, ChangeResource> changes = new LinkedHashMap<>();
 
+  @Override
+  protected Task.Priority getTaskPriority() {
+    return Task.Priority.LOW;
+  }
+
   @Override
   protected void run() throws UnloggedFailure {
     enableGracefulStop();
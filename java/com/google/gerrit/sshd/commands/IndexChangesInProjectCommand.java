@@ -17,6 +17,7 @@ package com.google.gerrit.sshd.commands;
 import static com.google.gerrit.common.data.GlobalCapability.MAINTAIN_SERVER;
 
 import com.google.gerrit.extensions.annotations.RequiresAnyCapability;
+import com.google.gerrit.server.git.WorkQueue.Task;
 import com.google.gerrit.server.project.ProjectResource;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.restapi.project.IndexChanges;
@@ -41,6 +42,11 @@ final class IndexChangesInProjectCommand extends SshCommand {
       usage = "projects for which the changes should be indexed")
   private List<ProjectState> projects = new ArrayList<>();
 
+  @Override
+  protected Task.Priority getTaskPriority() {
+    return Task.Priority.LOW;
+  }
+
   @Override
   protected void run() throws UnloggedFailure, Failure, Exception {
     enableGracefulStop();
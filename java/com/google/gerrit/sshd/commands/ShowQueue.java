@@ -87,11 +87,11 @@ final class ShowQueue extends SshCommand {
   @Override
   protected void run() throws Failure {
     enableGracefulStop();
-    maxCommandWidth = wide ? Integer.MAX_VALUE : columns - 8 - 12 - 12 - 4 - 4;
+    maxCommandWidth = wide ? Integer.MAX_VALUE : columns - 8 - 12 - 12 - 5 - 7 - 5;
     stdout.print(
         String.format(
-            "%-8s %-12s %-12s %-4s %s\n", //
-            "Task", "State", "StartTime", "", "Command"));
+            "%-8s %-12s %-12s %-5s %-7s %s\n", //
+            "Task", "State", "StartTime", "Prio", "Wait", "Command"));
     stdout.print(
         "------------------------------------------------------------------------------\n");
 
@@ -156,18 +156,25 @@ final class ShowQueue extends SshCommand {
 
         stdout.print(
             String.format(
-                "%8s %-12s %-12s %-4s %s\n",
-                task.id, start, startTime(task.startTime.toInstant()), "", command));
+                "%8s %-12s %-12s %-5s %-7s %s\n",
+                task.id,
+                start,
+                startTime(task.startTime.toInstant()),
+                priority(task),
+                waitTime(task),
+                command));
       } else {
         String remoteName =
             task.remoteName != null ? task.remoteName + "/" + task.projectName : task.projectName;
 
         stdout.print(
             String.format(
-                "%8s %-12s %-4s %s\n",
+                "%8s %-12s %-12s %-5s %-7s %s\n",
                 task.id,
                 start,
                 startTime(task.startTime.toInstant()),
+                priority(task),
+                waitTime(task),
                 MoreObjects.firstNonNull(remoteName, "n/a")));
       }
     }
@@ -180,6 +187,40 @@ final class ShowQueue extends SshCommand {
     stdout.print("\n\n");
   }
 
+  /**
+   * Formats the effective priority of the task: its priority class, suffixed with {@code +} if the
+   * task is ordered ahead of its scheduled time.
+   */
+  private static String priority(TaskInfo task) {
+    String p;
+    switch (task.priority) {
+      case HIGH:
+        p = "HIGH";
+        break;
+      case LOW:
+        p = "LOW";
+        break;
+      case NORMAL:
+      default:
+        p = "NORM";
+        break;
+    }
+    return task.headStart > 0 ? p + "+" : p;
+  }
+
+  private static String waitTime(TaskInfo task) {
+    if (task.waitTime <= 0) {
+      return "";
+    }
+    if (task.waitTime < 10 * 1000L) {
+      return String.format("%.3fs", task.waitTime / 1000.0);
+    }
+    if (task.waitTime < 60 * 60 * 1000L) {
+      return String.format("%dm%02ds", task.waitTime / 60000, (task.waitTime / 1000) % 60);
+    }
+    return String.format("%dh%02dm", task.waitTime / 3600000, (task.waitTime / 60000) % 60);
+  }
+
   private static String time(long now, long delay) {
     Instant when = Instant.ofEpochMilli(now + delay);
     return format(when, delay);
@@ -58,6 +58,7 @@ import com.google.gerrit.server.config.AnonymousCowardNameProvider;
 import com.google.gerrit.server.config.AuthConfig;
 import com.google.gerrit.server.config.CanonicalWebUrlModule;
 import com.google.gerrit.server.config.CanonicalWebUrlProvider;
+import com.google.gerrit.server.config.CommitValidationExecutor;
 import com.google.gerrit.server.config.DefaultUrlFormatter.DefaultUrlFormatterModule;
 import com.google.gerrit.server.config.FileBasedAllProjectsConfigProvider;
 import com.google.gerrit.server.config.FileBasedGlobalPluginConfigProvider;
@@ -332,6 +333,18 @@ public class InMemoryModule extends FactoryModule {
     return newDirectExecutorService();
   }
 
+  @Provides
+  @Singleton
+  @CommitValidationExecutor
+  public ExecutorService createCommitValidationExecutor(
+      @GerritServerConfig Config config, WorkQueue queues) {
+    int poolSize = config.getInt("receive", null, "commitValidationThreadPoolSize", 0);
+    if (poolSize == 0) {
+      return newDirectExecutorService();
+    }
+    return queues.createQueue(poolSize, "CommitValidation");
+  }
+
   @Provides
   @Singleton
   @FanOutExecutor
@@ -37,12 +37,15 @@ import com.google.gerrit.entities.Patch;
 import com.google.gerrit.entities.Permission;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.api.changes.ReviewInput;
+import com.google.gerrit.extensions.client.ListChangesOption;
 import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.ChangeInput;
 import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.extensions.restapi.TopLevelResource;
 import com.google.gerrit.server.project.ProjectConfig;
 import com.google.gerrit.server.restapi.change.QueryChanges;
+import com.google.gson.reflect.TypeToken;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import java.util.Arrays;
@@ -332,6 +335,71 @@ public class QueryChangesIT extends AbstractDaemonTest {
     assertThat(result3).hasSize(1);
   }
 
+  @Test
+  @GerritConfig(name = "change.streamQueryResults", value = "true")
+  public void streamedQueryResults() throws Exception {
+    String cId1 = createChange().getChangeId();
+    String cId2 = createChange().getChangeId();
+    int numericId1 = gApi.changes().id(cId1).get()._number;
+    int numericId2 = gApi.changes().id(cId2).get()._number;
+
+    RestResponse r = adminRestSession.get("/changes/?q=change:" + cId1);
+    r.assertOK();
+    List<ChangeInfo> single =
+        newGson().fromJson(r.getReader(), new TypeToken<List<ChangeInfo>>() {}.getType());
+    assertThat(single).hasSize(1);
+    assertThat(single.get(0)._number).isEqualTo(numericId1);
+
+    r =
+        adminRestSession.get(
+            "/changes/?q=is:open+repo:"
+                + project.get()
+                + "&q=is:open+limit:1+repo:"
+                + project.get()
+                + "&o=DETAILED_LABELS&o=ALL_REVISIONS");
+    r.assertOK();
+    List<List<ChangeInfo>> multiple =
+        newGson().fromJson(r.getReader(), new TypeToken<List<List<ChangeInfo>>>() {}.getType());
+    assertThat(multiple).hasSize(2);
+    assertThat(multiple.get(0).stream().map(i -> i._number).collect(toList()))
+        .containsExactly(numericId1, numericId2);
+    assertThat(multiple.get(0).get(1)._moreChanges).isNull();
+    assertThat(multiple.get(0).get(0).revisions).hasSize(1);
+    assertThat(multiple.get(1)).hasSize(1);
+    assertThat(multiple.get(1).get(0)._moreChanges).isTrue();
+
+    // The Java API still gets fully built lists.
+    assertThat(gApi.changes().query("change:" + cId1).get()).hasSize(1);
+  }
+
+  @Test
+  public void queryResultsWithNoteDbOptionsAcrossProjects() throws Exception {
+    Project.NameKey otherProject = projectOperations.newProject().create();
+    String cId1 = createChange().getChangeId();
+    String cId2 = createChange().getChangeId();
+    String cId3 =
+        gApi.changes()
+            .create(new ChangeInput(otherProject.get(), "master", "Other"))
+            .get()
+            .changeId;
+    gApi.changes().id(cId2).current().review(ReviewInput.recommend());
+
+    List<ChangeInfo> results =
+        gApi.changes()
+            .query("status:open")
+            .withOptions(ListChangesOption.MESSAGES, ListChangesOption.ALL_REVISIONS)
+            .get();
+    assertThat(results.stream().map(i -> i.changeId).collect(toList()))
+        .containsExactly(cId1, cId2, cId3);
+    ChangeInfo reviewed = results.stream().filter(i -> i.changeId.equals(cId2)).findFirst().get();
+    assertThat(reviewed.messages.stream().map(m -> m.message).collect(toList()))
+        .contains("Patch Set 1: Code-Review+1");
+    for (ChangeInfo info : results) {
+      assertThat(info.revisions).hasSize(1);
+      assertThat(info.messages).isNotEmpty();
+    }
+  }
+
   @Test
   public void testInvalidListChangeOption() throws Exception {
     PushOneCommit.Result r = createChange();
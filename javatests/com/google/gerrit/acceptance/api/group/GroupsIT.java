@@ -306,6 +306,41 @@ public class GroupsIT extends AbstractDaemonTest {
     assertThat(groupsWithMemberAfterRemoval).doesNotContain(groupUuid);
   }
 
+  @Test
+  public void cachedTransitiveGroupsForMemberAreUpdatedOnSubgroupAdditionAndRemoval()
+      throws Exception {
+    Account.Id accountId = accountOperations.newAccount().create();
+    AccountGroup.UUID child = groupOperations.newGroup().addMember(accountId).create();
+    AccountGroup.UUID parent = groupOperations.newGroup().subgroups(child).create();
+    AccountGroup.UUID grandparent = groupOperations.newGroup().create();
+
+    // Fill the caches for the observed account and groups.
+    assertThat(groupIncludeCache.getAllGroupsWithMember(accountId)).containsExactly(child, parent);
+    assertThat(groupIncludeCache.allParentGroupsOf(child)).containsExactly(parent);
+
+    gApi.groups().id(grandparent.get()).addGroups(parent.get());
+
+    assertThat(groupIncludeCache.getAllGroupsWithMember(accountId))
+        .containsExactly(child, parent, grandparent);
+    assertThat(groupIncludeCache.allParentGroupsOf(child)).containsExactly(parent, grandparent);
+
+    gApi.groups().id(parent.get()).removeGroups(child.get());
+
+    assertThat(groupIncludeCache.getAllGroupsWithMember(accountId)).containsExactly(child);
+    assertThat(groupIncludeCache.allParentGroupsOf(child)).isEmpty();
+    assertThat(groupIncludeCache.allParentGroupsOf(parent)).containsExactly(grandparent);
+  }
+
+  @Test
+  public void transitiveParentGroupsHandleCycles() throws Exception {
+    AccountGroup.UUID group1 = groupOperations.newGroup().create();
+    AccountGroup.UUID group2 = groupOperations.newGroup().subgroups(group1).create();
+    gApi.groups().id(group1.get()).addGroups(group2.get());
+
+    assertThat(groupIncludeCache.allParentGroupsOf(group1)).containsExactly(group2);
+    assertThat(groupIncludeCache.allParentGroupsOf(group2)).containsExactly(group1);
+  }
+
   @Test
   public void cachedGroupByNameIsUpdatedOnCreation() throws Exception {
     String newGroupName = name("newGroup");
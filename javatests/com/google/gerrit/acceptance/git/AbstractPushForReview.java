@@ -81,6 +81,7 @@ import com.google.gerrit.extensions.api.changes.DraftInput;
 import com.google.gerrit.extensions.api.changes.NotifyHandling;
 import com.google.gerrit.extensions.api.changes.ReviewInput;
 import com.google.gerrit.extensions.api.groups.GroupInput;
+import com.google.gerrit.extensions.api.projects.BanCommitInput;
 import com.google.gerrit.extensions.api.projects.BranchInput;
 import com.google.gerrit.extensions.api.projects.ConfigInput;
 import com.google.gerrit.extensions.client.ChangeStatus;
@@ -1834,6 +1835,79 @@ public abstract class AbstractPushForReview extends AbstractDaemonTest {
     assertThat(r.getMessages()).contains("\nERROR: " + reason);
   }
 
+  @Test
+  @GerritConfig(name = "receive.commitValidationThreadPoolSize", value = "2")
+  public void pushSeriesWithConcurrentCommitValidation() throws Exception {
+    for (int i = 0; i < 5; i++) {
+      createCommitWithChangeId(testRepo, "Change " + i);
+    }
+    pushForReviewOk(testRepo);
+  }
+
+  @Test
+  @GerritConfig(name = "receive.commitValidationThreadPoolSize", value = "2")
+  public void concurrentCommitValidationReportsFirstInvalidCommit() throws Exception {
+    createCommitWithChangeId(testRepo, "Change 1");
+    RevCommit firstInvalid = createCommit(testRepo, "Message without Change-Id");
+    createCommitWithChangeId(testRepo, "Change 2");
+    createCommit(testRepo, "Another message without Change-Id");
+    createCommitWithChangeId(testRepo, "Change 3");
+
+    String ref = "refs/for/master";
+    PushResult r = pushHead(testRepo, ref);
+    RemoteRefUpdate refUpdate = r.getRemoteUpdate(ref);
+    assertThat(refUpdate.getStatus()).isEqualTo(RemoteRefUpdate.Status.REJECTED_OTHER_REASON);
+    assertThat(refUpdate.getMessage())
+        .isEqualTo(
+            String.format(
+                "commit %s: missing Change-Id in message footer", abbreviateName(firstInvalid)));
+  }
+
+  @Test
+  @GerritConfig(name = "receive.commitValidationThreadPoolSize", value = "2")
+  public void concurrentCommitValidationRejectsBannedCommit() throws Exception {
+    createCommitWithChangeId(testRepo, "Change 1");
+    RevCommit banned = createCommitWithChangeId(testRepo, "Change 2");
+    createCommitWithChangeId(testRepo, "Change 3");
+    adminRestSession
+        .put("/projects/" + project.get() + "/ban/", BanCommitInput.fromCommits(banned.name()))
+        .assertOK();
+
+    String ref = "refs/for/master";
+    PushResult r = pushHead(testRepo, ref);
+    RemoteRefUpdate refUpdate = r.getRemoteUpdate(ref);
+    assertThat(refUpdate.getStatus()).isEqualTo(RemoteRefUpdate.Status.REJECTED_OTHER_REASON);
+    assertThat(refUpdate.getMessage()).contains("contains banned commit " + banned.name());
+  }
+
+  @Test
+  public void pushAmendedSeriesUpdatesAllChanges() throws Exception {
+    ObjectId base = testRepo.getRepository().resolve("HEAD");
+    List<RevCommit> series = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      series.add(createCommitWithChangeId(testRepo, "Change " + i));
+    }
+    pushForReviewOk(testRepo);
+
+    testRepo.reset(base);
+    List<RevCommit> amended = new ArrayList<>();
+    for (RevCommit c : series) {
+      amended.add(
+          testRepo
+              .branch("HEAD")
+              .commit()
+              .message(c.getFullMessage())
+              .add("a.txt", "amended " + c.getShortMessage())
+              .create());
+    }
+    pushForReviewOk(testRepo);
+
+    for (int i = 0; i < series.size(); i++) {
+      String changeId = GitUtil.getChangeId(testRepo, series.get(i)).get();
+      assertThat(get(changeId, CURRENT_REVISION).currentRevision).isEqualTo(amended.get(i).name());
+    }
+  }
+
   @Test
   public void pushWithMultipleChangeIds() throws Exception {
     testPushWithMultipleChangeIds();
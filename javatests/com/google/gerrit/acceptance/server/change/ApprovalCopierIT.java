@@ -404,6 +404,46 @@ public class ApprovalCopierIT extends AbstractDaemonTest {
     assertThatList(approvalCopierResult.outdatedApprovals()).isEmpty();
   }
 
+  @Test
+  public void forPatchSet_negatedAtomsInCopyCondition() throws Exception {
+    try (ProjectConfigUpdate u = updateProject(project)) {
+      u.getConfig()
+          .updateLabelType(LabelId.VERIFIED, lt -> lt.setCopyCondition("is:MAX AND -is:MIN"));
+      u.save();
+    }
+
+    PushOneCommit.Result r = createChange();
+    PatchSet.Id patchSet1Id = r.getPatchSetId();
+    vote(r.getChangeId(), user, LabelId.VERIFIED, 1);
+    vote(r.getChangeId(), admin, LabelId.VERIFIED, -1);
+
+    r = amendChange(r.getChangeId(), "refs/for/master", admin, testRepo);
+    r.assertOkStatus();
+    PatchSet.Id patchSet2Id = r.getPatchSetId();
+
+    ApprovalCopier.Result approvalCopierResult =
+        invokeApprovalCopierForCurrentPatchSet(
+            r.getChange().getId(), /* expectedCurrentPatchSetNum= */ 2);
+    assertThatList(approvalCopierResult.copiedApprovals())
+        .comparingElementsUsing(hasTestId())
+        .containsExactly(
+            PatchSetApprovalTestId.create(patchSet2Id, user.id(), LabelId.VERIFIED, 1));
+    assertThatList(approvalCopierResult.outdatedApprovals())
+        .comparingElementsUsing(hasTestId())
+        .containsExactly(
+            PatchSetApprovalTestId.create(patchSet1Id, admin.id(), LabelId.VERIFIED, -1));
+
+    ApprovalDataSubject copiedApprovalSubject =
+        assertThat(approvalCopierResult.copiedApprovals(), LabelId.VERIFIED, user.id());
+    copiedApprovalSubject.hasPassingAtomsThat().containsExactly("is:MAX");
+    copiedApprovalSubject.hasFailingAtomsThat().containsExactly("is:MIN");
+
+    ApprovalDataSubject outdatedApprovalSubject =
+        assertThat(approvalCopierResult.outdatedApprovals(), LabelId.VERIFIED, admin.id());
+    outdatedApprovalSubject.hasPassingAtomsThat().containsExactly("is:MIN");
+    outdatedApprovalSubject.hasFailingAtomsThat().containsExactly("is:MAX");
+  }
+
   @Test
   public void copiedFlagSetOnCopiedApprovals() throws Exception {
     PushOneCommit.Result r = createChange();
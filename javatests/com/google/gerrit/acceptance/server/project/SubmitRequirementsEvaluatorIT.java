@@ -28,9 +28,11 @@ import com.google.gerrit.acceptance.NoHttpd;
 import com.google.gerrit.acceptance.PushOneCommit;
 import com.google.gerrit.acceptance.TestAccount;
 import com.google.gerrit.acceptance.testsuite.change.ChangeOperations;
+import com.google.gerrit.acceptance.testsuite.group.GroupOperations;
 import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
 import com.google.gerrit.acceptance.testsuite.request.RequestScopeOperations;
 import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.BranchNameKey;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.LabelFunction;
 import com.google.gerrit.entities.SubmitRequirement;
@@ -44,6 +46,7 @@ import com.google.gerrit.extensions.common.ChangeInput;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.index.query.Predicate;
 import com.google.gerrit.index.query.QueryParseException;
+import com.google.gerrit.server.cache.PerThreadCache;
 import com.google.gerrit.server.project.SubmitRequirementEvaluationException;
 import com.google.gerrit.server.project.SubmitRequirementsEvaluator;
 import com.google.gerrit.server.query.change.ChangeData;
@@ -66,6 +69,7 @@ public class SubmitRequirementsEvaluatorIT extends AbstractDaemonTest {
   @Inject private ExtensionRegistry extensionRegistry;
   @Inject private RequestScopeOperations requestScopeOperations;
   @Inject private ChangeOperations changeOperations;
+  @Inject private GroupOperations groupOperations;
 
   private ChangeData changeData;
   private String changeId;
@@ -364,6 +368,46 @@ public class SubmitRequirementsEvaluatorIT extends AbstractDaemonTest {
         .containsExactly("label:\"Code-Review=+2\"");
   }
 
+  @Test
+  public void parsedExpressionIsReusedForOtherChangesInRequest() throws Exception {
+    createBranch(BranchNameKey.create(project, "other"));
+    ChangeData otherChangeData =
+        createChange(testRepo, "refs/heads/other", "Fix a bug", "file.txt", "content", "topic")
+            .getChange();
+    SubmitRequirement sr =
+        createSubmitRequirement(
+            /* applicabilityExpr= */ null,
+            /* submittabilityExpr= */ "branch:refs/heads/master",
+            /* overrideExpr= */ null);
+
+    try (PerThreadCache ignored = PerThreadCache.create()) {
+      assertThat(evaluator.evaluateRequirement(sr, changeData).status())
+          .isEqualTo(SubmitRequirementResult.Status.SATISFIED);
+      assertThat(evaluator.evaluateRequirement(sr, otherChangeData).status())
+          .isEqualTo(SubmitRequirementResult.Status.UNSATISFIED);
+    }
+  }
+
+  @Test
+  public void labelPredicatesWithDifferentGroupsAreEvaluatedSeparately() throws Exception {
+    approve(changeId);
+    changeData =
+        changeQueryProvider.get().byLegacyChangeId(changeData.getId()).stream()
+            .collect(MoreCollectors.onlyElement());
+    String otherGroup = groupOperations.newGroup().name(name("other")).create().get();
+
+    SubmitRequirement sr =
+        createSubmitRequirement(
+            /* applicabilityExpr= */ null,
+            /* submittabilityExpr= */ String.format(
+                "label:Code-Review=+2,group=Administrators AND -label:Code-Review=+2,group=%s",
+                otherGroup),
+            /* overrideExpr= */ null);
+
+    SubmitRequirementResult result = evaluator.evaluateRequirement(sr, changeData);
+    assertThat(result.status()).isEqualTo(SubmitRequirementResult.Status.SATISFIED);
+  }
+
   @Test
   public void submitRequirementIsOverridden_whenOverrideExpressionIsTrue() throws Exception {
     addLabel("build-cop-override");
@@ -0,0 +1,278 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gerrit.index.QueryOptions;
+import com.google.gerrit.index.Schema;
+import com.google.gerrit.index.query.DataSource;
+import com.google.gerrit.index.query.Predicate;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.index.options.AutoFlush;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AbstractLuceneIndexTest {
+  private static final Term ID_1 = new Term("id", "1");
+  private static final Term ID_2 = new Term("id", "2");
+
+  /** Index that is only written through the package-private methods of the base class. */
+  private static class TestIndex extends AbstractLuceneIndex<String, String> {
+    TestIndex(SitePaths sitePaths) throws IOException {
+      super(
+          new Schema.Builder<String>().version(1).build(),
+          sitePaths,
+          new ByteBuffersDirectory(),
+          "test",
+          ImmutableSet.of(),
+          null,
+          new GerritIndexWriterConfig(new Config(), "test"),
+          new SearcherFactory(),
+          AutoFlush.ENABLED,
+          new LuceneIndexMetrics(new DisabledMetricMaker()));
+    }
+
+    @Override
+    public void insert(String obj) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void replace(String obj) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete(String key) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public DataSource<String> getSource(Predicate<String> p, QueryOptions opts) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Predicate<String> keyPredicate(String key) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected String fromDocument(Document doc) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /** Text that blocks the writer thread while it is indexed, until it is released. */
+  private static class BlockingReader extends Reader {
+    final CountDownLatch reading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    @Override
+    public int read(char[] buf, int off, int len) throws IOException {
+      reading.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      return -1;
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  /** Empty text that records whether it was indexed. */
+  private static class TrackingReader extends Reader {
+    final AtomicBoolean read = new AtomicBoolean();
+
+    @Override
+    public int read(char[] buf, int off, int len) {
+      read.set(true);
+      return -1;
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  /** Text that can't be read. */
+  private static class FailingReader extends Reader {
+    @Override
+    public int read(char[] buf, int off, int len) throws IOException {
+      throw new IOException("broken");
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private TestIndex index;
+  private BlockingReader blocking;
+
+  @Before
+  public void setUp() throws Exception {
+    index = new TestIndex(new SitePaths(tempFolder.getRoot().toPath()));
+    blocking = new BlockingReader();
+  }
+
+  @After
+  public void tearDown() {
+    blocking.release.countDown();
+    index.close();
+  }
+
+  @Test
+  public void writesOfSameDocumentAreCoalesced() throws Exception {
+    ListenableFuture<?> blocked = blockWriter();
+    TrackingReader first = new TrackingReader();
+    TrackingReader second = new TrackingReader();
+    ListenableFuture<?> firstWrite = index.replace(ID_1, document("1", "first", first));
+    ListenableFuture<?> secondWrite = index.replace(ID_1, document("1", "second", second));
+    ListenableFuture<?> otherWrite = index.replace(ID_2, document("2", "other"));
+    releaseWriter(blocked);
+
+    firstWrite.get(10, SECONDS);
+    secondWrite.get(10, SECONDS);
+    otherWrite.get(10, SECONDS);
+    assertThat(first.read.get()).isFalse();
+    assertThat(second.read.get()).isTrue();
+    assertThat(values(ID_1)).containsExactly("second");
+    assertThat(values(ID_2)).containsExactly("other");
+  }
+
+  @Test
+  public void deleteSupersedesPendingReplace() throws Exception {
+    ListenableFuture<?> blocked = blockWriter();
+    TrackingReader replaced = new TrackingReader();
+    ListenableFuture<?> replaceWrite = index.replace(ID_1, document("1", "replaced", replaced));
+    ListenableFuture<?> deleteWrite = index.delete(ID_1);
+    releaseWriter(blocked);
+
+    replaceWrite.get(10, SECONDS);
+    deleteWrite.get(10, SECONDS);
+    assertThat(replaced.read.get()).isFalse();
+    assertThat(values(ID_1)).isEmpty();
+  }
+
+  @Test
+  public void insertIsBarrierForCoalescing() throws Exception {
+    ListenableFuture<?> blocked = blockWriter();
+    TrackingReader beforeInsert = new TrackingReader();
+    ListenableFuture<?> firstWrite = index.replace(ID_1, document("1", "before", beforeInsert));
+    ListenableFuture<?> insert = index.insert(document("2", "inserted"));
+    ListenableFuture<?> secondWrite = index.replace(ID_1, document("1", "after"));
+    releaseWriter(blocked);
+
+    firstWrite.get(10, SECONDS);
+    insert.get(10, SECONDS);
+    secondWrite.get(10, SECONDS);
+    assertThat(beforeInsert.read.get()).isTrue();
+    assertThat(values(ID_1)).containsExactly("after");
+    assertThat(values(ID_2)).containsExactly("inserted");
+  }
+
+  @Test
+  public void failedWriteFailsOnlyItsFutures() throws Exception {
+    ListenableFuture<?> blocked = blockWriter();
+    ListenableFuture<?> failedWrite =
+        index.replace(ID_1, document("1", "failed", new FailingReader()));
+    ListenableFuture<?> otherWrite = index.replace(ID_2, document("2", "other"));
+    releaseWriter(blocked);
+
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> failedWrite.get(10, SECONDS));
+    assertThat(e).hasCauseThat().isInstanceOf(IOException.class);
+    otherWrite.get(10, SECONDS);
+    assertThat(values(ID_1)).isEmpty();
+    assertThat(values(ID_2)).containsExactly("other");
+  }
+
+  @Test
+  public void writeAfterCloseIsRejected() throws Exception {
+    TestIndex closed = new TestIndex(new SitePaths(tempFolder.newFolder().toPath()));
+    closed.close();
+
+    assertThrows(
+        RejectedExecutionException.class, () -> closed.replace(ID_1, document("1", "rejected")));
+  }
+
+  /** Blocks the writer thread with an insert, returning the future of the insert. */
+  private ListenableFuture<?> blockWriter() throws Exception {
+    ListenableFuture<?> blocked = index.insert(document("blocking", "blocking", blocking));
+    assertThat(blocking.reading.await(10, SECONDS)).isTrue();
+    return blocked;
+  }
+
+  private void releaseWriter(ListenableFuture<?> blocked) throws Exception {
+    blocking.release.countDown();
+    blocked.get(10, SECONDS);
+  }
+
+  private ImmutableSet<String> values(Term id) throws IOException {
+    IndexSearcher searcher = index.acquire();
+    try {
+      TopDocs docs = searcher.search(new TermQuery(id), 10);
+      ImmutableSet.Builder<String> values = ImmutableSet.builder();
+      for (int i = 0; i < docs.scoreDocs.length; i++) {
+        values.add(searcher.doc(docs.scoreDocs[i].doc).get("value"));
+      }
+      return values.build();
+    } finally {
+      index.release(searcher);
+    }
+  }
+
+  private static Document document(String id, String value) {
+    return document(id, value, new TrackingReader());
+  }
+
+  private static Document document(String id, String value, Reader text) {
+    Document doc = new Document();
+    doc.add(new StringField("id", id, Store.YES));
+    doc.add(new StringField("value", value, Store.YES));
+    doc.add(new TextField("text", text));
+    return doc;
+  }
+}
@@ -0,0 +1,120 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SearchExecutorTest {
+  /** Executor that only runs its tasks when asked to. */
+  private static class QueueingExecutor implements Executor {
+    final Queue<Runnable> queue = new ArrayDeque<>();
+
+    @Override
+    public void execute(Runnable command) {
+      queue.add(command);
+    }
+
+    void runAll() {
+      while (!queue.isEmpty()) {
+        queue.remove().run();
+      }
+    }
+  }
+
+  private QueueingExecutor executor;
+  private SearchExecutor searchExecutor;
+
+  @Before
+  public void setUp() {
+    executor = new QueueingExecutor();
+    searchExecutor = new SearchExecutor(executor);
+  }
+
+  @Test
+  public void queuedTaskIsRunByWaitingThread() throws Exception {
+    Future<Thread> future = searchExecutor.submit(Thread::currentThread);
+
+    assertThat(future.get()).isSameInstanceAs(Thread.currentThread());
+    // The queued task is a no-op now.
+    executor.runAll();
+  }
+
+  @Test
+  public void taskIsRunOnce() throws Exception {
+    int[] runs = new int[1];
+    Future<?> future = searchExecutor.submit(() -> runs[0]++);
+
+    executor.runAll();
+    future.get();
+
+    assertThat(runs[0]).isEqualTo(1);
+  }
+
+  @Test
+  public void shutdownDoesNotAffectGivenExecutor() throws Exception {
+    Future<String> future = searchExecutor.submit(() -> "done");
+    searchExecutor.shutdown();
+
+    assertThat(searchExecutor.isShutdown()).isTrue();
+    assertThat(searchExecutor.isTerminated()).isFalse();
+    assertThrows(RejectedExecutionException.class, () -> searchExecutor.submit(() -> "rejected"));
+    assertThat(searchExecutor.awaitTermination(0, TimeUnit.SECONDS)).isFalse();
+
+    executor.runAll();
+    assertThat(future.get()).isEqualTo("done");
+    assertThat(searchExecutor.awaitTermination(0, TimeUnit.SECONDS)).isTrue();
+    assertThat(searchExecutor.isTerminated()).isTrue();
+
+    // The given executor keeps accepting tasks.
+    int[] runs = new int[1];
+    executor.execute(() -> runs[0]++);
+    executor.runAll();
+    assertThat(runs[0]).isEqualTo(1);
+  }
+
+  @Test
+  public void shutdownNowCancelsPendingTasks() {
+    Future<String> future = searchExecutor.submit(() -> "cancelled");
+
+    assertThat(searchExecutor.shutdownNow()).containsExactly(future);
+
+    assertThat(future.isCancelled()).isTrue();
+    assertThat(searchExecutor.isTerminated()).isTrue();
+  }
+
+  @Test
+  public void taskRejectedByGivenExecutorIsNotPending() {
+    SearchExecutor rejecting =
+        new SearchExecutor(
+            r -> {
+              throw new RejectedExecutionException();
+            });
+
+    assertThrows(RejectedExecutionException.class, () -> rejecting.submit(() -> "rejected"));
+    rejecting.shutdown();
+
+    assertThat(rejecting.isTerminated()).isTrue();
+  }
+}
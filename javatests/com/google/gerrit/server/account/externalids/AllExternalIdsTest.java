@@ -19,6 +19,7 @@ import static com.google.common.truth.extensions.proto.ProtoTruth.assertThat;
 import static com.google.gerrit.proto.testing.SerializedClassSubject.assertThatSerializedClass;
 import static com.google.gerrit.server.cache.testing.CacheSerializerTestUtil.byteString;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.gerrit.entities.Account;
@@ -126,6 +127,36 @@ public class AllExternalIdsTest {
             .build());
   }
 
+  @Test
+  public void lookupByAccount() throws Exception {
+    ExternalId id1 = externalIdFactory.create("scheme1", "id1", Account.id(1002));
+    ExternalId id2 = externalIdFactory.create("scheme2", "id2", Account.id(1001));
+    ExternalId id3 = externalIdFactory.create("scheme1", "id3", Account.id(1002));
+    ExternalId id4 = externalIdFactory.create("scheme3", "id4", Account.id(Integer.MAX_VALUE));
+    AllExternalIds allExternalIds = allExternalIds(id1, id2, id3, id4);
+
+    assertThat(allExternalIds.byAccount(Account.id(1000))).isEmpty();
+    assertThat(allExternalIds.byAccount(Account.id(1001))).containsExactly(id2);
+    assertThat(allExternalIds.byAccount(Account.id(1002))).containsExactly(id1, id3);
+    assertThat(allExternalIds.byAccount(Account.id(Integer.MAX_VALUE))).containsExactly(id4);
+    assertThat(allExternalIds.byAccount())
+        .isEqualTo(
+            ImmutableSetMultimap.of(
+                Account.id(1001), id2,
+                Account.id(1002), id1,
+                Account.id(1002), id3,
+                Account.id(Integer.MAX_VALUE), id4));
+  }
+
+  @Test
+  public void equalityIsIndependentOfInsertionOrder() throws Exception {
+    ExternalId id1 = externalIdFactory.create("scheme1", "id1", Account.id(1001));
+    ExternalId id2 = externalIdFactory.create("scheme2", "id2", Account.id(1001));
+    ExternalId id3 = externalIdFactory.create("scheme1", "id3", Account.id(1000));
+
+    assertThat(allExternalIds(id1, id2, id3)).isEqualTo(allExternalIds(id3, id2, id1));
+  }
+
   @Test
   public void allExternalIdsMethods() {
     assertThatSerializedClass(AllExternalIds.class)
@@ -133,8 +164,10 @@ public class AllExternalIdsTest {
             ImmutableMap.of(
                 "byKey",
                 new TypeLiteral<ImmutableMap<ExternalId.Key, ExternalId>>() {}.getType(),
-                "byAccount",
-                new TypeLiteral<ImmutableSetMultimap<Account.Id, ExternalId>>() {}.getType(),
+                "accountIds",
+                int[].class,
+                "sortedByAccount",
+                new TypeLiteral<ImmutableList<ExternalId>>() {}.getType(),
                 "byEmail",
                 new TypeLiteral<ImmutableSetMultimap<String, ExternalId>>() {}.getType()));
   }
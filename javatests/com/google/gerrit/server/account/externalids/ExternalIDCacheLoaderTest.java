@@ -125,6 +125,23 @@ public class ExternalIDCacheLoaderTest {
     verify(externalIdReaderSpy, times(1)).all(head);
   }
 
+  @Test
+  public void usesPartialReloadOnManyUpdatesOnBranchIfCacheIsPersisted() throws Exception {
+    Config cfg = new Config();
+    cfg.setString("cache", ExternalIdCacheImpl.CACHE_NAME, "diskLimit", "1g");
+    loader = createLoader(cfg);
+    ObjectId firstState = insertExternalId(1, 1);
+    ObjectId head = null;
+    for (int i = 2; i < 20; i++) {
+      head = insertExternalId(i, i);
+    }
+    externalIdCache.put(firstState, allFromGit(firstState));
+
+    assertThat(loader.load(head)).isEqualTo(allFromGit(head));
+    verify(externalIdReaderSpy, times(1)).checkReadEnabled();
+    verifyNoMoreInteractions(externalIdReaderSpy);
+  }
+
   @Test
   public void doesFullReloadWhenNoCacheStateIsFound() throws Exception {
     ObjectId head = insertExternalId(1, 1);
@@ -209,13 +226,17 @@ public class ExternalIDCacheLoaderTest {
   }
 
   private ExternalIdCacheLoader createLoader() {
+    return createLoader(new Config());
+  }
+
+  private ExternalIdCacheLoader createLoader(Config cfg) {
     return new ExternalIdCacheLoader(
         repoManager,
         ALL_USERS,
         externalIdReaderSpy,
         externalIdCache,
         new DisabledMetricMaker(),
-        new Config(),
+        cfg,
         externalIdFactory);
   }
 
@@ -0,0 +1,165 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
+import com.google.gerrit.server.util.time.TimeUtil;
+import com.google.inject.TypeLiteral;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DiskWriterTest {
+  private static int dbCnt;
+
+  private final Queue<Runnable> tasks = new ArrayDeque<>();
+  private SqlStore<String, String> store;
+
+  @Before
+  public void setUp() {
+    store =
+        new SqlStore<>(
+            "jdbc:h2:mem:DiskWriterTest_" + ++dbCnt,
+            new TypeLiteral<String>() {},
+            StringCacheSerializer.INSTANCE,
+            StringCacheSerializer.INSTANCE,
+            1,
+            1 << 20,
+            null,
+            null);
+  }
+
+  private static ValueHolder<String> holder(String value) {
+    return new ValueHolder<>(value, Instant.ofEpochMilli(TimeUtil.nowMs()));
+  }
+
+  private void runTasks() {
+    Runnable r;
+    while ((r = tasks.poll()) != null) {
+      r.run();
+    }
+  }
+
+  @Test
+  public void writeThrough() {
+    DiskWriter<String, String> writer = new DiskWriter<>(tasks::add, store, 0);
+    writer.put("foo", holder("bar"));
+    writer.put("baz", holder("qux"));
+    assertThat(tasks).hasSize(2);
+
+    runTasks();
+    assertThat(store.getIfPresent("foo").value).isEqualTo("bar");
+    assertThat(store.getIfPresent("baz").value).isEqualTo("qux");
+  }
+
+  @Test
+  public void writeBehindBatchesWrites() {
+    DiskWriter<String, String> writer = new DiskWriter<>(tasks::add, store, 10);
+    ValueHolder<String> h = holder("bar");
+    writer.put("foo", h);
+    writer.putAll(ImmutableMap.of("baz", holder("qux"), "foo", holder("bar2")));
+    assertThat(tasks).hasSize(1);
+    assertThat(writer.queueSize()).isEqualTo(3L);
+    assertThat(store.getIfPresent("foo")).isNull();
+
+    runTasks();
+    assertThat(writer.queueSize()).isEqualTo(0L);
+    assertThat(h.clean).isFalse();
+    assertThat(store.getIfPresent("foo").value).isEqualTo("bar2");
+    assertThat(store.getIfPresent("baz").value).isEqualTo("qux");
+  }
+
+  @Test
+  public void writeBehindDropsWritesWhenQueueIsFull() {
+    DiskWriter<String, String> writer = new DiskWriter<>(tasks::add, store, 2);
+    writer.put("a", holder("1"));
+    writer.put("b", holder("2"));
+    writer.put("c", holder("3"));
+    assertThat(writer.queueSize()).isEqualTo(2L);
+    assertThat(writer.droppedCount()).isEqualTo(1L);
+
+    writer.flush();
+    assertThat(store.getIfPresent("a").value).isEqualTo("1");
+    assertThat(store.getIfPresent("b").value).isEqualTo("2");
+    assertThat(store.getIfPresent("c")).isNull();
+  }
+
+  @Test
+  public void writeBehindInvalidationDiscardsQueuedWrite() {
+    DiskWriter<String, String> writer = new DiskWriter<>(tasks::add, store, 10);
+    writer.put("foo", holder("bar"));
+    writer.invalidate("foo");
+
+    writer.flush();
+    assertThat(store.getIfPresent("foo")).isNull();
+  }
+
+  @Test
+  public void writeBehindInvalidationRemovesWrittenEntry() {
+    DiskWriter<String, String> writer = new DiskWriter<>(tasks::add, store, 10);
+    writer.put("foo", holder("bar"));
+    writer.flush();
+    writer.put("foo", holder("bar2"));
+    writer.invalidate("foo");
+
+    runTasks();
+    assertThat(store.getIfPresent("foo")).isNull();
+  }
+
+  @Test
+  public void writeBehindWriteAfterInvalidationIsKept() {
+    DiskWriter<String, String> writer = new DiskWriter<>(tasks::add, store, 10);
+    writer.put("foo", holder("bar"));
+    writer.invalidate("foo");
+    writer.put("foo", holder("bar2"));
+
+    writer.flush();
+    assertThat(store.getIfPresent("foo").value).isEqualTo("bar2");
+  }
+
+  @Test
+  public void writeBehindInvalidationIsNotDroppedWhenQueueIsFull() {
+    DiskWriter<String, String> writer = new DiskWriter<>(tasks::add, store, 1);
+    writer.put("foo", holder("bar"));
+    writer.invalidate("foo");
+    assertThat(writer.queueSize()).isEqualTo(2L);
+    assertThat(writer.droppedCount()).isEqualTo(0L);
+
+    writer.flush();
+    assertThat(store.getIfPresent("foo")).isNull();
+  }
+
+  @Test
+  public void writeBehindInvalidateAllDiscardsQueuedWrites() {
+    DiskWriter<String, String> writer = new DiskWriter<>(tasks::add, store, 10);
+    writer.put("foo", holder("bar"));
+    writer.flush();
+    writer.put("baz", holder("qux"));
+
+    writer.invalidateAll();
+    assertThat(writer.queueSize()).isEqualTo(0L);
+
+    runTasks();
+    assertThat(store.getIfPresent("foo")).isNull();
+    assertThat(store.getIfPresent("baz")).isNull();
+  }
+}
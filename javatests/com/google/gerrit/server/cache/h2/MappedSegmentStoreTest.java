@@ -0,0 +1,248 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import com.google.gerrit.server.cache.h2.MappedSegmentStore.Index;
+import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
+import com.google.gerrit.server.util.time.TimeUtil;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedSegmentStoreTest {
+  private static final int DEFAULT_VERSION = 1234;
+  private static final long SEGMENT_SIZE = 1 << 20;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private MappedSegmentStore<String, String> newStore(Path dir, int version, long maxSize) {
+    return newStore(dir, version, maxSize, null);
+  }
+
+  private MappedSegmentStore<String, String> newStore(
+      Path dir, int version, long maxSize, Duration expireAfterWrite) {
+    MappedSegmentStore<String, String> store =
+        new MappedSegmentStore<>(
+            dir,
+            "test",
+            StringCacheSerializer.INSTANCE,
+            StringCacheSerializer.INSTANCE,
+            version,
+            maxSize,
+            SEGMENT_SIZE,
+            expireAfterWrite,
+            null);
+    store.open();
+    return store;
+  }
+
+  private static ValueHolder<String> holder(String value) {
+    return new ValueHolder<>(value, Instant.ofEpochMilli(TimeUtil.nowMs()));
+  }
+
+  @Test
+  public void putAndGet() throws Exception {
+    MappedSegmentStore<String, String> store =
+        newStore(temporaryFolder.getRoot().toPath(), DEFAULT_VERSION, 1 << 30);
+
+    assertThat(store.mightContain("foo")).isFalse();
+    assertThat(store.getIfPresent("foo")).isNull();
+
+    ValueHolder<String> h = holder("bar");
+    store.put("foo", h);
+    assertThat(h.clean).isTrue();
+    assertThat(store.mightContain("foo")).isTrue();
+    assertThat(store.getIfPresent("foo").value).isEqualTo("bar");
+
+    store.put("foo", holder("baz"));
+    assertThat(store.getIfPresent("foo").value).isEqualTo("baz");
+    assertThat(store.diskStats().size()).isEqualTo(1L);
+    assertThat(store.diskStats().hitCount()).isEqualTo(2L);
+    assertThat(store.diskStats().requestCount()).isEqualTo(3L);
+  }
+
+  @Test
+  public void entriesSurviveReopen() throws Exception {
+    Path dir = temporaryFolder.getRoot().toPath();
+    MappedSegmentStore<String, String> store = newStore(dir, DEFAULT_VERSION, 1 << 30);
+    store.put("foo", holder("bar"));
+    store.put("baz", holder("qux"));
+    store.invalidate("baz");
+    store.close();
+
+    store = newStore(dir, DEFAULT_VERSION, 1 << 30);
+    assertThat(store.getIfPresent("foo").value).isEqualTo("bar");
+    assertThat(store.getIfPresent("baz")).isNull();
+    assertThat(store.diskStats().size()).isEqualTo(1L);
+  }
+
+  @Test
+  public void entriesOfOtherVersionAreIgnored() throws Exception {
+    Path dir = temporaryFolder.getRoot().toPath();
+    MappedSegmentStore<String, String> store = newStore(dir, DEFAULT_VERSION, 1 << 30);
+    store.put("foo", holder("bar"));
+    store.close();
+
+    store = newStore(dir, DEFAULT_VERSION + 1, 1 << 30);
+    assertThat(store.getIfPresent("foo")).isNull();
+  }
+
+  @Test
+  public void expiredEntriesAreNotReturned() throws Exception {
+    MappedSegmentStore<String, String> store =
+        newStore(temporaryFolder.getRoot().toPath(), DEFAULT_VERSION, 1 << 30, Duration.ZERO);
+    store.put("foo", new ValueHolder<>("bar", Instant.ofEpochMilli(TimeUtil.nowMs() - 1000)));
+    assertThat(store.getIfPresent("foo")).isNull();
+    assertThat(store.mightContain("foo")).isFalse();
+  }
+
+  @Test
+  public void invalidateAll() throws Exception {
+    MappedSegmentStore<String, String> store =
+        newStore(temporaryFolder.getRoot().toPath(), DEFAULT_VERSION, 1 << 30);
+    store.put("foo", holder("bar"));
+    store.invalidateAll();
+    assertThat(store.getIfPresent("foo")).isNull();
+    assertThat(store.diskStats().space()).isEqualTo(0L);
+  }
+
+  @Test
+  public void pruneCompactsToSizeLimitKeepingInMemoryEntries() throws Exception {
+    long maxSize = 4 * SEGMENT_SIZE;
+    MappedSegmentStore<String, String> store =
+        newStore(temporaryFolder.getRoot().toPath(), DEFAULT_VERSION, maxSize);
+    Cache<String, ValueHolder<String>> mem = CacheBuilder.newBuilder().build();
+
+    String value = Strings.repeat("x", 64 * 1024);
+    for (int i = 0; i < 128; i++) {
+      store.put("key" + i, holder(value));
+    }
+    mem.put("key0", holder(value));
+    assertThat(store.diskStats().space()).isGreaterThan(maxSize);
+
+    store.prune(mem);
+
+    assertThat(store.diskStats().space()).isAtMost(maxSize);
+    assertThat(store.getIfPresent("key0").value).isEqualTo(value);
+    assertThat(store.getIfPresent("key1")).isNull();
+    assertThat(store.getIfPresent("key127").value).isEqualTo(value);
+  }
+
+  @Test
+  public void pruneUnderSizeLimitKeepsLiveEntriesAfterReopen() throws Exception {
+    Path dir = temporaryFolder.getRoot().toPath();
+    MappedSegmentStore<String, String> store = newStore(dir, DEFAULT_VERSION, 1 << 30);
+    String value = Strings.repeat("x", 64 * 1024);
+    for (int i = 0; i < 32; i++) {
+      store.put("key" + i, holder(value));
+    }
+    // Most of the first segment becomes garbage.
+    for (int i = 0; i < 12; i++) {
+      store.put("key" + i, holder("new" + i));
+    }
+    store.close();
+    Path first = dir.resolve("test.00000000.seg");
+    assertThat(Files.exists(first)).isTrue();
+
+    // Nothing is held in memory after a restart.
+    store = newStore(dir, DEFAULT_VERSION, 1 << 30);
+    store.prune(CacheBuilder.newBuilder().build());
+
+    assertThat(Files.exists(first)).isFalse();
+    assertThat(store.diskStats().size()).isEqualTo(32L);
+    for (int i = 0; i < 32; i++) {
+      assertThat(store.getIfPresent("key" + i).value).isEqualTo(i < 12 ? "new" + i : value);
+    }
+  }
+
+  @Test
+  public void compactedSegmentsAreDeleted() throws Exception {
+    Path dir = temporaryFolder.getRoot().toPath();
+    long maxSize = 4 * SEGMENT_SIZE;
+    MappedSegmentStore<String, String> store = newStore(dir, DEFAULT_VERSION, maxSize);
+    String value = Strings.repeat("x", 64 * 1024);
+    for (int i = 0; i < 128; i++) {
+      store.put("key" + i, holder(value));
+    }
+    long segmentsBefore = segmentFiles(dir);
+
+    store.prune(CacheBuilder.newBuilder().build());
+
+    assertThat(segmentFiles(dir)).isLessThan(segmentsBefore);
+    store.put("foo", holder("bar"));
+    assertThat(store.getIfPresent("foo").value).isEqualTo("bar");
+
+    store.invalidateAll();
+    assertThat(segmentFiles(dir)).isEqualTo(0L);
+    store.put("foo", holder("baz"));
+    assertThat(store.getIfPresent("foo").value).isEqualTo("baz");
+  }
+
+  private static long segmentFiles(Path dir) throws Exception {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.filter(p -> p.getFileName().toString().endsWith(".seg")).count();
+    }
+  }
+
+  @Test
+  public void indexGrowsAndRemoves() {
+    Index index = new Index();
+    for (long i = 1; i <= 10_000; i++) {
+      assertThat(index.put(i * 31, i)).isEqualTo(-1L);
+    }
+    assertThat(index.size()).isEqualTo(10_000);
+    for (long i = 1; i <= 10_000; i += 2) {
+      assertThat(index.remove(i * 31)).isEqualTo(i);
+    }
+    assertThat(index.size()).isEqualTo(5_000);
+    for (long i = 1; i <= 10_000; i++) {
+      assertThat(index.get(i * 31)).isEqualTo(i % 2 == 0 ? i : -1L);
+    }
+    assertThat(index.put(62, 7)).isEqualTo(2L);
+    assertThat(index.get(62)).isEqualTo(7L);
+  }
+
+  @Test
+  public void fullIndexRefusesNewHashes() {
+    Index index = new Index(1024);
+    long n = 0;
+    while (index.reserve(++n)) {
+      assertThat(index.put(n, n)).isEqualTo(-1L);
+    }
+    assertThat(index.size()).isEqualTo(768);
+
+    assertThat(index.put(n, n)).isEqualTo(Index.FULL);
+    assertThat(index.get(n)).isEqualTo(-1L);
+    // Present hashes can still be updated and removed.
+    assertThat(index.reserve(1)).isTrue();
+    assertThat(index.put(1, 42)).isEqualTo(1L);
+    assertThat(index.remove(2)).isEqualTo(2L);
+
+    assertThat(index.put(n, n)).isEqualTo(-1L);
+    assertThat(index.get(n)).isEqualTo(n);
+    assertThat(index.get(1)).isEqualTo(42L);
+  }
+}
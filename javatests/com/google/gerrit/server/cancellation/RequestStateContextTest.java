@@ -20,6 +20,9 @@ import static com.google.gerrit.testing.GerritJUnit.assertThrows;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.gerrit.server.cancellation.RequestStateContext.NonCancellableOperationContext;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.junit.Test;
 
 public class RequestStateContextTest {
@@ -251,6 +254,31 @@ public class RequestStateContextTest {
     }
   }
 
+  @Test
+  public void wrappedTaskRunsWithRequestStateProvidersOfCurrentThread() throws Exception {
+    RequestStateProvider requestStateProvider = new TestRequestStateProvider();
+    Callable<ImmutableSet<RequestStateProvider>> task;
+    try (RequestStateContext requestStateContext =
+        RequestStateContext.open().addRequestStateProvider(requestStateProvider)) {
+      task = RequestStateContext.wrap(RequestStateContext::getRequestStateProviders);
+    }
+    assertNoRequestStateProviders();
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      assertThat(executor.submit(task).get()).containsExactly(requestStateProvider);
+      assertThat(executor.submit(RequestStateContext::getRequestStateProviders).get()).isEmpty();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void wrapWithoutRequestStateProviders() {
+    Callable<Void> task = () -> null;
+    assertThat(RequestStateContext.wrap(task)).isSameInstanceAs(task);
+  }
+
   private void assertNoRequestStateProviders() {
     assertRequestStateProviders(ImmutableSet.of());
   }
@@ -0,0 +1,251 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.Project;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.internal.storage.dfs.DfsGarbageCollector;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReachabilityBitmapCacheTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+
+  private InMemoryRepository repo;
+  private TestRepository<InMemoryRepository> tr;
+  private RevCommit base;
+  private RevCommit tip;
+  private RevCommit change;
+
+  @Before
+  public void setUp() throws Exception {
+    repo = new InMemoryRepository(new DfsRepositoryDescription("project"));
+    tr = new TestRepository<>(repo);
+    base = tr.branch("refs/heads/master").commit().message("base").create();
+    tip = tr.branch("refs/heads/master").commit().parent(base).message("tip").create();
+    tr.branch("refs/heads/stable").update(base);
+    tr.branch("refs/tags/v1").update(base);
+    change = tr.branch("refs/changes/01/1/1").commit().parent(tip).message("change").create();
+  }
+
+  @Test
+  public void disabled() throws Exception {
+    gc();
+    ReachabilityBitmapCache cache = newCache(0);
+    List<Ref> refs = refs("refs/heads/master", "refs/tags/v1");
+
+    ReachabilityBitmapCache.Result result = getMergedInto(cache, tip, refs);
+
+    assertThat(result.reachable()).isEmpty();
+    assertThat(result.unchecked()).containsExactlyElementsIn(refs).inOrder();
+  }
+
+  @Test
+  public void repositoryWithoutBitmapIndex() throws Exception {
+    ReachabilityBitmapCache cache = newCache(10);
+    List<Ref> refs = refs("refs/heads/master", "refs/tags/v1");
+
+    ReachabilityBitmapCache.Result result = getMergedInto(cache, tip, refs);
+
+    assertThat(result.reachable()).isEmpty();
+    assertThat(result.unchecked()).containsExactlyElementsIn(refs).inOrder();
+  }
+
+  @Test
+  public void branchesAndTagsAreCheckedWithBitmaps() throws Exception {
+    gc();
+    ReachabilityBitmapCache cache = newCache(10);
+    List<Ref> refs =
+        refs("refs/heads/master", "refs/heads/stable", "refs/tags/v1", "refs/changes/01/1/1");
+
+    assertThat(names(getMergedInto(cache, base, refs).reachable()))
+        .containsExactly("refs/heads/master", "refs/heads/stable", "refs/tags/v1")
+        .inOrder();
+
+    ReachabilityBitmapCache.Result result = getMergedInto(cache, tip, refs);
+    assertThat(names(result.reachable())).containsExactly("refs/heads/master");
+    assertThat(names(result.unchecked())).containsExactly("refs/changes/01/1/1");
+
+    assertThat(getMergedInto(cache, change, refs).reachable()).isEmpty();
+  }
+
+  @Test
+  public void isMergedIntoAnyStopsAtFirstReachableRef() throws Exception {
+    gc();
+    ReachabilityBitmapCache cache = newCache(10);
+    List<Ref> refs = refs("refs/heads/stable", "refs/heads/master", "refs/changes/01/1/1");
+
+    ReachabilityBitmapCache.Result result;
+    try (RevWalk rw = new RevWalk(repo)) {
+      result = cache.isMergedIntoAny(PROJECT, repo, rw, base, refs);
+    }
+
+    assertThat(names(result.reachable())).containsExactly("refs/heads/stable");
+    assertThat(result.unchecked()).isEmpty();
+  }
+
+  @Test
+  public void bitmapIsRecomputedWhenRefIsUpdated() throws Exception {
+    gc();
+    ReachabilityBitmapCache cache = newCache(10);
+    assertThat(getMergedInto(cache, tip, refs("refs/heads/stable")).reachable()).isEmpty();
+
+    tr.branch("refs/heads/stable").update(tip);
+    RevCommit notPacked = tr.branch("refs/heads/stable").commit().parent(tip).create();
+
+    assertThat(names(getMergedInto(cache, tip, refs("refs/heads/stable")).reachable()))
+        .containsExactly("refs/heads/stable");
+    assertThat(names(getMergedInto(cache, notPacked, refs("refs/heads/stable")).reachable()))
+        .containsExactly("refs/heads/stable");
+  }
+
+  @Test
+  public void bitmapIsRecomputedAfterRepack() throws Exception {
+    gc();
+    ReachabilityBitmapCache cache = newCache(10);
+    List<Ref> refs = refs("refs/heads/master", "refs/heads/stable");
+    assertThat(names(getMergedInto(cache, base, refs).reachable()))
+        .containsExactly("refs/heads/master", "refs/heads/stable")
+        .inOrder();
+    ReachabilityBitmapCache.BitmappedPack before = ReachabilityBitmapCache.bitmappedPack(repo);
+
+    // The cached refs are not updated, but their objects get other bit positions in the new pack.
+    List<RevCommit> others = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      others.add(tr.branch("refs/heads/other").commit().message("other " + i).create());
+    }
+    gc();
+    assertThat(ReachabilityBitmapCache.bitmappedPack(repo)).isNotEqualTo(before);
+
+    assertThat(names(getMergedInto(cache, base, refs).reachable()))
+        .containsExactly("refs/heads/master", "refs/heads/stable")
+        .inOrder();
+    assertThat(names(getMergedInto(cache, tip, refs).reachable()))
+        .containsExactly("refs/heads/master");
+    for (RevCommit other : others) {
+      assertThat(getMergedInto(cache, other, refs).reachable()).isEmpty();
+    }
+  }
+
+  @Test
+  public void concurrentLookups() throws Exception {
+    gc();
+    RevCommit notPacked =
+        tr.branch("refs/heads/stable").commit().parent(base).message("not packed").create();
+    ReachabilityBitmapCache cache = newCache(10);
+    List<Ref> refs = refs("refs/heads/master", "refs/heads/stable", "refs/tags/v1");
+
+    int threads = 8;
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<?>> lookups = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        lookups.add(
+            pool.submit(
+                () -> {
+                  start.await();
+                  for (int j = 0; j < 50; j++) {
+                    assertThat(names(getMergedInto(cache, base, refs).reachable()))
+                        .containsExactly("refs/heads/master", "refs/heads/stable", "refs/tags/v1")
+                        .inOrder();
+                    assertThat(names(getMergedInto(cache, tip, refs).reachable()))
+                        .containsExactly("refs/heads/master");
+                    assertThat(names(getMergedInto(cache, notPacked, refs).reachable()))
+                        .containsExactly("refs/heads/stable");
+                    assertThat(getMergedInto(cache, change, refs).reachable()).isEmpty();
+                  }
+                  return null;
+                }));
+      }
+      start.countDown();
+      for (Future<?> lookup : lookups) {
+        lookup.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void weightIncludesUnpackedCommits() throws Exception {
+    gc();
+    Cache<ReachabilityBitmapCache.Key, ReachabilityBitmapCache.TipBitmap> entries =
+        CacheBuilder.newBuilder().build();
+    ReachabilityBitmapCache cache = newCache(entries, 10);
+    getMergedInto(cache, base, refs("refs/heads/master"));
+    ReachabilityBitmapCache.TipBitmap packed = entries.asMap().values().iterator().next();
+
+    tr.branch("refs/heads/master").commit().parent(tip).create();
+    getMergedInto(cache, base, refs("refs/heads/master"));
+    ReachabilityBitmapCache.TipBitmap unpacked = entries.asMap().values().iterator().next();
+
+    assertThat(packed.weight()).isGreaterThan(0);
+    assertThat(unpacked.weight()).isGreaterThan(packed.weight());
+  }
+
+  private void gc() throws Exception {
+    new DfsGarbageCollector(repo).pack(null);
+  }
+
+  private static ReachabilityBitmapCache newCache(long memoryLimit) {
+    return newCache(CacheBuilder.newBuilder().build(), memoryLimit);
+  }
+
+  private static ReachabilityBitmapCache newCache(
+      Cache<ReachabilityBitmapCache.Key, ReachabilityBitmapCache.TipBitmap> entries,
+      long memoryLimit) {
+    Config cfg = new Config();
+    cfg.setLong("cache", ReachabilityBitmapCache.CACHE_NAME, "memoryLimit", memoryLimit);
+    return new ReachabilityBitmapCache(entries, cfg);
+  }
+
+  private ReachabilityBitmapCache.Result getMergedInto(
+      ReachabilityBitmapCache cache, RevCommit commit, List<Ref> refs) throws Exception {
+    try (RevWalk rw = new RevWalk(repo)) {
+      return cache.getMergedInto(PROJECT, repo, rw, commit, refs);
+    }
+  }
+
+  private List<Ref> refs(String... names) throws Exception {
+    ImmutableList.Builder<Ref> refs = ImmutableList.builder();
+    for (String name : names) {
+      refs.add(repo.exactRef(name));
+    }
+    return refs.build();
+  }
+
+  private static ImmutableList<String> names(List<Ref> refs) {
+    return refs.stream().map(Ref::getName).collect(ImmutableList.toImmutableList());
+  }
+}
@@ -0,0 +1,168 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.git.WorkQueue.Task;
+import com.google.gerrit.server.plugincontext.PluginContext.PluginMetrics;
+import com.google.gerrit.server.plugincontext.PluginMapContext;
+import com.google.gerrit.server.util.IdGenerator;
+import com.google.inject.Guice;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WorkQueueTest {
+  private static final String QUEUE = "test";
+
+  private Config cfg;
+  private WorkQueue workQueue;
+  private CountDownLatch blocked;
+  private CountDownLatch release;
+  private List<String> executed;
+
+  @Before
+  public void setUp() {
+    cfg = new Config();
+    blocked = new CountDownLatch(1);
+    release = new CountDownLatch(1);
+    executed = Collections.synchronizedList(new ArrayList<>());
+  }
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    if (workQueue != null) {
+      ScheduledThreadPoolExecutor executor = workQueue.getExecutor(QUEUE);
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+      workQueue.getDefaultQueue().shutdownNow();
+    }
+  }
+
+  @Test
+  public void tasksAreExecutedInSubmissionOrderByDefault() throws Exception {
+    ScheduledThreadPoolExecutor executor = createBlockedQueue();
+    submit(executor, "a", 1);
+    submit(executor, "a", 2);
+    submit(executor, "b", 1);
+    submit(executor, "a", 3);
+
+    assertThat(runAll(executor)).containsExactly("a1", "a2", "b1", "a3").inOrder();
+  }
+
+  @Test
+  public void firstTaskOfProjectOvertakesBacklogOfOtherProject() throws Exception {
+    cfg.setString("queue", QUEUE, "fairShareWindow", "1 min");
+    ScheduledThreadPoolExecutor executor = createBlockedQueue();
+    submit(executor, "a", 1);
+    submit(executor, "a", 2);
+    submit(executor, "a", 3);
+    submit(executor, "a", 4);
+    submit(executor, "b", 1);
+    submit(executor, "b", 2);
+
+    assertThat(runAll(executor)).containsExactly("a1", "b1", "a2", "b2", "a3", "a4").inOrder();
+  }
+
+  @Test
+  public void higherPriorityTasksAreExecutedFirst() throws Exception {
+    cfg.setString("queue", QUEUE, "priorityAging", "1 min");
+    ScheduledThreadPoolExecutor executor = createBlockedQueue();
+    executor.execute(prioritized("low", Task.Priority.LOW));
+    executor.execute(prioritized("normal", Task.Priority.NORMAL));
+    executor.execute(prioritized("high", Task.Priority.HIGH));
+
+    assertThat(runAll(executor)).containsExactly("high", "normal", "low").inOrder();
+  }
+
+  @Test
+  public void readyTasksReportWaitTimeAndPriority() throws Exception {
+    cfg.setString("queue", QUEUE, "priorityAging", "1 min");
+    ScheduledThreadPoolExecutor executor = createBlockedQueue();
+    executor.execute(prioritized("high", Task.Priority.HIGH));
+    Thread.sleep(10);
+
+    Task<?> task =
+        workQueue.getTasks().stream()
+            .filter(t -> t.getState() == Task.State.READY)
+            .findFirst()
+            .get();
+    assertThat(task.getPriority()).isEqualTo(Task.Priority.HIGH);
+    assertThat(task.getHeadStart(TimeUnit.MINUTES)).isEqualTo(2);
+    assertThat(task.getWaitTime(TimeUnit.MILLISECONDS)).isAtLeast(10);
+  }
+
+  private ScheduledThreadPoolExecutor createBlockedQueue() throws InterruptedException {
+    workQueue =
+        new WorkQueue(
+            Guice.createInjector().getInstance(IdGenerator.class),
+            cfg,
+            2,
+            new DisabledMetricMaker(),
+            new PluginMapContext<>(DynamicMap.emptyMap(), PluginMetrics.DISABLED_INSTANCE));
+    ScheduledThreadPoolExecutor executor = workQueue.createQueue(1, QUEUE, false);
+    executor.execute(
+        () -> {
+          blocked.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    assertThat(blocked.await(10, TimeUnit.SECONDS)).isTrue();
+    return executor;
+  }
+
+  private void submit(ScheduledThreadPoolExecutor executor, String project, int n) {
+    executor.execute(
+        ProjectRunnable.fromCallable(
+            () -> executed.add(project + n), Project.nameKey(project), "task", null, false));
+  }
+
+  private WorkQueue.PrioritizedRunnable prioritized(String name, Task.Priority priority) {
+    return new WorkQueue.PrioritizedRunnable() {
+      @Override
+      public Task.Priority getPriority() {
+        return priority;
+      }
+
+      @Override
+      public void run() {
+        executed.add(name);
+      }
+    };
+  }
+
+  private List<String> runAll(ScheduledThreadPoolExecutor executor) throws InterruptedException {
+    release.countDown();
+    executor.shutdown();
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+    return executed;
+  }
+}
@@ -0,0 +1,74 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.entities.Project;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReindexCheckpointTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path file;
+
+  @Before
+  public void setUp() {
+    file = ReindexCheckpoint.path(temporaryFolder.getRoot().toPath(), 77);
+  }
+
+  @Test
+  public void completedSlicesAreResumed() {
+    assertThat(ReindexCheckpoint.exists(file)).isFalse();
+    ReindexCheckpoint checkpoint = ReindexCheckpoint.start(file);
+    checkpoint.markCompleted(PROJECT, 0, 2);
+    assertThat(ReindexCheckpoint.exists(file)).isTrue();
+
+    checkpoint = ReindexCheckpoint.resume(file);
+    assertThat(checkpoint.completedCount()).isEqualTo(1);
+    assertThat(checkpoint.isCompleted(PROJECT, 0, 2)).isTrue();
+    assertThat(checkpoint.isCompleted(PROJECT, 1, 2)).isFalse();
+    // The project was split differently when the checkpoint was written.
+    assertThat(checkpoint.isCompleted(PROJECT, 0, 3)).isFalse();
+    assertThat(checkpoint.isCompleted(Project.nameKey("other"), 0, 2)).isFalse();
+
+    checkpoint.markCompleted(PROJECT, 1, 2);
+    assertThat(ReindexCheckpoint.resume(file).completedCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void startDiscardsEarlierCheckpoint() {
+    ReindexCheckpoint.start(file).markCompleted(PROJECT, 0, 1);
+
+    ReindexCheckpoint checkpoint = ReindexCheckpoint.start(file);
+    assertThat(ReindexCheckpoint.exists(file)).isFalse();
+    assertThat(checkpoint.isCompleted(PROJECT, 0, 1)).isFalse();
+  }
+
+  @Test
+  public void deleteRemovesCheckpoint() {
+    ReindexCheckpoint checkpoint = ReindexCheckpoint.start(file);
+    checkpoint.markCompleted(PROJECT, 0, 1);
+    checkpoint.delete();
+    assertThat(ReindexCheckpoint.exists(file)).isFalse();
+    assertThat(ReindexCheckpoint.resume(file).completedCount()).isEqualTo(0);
+  }
+}
@@ -4003,6 +4003,72 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
         attentionSetUpdate.reason());
   }
 
+  @Test
+  public void parseIncrementalMatchesParseAll() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, otherUser);
+    update.putReviewer(otherUser.getAccountId(), REVIEWER);
+    update.putApproval(LabelId.CODE_REVIEW, (short) -1);
+    update.commit();
+    ObjectId baseId = newNotes(c).getRevision();
+
+    update = newUpdate(c, otherUser);
+    update.putApproval(LabelId.CODE_REVIEW, (short) 2);
+    update.setChangeMessage("Looks good");
+    update.setTag("tag");
+    update.commit();
+    update = newUpdate(c, changeOwner);
+    update.putApproval(LabelId.VERIFIED, (short) 1);
+    update.addToPlannedAttentionSetUpdates(
+        ImmutableSet.of(
+            AttentionSetUpdate.createForWrite(otherUser.getAccountId(), Operation.ADD, "reply")));
+    update.setHashtags(ImmutableSet.of("foo"));
+    update.setTopic("topic");
+    update.commit();
+    ObjectId tip = newNotes(c).getRevision();
+
+    ChangeNotesState base = newParser(c, baseId).parseAll();
+    ChangeNotesState incremental = newParser(c, tip).parseIncremental(base, 10);
+    assertThat(incremental).isEqualTo(newParser(c, tip).parseAll());
+  }
+
+  @Test
+  public void parseIncrementalFallsBackToParseAll() throws Exception {
+    Change c = newChange();
+    ObjectId baseId = newNotes(c).getRevision();
+    ChangeNotesState base = newParser(c, baseId).parseAll();
+
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.setChangeMessage("First");
+    update.commit();
+    update = newUpdate(c, changeOwner);
+    update.setChangeMessage("Second");
+    update.commit();
+    ObjectId tip = newNotes(c).getRevision();
+    assertThat(newParser(c, tip).parseIncremental(base, 1)).isNull();
+    assertThat(newParser(c, tip).parseIncremental(base, 2)).isNotNull();
+
+    update = newUpdate(c, changeOwner);
+    update.setStatus(Change.Status.ABANDONED);
+    update.commit();
+    tip = newNotes(c).getRevision();
+    assertThat(newParser(c, tip).parseIncremental(base, 10)).isNull();
+
+    ChangeNotesState abandoned = newParser(c, tip).parseAll();
+    assertThat(newParser(c, baseId).parseIncremental(abandoned, 10)).isNull();
+  }
+
+  private ChangeNotesParser newParser(Change c, ObjectId tip) {
+    return new ChangeNotesParser(
+        c.getId(),
+        tip,
+        ChangeNotesCommit.newRevWalk(repo),
+        changeNoteJson,
+        args.metrics,
+        serverId,
+        externalIdCache);
+  }
+
   /**
    * Assert UUID was parsed as generated by {@link
    * com.google.gerrit.server.approval.testing.TestPatchSetApprovalUuidGenerator}.
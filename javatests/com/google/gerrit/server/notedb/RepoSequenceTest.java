@@ -26,10 +26,12 @@ import com.github.rholder.retry.RetryerBuilder;
 import com.github.rholder.retry.StopStrategies;
 import com.google.common.collect.ImmutableList;
 import com.google.common.truth.Expect;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.Runnables;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.exceptions.StorageException;
+import com.google.gerrit.metrics.DisabledMetricMaker;
 import com.google.gerrit.server.extensions.events.GitReferenceUpdated;
 import com.google.gerrit.testing.InMemoryRepositoryManager;
 import java.io.IOException;
@@ -356,6 +358,65 @@ public class RepoSequenceTest {
     assertThat(s2.acquireCount).isEqualTo(1);
   }
 
+  @Test
+  public void nextBatchIsPrefetchedWhenHalfOfBatchIsUsed() throws Exception {
+    RepoSequence s = newPrefetchingSequence("id", 1, 4);
+    assertThat(s.next()).isEqualTo(1);
+    assertThat(readBlob("id")).isEqualTo("5");
+
+    assertThat(s.next()).isEqualTo(2);
+    assertThat(readBlob("id")).isEqualTo("9");
+    assertThat(s.acquireCount).isEqualTo(1);
+
+    assertThat(s.next()).isEqualTo(3);
+    assertThat(s.next()).isEqualTo(4);
+    assertThat(s.next()).isEqualTo(5);
+    assertThat(s.acquireCount).isEqualTo(2);
+    assertThat(readBlob("id")).isEqualTo("9");
+  }
+
+  @Test
+  public void prefetchedBatchIsUsedByNextWithCount() throws Exception {
+    RepoSequence s = newPrefetchingSequence("id", 1, 4);
+    assertThat(s.next(6)).containsExactly(1, 2, 3, 4, 5, 6).inOrder();
+    assertThat(s.acquireCount).isEqualTo(1);
+    assertThat(readBlob("id")).isEqualTo("11");
+
+    assertThat(s.next(3)).containsExactly(7, 8, 9).inOrder();
+    assertThat(s.acquireCount).isEqualTo(2);
+    assertThat(readBlob("id")).isEqualTo("15");
+  }
+
+  @Test
+  public void prefetchedBatchIsDiscardedWhenNewValueIsStored() throws Exception {
+    RepoSequence s = newPrefetchingSequence("id", 1, 2);
+    assertThat(s.next()).isEqualTo(1);
+    assertThat(readBlob("id")).isEqualTo("5");
+
+    s.storeNew(100);
+    assertThat(s.next()).isEqualTo(100);
+    assertThat(readBlob("id")).isEqualTo("104");
+    assertThat(s.next()).isEqualTo(101);
+    assertThat(s.next()).isEqualTo(102);
+    assertThat(s.next()).isEqualTo(103);
+  }
+
+  private RepoSequence newPrefetchingSequence(String name, int start, int batchSize) {
+    // Prefetch synchronously so that the tests are deterministic.
+    return new RepoSequence(
+        repoManager,
+        GitReferenceUpdated.DISABLED,
+        project,
+        name,
+        () -> start,
+        batchSize,
+        Runnables.doNothing(),
+        RETRYER,
+        0,
+        MoreExecutors.directExecutor(),
+        new NoteDbMetrics(new DisabledMetricMaker()));
+  }
+
   private RepoSequence newSequence(String name, int start, int batchSize) {
     return newSequence(name, start, batchSize, Runnables.doNothing(), RETRYER);
   }
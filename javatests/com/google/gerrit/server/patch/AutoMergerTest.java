@@ -0,0 +1,231 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.extensions.proto.ProtoTruth.assertThat;
+import static com.google.gerrit.proto.testing.SerializedClassSubject.assertThatSerializedClass;
+import static com.google.gerrit.server.cache.testing.CacheSerializerTestUtil.byteString;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.proto.testing.SerializedClassSubject;
+import com.google.gerrit.server.cache.proto.Cache.AutoMergeTreeKeyProto;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.git.InMemoryInserter;
+import com.google.gerrit.server.update.RepoView;
+import com.google.inject.util.Providers;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.merge.MergeStrategy;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AutoMergerTest {
+  private InMemoryRepository repo;
+  private TestRepository<InMemoryRepository> tr;
+  private Cache<AutoMerger.TreeKey, ObjectId> treeCache;
+  private AutoMerger autoMerger;
+  private RevCommit parent1;
+  private RevCommit parent2;
+
+  @Before
+  public void setUp() throws Exception {
+    repo = new InMemoryRepository(new DfsRepositoryDescription("project"));
+    tr = new TestRepository<>(repo);
+    treeCache = CacheBuilder.newBuilder().build();
+    autoMerger =
+        new AutoMerger(
+            new DisabledMetricMaker(),
+            new Config(),
+            Providers.of(new PersonIdent("Gerrit Code Review", "gerrit@example.com")),
+            treeCache);
+    RevCommit base = tr.commit().add("a.txt", "a\n").add("b.txt", "b\n").create();
+    parent1 = tr.commit().parent(base).add("a.txt", "a1\n").create();
+    parent2 = tr.commit().parent(base).add("b.txt", "b2\n").create();
+  }
+
+  @Test
+  public void treeIsCachedAndReused() throws Exception {
+    RevCommit merge = merge("merge");
+    RevTree expected = tr.getRevWalk().parseTree(autoMerge(merge));
+    assertThat(read(expected, "a.txt")).isEqualTo("a1\n");
+    assertThat(read(expected, "b.txt")).isEqualTo("b2\n");
+    assertThat(treeCache.asMap()).containsExactly(treeKey(), expected);
+
+    // A tree in the cache is used without merging the parents.
+    RevTree cached = parent1.getTree();
+    treeCache.put(treeKey(), cached);
+    assertThat(autoMerge(merge("merge with the same parents"))).isEqualTo(cached);
+  }
+
+  @Test
+  public void treeMissingFromRepositoryIsComputed() throws Exception {
+    ObjectId missing = ObjectId.fromString("deadbeefdeadbeefdeadbeefdeadbeefdeadbeef");
+    treeCache.put(treeKey(), missing);
+
+    ObjectId tree = autoMerge(merge("merge"));
+
+    assertThat(tree).isNotEqualTo(missing);
+    assertThat(repo.getObjectDatabase().has(tree)).isTrue();
+    assertThat(treeCache.getIfPresent(treeKey())).isEqualTo(tree);
+  }
+
+  @Test
+  public void inMemoryTreeIsNotCached() throws Exception {
+    RevCommit merge = merge("merge");
+    try (ObjectReader reader = repo.newObjectReader();
+        InMemoryInserter ins = new InMemoryInserter(reader);
+        RevWalk rw = new RevWalk(ins.newReader())) {
+      RevCommit autoMerge =
+          autoMerger.lookupFromGitOrMergeInMemory(
+              repo, rw, ins, rw.parseCommit(merge), MergeStrategy.RECURSIVE);
+      assertThat(autoMerge.getParentCount()).isEqualTo(2);
+    }
+    assertThat(treeCache.asMap()).isEmpty();
+  }
+
+  @Test
+  public void precomputeAutoMergeTrees() throws Exception {
+    RevCommit merge = merge("merge");
+    RevCommit other = tr.commit().parent(parent2).parent(parent1).create();
+    RevCommit nonMerge = tr.commit().parent(parent1).create();
+    ExecutorService executor = MoreExecutors.newDirectExecutorService();
+
+    autoMerger.precomputeAutoMergeTrees(repo, ImmutableList.of(merge, other, nonMerge), executor);
+
+    assertThat(treeCache.asMap()).hasSize(2);
+    ObjectId tree = treeCache.getIfPresent(treeKey());
+    assertThat(repo.getObjectDatabase().has(tree)).isTrue();
+    assertThat(repo.getObjectDatabase().has(treeCache.getIfPresent(treeKey(parent2, parent1))))
+        .isTrue();
+    assertThat(autoMerge(merge)).isEqualTo(tree);
+  }
+
+  @Test
+  public void precomputeAutoMergeTreesStopsWhenInterrupted() throws Exception {
+    RevCommit merge = merge("merge");
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      executor.execute(
+          () -> {
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          });
+
+      Thread.currentThread().interrupt();
+      assertThrows(
+          InterruptedException.class,
+          () -> autoMerger.precomputeAutoMergeTrees(repo, ImmutableList.of(merge), executor));
+    } finally {
+      Thread.interrupted();
+      release.countDown();
+      executor.shutdown();
+    }
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(treeCache.asMap()).isEmpty();
+  }
+
+  private RevCommit merge(String message) throws Exception {
+    return tr.commit().parent(parent1).parent(parent2).message(message).create();
+  }
+
+  /** Creates the auto-merge commit of the given merge and returns its tree. */
+  private ObjectId autoMerge(RevCommit merge) throws Exception {
+    try (ObjectInserter ins = repo.newObjectInserter();
+        RevWalk rw = new RevWalk(ins.newReader())) {
+      ObjectId autoMerge =
+          autoMerger.createAutoMergeCommit(
+              new RepoView(repo, rw, ins), rw, ins, rw.parseCommit(merge));
+      ins.flush();
+      return rw.parseCommit(autoMerge).getTree().copy();
+    }
+  }
+
+  private String read(RevTree tree, String path) throws Exception {
+    return new String(tr.getRevWalk().getObjectReader().open(tr.get(tree, path)).getBytes(), UTF_8);
+  }
+
+  private AutoMerger.TreeKey treeKey() {
+    return treeKey(parent1, parent2);
+  }
+
+  private static AutoMerger.TreeKey treeKey(ObjectId parent1, ObjectId parent2) {
+    return AutoMerger.TreeKey.create(parent1, parent2, "recursive", "HISTOGRAM");
+  }
+
+  @Test
+  public void treeKeySerializer() throws Exception {
+    AutoMerger.TreeKey key =
+        AutoMerger.TreeKey.create(
+            ObjectId.zeroId(),
+            ObjectId.fromString("deadbeefdeadbeefdeadbeefdeadbeefdeadbeef"),
+            "aStrategy",
+            "anAlgorithm");
+    CacheSerializer<AutoMerger.TreeKey> s = AutoMerger.TreeKey.Serializer.INSTANCE;
+    byte[] serialized = s.serialize(key);
+    assertThat(AutoMergeTreeKeyProto.parseFrom(serialized))
+        .isEqualTo(
+            AutoMergeTreeKeyProto.newBuilder()
+                .setParent1(byteString(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0))
+                .setParent2(
+                    byteString(
+                        0xde, 0xad, 0xbe, 0xef, 0xde, 0xad, 0xbe, 0xef, 0xde, 0xad, 0xbe, 0xef,
+                        0xde, 0xad, 0xbe, 0xef, 0xde, 0xad, 0xbe, 0xef))
+                .setStrategyName("aStrategy")
+                .setDiffAlgorithm("anAlgorithm")
+                .build());
+    assertThat(s.deserialize(serialized)).isEqualTo(key);
+  }
+
+  /** See {@link SerializedClassSubject} for background and what to do if this test fails. */
+  @Test
+  public void treeKeyFields() throws Exception {
+    assertThatSerializedClass(AutoMerger.TreeKey.class)
+        .hasAutoValueMethods(
+            ImmutableMap.of(
+                "parent1",
+                ObjectId.class,
+                "parent2",
+                ObjectId.class,
+                "strategyName",
+                String.class,
+                "diffAlgorithm",
+                String.class));
+  }
+}
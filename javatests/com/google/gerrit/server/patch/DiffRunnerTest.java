@@ -0,0 +1,185 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.testing.FakeTicker;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.cancellation.RequestCancelledException;
+import com.google.gerrit.server.cancellation.RequestStateContext;
+import com.google.gerrit.server.cancellation.RequestStateProvider;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.HistogramDiff;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DiffRunnerTest {
+  private ExecutorService executor;
+  private ExecutorService caller;
+  private DiffRunner diffRunner;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newSingleThreadExecutor();
+    caller = Executors.newSingleThreadExecutor();
+    diffRunner = new DiffRunner(executor, new DisabledMetricMaker());
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    caller.shutdownNow();
+  }
+
+  @Test
+  public void returnsResult() throws Exception {
+    assertThat(diffRunner.run(() -> "result", 1000)).isEqualTo("result");
+  }
+
+  @Test
+  public void computationThatRunsTooLongIsCancelled() throws Exception {
+    CountDownLatch interrupted = new CountDownLatch(1);
+    assertThrows(
+        TimeoutException.class,
+        () ->
+            diffRunner.run(
+                () -> {
+                  try {
+                    Thread.sleep(60_000);
+                  } catch (InterruptedException e) {
+                    interrupted.countDown();
+                  }
+                  return null;
+                },
+                10));
+    interrupted.await();
+  }
+
+  @Test
+  public void computationThatDoesNotStartIsRejected() throws Exception {
+    CountDownLatch blocked = new CountDownLatch(1);
+    executor.submit(
+        () -> {
+          blocked.await();
+          return null;
+        });
+    try {
+      assertThrows(RejectedExecutionException.class, () -> diffRunner.run(() -> "result", 10));
+    } finally {
+      blocked.countDown();
+    }
+  }
+
+  @Test
+  public void timeoutStartsWhenComputationStarts() throws Exception {
+    FakeTicker ticker = new FakeTicker();
+    DiffRunner runner = new DiffRunner(executor, new DisabledMetricMaker(), ticker);
+    CountDownLatch blocked = new CountDownLatch(1);
+    executor.submit(
+        () -> {
+          blocked.await();
+          return null;
+        });
+
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch finish = new CountDownLatch(1);
+    Future<String> result =
+        caller.submit(
+            () ->
+                runner.run(
+                    () -> {
+                      started.countDown();
+                      finish.await();
+                      return "result";
+                    },
+                    1000));
+
+    // The computation waits for the blocking task for most of its timeout, but then it runs
+    // itself for a short time only, which ends after its timeout measured from its submission.
+    ticker.advance(700, MILLISECONDS);
+    blocked.countDown();
+    started.await();
+    ticker.advance(500, MILLISECONDS);
+    finish.countDown();
+
+    assertThat(result.get()).isEqualTo("result");
+  }
+
+  @Test
+  public void timeoutIsMeasuredByTicker() throws Exception {
+    FakeTicker ticker = new FakeTicker();
+    DiffRunner runner = new DiffRunner(executor, new DisabledMetricMaker(), ticker);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch interrupted = new CountDownLatch(1);
+    Future<String> result =
+        caller.submit(
+            () ->
+                runner.run(
+                    () -> {
+                      started.countDown();
+                      try {
+                        new CountDownLatch(1).await();
+                      } catch (InterruptedException e) {
+                        interrupted.countDown();
+                      }
+                      return "result";
+                    },
+                    50));
+
+    started.await();
+    ticker.advance(50, MILLISECONDS);
+
+    ExecutionException thrown = assertThrows(ExecutionException.class, () -> result.get());
+    assertThat(thrown).hasCauseThat().isInstanceOf(TimeoutException.class);
+    interrupted.await();
+  }
+
+  @Test
+  public void cancelledRequestAbortsDiffComputation() throws Exception {
+    RequestStateProvider cancelled =
+        onCancelled ->
+            onCancelled.onCancel(RequestStateProvider.Reason.SERVER_DEADLINE_EXCEEDED, null);
+    DiffAlgorithm algorithm = CancellableDiffAlgorithm.wrap(new HistogramDiff());
+    RawText a = new RawText("a\nb\nc\n".getBytes(UTF_8));
+    RawText b = new RawText("a\nc\nd\n".getBytes(UTF_8));
+
+    try (RequestStateContext requestStateContext =
+        RequestStateContext.open().addRequestStateProvider(cancelled)) {
+      ExecutionException thrown =
+          assertThrows(
+              ExecutionException.class,
+              () -> diffRunner.run(() -> algorithm.diff(RawTextComparator.DEFAULT, a, b), 1000));
+      assertThat(thrown).hasCauseThat().isInstanceOf(RequestCancelledException.class);
+    }
+
+    EditList edits = diffRunner.run(() -> algorithm.diff(RawTextComparator.DEFAULT, a, b), 1000);
+    assertThat(edits).isEqualTo(new HistogramDiff().diff(RawTextComparator.DEFAULT, a, b));
+  }
+}
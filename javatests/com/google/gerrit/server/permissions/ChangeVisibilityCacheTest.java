@@ -0,0 +1,208 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.permissions.ChangeVisibilityCache.BitmapVisibleChanges;
+import com.google.gerrit.server.permissions.ChangeVisibilityCache.Entry;
+import com.google.gerrit.server.permissions.ChangeVisibilityCache.GroupKey;
+import com.google.gerrit.server.permissions.ChangeVisibilityCache.ProjectChanges;
+import java.util.BitSet;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChangeVisibilityCacheTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+  private static final String MASTER = "refs/heads/master";
+  private static final String SECRET = "refs/heads/secret";
+  private static final String OTHER = "refs/heads/other";
+  private static final GroupKey KEY = GroupKey.create(ImmutableList.of(), ImmutableSet.of());
+
+  private static final Change.Id C1 = Change.id(1);
+  private static final Change.Id C2 = Change.id(2);
+  private static final Change.Id C3 = Change.id(3);
+  private static final Change.Id C4 = Change.id(4);
+
+  private PermissionBackend.ForProject forProject;
+
+  @Before
+  public void setUp() throws Exception {
+    forProject = mock(PermissionBackend.ForProject.class);
+    PermissionBackend.ForRef master = mock(PermissionBackend.ForRef.class);
+    when(master.test(RefPermission.READ)).thenReturn(true);
+    when(forProject.ref(MASTER)).thenReturn(master);
+    PermissionBackend.ForRef secret = mock(PermissionBackend.ForRef.class);
+    when(secret.test(RefPermission.READ)).thenReturn(false);
+    when(forProject.ref(SECRET)).thenReturn(secret);
+  }
+
+  @Test
+  public void visibilityFollowsDestinationBranch() throws Exception {
+    ProjectChanges changes =
+        ProjectChanges.create(
+            null,
+            ImmutableMap.of(
+                C1, entry(1, MASTER, false),
+                C2, entry(2, SECRET, false),
+                C3, entry(3, MASTER, true),
+                C4, entry(4, null, false)));
+    BitSet visible = changes.computeVisible(forProject).changes;
+    assertThat(visible.cardinality()).isEqualTo(1);
+
+    VisibleChanges visibleChanges =
+        new BitmapVisibleChanges(
+            PROJECT, changes, ImmutableSet.of(C1, C2, C3, C4), visible, ImmutableSet.of(C3));
+    assertThat(visibleChanges.contains(C1)).isTrue();
+    assertThat(visibleChanges.contains(C2)).isFalse();
+    assertThat(visibleChanges.contains(C3)).isTrue();
+    assertThat(visibleChanges.contains(C4)).isFalse();
+    assertThat(visibleChanges.getDest(C1)).isEqualTo(BranchNameKey.create(PROJECT, MASTER));
+    assertThrows(IllegalArgumentException.class, () -> visibleChanges.getDest(C2));
+  }
+
+  @Test
+  public void privateChangesAreNotVisibleUnlessCheckedIndividually() throws Exception {
+    ProjectChanges changes =
+        ProjectChanges.create(null, ImmutableMap.of(C1, entry(1, MASTER, true)));
+    VisibleChanges visibleChanges =
+        new BitmapVisibleChanges(
+            PROJECT,
+            changes,
+            ImmutableSet.of(C1),
+            changes.computeVisible(forProject).changes,
+            ImmutableSet.of());
+    assertThat(visibleChanges.contains(C1)).isFalse();
+  }
+
+  @Test
+  public void updateReplacesMovedChanges() throws Exception {
+    ProjectChanges base =
+        ProjectChanges.create(
+            null, ImmutableMap.of(C1, entry(1, MASTER, false), C2, entry(2, MASTER, false)));
+    assertThat(base.isCurrent(C1, id(1))).isTrue();
+
+    ProjectChanges updated =
+        ProjectChanges.create(base, ImmutableMap.of(C1, entry(5, SECRET, false)));
+    assertThat(updated.size()).isEqualTo(2);
+    assertThat(updated.isCurrent(C1, id(1))).isFalse();
+    assertThat(updated.isCurrent(C1, id(5))).isTrue();
+    assertThat(updated.isCurrent(C2, id(2))).isTrue();
+    BitSet visible = updated.computeVisible(forProject).changes;
+    assertThat(visible.get(C1.get())).isFalse();
+    assertThat(visible.get(C2.get())).isTrue();
+  }
+
+  @Test
+  public void deletedChangesAreDropped() throws Exception {
+    ProjectChanges base =
+        ProjectChanges.create(
+            null, ImmutableMap.of(C1, entry(1, MASTER, false), C2, entry(2, MASTER, false)));
+
+    ProjectChanges updated =
+        ProjectChanges.create(
+            base, ImmutableMap.of(C3, entry(3, MASTER, false)), ImmutableSet.of(C2));
+    assertThat(updated.size()).isEqualTo(2);
+    assertThat(updated.isCurrent(C2, id(2))).isFalse();
+    BitSet visible = updated.computeVisible(forProject).changes;
+    assertThat(visible.get(C2.get())).isFalse();
+    assertThat(visible.cardinality()).isEqualTo(2);
+    // The base is not modified.
+    assertThat(base.computeVisible(forProject).changes.get(C2.get())).isTrue();
+  }
+
+  @Test
+  public void sharedBitmapIsUpdatedForReloadedChanges() throws Exception {
+    ProjectChanges base =
+        ProjectChanges.create(
+            null,
+            ImmutableMap.of(
+                C1, entry(1, MASTER, false),
+                C2, entry(2, MASTER, false),
+                C3, entry(3, SECRET, false)));
+    assertThat(base.visible(KEY, forProject).changes.cardinality()).isEqualTo(2);
+
+    ProjectChanges updated =
+        ProjectChanges.create(
+            base,
+            ImmutableMap.of(
+                C1,
+                entry(5, SECRET, false),
+                C3,
+                entry(6, MASTER, false),
+                C4,
+                entry(4, MASTER, true)),
+            ImmutableSet.of(C2));
+    PermissionBackend.ForProject unused = mock(PermissionBackend.ForProject.class);
+    BitSet visible = updated.visible(KEY, unused).changes;
+    verify(unused, never()).ref(any());
+    assertThat(visible.get(C1.get())).isFalse();
+    assertThat(visible.get(C2.get())).isFalse();
+    assertThat(visible.get(C3.get())).isTrue();
+    assertThat(visible.get(C4.get())).isFalse();
+    assertThat(visible).isEqualTo(updated.computeVisible(forProject).changes);
+  }
+
+  @Test
+  public void sharedBitmapIsRecomputedForNewBranch() throws Exception {
+    ProjectChanges base = ProjectChanges.create(null, ImmutableMap.of(C1, entry(1, MASTER, false)));
+    base.visible(KEY, forProject);
+
+    PermissionBackend.ForRef other = mock(PermissionBackend.ForRef.class);
+    when(other.test(RefPermission.READ)).thenReturn(true);
+    when(forProject.ref(OTHER)).thenReturn(other);
+    ProjectChanges updated =
+        ProjectChanges.create(base, ImmutableMap.of(C2, entry(2, OTHER, false)));
+    BitSet visible = updated.visible(KEY, forProject).changes;
+    verify(forProject).ref(OTHER);
+    assertThat(visible.get(C1.get())).isTrue();
+    assertThat(visible.get(C2.get())).isTrue();
+  }
+
+  @Test
+  public void changesNotReferencedByFilteredRefsAreNotVisible() throws Exception {
+    ProjectChanges changes =
+        ProjectChanges.create(null, ImmutableMap.of(C1, entry(1, MASTER, false)));
+    VisibleChanges visibleChanges =
+        new BitmapVisibleChanges(
+            PROJECT,
+            changes,
+            ImmutableSet.of(),
+            changes.computeVisible(forProject).changes,
+            ImmutableSet.of());
+    assertThat(visibleChanges.contains(C1)).isFalse();
+  }
+
+  private static Entry entry(int metaId, String branch, boolean isPrivate) {
+    return Entry.create(id(metaId), branch, isPrivate);
+  }
+
+  private static ObjectId id(int n) {
+    return ObjectId.fromString(String.format("%040x", n));
+  }
+}
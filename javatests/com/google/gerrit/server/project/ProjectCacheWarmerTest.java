@@ -0,0 +1,128 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.exceptions.StorageException;
+import com.google.gerrit.server.project.ProjectCacheWarmer.Progress;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.stream.IntStream;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProjectCacheWarmerTest {
+  private static final int PROJECTS = ProjectCacheWarmer.BATCH_SIZE * 2 + 10;
+
+  private ProjectCache cache;
+  private ImmutableList<Project.NameKey> names;
+
+  @Before
+  public void setUp() {
+    cache = mock(ProjectCache.class);
+    names =
+        IntStream.range(0, PROJECTS)
+            .mapToObj(i -> Project.nameKey(String.format("project-%03d", i)))
+            .collect(ImmutableList.toImmutableList());
+    when(cache.all()).thenReturn(ImmutableSortedSet.copyOf(names));
+    when(cache.get(any())).thenReturn(Optional.of(mock(ProjectState.class)));
+  }
+
+  @Test
+  public void loadsAllProjectsInBatches() {
+    when(cache.loadAll(any()))
+        .thenAnswer(i -> ImmutableSet.copyOf(i.<Collection<?>>getArgument(0)));
+
+    Progress progress = load();
+
+    assertThat(progress.loaded.get()).isEqualTo(PROJECTS);
+    assertThat(progress.failed.get()).isEqualTo(0);
+    verify(cache, never()).get(any());
+    assertThat(progress.message())
+        .isEqualTo(
+            String.format(
+                "Loaded %d of %d projects into the project cache (100%%), 0 failed",
+                PROJECTS, PROJECTS));
+    assertThat(progress.summary())
+        .matches(
+            String.format(
+                "Finished loading project cache: %d of %d projects loaded in \\d+ s, 0 failed",
+                PROJECTS, PROJECTS));
+  }
+
+  @Test
+  public void projectsMissingFromBatchCountAsFailed() {
+    Project.NameKey missing = names.get(5);
+    when(cache.loadAll(any()))
+        .thenAnswer(
+            i ->
+                i.<Collection<Project.NameKey>>getArgument(0).stream()
+                    .filter(n -> !n.equals(missing))
+                    .collect(toImmutableSet()));
+
+    Progress progress = load();
+
+    assertThat(progress.loaded.get()).isEqualTo(PROJECTS - 1);
+    assertThat(progress.failed.get()).isEqualTo(1);
+    assertThat(progress.message())
+        .isEqualTo(
+            String.format(
+                "Loaded %d of %d projects into the project cache (100%%), 1 failed",
+                PROJECTS - 1, PROJECTS));
+  }
+
+  @Test
+  public void failedBatchIsLoadedOneByOne() {
+    Project.NameKey broken = names.get(1);
+    Project.NameKey deleted = names.get(2);
+    when(cache.loadAll(any())).thenThrow(new StorageException("broken"));
+    when(cache.get(broken)).thenThrow(new StorageException("broken"));
+    when(cache.get(deleted)).thenReturn(Optional.empty());
+
+    Progress progress = load();
+
+    assertThat(progress.loaded.get()).isEqualTo(PROJECTS - 2);
+    assertThat(progress.failed.get()).isEqualTo(2);
+    assertThat(progress.summary()).endsWith(", 2 failed");
+  }
+
+  @Test
+  public void progressOfPartialLoad() {
+    Progress progress = new Progress(8);
+    progress.loaded.addAndGet(3);
+    progress.failed.incrementAndGet();
+
+    assertThat(progress.message())
+        .isEqualTo("Loaded 3 of 8 projects into the project cache (50%), 1 failed");
+  }
+
+  private Progress load() {
+    return new ProjectCacheWarmer(new Config(), cache)
+        .load(MoreExecutors.newDirectExecutorService());
+  }
+}
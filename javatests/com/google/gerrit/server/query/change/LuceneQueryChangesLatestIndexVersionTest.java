@@ -30,4 +30,40 @@ public class LuceneQueryChangesLatestIndexVersionTest extends LuceneQueryChanges
     config.setString("index", null, "paginationType", "SEARCH_AFTER");
     return config;
   }
+
+  @ConfigSuite.Config
+  public static Config parallelSearch() {
+    Config config = defaultConfig();
+    config.setBoolean("index", "changes_open", "parallelSearch", true);
+    config.setBoolean("index", "changes_closed", "parallelSearch", true);
+    return config;
+  }
+
+  @ConfigSuite.Config
+  public static Config commitEveryWriteBatch() {
+    Config config = defaultConfig();
+    config.setLong("index", "changes_open", "commitWithin", 0);
+    config.setLong("index", "changes_closed", "commitWithin", 0);
+    config.setString("index", "changes_open", "maxStaleness", "50ms");
+    config.setString("index", "changes_closed", "maxStaleness", "50ms");
+    return config;
+  }
+
+  @ConfigSuite.Config
+  public static Config refreshOnSearch() {
+    Config config = defaultConfig();
+    config.setBoolean("index", "changes_open", "refreshOnSearch", true);
+    config.setBoolean("index", "changes_closed", "refreshOnSearch", true);
+    config.setString("index", "changes_open", "maxStaleness", "1h");
+    config.setString("index", "changes_closed", "maxStaleness", "1h");
+    return config;
+  }
+
+  @ConfigSuite.Config
+  public static Config storedFieldCache() {
+    Config config = defaultConfig();
+    config.setString("index", "changes_open", "storedFieldCacheSize", "1m");
+    config.setString("index", "changes_closed", "storedFieldCacheSize", "1m");
+    return config;
+  }
 }